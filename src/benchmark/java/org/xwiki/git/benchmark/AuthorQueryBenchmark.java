@@ -0,0 +1,153 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.git.benchmark;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.Repository;
+import org.gitective.core.stat.UserCommitActivity;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.xwiki.git.AuthorCommitCount;
+import org.xwiki.git.GitManager;
+
+/**
+ * Measures the author queries of {@link GitManager} on synthetic repositories, over the full history and over the last
+ * 30 days, for a single repository and aggregated over several repositories.
+ *
+ * @version $Id$
+ * @since 9.11
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class AuthorQueryBenchmark
+{
+    @Param({ "1000", "10000" })
+    public int commits;
+
+    @Param({ "50" })
+    public int authors;
+
+    @Param({ "1", "4" })
+    public int branches;
+
+    @Param({ "4" })
+    public int repositoryCount;
+
+    @Param({ "true", "false" })
+    public boolean authorIndex;
+
+    /**
+     * Disabled by default, otherwise only the first invocation would walk the histories.
+     */
+    @Param({ "0" })
+    public int queryCacheSize;
+
+    private BenchmarkContext context;
+
+    private List<Repository> repositories;
+
+    private List<Repository> firstRepository;
+
+    private Date lastMonth;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception
+    {
+        Map<String, Object> configuration = new HashMap<>();
+        configuration.put("git.authorIndex.enabled", this.authorIndex);
+        configuration.put("git.queryCache.size", this.queryCacheSize);
+        this.context = new BenchmarkContext(configuration);
+
+        Date now = new Date();
+        this.lastMonth = new Date(now.getTime() - TimeUnit.DAYS.toMillis(30));
+        this.repositories = new ArrayList<>();
+        for (int i = 0; i < this.repositoryCount; i++) {
+            String name = "synthetic-" + i;
+            this.context.getGitHelper()
+                .createSyntheticRepository(name, this.commits, this.authors, this.branches, 100, now).close();
+            this.repositories.add(this.context.getGitManager().getRepository(this.context.getRepositoryURI(name),
+                name));
+        }
+        this.firstRepository = Collections.singletonList(this.repositories.get(0));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception
+    {
+        for (Repository repository : this.repositories) {
+            repository.close();
+        }
+        this.context.dispose();
+    }
+
+    @Benchmark
+    public UserCommitActivity[] countAuthorCommits()
+    {
+        return this.context.getGitManager().countAuthorCommits(null, this.firstRepository);
+    }
+
+    @Benchmark
+    public UserCommitActivity[] countAuthorCommitsLastMonth()
+    {
+        return this.context.getGitManager().countAuthorCommits(this.lastMonth, this.firstRepository);
+    }
+
+    @Benchmark
+    public UserCommitActivity[] countAuthorCommitsMultiRepository()
+    {
+        return this.context.getGitManager().countAuthorCommits(null, this.repositories);
+    }
+
+    @Benchmark
+    public AuthorCommitCount[] getAuthorCommitCountsMultiRepository()
+    {
+        return this.context.getGitManager().getAuthorCommitCounts(null, this.repositories);
+    }
+
+    @Benchmark
+    public Set<PersonIdent> findAuthorsMultiRepository()
+    {
+        return this.context.getGitManager().findAuthors(this.repositories);
+    }
+}
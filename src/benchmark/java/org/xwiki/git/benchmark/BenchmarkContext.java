@@ -0,0 +1,100 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.git.benchmark;
+
+import java.io.File;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.xwiki.configuration.ConfigurationSource;
+import org.xwiki.configuration.internal.MemoryConfigurationSource;
+import org.xwiki.environment.Environment;
+import org.xwiki.git.GitHelper;
+import org.xwiki.git.GitManager;
+import org.xwiki.git.internal.DefaultGitConfiguration;
+import org.xwiki.git.internal.DefaultGitManager;
+import org.xwiki.test.mockito.MockitoComponentManager;
+
+import static org.mockito.Mockito.when;
+
+/**
+ * Sets up a standalone {@link GitManager} working on a temporary permanent directory, for use by the benchmarks.
+ *
+ * @version $Id$
+ * @since 9.11
+ */
+class BenchmarkContext
+{
+    private final MockitoComponentManager componentManager = new MockitoComponentManager();
+
+    private final File permanentDirectory = GitHelper.createTemporaryDirectory();
+
+    private final GitHelper gitHelper;
+
+    private final GitManager gitManager;
+
+    /**
+     * @param configuration the {@code git.*} configuration properties to use, on top of the defaults
+     */
+    BenchmarkContext(Map<String, Object> configuration) throws Exception
+    {
+        Environment environment = this.componentManager.registerMockComponent(Environment.class);
+        when(environment.getPermanentDirectory()).thenReturn(this.permanentDirectory);
+        this.gitHelper = new GitHelper(environment);
+
+        MemoryConfigurationSource configurationSource = new MemoryConfigurationSource();
+        for (Map.Entry<String, Object> entry : configuration.entrySet()) {
+            configurationSource.setProperty(entry.getKey(), entry.getValue());
+        }
+        this.componentManager.registerComponent(ConfigurationSource.class, "xwikiproperties", configurationSource);
+        this.componentManager.registerComponent(DefaultGitConfiguration.class);
+        this.componentManager.registerComponent(DefaultGitManager.class);
+
+        this.gitManager = this.componentManager.getInstance(GitManager.class);
+    }
+
+    GitHelper getGitHelper()
+    {
+        return this.gitHelper;
+    }
+
+    GitManager getGitManager()
+    {
+        return this.gitManager;
+    }
+
+    /**
+     * @param repoName the name of a repository created with {@link #getGitHelper()}
+     * @return the URI to pass to {@link GitManager#getRepository(String, String)} for this repository
+     */
+    String getRepositoryURI(String repoName)
+    {
+        return this.gitHelper.getRepositoryFile(repoName).getAbsolutePath();
+    }
+
+    /**
+     * Disposes the components and deletes the generated repositories.
+     */
+    void dispose() throws Exception
+    {
+        this.componentManager.dispose();
+        FileUtils.deleteDirectory(this.permanentDirectory);
+    }
+}
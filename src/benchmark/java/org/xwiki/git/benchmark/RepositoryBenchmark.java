@@ -0,0 +1,92 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.git.benchmark;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jgit.lib.Repository;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.xwiki.git.GitManager;
+
+/**
+ * Measures {@link GitManager#getRepository(String, String)} on an existing local repository, either served from the
+ * repository cache (warm) or opened from disk on each call (cold, when the cache size is {@code 0}).
+ *
+ * @version $Id$
+ * @since 9.11
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class RepositoryBenchmark
+{
+    private static final String REPOSITORY_NAME = "synthetic";
+
+    @Param({ "50", "0" })
+    public int repositoryCacheSize;
+
+    @Param({ "1000" })
+    public int commits;
+
+    private BenchmarkContext context;
+
+    private String repositoryURI;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception
+    {
+        this.context = new BenchmarkContext(
+            Collections.<String, Object>singletonMap("git.repositoryCache.size", this.repositoryCacheSize));
+        this.context.getGitHelper().createSyntheticRepository(REPOSITORY_NAME, this.commits, 20, 1, 100, new Date())
+            .close();
+        this.repositoryURI = this.context.getRepositoryURI(REPOSITORY_NAME);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception
+    {
+        this.context.dispose();
+    }
+
+    @Benchmark
+    public Repository getRepository()
+    {
+        Repository repository = this.context.getGitManager().getRepository(this.repositoryURI, REPOSITORY_NAME);
+        repository.close();
+        return repository;
+    }
+}
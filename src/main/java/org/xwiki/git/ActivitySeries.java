@@ -0,0 +1,148 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.git;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import org.xwiki.stability.Unstable;
+
+/**
+ * Commit counts over time, split in consecutive buckets (days, weeks or months), per author, per repository and in
+ * total. All the series are computed in a single walk of the repositories, for drawing activity charts.
+ *
+ * @version $Id$
+ * @since 9.11
+ */
+@Unstable
+public class ActivitySeries
+{
+    private final ActivityPeriod period;
+
+    private final long[] bucketStarts;
+
+    private final List<String> authors;
+
+    private final Map<String, String> authorNames;
+
+    private final Map<String, int[]> authorCounts;
+
+    private final int[][] repositoryCounts;
+
+    private final int[] totalCounts;
+
+    /**
+     * @param period the length of the buckets
+     * @param bucketStarts the start time of each bucket, in milliseconds
+     * @param authors the emails of the authors, in the order in which they were first seen
+     * @param authorNames the name of each author, indexed by email
+     * @param authorCounts the number of commits of each author in each bucket, indexed by email
+     * @param repositoryCounts the number of commits in each bucket for each repository, in the order of the queried
+     *        repositories
+     * @param totalCounts the number of commits in each bucket
+     */
+    public ActivitySeries(ActivityPeriod period, long[] bucketStarts, List<String> authors,
+        Map<String, String> authorNames, Map<String, int[]> authorCounts, int[][] repositoryCounts, int[] totalCounts)
+    {
+        this.period = period;
+        this.bucketStarts = bucketStarts;
+        this.authors = authors;
+        this.authorNames = authorNames;
+        this.authorCounts = authorCounts;
+        this.repositoryCounts = repositoryCounts;
+        this.totalCounts = totalCounts;
+    }
+
+    /**
+     * @return the length of the buckets
+     */
+    public ActivityPeriod getPeriod()
+    {
+        return this.period;
+    }
+
+    /**
+     * @return the number of buckets
+     */
+    public int getBucketCount()
+    {
+        return this.bucketStarts.length;
+    }
+
+    /**
+     * @return the start date of each bucket
+     */
+    public List<Date> getBucketStarts()
+    {
+        List<Date> dates = new ArrayList<>(this.bucketStarts.length);
+        for (long start : this.bucketStarts) {
+            dates.add(new Date(start));
+        }
+        return dates;
+    }
+
+    /**
+     * @return the emails of the authors who committed during the covered period, in the order in which they were
+     *         first seen
+     */
+    public List<String> getAuthors()
+    {
+        return Collections.unmodifiableList(this.authors);
+    }
+
+    /**
+     * @param email the email of an author
+     * @return the name of the author, {@code null} if the author didn't commit during the covered period
+     */
+    public String getAuthorName(String email)
+    {
+        return this.authorNames.get(email);
+    }
+
+    /**
+     * @param email the email of an author
+     * @return the number of commits of the author in each bucket, {@code null} if the author didn't commit during the
+     *         covered period
+     */
+    public int[] getAuthorCounts(String email)
+    {
+        return this.authorCounts.get(email);
+    }
+
+    /**
+     * @param repositoryIndex the position of the repository in the list of queried repositories
+     * @return the number of commits in the repository in each bucket
+     */
+    public int[] getRepositoryCounts(int repositoryIndex)
+    {
+        return this.repositoryCounts[repositoryIndex];
+    }
+
+    /**
+     * @return the number of commits in all repositories in each bucket
+     */
+    public int[] getTotalCounts()
+    {
+        return this.totalCounts;
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.git;
+
+import org.xwiki.stability.Unstable;
+
+/**
+ * The number of lines added and removed by the commits of an author. Lines of binary files and of files above the
+ * configured size are not counted, and neither are files moved or copied without modification.
+ *
+ * @version $Id$
+ * @since 9.11
+ */
+@Unstable
+public class AuthorChurn
+{
+    private final String name;
+
+    private final String email;
+
+    private final int commitCount;
+
+    private final long addedLines;
+
+    private final long removedLines;
+
+    /**
+     * @param name the name of the author
+     * @param email the email of the author, which identifies it
+     * @param commitCount the number of commits of the author
+     * @param addedLines the number of lines added by the commits of the author
+     * @param removedLines the number of lines removed by the commits of the author
+     */
+    public AuthorChurn(String name, String email, int commitCount, long addedLines, long removedLines)
+    {
+        this.name = name;
+        this.email = email;
+        this.commitCount = commitCount;
+        this.addedLines = addedLines;
+        this.removedLines = removedLines;
+    }
+
+    /**
+     * @return the name of the author, as found in the first of its commits walked, usually the most recent one
+     */
+    public String getName()
+    {
+        return this.name;
+    }
+
+    /**
+     * @return the email of the author
+     */
+    public String getEmail()
+    {
+        return this.email;
+    }
+
+    /**
+     * @return the number of commits of the author
+     */
+    public int getCommitCount()
+    {
+        return this.commitCount;
+    }
+
+    /**
+     * @return the number of lines added by the commits of the author, a modified line counting as one added line and
+     *         one removed line
+     */
+    public long getAddedLines()
+    {
+        return this.addedLines;
+    }
+
+    /**
+     * @return the number of lines removed by the commits of the author
+     */
+    public long getRemovedLines()
+    {
+        return this.removedLines;
+    }
+
+    /**
+     * @return the number of lines added or removed by the commits of the author
+     */
+    public long getChangedLines()
+    {
+        return this.addedLines + this.removedLines;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s <%s>: +%d -%d", this.name, this.email, this.addedLines, this.removedLines);
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.git;
+
+import java.util.Date;
+
+import org.xwiki.stability.Unstable;
+
+/**
+ * The number of commits of an author, along with the dates of its first and last commits. Unlike gitective's
+ * {@link org.gitective.core.stat.UserCommitActivity} it doesn't hold the ids and dates of every commit.
+ *
+ * @version $Id$
+ * @since 9.11
+ */
+@Unstable
+public class AuthorCommitCount
+{
+    private final String name;
+
+    private final String email;
+
+    private final int count;
+
+    private final long earliest;
+
+    private final long latest;
+
+    /**
+     * @param name the name of the author
+     * @param email the email of the author, which identifies it
+     * @param count the number of commits of the author
+     * @param earliest the time of the oldest commit of the author, in milliseconds
+     * @param latest the time of the most recent commit of the author, in milliseconds
+     */
+    public AuthorCommitCount(String name, String email, int count, long earliest, long latest)
+    {
+        this.name = name;
+        this.email = email;
+        this.count = count;
+        this.earliest = earliest;
+        this.latest = latest;
+    }
+
+    /**
+     * @return the name of the author, as found in the first of its commits walked, usually the most recent one
+     */
+    public String getName()
+    {
+        return this.name;
+    }
+
+    /**
+     * @return the email of the author
+     */
+    public String getEmail()
+    {
+        return this.email;
+    }
+
+    /**
+     * @return the number of commits of the author
+     */
+    public int getCount()
+    {
+        return this.count;
+    }
+
+    /**
+     * @return the time of the oldest commit of the author, in milliseconds
+     */
+    public long getEarliest()
+    {
+        return this.earliest;
+    }
+
+    /**
+     * @return the time of the most recent commit of the author, in milliseconds
+     */
+    public long getLatest()
+    {
+        return this.latest;
+    }
+
+    /**
+     * @return the date of the oldest commit of the author
+     */
+    public Date getEarliestDate()
+    {
+        return new Date(this.earliest);
+    }
+
+    /**
+     * @return the date of the most recent commit of the author
+     */
+    public Date getLatestDate()
+    {
+        return new Date(this.latest);
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s <%s>: %d", this.name, this.email, this.count);
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.git;
+
+import org.xwiki.stability.Unstable;
+
+/**
+ * How a repository is cloned. The author queries only read the object database, so repositories used for statistics
+ * don't need a working tree, which saves the time, disk space and inodes needed to check out the files.
+ *
+ * @version $Id$
+ * @since 9.11
+ */
+@Unstable
+public enum CloneMode
+{
+    /**
+     * A regular clone, with the default branch checked out in a working tree and the Git directory in its
+     * {@code .git} subdirectory.
+     */
+    CHECKOUT,
+
+    /**
+     * A regular clone whose working tree is left empty. The repository can still be updated, which only moves the
+     * current branch.
+     */
+    NO_CHECKOUT,
+
+    /**
+     * A bare clone: the local directory is the Git directory and the remote branches are fetched directly as local
+     * branches.
+     */
+    BARE,
+
+    /**
+     * A bare clone kept in memory instead of the permanent directory, for one-off queries on small repositories. It's
+     * discarded once it hasn't been requested for the configured time, and cloning fails if it takes more memory than
+     * allowed. The local directory name only identifies the repository so that it can be requested again.
+     */
+    MEMORY
+}
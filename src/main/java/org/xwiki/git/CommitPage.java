@@ -0,0 +1,65 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.git;
+
+import java.util.List;
+
+import org.xwiki.stability.Unstable;
+
+/**
+ * A page of commits listed by {@link GitManager#getCommitPage(org.eclipse.jgit.lib.Repository, String, String, int)},
+ * along with the cursor to pass to get the next page.
+ *
+ * @version $Id$
+ * @since 9.11
+ */
+@Unstable
+public class CommitPage
+{
+    private final List<CommitSummary> commits;
+
+    private final String nextCursor;
+
+    /**
+     * @param commits the commits of the page, most recent first
+     * @param nextCursor the cursor from which to list the next page, {@code null} if this is the last page
+     */
+    public CommitPage(List<CommitSummary> commits, String nextCursor)
+    {
+        this.commits = commits;
+        this.nextCursor = nextCursor;
+    }
+
+    /**
+     * @return the commits of the page, most recent first
+     */
+    public List<CommitSummary> getCommits()
+    {
+        return this.commits;
+    }
+
+    /**
+     * @return the opaque cursor from which to list the next page, {@code null} if this is the last page
+     */
+    public String getNextCursor()
+    {
+        return this.nextCursor;
+    }
+}
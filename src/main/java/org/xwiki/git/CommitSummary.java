@@ -0,0 +1,107 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.git;
+
+import java.util.Date;
+
+import org.xwiki.stability.Unstable;
+
+/**
+ * The main information about a commit, without its tree and full message, so that a large number of commits can be
+ * listed without keeping their content in memory.
+ *
+ * @version $Id$
+ * @since 9.11
+ */
+@Unstable
+public class CommitSummary
+{
+    private final String id;
+
+    private final String authorName;
+
+    private final String authorEmail;
+
+    private final Date date;
+
+    private final String shortMessage;
+
+    /**
+     * @param id the commit id
+     * @param authorName the name of the author of the commit
+     * @param authorEmail the email of the author of the commit
+     * @param date the date at which the commit was authored
+     * @param shortMessage the first line of the commit message
+     */
+    public CommitSummary(String id, String authorName, String authorEmail, Date date, String shortMessage)
+    {
+        this.id = id;
+        this.authorName = authorName;
+        this.authorEmail = authorEmail;
+        this.date = date;
+        this.shortMessage = shortMessage;
+    }
+
+    /**
+     * @return the commit id, which can also be used to resume listing commits after this one
+     */
+    public String getId()
+    {
+        return this.id;
+    }
+
+    /**
+     * @return the name of the author of the commit
+     */
+    public String getAuthorName()
+    {
+        return this.authorName;
+    }
+
+    /**
+     * @return the email of the author of the commit
+     */
+    public String getAuthorEmail()
+    {
+        return this.authorEmail;
+    }
+
+    /**
+     * @return the date at which the commit was authored
+     */
+    public Date getDate()
+    {
+        return this.date;
+    }
+
+    /**
+     * @return the first line of the commit message
+     */
+    public String getShortMessage()
+    {
+        return this.shortMessage;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s %s <%s> %s", this.id, this.authorName, this.authorEmail, this.shortMessage);
+    }
+}
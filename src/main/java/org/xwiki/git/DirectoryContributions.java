@@ -0,0 +1,123 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.git;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.xwiki.stability.Unstable;
+
+/**
+ * The number of commits of each author in each directory below a path, to find out who contributes to which module
+ * of a repository. A commit is counted once in each directory it changes, and once in the total of its author.
+ *
+ * @version $Id$
+ * @since 9.11
+ */
+@Unstable
+public class DirectoryContributions
+{
+    private final String pathPrefix;
+
+    private final List<String> directories;
+
+    private final AuthorCommitCount[] authors;
+
+    private final Map<String, Map<String, Integer>> authorCounts;
+
+    private final Map<String, Integer> directoryCounts;
+
+    /**
+     * @param pathPrefix the path below which commits have been counted, the empty string for the whole repository
+     * @param directories the directories right below the path prefix which have been changed, sorted by name
+     * @param authors the number of commits of each author changing something below the path prefix, sorted by
+     *        descending number of commits
+     * @param authorCounts the number of commits of each author in each directory, indexed by email and directory
+     * @param directoryCounts the number of commits in each directory
+     */
+    public DirectoryContributions(String pathPrefix, List<String> directories, AuthorCommitCount[] authors,
+        Map<String, Map<String, Integer>> authorCounts, Map<String, Integer> directoryCounts)
+    {
+        this.pathPrefix = pathPrefix;
+        this.directories = directories;
+        this.authors = authors;
+        this.authorCounts = authorCounts;
+        this.directoryCounts = directoryCounts;
+    }
+
+    /**
+     * @return the path below which commits have been counted, the empty string for the whole repository
+     */
+    public String getPathPrefix()
+    {
+        return this.pathPrefix;
+    }
+
+    /**
+     * @return the directories right below the path prefix which have been changed, sorted by name; the files right
+     *         below the path prefix are counted in the empty string directory
+     */
+    public List<String> getDirectories()
+    {
+        return Collections.unmodifiableList(this.directories);
+    }
+
+    /**
+     * @return the number of commits of each author changing something below the path prefix, sorted by descending
+     *         number of commits
+     */
+    public List<AuthorCommitCount> getAuthors()
+    {
+        return Collections.unmodifiableList(Arrays.asList(this.authors));
+    }
+
+    /**
+     * @param email the email of an author
+     * @param directory one of the {@link #getDirectories() directories}
+     * @return the number of commits of the author changing the directory
+     */
+    public int getCommitCount(String email, String directory)
+    {
+        Integer count = getCommitCounts(email).get(directory);
+        return count != null ? count : 0;
+    }
+
+    /**
+     * @param email the email of an author
+     * @return the number of commits of the author in each directory it changed
+     */
+    public Map<String, Integer> getCommitCounts(String email)
+    {
+        Map<String, Integer> counts = this.authorCounts.get(email);
+        return counts != null ? Collections.unmodifiableMap(counts) : Collections.emptyMap();
+    }
+
+    /**
+     * @param directory one of the {@link #getDirectories() directories}
+     * @return the number of commits changing the directory, all authors included
+     */
+    public int getCommitCount(String directory)
+    {
+        Integer count = this.directoryCounts.get(directory);
+        return count != null ? count : 0;
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.git;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.xwiki.stability.Unstable;
+
+/**
+ * The commit that last modified each line of a version of a file, like {@code git blame} reports it. The commits are
+ * stored once and each line only references one of them, so that a blame takes little memory even for large files.
+ *
+ * @version $Id$
+ * @since 9.11
+ */
+@Unstable
+public class FileBlame
+{
+    private final String path;
+
+    private final String commitId;
+
+    private final List<BlameCommit> commits;
+
+    private final int[] lines;
+
+    /**
+     * @param path the path of the file, relative to the root of the repository
+     * @param commitId the id of the commit which last modified the file, whose version of the file is blamed
+     * @param commits the commits to which lines are attributed
+     * @param lines the index in {@code commits} of the commit of each line
+     */
+    public FileBlame(String path, String commitId, List<BlameCommit> commits, int[] lines)
+    {
+        this.path = path;
+        this.commitId = commitId;
+        this.commits = Collections.unmodifiableList(commits);
+        this.lines = Arrays.copyOf(lines, lines.length);
+    }
+
+    /**
+     * @return the path of the file, relative to the root of the repository
+     */
+    public String getPath()
+    {
+        return this.path;
+    }
+
+    /**
+     * @return the id of the commit which last modified the file, which can be older than the blamed revision
+     */
+    public String getCommitId()
+    {
+        return this.commitId;
+    }
+
+    /**
+     * @return the commits to which lines are attributed, each one appearing once
+     */
+    public List<BlameCommit> getCommits()
+    {
+        return this.commits;
+    }
+
+    /**
+     * @return the number of lines of the file
+     */
+    public int getLineCount()
+    {
+        return this.lines.length;
+    }
+
+    /**
+     * @param line the index of a line, starting from 0
+     * @return the commit which last modified the line
+     */
+    public BlameCommit getCommit(int line)
+    {
+        return this.commits.get(this.lines[line]);
+    }
+
+    /**
+     * @param line the index of a line, starting from 0
+     * @return the index in {@link #getCommits()} of the commit which last modified the line, which makes it easy to
+     *         group consecutive lines modified by the same commit
+     */
+    public int getCommitIndex(int line)
+    {
+        return this.lines[line];
+    }
+}
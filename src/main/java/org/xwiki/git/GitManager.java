@@ -20,18 +20,26 @@
 package org.xwiki.git;
 
 import java.util.Date;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
 
 import org.eclipse.jgit.api.CloneCommand;
 import org.eclipse.jgit.lib.PersonIdent;
 import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.transport.CredentialsProvider;
+import org.eclipse.jgit.transport.FetchResult;
 import org.gitective.core.stat.UserCommitActivity;
 import org.xwiki.component.annotation.Role;
 import org.xwiki.stability.Unstable;
 
 /**
  * Provides services to access a Git repository.
+ * <p>
+ * The results of the author and churn queries are cached until the queried repositories change. So that queries
+ * looking back a given number of days from now share their results, the date from which they count commits is rounded
+ * down to the {@code git.queryCache.sinceGranularity} configuration property (one minute by default), unless the
+ * query cache is disabled: these queries may thus count commits made up to that much time before the passed date.
  *
  * @version $Id$
  * @since 5.3M2
@@ -42,6 +50,9 @@ public interface GitManager
     /**
      * Clone a Git repository by storing it locally in the XWiki Permanent directory. If the repository is already
      * cloned, no action is done.
+     * <p>
+     * Open repositories are shared between callers and closed by the manager when they haven't been used for a while,
+     * so callers must not close the returned repository.
      *
      * @param repositoryURI the URI to the Git repository to clone (eg "git://github.com/xwiki/xwiki-commons.git")
      * @param localDirectoryName the name of the directory where the Git repository will be cloned (this directory is
@@ -86,6 +97,145 @@ public interface GitManager
         throw new UnsupportedOperationException();
     }
 
+    /**
+     * Clone a Git repository in the given mode and store it locally in the XWiki Permanent directory. If the
+     * repository is already cloned, whatever its mode, no action is done.
+     *
+     * @param repositoryURI the URI to the Git repository to clone (eg "git://github.com/xwiki/xwiki-commons.git")
+     * @param localDirectoryName the name of the directory where the Git repository will be cloned (this directory is
+     *        relative to the permanent directory
+     * @param mode whether to check out a working tree or to clone a bare repository
+     * @param branch the only branch to clone and to fetch on updates, {@code null} to clone all branches
+     * @param credentialsProvider the credentials used to authenticate with the remote repository, {@code null} if the
+     *        repository is public
+     * @return the cloned Repository instance
+     * @since 9.11
+     */
+    @Unstable
+    default Repository getRepository(String repositoryURI, String localDirectoryName, CloneMode mode, String branch,
+        CredentialsProvider credentialsProvider)
+    {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Fetch the new commits and refs from the remote repository the passed repository was cloned from. For bare
+     * repositories this updates the local branches, otherwise only the remote-tracking branches are updated.
+     *
+     * @param repository the repository to fetch into
+     * @param credentialsProvider the credentials used to authenticate with the remote repository, {@code null} if the
+     *        remote repository isn't protected
+     * @return the result of the fetch
+     * @since 9.11
+     */
+    @Unstable
+    default FetchResult fetch(Repository repository, CredentialsProvider credentialsProvider)
+    {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Fetch the remote repository the passed repository was cloned from and fast-forward the current branch to its
+     * upstream branch, when the repository has a working tree.
+     *
+     * @param repository the repository to update
+     * @param credentialsProvider the credentials used to authenticate with the remote repository, {@code null} if the
+     *        remote repository isn't protected
+     * @return {@code true} if new commits or refs have been retrieved, {@code false} if the repository was up to date
+     *         or if another node sharing the permanent directory was updating it, in which case its update is waited
+     *         for
+     * @since 9.11
+     */
+    @Unstable
+    default boolean update(Repository repository, CredentialsProvider credentialsProvider)
+    {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Register a repository to be updated regularly in the background, at the interval configured in
+     * {@code xwiki.properties}, so that reading it never requires waiting for the network.
+     *
+     * @param repository the repository to update regularly
+     * @param credentialsProvider the credentials used to authenticate with the remote repository, {@code null} if the
+     *        remote repository isn't protected
+     * @since 9.11
+     */
+    @Unstable
+    default void scheduleUpdate(Repository repository, CredentialsProvider credentialsProvider)
+    {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Stop updating a repository registered with {@link #scheduleUpdate(Repository, CredentialsProvider)}.
+     *
+     * @param repository the repository to stop updating
+     * @return {@code true} if the repository was registered
+     * @since 9.11
+     */
+    @Unstable
+    default boolean cancelScheduledUpdate(Repository repository)
+    {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Repack the objects of a repository and remove the ones that are not reachable anymore, writing a bitmap index
+     * so that history walks read fewer objects. The maintenance waits for running clones or fetches of the repository
+     * and prevents new ones until it's over. Repositories are also maintained in the background, at the interval
+     * configured in {@code xwiki.properties} or when they have too many loose objects or packs after a fetch.
+     *
+     * @param repository the repository to maintain
+     * @param force {@code true} to repack the repository even if it doesn't have too many loose objects or packs
+     * @return the pack statistics of the repository before and after its maintenance
+     * @since 9.11
+     */
+    @Unstable
+    default MaintenanceReport maintain(Repository repository, boolean force)
+    {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * List the commits reachable from a given commit, most recent first, walking them as the returned iterator is
+     * consumed. The walk keeps a small object for each skipped or returned commit, and skipped commits are walked
+     * again on every call, so use {@link #getCommitPage(Repository, String, String, int)} to page through long
+     * histories.
+     *
+     * @param repository the repository in which to list commits
+     * @param start the revision from which to start listing commits (e.g. a commit id or branch name), {@code null}
+     *        to start from {@code HEAD}
+     * @param offset the number of commits to skip
+     * @param limit the maximum number of commits to return, 0 for no limit
+     * @return the commits, walked lazily
+     * @since 9.11
+     */
+    @Unstable
+    default Iterator<CommitSummary> getCommits(Repository repository, String start, int offset, int limit)
+    {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * List a page of the commits reachable from a given commit, most recent first. The next page is listed by passing
+     * the cursor of the previous one, which holds the commits still to walk, so that each page only walks its own
+     * commits and no commit of a merged branch is skipped between pages.
+     *
+     * @param repository the repository in which to list commits
+     * @param start the revision from which to start listing commits (e.g. a commit id or branch name), {@code null}
+     *        to start from {@code HEAD}, ignored when a cursor is passed
+     * @param cursor the {@link CommitPage#getNextCursor() cursor} of the previous page, {@code null} for the first page
+     * @param limit the maximum number of commits in the page, 0 for no limit
+     * @return the page of commits
+     * @since 9.11
+     */
+    @Unstable
+    default CommitPage getCommitPage(Repository repository, String start, String cursor, int limit)
+    {
+        throw new UnsupportedOperationException();
+    }
+
     /**
      * Find all authors who have ever committed code in the passed repositories.
      *
@@ -98,9 +248,437 @@ public interface GitManager
      * Count commits done by all authors in the passed repositories and since the passed date. Note that authors are
      * uniquely identified by their email addresses.
      *
-     * @param since the date from which to start counting. If null then counts from the beginning
+     * @param since the date from which to start counting, rounded down to the query cache granularity. If null
+     *        then counts from the beginning
      * @param repositories the list of repositories in which to look for commits
      * @return the author commit activity
      */
     UserCommitActivity[] countAuthorCommits(Date since, List<Repository> repositories);
+
+    /**
+     * Count commits done by all authors in the passed repositories and since the passed date, without keeping the
+     * ids and dates of each commit. Note that authors are uniquely identified by their email addresses.
+     *
+     * @param since the date from which to start counting, rounded down to the query cache granularity. If null
+     *        then counts from the beginning
+     * @param repositories the list of repositories in which to look for commits
+     * @return the number of commits of each author, sorted by descending number of commits
+     * @since 9.11
+     */
+    @Unstable
+    default AuthorCommitCount[] getAuthorCommitCounts(Date since, List<Repository> repositories)
+    {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Same as {@link #countAuthorCommits(Date, List)}, optionally counting commits shared by several of the passed
+     * repositories, such as forks and mirrors of the same project, only once. When deduplicating, the history shared
+     * with the repositories before in the list is not walked again.
+     *
+     * @param since the date from which to start counting, rounded down to the query cache granularity. If null
+     *        then counts from the beginning
+     * @param repositories the list of repositories in which to look for commits
+     * @param deduplicate {@code true} to count each commit only once, in the first repository containing it
+     * @return the author commit activity
+     * @since 9.11
+     */
+    @Unstable
+    default UserCommitActivity[] countAuthorCommits(Date since, List<Repository> repositories, boolean deduplicate)
+    {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Same as {@link #getAuthorCommitCounts(Date, List)}, optionally counting commits shared by several of the passed
+     * repositories, such as forks and mirrors of the same project, only once. When deduplicating, the history shared
+     * with the repositories before in the list is not walked again.
+     *
+     * @param since the date from which to start counting, rounded down to the query cache granularity. If null
+     *        then counts from the beginning
+     * @param repositories the list of repositories in which to look for commits
+     * @param deduplicate {@code true} to count each commit only once, in the first repository containing it
+     * @return the number of commits of each author, sorted by descending number of commits
+     * @since 9.11
+     */
+    @Unstable
+    default AuthorCommitCount[] getAuthorCommitCounts(Date since, List<Repository> repositories,
+        boolean deduplicate)
+    {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Same as {@link #findAuthors(List)}, stopping once the passed budget is exhausted.
+     *
+     * @param repositories the list of repositories in which to look for authors
+     * @param budget limits the number of visited commits and the duration of the query, and allows to cancel it
+     * @return the authors found before the budget was exhausted, flagged as truncated if it was
+     * @since 9.11
+     */
+    @Unstable
+    default QueryResult<Set<PersonIdent>> findAuthors(List<Repository> repositories, QueryBudget budget)
+    {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Same as {@link #countAuthorCommits(Date, List, boolean)}, stopping once the passed budget is exhausted. Since
+     * the most recent commits are visited first, a truncated result counts the most recent commits of each
+     * repository, and may not include the repositories at the end of the list at all.
+     *
+     * @param since the date from which to start counting, rounded down to the query cache granularity. If null
+     *        then counts from the beginning
+     * @param repositories the list of repositories in which to look for commits
+     * @param deduplicate {@code true} to count each commit only once, in the first repository containing it
+     * @param budget limits the number of visited commits and the duration of the query, and allows to cancel it
+     * @return the author commit activity, flagged as truncated if the budget was exhausted
+     * @since 9.11
+     */
+    @Unstable
+    default QueryResult<UserCommitActivity[]> countAuthorCommits(Date since, List<Repository> repositories,
+        boolean deduplicate, QueryBudget budget)
+    {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Same as {@link #getAuthorCommitCounts(Date, List, boolean)}, stopping once the passed budget is exhausted.
+     * Since the most recent commits are visited first, a truncated result counts the most recent commits of each
+     * repository, and may not include the repositories at the end of the list at all.
+     *
+     * @param since the date from which to start counting, rounded down to the query cache granularity. If null
+     *        then counts from the beginning
+     * @param repositories the list of repositories in which to look for commits
+     * @param deduplicate {@code true} to count each commit only once, in the first repository containing it
+     * @param budget limits the number of visited commits and the duration of the query, and allows to cancel it
+     * @return the number of commits of each author, flagged as truncated if the budget was exhausted
+     * @since 9.11
+     */
+    @Unstable
+    default QueryResult<AuthorCommitCount[]> getAuthorCommitCounts(Date since, List<Repository> repositories,
+        boolean deduplicate, QueryBudget budget)
+    {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Count commits done in the passed repositories since the passed date, per day, week or month, per author, per
+     * repository and in total, in a single walk of the repositories.
+     *
+     * @param since the date from which to start counting. If null then counts from the oldest commit
+     * @param period the length of the buckets in which commits are counted
+     * @param repositories the list of repositories in which to look for commits
+     * @return the commit counts over time
+     * @since 9.11
+     */
+    @Unstable
+    default ActivitySeries getActivitySeries(Date since, ActivityPeriod period, List<Repository> repositories)
+    {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Same as {@link #getActivitySeries(Date, ActivityPeriod, List)}, stopping once the passed budget is exhausted.
+     * Since the most recent commits are visited first, a truncated series misses the oldest commits of each
+     * repository, and may not include the repositories at the end of the list at all.
+     *
+     * @param since the date from which to start counting. If null then counts from the oldest commit
+     * @param period the length of the buckets in which commits are counted
+     * @param repositories the list of repositories in which to look for commits
+     * @param budget limits the number of visited commits and the duration of the query, and allows to cancel it
+     * @return the commit counts over time, flagged as truncated if the budget was exhausted
+     * @since 9.11
+     */
+    @Unstable
+    default QueryResult<ActivitySeries> getActivitySeries(Date since, ActivityPeriod period,
+        List<Repository> repositories, QueryBudget budget)
+    {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Count the commits of each author in each of the directories right below the passed path, by diffing the
+     * commits reachable from the HEAD of the passed repositories with their first parent. A commit changing several
+     * directories is counted once in each of them. Merge commits are not counted.
+     *
+     * @param since the date from which to start counting, rounded down to the query cache granularity. If null
+     *        then counts from the oldest commit
+     * @param repositories the list of repositories in which to look for commits
+     * @param pathPrefix the path of the directory whose subdirectories are counted (eg "xwiki-platform-core"),
+     *        {@code null} or empty for the root of the repositories
+     * @param detectRenames {@code true} to not count the files moved or copied without modification, at the cost of
+     *        diffing the whole tree of each commit
+     * @return the commit counts per author and per directory
+     * @since 9.11
+     */
+    @Unstable
+    default DirectoryContributions getDirectoryContributions(Date since, List<Repository> repositories,
+        String pathPrefix, boolean detectRenames)
+    {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Same as {@link #getDirectoryContributions(Date, List, String, boolean)}, stopping once the passed budget is
+     * exhausted. Each diffed commit counts as one visited commit. Since commits are diffed in parallel, a truncated
+     * result is missing commits from anywhere in the history of the repositories it has reached.
+     *
+     * @param since the date from which to start counting, rounded down to the query cache granularity. If null
+     *        then counts from the oldest commit
+     * @param repositories the list of repositories in which to look for commits
+     * @param pathPrefix the path of the directory whose subdirectories are counted (eg "xwiki-platform-core"),
+     *        {@code null} or empty for the root of the repositories
+     * @param detectRenames {@code true} to not count the files moved or copied without modification, at the cost of
+     *        diffing the whole tree of each commit
+     * @param budget limits the number of visited commits and the duration of the query, and allows to cancel it
+     * @return the commit counts per author and per directory, flagged as truncated if the budget was exhausted
+     * @since 9.11
+     */
+    @Unstable
+    default QueryResult<DirectoryContributions> getDirectoryContributions(Date since, List<Repository> repositories,
+        String pathPrefix, boolean detectRenames, QueryBudget budget)
+    {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Count the lines added and removed by each author in the passed repositories since the passed date, by diffing
+     * the commits reachable from their HEAD with their first parent. Merge commits, binary files and files bigger
+     * than {@code git.churn.maxFileSize} kilobytes are not counted, and neither are files moved or copied without
+     * modification. The number of lines changed by each commit is stored for the repositories cloned in the permanent
+     * directory, so that each commit is only diffed once.
+     *
+     * @param since the date from which to start counting, rounded down to the query cache granularity. If null
+     *        then counts from the oldest commit
+     * @param repositories the list of repositories in which to look for commits
+     * @return the line counts of each author, sorted by descending number of changed lines
+     * @since 9.11
+     */
+    @Unstable
+    default AuthorChurn[] getAuthorChurn(Date since, List<Repository> repositories)
+    {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Same as {@link #getAuthorChurn(Date, List)}, stopping once the passed budget is exhausted. Each commit taken
+     * into account counts as one visited commit, whether it's diffed or its churn is already stored. Since commits are
+     * diffed in parallel, a truncated result is missing commits from anywhere in the history of the repositories it
+     * has reached. The churn of the commits diffed before the budget was exhausted is stored anyway.
+     *
+     * @param since the date from which to start counting, rounded down to the query cache granularity. If null
+     *        then counts from the oldest commit
+     * @param repositories the list of repositories in which to look for commits
+     * @param budget limits the number of visited commits and the duration of the query, and allows to cancel it
+     * @return the line counts of each author, sorted by descending number of changed lines, flagged as truncated if
+     *         the budget was exhausted
+     * @since 9.11
+     */
+    @Unstable
+    default QueryResult<AuthorChurn[]> getAuthorChurn(Date since, List<Repository> repositories, QueryBudget budget)
+    {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Find the commit which last modified each line of a file, like {@code git blame}. The blames are cached, and
+     * when a file has been modified since its blame was cached only the lines changed by the new commits are
+     * blamed again. The cached blames are kept in memory up to {@code git.blame.cacheSize} lines in total, and the
+     * blames of the repositories cloned in the permanent directory are also stored on disk unless
+     * {@code git.blame.persistent} is {@code false}.
+     *
+     * @param repository the repository containing the file
+     * @param revision the commit, branch or tag in which the file is blamed, {@code null} for {@code HEAD}
+     * @param path the path of the file, relative to the root of the repository
+     * @return the blame of the file, {@code null} if the file doesn't exist in the passed revision
+     * @since 9.11
+     */
+    @Unstable
+    default FileBlame blame(Repository repository, String revision, String path)
+    {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Same as {@link #blame(Repository, String, String)}, stopping once the passed budget is exhausted. Each version
+     * of the file walked to find a cached blame, and each commit to which the full blame of the file attributes
+     * lines, counts as one visited commit. A blame can't be partial: a truncated result has no value.
+     *
+     * @param repository the repository containing the file
+     * @param revision the commit, branch or tag in which the file is blamed, {@code null} for {@code HEAD}
+     * @param path the path of the file, relative to the root of the repository
+     * @param budget limits the number of visited commits and the duration of the query, and allows to cancel it
+     * @return the blame of the file, {@code null} if the file doesn't exist in the passed revision or if the budget
+     *         was exhausted, in which case the result is flagged as truncated
+     * @since 9.11
+     */
+    @Unstable
+    default QueryResult<FileBlame> blame(Repository repository, String revision, String path, QueryBudget budget)
+    {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * @return live counters describing the clones, fetches and history walks done since the manager was started
+     * @since 9.11
+     */
+    @Unstable
+    default GitStatistics getStatistics()
+    {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Same as {@link #getRepository(String, String, CloneCommand)} but executed in the background, so that a long
+     * clone doesn't block the caller. The progress of the clone is reported by the returned task. The repository
+     * eventually returned by the task is shared like any other repository returned by this manager.
+     *
+     * @param repositoryURI the URI to the Git repository to clone (eg "git://github.com/xwiki/xwiki-commons.git")
+     * @param localDirectoryName the name of the directory where the Git repository will be cloned (this directory is
+     *        relative to the permanent directory
+     * @param cloneCommand the CloneCommand used for clone options
+     * @return the task cloning or opening the repository
+     * @since 9.11
+     */
+    @Unstable
+    default GitTask<Repository> getRepositoryAsync(String repositoryURI, String localDirectoryName,
+        CloneCommand cloneCommand)
+    {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Same as {@link #getRepository(String, String, CloneMode, String, CredentialsProvider)} but executed in the
+     * background. The repository eventually returned by the task is shared like any other repository returned by this
+     * manager.
+     *
+     * @param repositoryURI the URI to the Git repository to clone (eg "git://github.com/xwiki/xwiki-commons.git")
+     * @param localDirectoryName the name of the directory where the Git repository will be cloned (this directory is
+     *        relative to the permanent directory
+     * @param mode whether to check out a working tree or to clone a bare repository
+     * @param branch the only branch to clone and to fetch on updates, {@code null} to clone all branches
+     * @param credentialsProvider the credentials used to authenticate with the remote repository, {@code null} if the
+     *        repository is public
+     * @return the task cloning or opening the repository
+     * @since 9.11
+     */
+    @Unstable
+    default GitTask<Repository> getRepositoryAsync(String repositoryURI, String localDirectoryName, CloneMode mode,
+        String branch, CredentialsProvider credentialsProvider)
+    {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Clone the passed repositories, or update those already cloned, several at a time. At most
+     * {@code git.sync.threads} repositories are synchronized at the same time, and at most
+     * {@code git.sync.hostThreads} of them from the same host. A failed synchronization is retried up to
+     * {@code git.sync.attempts} times, waiting longer before each attempt. The failure of a repository doesn't stop
+     * the synchronization of the others.
+     *
+     * @param requests the repositories to synchronize
+     * @return the outcome of the synchronization of each repository, in the order of the requests
+     * @since 9.11
+     */
+    @Unstable
+    default List<SyncResult> synchronize(List<SyncRequest> requests)
+    {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Same as {@link #synchronize(List)} but executed in the background. The task reports how many repositories have
+     * been synchronized, and cancelling it cancels the synchronization of the repositories not started yet.
+     *
+     * @param requests the repositories to synchronize
+     * @return the task synchronizing the repositories
+     * @since 9.11
+     */
+    @Unstable
+    default GitTask<List<SyncResult>> synchronizeAsync(List<SyncRequest> requests)
+    {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Same as {@link #countAuthorCommits(Date, List)} but executed in the background. The task reports how many of
+     * the repositories have been walked.
+     *
+     * @param since the date from which to start counting, rounded down to the query cache granularity. If null
+     *        then counts from the beginning
+     * @param repositories the list of repositories in which to look for commits
+     * @return the task counting the commits
+     * @since 9.11
+     */
+    @Unstable
+    default GitTask<UserCommitActivity[]> countAuthorCommitsAsync(Date since, List<Repository> repositories)
+    {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Same as {@link #countAuthorCommitsAsync(Date, List)}, stopping once the passed budget is exhausted. The timeout
+     * of the budget runs from its creation, so it includes the time the task waits for a thread. The task result is
+     * then partial, which the task and the budget tell once the task is done.
+     *
+     * @param since the date from which to start counting, rounded down to the query cache granularity. If null
+     *        then counts from the beginning
+     * @param repositories the list of repositories in which to look for commits
+     * @param budget limits the number of visited commits and the duration of the query, and allows to cancel it
+     * @return the task counting the commits
+     * @since 9.11
+     */
+    @Unstable
+    default GitTask<UserCommitActivity[]> countAuthorCommitsAsync(Date since, List<Repository> repositories,
+        QueryBudget budget)
+    {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Same as {@link #getAuthorCommitCounts(Date, List)} but executed in the background. The task reports how many of
+     * the repositories have been walked.
+     *
+     * @param since the date from which to start counting, rounded down to the query cache granularity. If null
+     *        then counts from the beginning
+     * @param repositories the list of repositories in which to look for commits
+     * @return the task counting the commits
+     * @since 9.11
+     */
+    @Unstable
+    default GitTask<AuthorCommitCount[]> getAuthorCommitCountsAsync(Date since, List<Repository> repositories)
+    {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Same as {@link #getAuthorCommitCountsAsync(Date, List)}, stopping once the passed budget is exhausted. The
+     * timeout of the budget runs from its creation, so it includes the time the task waits for a thread. The task
+     * result is then partial, which the task and the budget tell once the task is done.
+     *
+     * @param since the date from which to start counting, rounded down to the query cache granularity. If null
+     *        then counts from the beginning
+     * @param repositories the list of repositories in which to look for commits
+     * @param budget limits the number of visited commits and the duration of the query, and allows to cancel it
+     * @return the task counting the commits
+     * @since 9.11
+     */
+    @Unstable
+    default GitTask<AuthorCommitCount[]> getAuthorCommitCountsAsync(Date since, List<Repository> repositories,
+        QueryBudget budget)
+    {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * @param id the id of a task started by one of the asynchronous methods
+     * @return the task, {@code null} if there's no such task or if it has been over for too long
+     * @since 9.11
+     */
+    @Unstable
+    default GitTask<?> getTask(String id)
+    {
+        throw new UnsupportedOperationException();
+    }
 }
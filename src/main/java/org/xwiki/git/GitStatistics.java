@@ -0,0 +1,205 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.git;
+
+import org.xwiki.stability.Unstable;
+
+/**
+ * Live counters describing the activity of the {@link GitManager} since it was started, to find out whether time is
+ * spent cloning, fetching, opening repositories or walking their histories. Durations are cumulated and expressed in
+ * milliseconds, so that averages can be computed by dividing them by the matching count. The same values are exposed
+ * through JMX.
+ *
+ * @version $Id$
+ * @since 9.11
+ */
+@Unstable
+public interface GitStatistics
+{
+    /**
+     * @return the number of successful clones
+     */
+    long getCloneCount();
+
+    /**
+     * @return the number of failed clones
+     */
+    long getCloneFailureCount();
+
+    /**
+     * @return the total time spent cloning repositories, including failed clones
+     */
+    long getCloneTime();
+
+    /**
+     * @return the size of the packs received by successful clones, in bytes
+     */
+    long getCloneBytes();
+
+    /**
+     * @return the number of successful fetches, including the ones done to update repositories
+     */
+    long getFetchCount();
+
+    /**
+     * @return the number of failed fetches
+     */
+    long getFetchFailureCount();
+
+    /**
+     * @return the total time spent fetching repositories, including failed fetches
+     */
+    long getFetchTime();
+
+    /**
+     * @return the size of the packs received by successful fetches, in bytes
+     */
+    long getFetchBytes();
+
+    /**
+     * @return the number of repositories opened from disk, i.e. which weren't found in the repository cache
+     */
+    long getOpenCount();
+
+    /**
+     * @return the total time spent opening repositories from disk
+     */
+    long getOpenTime();
+
+    /**
+     * @return the number of author queries (finding authors, counting commits, computing activity series)
+     */
+    long getQueryCount();
+
+    /**
+     * @return the total time spent answering author queries
+     */
+    long getQueryTime();
+
+    /**
+     * @return the number of history walks done to answer author queries, which is lower than the number of
+     *         repositories queried when indexes are up to date
+     */
+    long getWalkCount();
+
+    /**
+     * @return the total time spent walking histories to answer author queries
+     */
+    long getWalkTime();
+
+    /**
+     * @return the number of commits visited by the history walks
+     */
+    long getVisitedCommitCount();
+
+    /**
+     * @return the number of repositories currently open in the repository cache
+     */
+    int getRepositoryCacheSize();
+
+    /**
+     * @return the number of times a repository was found in the repository cache
+     */
+    long getRepositoryCacheHitCount();
+
+    /**
+     * @return the number of times a repository wasn't found in the repository cache
+     */
+    long getRepositoryCacheMissCount();
+
+    /**
+     * @return the number of repositories closed by the repository cache because they were idle, in excess or deleted
+     */
+    long getRepositoryCacheEvictionCount();
+
+    /**
+     * @return the number of author query results currently kept in the query result cache
+     */
+    int getQueryCacheSize();
+
+    /**
+     * @return the number of author queries answered from the query result cache
+     */
+    long getQueryCacheHitCount();
+
+    /**
+     * @return the number of author queries which had to be computed because their result wasn't cached or the
+     *         repositories had changed
+     */
+    long getQueryCacheMissCount();
+
+    /**
+     * @return the number of repositories that have been repacked
+     */
+    long getMaintenanceCount();
+
+    /**
+     * @return the number of repositories that failed to be repacked
+     */
+    long getMaintenanceFailureCount();
+
+    /**
+     * @return the total time spent repacking repositories, including failed attempts
+     */
+    long getMaintenanceTime();
+
+    /**
+     * @return the number of pack files currently open in the JGit pack cache, shared by all the JGit users of the
+     *         application
+     */
+    int getPackCacheOpenFiles();
+
+    /**
+     * @return the number of bytes of pack files currently held in the JGit pack cache, to compare with its configured
+     *         limit
+     */
+    long getPackCacheOpenBytes();
+
+    /**
+     * @return the number of reads of in-memory repositories served from the JGit block cache
+     */
+    long getMemoryPackCacheHitCount();
+
+    /**
+     * @return the number of reads of in-memory repositories that had to load a block
+     */
+    long getMemoryPackCacheMissCount();
+
+    /**
+     * @return the share of the reads of in-memory repositories served from the JGit block cache, between 0 and 1, or
+     *         0 if nothing has been read yet
+     */
+    double getMemoryPackCacheHitRatio();
+
+    /**
+     * @return the number of clones currently running
+     */
+    int getInFlightCloneCount();
+
+    /**
+     * @return the number of fetches currently running
+     */
+    int getInFlightFetchCount();
+
+    /**
+     * @return the number of author queries currently running
+     */
+    int getInFlightQueryCount();
+}
@@ -0,0 +1,127 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.git;
+
+import java.util.concurrent.CompletableFuture;
+
+import org.xwiki.stability.Unstable;
+
+/**
+ * A Git operation running in the background, such as a clone or a history walk. Tasks are identified by an id so that
+ * they can be looked up with {@link GitManager#getTask(String)} from another request than the one which started them,
+ * for example by a page polling for their progress.
+ *
+ * @param <T> the type of the result of the task
+ * @version $Id$
+ * @since 9.11
+ */
+@Unstable
+public interface GitTask<T>
+{
+    /**
+     * The possible states of a task.
+     */
+    enum State
+    {
+        /**
+         * The task is waiting for a thread to execute it.
+         */
+        WAITING,
+
+        /**
+         * The task is running.
+         */
+        RUNNING,
+
+        /**
+         * The task has completed successfully and its result is available.
+         */
+        DONE,
+
+        /**
+         * The task has failed.
+         */
+        FAILED,
+
+        /**
+         * The task has been cancelled.
+         */
+        CANCELLED
+    }
+
+    /**
+     * @return the id of the task
+     */
+    String getId();
+
+    /**
+     * @return the current state of the task
+     */
+    State getState();
+
+    /**
+     * @return {@code true} if the task is over, whether it succeeded, failed or was cancelled
+     */
+    boolean isDone();
+
+    /**
+     * @return the title of the step being executed, as reported by JGit (e.g. "Receiving objects"), {@code null} if
+     *         no step has started yet
+     */
+    String getStep();
+
+    /**
+     * @return the amount of work done in the current step
+     */
+    int getStepCompleted();
+
+    /**
+     * @return the total amount of work of the current step, 0 if unknown
+     */
+    int getStepTotal();
+
+    /**
+     * @return the result of the task, {@code null} if it's not {@link State#DONE}
+     */
+    T getResult();
+
+    /**
+     * @return the reason of the failure of the task, {@code null} if it hasn't failed
+     */
+    String getError();
+
+    /**
+     * @return {@code true} if the task is a query that stopped once its budget was exhausted, in which case its result
+     *         is partial
+     */
+    boolean isTruncated();
+
+    /**
+     * @return a future completed with the result of the task
+     */
+    CompletableFuture<T> getFuture();
+
+    /**
+     * Cancel the task. A waiting task is never executed, a running clone is interrupted.
+     *
+     * @return {@code false} if the task was already over
+     */
+    boolean cancel();
+}
@@ -0,0 +1,108 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.git;
+
+import org.xwiki.stability.Unstable;
+
+/**
+ * The outcome of the maintenance of a repository, with its pack statistics before and after it was repacked.
+ *
+ * @version $Id$
+ * @since 9.11
+ * @see GitManager#maintain(org.eclipse.jgit.lib.Repository, boolean)
+ */
+@Unstable
+public class MaintenanceReport
+{
+    private final String directory;
+
+    private final boolean performed;
+
+    private final PackStatistics before;
+
+    private final PackStatistics after;
+
+    private final long duration;
+
+    /**
+     * @param directory the Git directory of the maintained repository, {@code null} if it's not stored on disk
+     * @param performed {@code true} if the repository has been repacked, {@code false} if it didn't need it
+     * @param before the pack statistics before the maintenance, {@code null} if the repository isn't stored on disk
+     * @param after the pack statistics after the maintenance, the same as {@code before} if it hasn't been performed
+     * @param duration the time spent repacking, in milliseconds
+     */
+    public MaintenanceReport(String directory, boolean performed, PackStatistics before, PackStatistics after,
+        long duration)
+    {
+        this.directory = directory;
+        this.performed = performed;
+        this.before = before;
+        this.after = after;
+        this.duration = duration;
+    }
+
+    /**
+     * @return the Git directory of the maintained repository, {@code null} if it's not stored on disk
+     */
+    public String getDirectory()
+    {
+        return this.directory;
+    }
+
+    /**
+     * @return {@code true} if the repository has been repacked, {@code false} if it didn't need it
+     */
+    public boolean isPerformed()
+    {
+        return this.performed;
+    }
+
+    /**
+     * @return the pack statistics before the maintenance
+     */
+    public PackStatistics getBefore()
+    {
+        return this.before;
+    }
+
+    /**
+     * @return the pack statistics after the maintenance, the same as {@link #getBefore()} if it hasn't been performed
+     */
+    public PackStatistics getAfter()
+    {
+        return this.after;
+    }
+
+    /**
+     * @return the time spent repacking, in milliseconds
+     */
+    public long getDuration()
+    {
+        return this.duration;
+    }
+
+    @Override
+    public String toString()
+    {
+        return this.performed
+            ? String.format("%s repacked in %d ms: %s -> %s", this.directory, this.duration, this.before, this.after)
+            : String.format("%s not repacked: %s", this.directory, this.before);
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.git;
+
+import org.xwiki.stability.Unstable;
+
+/**
+ * How the objects of a repository are stored on disk at a given time, to find out whether it needs to be repacked.
+ * Many loose objects or packs make reading the history slower, since each of them has to be looked up separately.
+ *
+ * @version $Id$
+ * @since 9.11
+ */
+@Unstable
+public class PackStatistics
+{
+    private final long packFileCount;
+
+    private final long packedObjectCount;
+
+    private final long packedObjectSize;
+
+    private final long looseObjectCount;
+
+    private final long looseObjectSize;
+
+    private final long bitmapCount;
+
+    /**
+     * @param packFileCount the number of pack files
+     * @param packedObjectCount the number of objects stored in pack files
+     * @param packedObjectSize the size of the pack files, in bytes
+     * @param looseObjectCount the number of objects stored in their own file
+     * @param looseObjectSize the size of the loose object files, in bytes
+     * @param bitmapCount the number of bitmaps in the pack bitmap indexes
+     */
+    public PackStatistics(long packFileCount, long packedObjectCount, long packedObjectSize, long looseObjectCount,
+        long looseObjectSize, long bitmapCount)
+    {
+        this.packFileCount = packFileCount;
+        this.packedObjectCount = packedObjectCount;
+        this.packedObjectSize = packedObjectSize;
+        this.looseObjectCount = looseObjectCount;
+        this.looseObjectSize = looseObjectSize;
+        this.bitmapCount = bitmapCount;
+    }
+
+    /**
+     * @return the number of pack files
+     */
+    public long getPackFileCount()
+    {
+        return this.packFileCount;
+    }
+
+    /**
+     * @return the number of objects stored in pack files
+     */
+    public long getPackedObjectCount()
+    {
+        return this.packedObjectCount;
+    }
+
+    /**
+     * @return the size of the pack files, in bytes
+     */
+    public long getPackedObjectSize()
+    {
+        return this.packedObjectSize;
+    }
+
+    /**
+     * @return the number of objects stored in their own file
+     */
+    public long getLooseObjectCount()
+    {
+        return this.looseObjectCount;
+    }
+
+    /**
+     * @return the size of the loose object files, in bytes
+     */
+    public long getLooseObjectSize()
+    {
+        return this.looseObjectSize;
+    }
+
+    /**
+     * @return the number of bitmaps in the pack bitmap indexes, 0 if history walks can't use bitmaps
+     */
+    public long getBitmapCount()
+    {
+        return this.bitmapCount;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%d packs (%d objects, %d bytes), %d loose objects (%d bytes), %d bitmaps",
+            this.packFileCount, this.packedObjectCount, this.packedObjectSize, this.looseObjectCount,
+            this.looseObjectSize, this.bitmapCount);
+    }
+}
@@ -0,0 +1,210 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.git;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.xwiki.stability.Unstable;
+
+/**
+ * Limits the work done by a query, so that a single expensive query can't keep a CPU busy for minutes: the query
+ * stops once it has visited the maximum number of commits, once the timeout has elapsed since the budget was created
+ * or once the budget has been cancelled, and returns what it has computed so far, flagged as truncated. Each commit
+ * taken into account by the query counts as one visited commit, and the history of a repository is not walked
+ * further than the number of commits the query can still visit.
+ * <p>
+ * A budget is consumed by a single query and can be cancelled from another thread while the query is running.
+ *
+ * @version $Id$
+ * @since 9.11
+ */
+@Unstable
+public class QueryBudget
+{
+    /**
+     * The limit that stopped a query.
+     */
+    public enum Limit
+    {
+        /**
+         * The maximum number of visited commits has been reached.
+         */
+        COMMITS,
+
+        /**
+         * The timeout has elapsed.
+         */
+        TIMEOUT,
+
+        /**
+         * The budget has been cancelled.
+         */
+        CANCELLED
+    }
+
+    /**
+     * Reading the clock for every visited commit would cost more than visiting most commits.
+     */
+    private static final int CLOCK_CHECK_INTERVAL = 64;
+
+    private final long maxCommits;
+
+    private final long timeout;
+
+    private final long deadline;
+
+    private final AtomicLong visitedCommitCount = new AtomicLong();
+
+    private volatile boolean cancelled;
+
+    private volatile Limit reachedLimit;
+
+    /**
+     * @param maxCommits the maximum number of commits visited by the query, 0 for no limit
+     * @param timeout the maximum number of milliseconds the query can take, starting now, 0 for no limit
+     */
+    public QueryBudget(long maxCommits, long timeout)
+    {
+        this.maxCommits = maxCommits;
+        this.timeout = timeout;
+        this.deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+    }
+
+    /**
+     * @return the maximum number of commits visited by the query, 0 for no limit
+     */
+    public long getMaxCommits()
+    {
+        return this.maxCommits;
+    }
+
+    /**
+     * @return the maximum number of milliseconds the query can take, 0 for no limit
+     */
+    public long getTimeout()
+    {
+        return this.timeout;
+    }
+
+    /**
+     * Stop the query using this budget as soon as possible.
+     */
+    public void cancel()
+    {
+        this.cancelled = true;
+    }
+
+    /**
+     * @return {@code true} if the budget has been cancelled
+     */
+    public boolean isCancelled()
+    {
+        return this.cancelled;
+    }
+
+    /**
+     * Record the visit of a commit by the query.
+     *
+     * @return {@code true} if the commit can be visited, {@code false} if the query must stop
+     */
+    public boolean visit()
+    {
+        long visited = this.visitedCommitCount.incrementAndGet();
+        if (this.maxCommits > 0 && visited > this.maxCommits) {
+            this.visitedCommitCount.decrementAndGet();
+            reach(Limit.COMMITS);
+            return false;
+        }
+        if (visited % CLOCK_CHECK_INTERVAL == 0) {
+            return !isExhausted();
+        }
+        // Other threads may still visit commits within the limit, but not once the time is over.
+        Limit limit = this.reachedLimit;
+        return limit == null || limit == Limit.COMMITS;
+    }
+
+    /**
+     * @return {@code true} if the query must stop because the budget has been cancelled or because the timeout has
+     *         elapsed
+     */
+    public boolean isExhausted()
+    {
+        Limit limit = this.reachedLimit;
+        if (limit == null || limit == Limit.COMMITS) {
+            if (this.cancelled) {
+                reach(Limit.CANCELLED);
+            } else if (this.timeout > 0 && System.nanoTime() - this.deadline > 0) {
+                reach(Limit.TIMEOUT);
+            }
+        }
+        limit = this.reachedLimit;
+        return limit == Limit.CANCELLED || limit == Limit.TIMEOUT;
+    }
+
+    /**
+     * Check whether a history walk can go on, without recording any visit: walked commits are visited later, when
+     * they are taken into account by the query.
+     *
+     * @param pendingCommits the number of commits already walked and not visited yet
+     * @return {@code true} if the walk must stop because the query can't visit another commit, because the budget
+     *         has been cancelled or because the timeout has elapsed
+     */
+    public boolean isExhausted(long pendingCommits)
+    {
+        if (this.maxCommits > 0 && getVisitedCommitCount() + pendingCommits >= this.maxCommits) {
+            reach(Limit.COMMITS);
+            return true;
+        }
+        return isExhausted();
+    }
+
+    /**
+     * @return {@code true} if the query has been stopped before completing
+     */
+    public boolean isTruncated()
+    {
+        return this.reachedLimit != null;
+    }
+
+    /**
+     * @return the limit that stopped the query, {@code null} if it hasn't been stopped
+     */
+    public Limit getReachedLimit()
+    {
+        return this.reachedLimit;
+    }
+
+    /**
+     * @return the number of commits visited so far
+     */
+    public long getVisitedCommitCount()
+    {
+        return this.visitedCommitCount.get();
+    }
+
+    private synchronized void reach(Limit limit)
+    {
+        // Running out of time or being cancelled takes precedence since it stops the whole query.
+        if (this.reachedLimit == null || (this.reachedLimit == Limit.COMMITS && limit != Limit.COMMITS)) {
+            this.reachedLimit = limit;
+        }
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.git;
+
+import org.xwiki.stability.Unstable;
+
+/**
+ * The result of a query executed with a {@link QueryBudget}, which may be partial if the budget was exhausted before
+ * the query completed.
+ *
+ * @param <T> the type of the result
+ * @version $Id$
+ * @since 9.11
+ */
+@Unstable
+public class QueryResult<T>
+{
+    private final T value;
+
+    private final QueryBudget.Limit reachedLimit;
+
+    private final long visitedCommitCount;
+
+    /**
+     * @param value the result of the query, partial if a limit has been reached
+     * @param reachedLimit the limit that stopped the query, {@code null} if it completed
+     * @param visitedCommitCount the number of commits visited by the query
+     */
+    public QueryResult(T value, QueryBudget.Limit reachedLimit, long visitedCommitCount)
+    {
+        this.value = value;
+        this.reachedLimit = reachedLimit;
+        this.visitedCommitCount = visitedCommitCount;
+    }
+
+    /**
+     * @return the result of the query, only covering part of the history if {@link #isTruncated()}
+     */
+    public T getValue()
+    {
+        return this.value;
+    }
+
+    /**
+     * @return {@code true} if the query has been stopped before completing, in which case the result is partial
+     */
+    public boolean isTruncated()
+    {
+        return this.reachedLimit != null;
+    }
+
+    /**
+     * @return the limit that stopped the query, {@code null} if it completed
+     */
+    public QueryBudget.Limit getReachedLimit()
+    {
+        return this.reachedLimit;
+    }
+
+    /**
+     * @return the number of commits visited by the query, 0 if its result was already cached
+     */
+    public long getVisitedCommitCount()
+    {
+        return this.visitedCommitCount;
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.git;
+
+import org.eclipse.jgit.transport.CredentialsProvider;
+import org.xwiki.stability.Unstable;
+
+/**
+ * A repository to clone, or to update if it has already been cloned, as part of a bulk synchronization.
+ *
+ * @version $Id$
+ * @since 9.11
+ * @see GitManager#synchronize(java.util.List)
+ */
+@Unstable
+public class SyncRequest
+{
+    private final String repositoryURI;
+
+    private final String localDirectoryName;
+
+    private final CloneMode mode;
+
+    private final String branch;
+
+    private final CredentialsProvider credentialsProvider;
+
+    /**
+     * @param repositoryURI the URI of the Git repository to clone
+     * @param localDirectoryName the name of the directory where the repository is cloned, relative to the permanent
+     *        directory
+     * @param credentialsProvider the credentials used to clone and fetch, {@code null} for anonymous access
+     */
+    public SyncRequest(String repositoryURI, String localDirectoryName, CredentialsProvider credentialsProvider)
+    {
+        this(repositoryURI, localDirectoryName, null, null, credentialsProvider);
+    }
+
+    /**
+     * @param repositoryURI the URI of the Git repository to clone
+     * @param localDirectoryName the name of the directory where the repository is cloned, relative to the permanent
+     *        directory
+     * @param mode how the repository is cloned, {@code null} for the configured clone mode
+     * @param branch the only branch to clone and update, {@code null} for all branches
+     * @param credentialsProvider the credentials used to clone and fetch, {@code null} for anonymous access
+     */
+    public SyncRequest(String repositoryURI, String localDirectoryName, CloneMode mode, String branch,
+        CredentialsProvider credentialsProvider)
+    {
+        this.repositoryURI = repositoryURI;
+        this.localDirectoryName = localDirectoryName;
+        this.mode = mode;
+        this.branch = branch;
+        this.credentialsProvider = credentialsProvider;
+    }
+
+    /**
+     * @return the URI of the Git repository to clone
+     */
+    public String getRepositoryURI()
+    {
+        return this.repositoryURI;
+    }
+
+    /**
+     * @return the name of the directory where the repository is cloned, relative to the permanent directory
+     */
+    public String getLocalDirectoryName()
+    {
+        return this.localDirectoryName;
+    }
+
+    /**
+     * @return how the repository is cloned, {@code null} for the configured clone mode
+     */
+    public CloneMode getMode()
+    {
+        return this.mode;
+    }
+
+    /**
+     * @return the only branch to clone and update, {@code null} for all branches
+     */
+    public String getBranch()
+    {
+        return this.branch;
+    }
+
+    /**
+     * @return the credentials used to clone and fetch, {@code null} for anonymous access
+     */
+    public CredentialsProvider getCredentialsProvider()
+    {
+        return this.credentialsProvider;
+    }
+}
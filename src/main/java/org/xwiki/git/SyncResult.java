@@ -0,0 +1,158 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.git;
+
+import org.eclipse.jgit.lib.Repository;
+import org.xwiki.stability.Unstable;
+
+/**
+ * The outcome of the synchronization of a repository, as part of a bulk synchronization.
+ *
+ * @version $Id$
+ * @since 9.11
+ * @see GitManager#synchronize(java.util.List)
+ */
+@Unstable
+public class SyncResult
+{
+    /**
+     * What happened to the repository.
+     */
+    public enum Status
+    {
+        /**
+         * The repository has been cloned.
+         */
+        CLONED,
+
+        /**
+         * The repository was already cloned and new commits have been fetched.
+         */
+        UPDATED,
+
+        /**
+         * The repository was already cloned and there was nothing new to fetch.
+         */
+        UP_TO_DATE,
+
+        /**
+         * The repository was already cloned and another node sharing the permanent directory was updating it: this
+         * node waited for that update to finish instead of fetching, so whether new commits were fetched is unknown.
+         */
+        UPDATED_BY_OTHER_NODE,
+
+        /**
+         * All the attempts to clone or update the repository have failed.
+         */
+        FAILED,
+
+        /**
+         * The synchronization has been cancelled before the repository could be synchronized.
+         */
+        CANCELLED
+    }
+
+    private final SyncRequest request;
+
+    private final Status status;
+
+    private final Repository repository;
+
+    private final int attempts;
+
+    private final long duration;
+
+    private final String error;
+
+    /**
+     * @param request the synchronized repository
+     * @param status what happened to the repository
+     * @param repository the synchronized repository, {@code null} if the synchronization failed
+     * @param attempts the number of attempts made to clone or update the repository
+     * @param duration the number of milliseconds between the first attempt and the end of the last one
+     * @param error the reason of the last failure, {@code null} if the last attempt succeeded
+     */
+    public SyncResult(SyncRequest request, Status status, Repository repository, int attempts, long duration,
+        String error)
+    {
+        this.request = request;
+        this.status = status;
+        this.repository = repository;
+        this.attempts = attempts;
+        this.duration = duration;
+        this.error = error;
+    }
+
+    /**
+     * @return the synchronized repository
+     */
+    public SyncRequest getRequest()
+    {
+        return this.request;
+    }
+
+    /**
+     * @return what happened to the repository
+     */
+    public Status getStatus()
+    {
+        return this.status;
+    }
+
+    /**
+     * @return {@code true} if the repository has been cloned or updated, or was already up to date
+     */
+    public boolean isSuccessful()
+    {
+        return this.repository != null;
+    }
+
+    /**
+     * @return the synchronized repository, {@code null} if the synchronization failed
+     */
+    public Repository getRepository()
+    {
+        return this.repository;
+    }
+
+    /**
+     * @return the number of attempts made to clone or update the repository, 0 if it's been cancelled before
+     */
+    public int getAttempts()
+    {
+        return this.attempts;
+    }
+
+    /**
+     * @return the number of milliseconds between the first attempt and the end of the last one
+     */
+    public long getDuration()
+    {
+        return this.duration;
+    }
+
+    /**
+     * @return the reason of the last failure, {@code null} if the last attempt succeeded
+     */
+    public String getError()
+    {
+        return this.error;
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.git.internal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.joda.time.DateTime;
+import org.xwiki.git.ActivityPeriod;
+import org.xwiki.git.ActivitySeries;
+
+/**
+ * Counts commits in time buckets, per author, per repository and in total, using one array of counters per series.
+ * The bucket of a commit is found with a binary search on the bucket start times.
+ *
+ * @version $Id$
+ * @since 9.11
+ */
+public class ActivityCounter
+{
+    private final ActivityPeriod period;
+
+    private final long[] bucketStarts;
+
+    private final List<String> authors = new ArrayList<>();
+
+    private final Map<String, String> authorNames = new HashMap<>();
+
+    private final Map<String, int[]> authorCounts = new HashMap<>();
+
+    private final int[][] repositoryCounts;
+
+    private final int[] totalCounts;
+
+    /**
+     * @param period the length of the buckets
+     * @param start the time from which to count commits, in milliseconds; the first bucket starts at the beginning of
+     *        the period containing that time
+     * @param end the time up to which to count commits, in milliseconds
+     * @param repositoryCount the number of repositories in which commits are counted
+     */
+    public ActivityCounter(ActivityPeriod period, long start, long end, int repositoryCount)
+    {
+        this.period = period;
+        this.bucketStarts = computeBucketStarts(period, start, end);
+        this.repositoryCounts = new int[repositoryCount][this.bucketStarts.length];
+        this.totalCounts = new int[this.bucketStarts.length];
+    }
+
+    private static long[] computeBucketStarts(ActivityPeriod period, long start, long end)
+    {
+        DateTime bucketStart = new DateTime(start).withTimeAtStartOfDay();
+        if (period == ActivityPeriod.WEEK) {
+            bucketStart = bucketStart.withDayOfWeek(1);
+        } else if (period == ActivityPeriod.MONTH) {
+            bucketStart = bucketStart.withDayOfMonth(1);
+        }
+
+        List<Long> starts = new ArrayList<>();
+        do {
+            starts.add(bucketStart.getMillis());
+            bucketStart = next(period, bucketStart);
+        } while (bucketStart.getMillis() <= end);
+
+        long[] result = new long[starts.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = starts.get(i);
+        }
+        return result;
+    }
+
+    private static DateTime next(ActivityPeriod period, DateTime bucketStart)
+    {
+        switch (period) {
+            case WEEK:
+                return bucketStart.plusWeeks(1);
+            case MONTH:
+                return bucketStart.plusMonths(1);
+            default:
+                return bucketStart.plusDays(1);
+        }
+    }
+
+    /**
+     * @param repository the position of the repository in the list of queried repositories
+     * @return a visitor counting the commits of the passed repository
+     */
+    public CommitVisitor forRepository(int repository)
+    {
+        return (name, email, time) -> add(repository, name, email, time);
+    }
+
+    private void add(int repository, String name, String email, long time)
+    {
+        int bucket = Arrays.binarySearch(this.bucketStarts, time);
+        if (bucket < 0) {
+            // Not a bucket start: binarySearch returns -(insertion point) - 1 and the bucket is the one before.
+            bucket = -bucket - 2;
+            if (bucket < 0) {
+                // Before the first bucket.
+                return;
+            }
+        }
+
+        int[] counts = this.authorCounts.get(email);
+        if (counts == null) {
+            counts = new int[this.bucketStarts.length];
+            this.authorCounts.put(email, counts);
+            this.authorNames.put(email, name);
+            this.authors.add(email);
+        }
+        counts[bucket]++;
+        this.repositoryCounts[repository][bucket]++;
+        this.totalCounts[bucket]++;
+    }
+
+    /**
+     * @return the counted series
+     */
+    public ActivitySeries getSeries()
+    {
+        return new ActivitySeries(this.period, this.bucketStarts, this.authors, this.authorNames, this.authorCounts,
+            this.repositoryCounts, this.totalCounts);
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.git.internal;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.xwiki.git.AuthorCommitCount;
+
+/**
+ * Counts commits per author in a single pass, keeping only primitive counters: each distinct email gets a slot in
+ * arrays holding its commit count and the times of its oldest and most recent commits. This is what most callers of
+ * {@link org.xwiki.git.GitManager#countAuthorCommits(java.util.Date, java.util.List)} use, at a fraction of the
+ * memory needed to keep the id and time of every commit.
+ *
+ * @version $Id$
+ * @since 9.11
+ */
+public class AuthorCounter
+{
+    private final Map<String, Integer> slots = new HashMap<>();
+
+    private String[] names = new String[16];
+
+    private String[] emails = new String[16];
+
+    private int[] counts = new int[16];
+
+    private long[] earliest = new long[16];
+
+    private long[] latest = new long[16];
+
+    /**
+     * Count a commit.
+     *
+     * @param name the name of the author, only kept for the first commit of an email
+     * @param email the email of the author, identifying it
+     * @param time the time of the commit, in milliseconds
+     */
+    public void add(String name, String email, long time)
+    {
+        Integer slot = this.slots.get(email);
+        if (slot == null) {
+            slot = this.slots.size();
+            if (slot == this.counts.length) {
+                grow();
+            }
+            this.slots.put(email, slot);
+            this.names[slot] = name;
+            this.emails[slot] = email;
+            this.earliest[slot] = time;
+            this.latest[slot] = time;
+        } else {
+            this.earliest[slot] = Math.min(this.earliest[slot], time);
+            this.latest[slot] = Math.max(this.latest[slot], time);
+        }
+        this.counts[slot]++;
+    }
+
+    private void grow()
+    {
+        int capacity = this.counts.length * 2;
+        this.names = Arrays.copyOf(this.names, capacity);
+        this.emails = Arrays.copyOf(this.emails, capacity);
+        this.counts = Arrays.copyOf(this.counts, capacity);
+        this.earliest = Arrays.copyOf(this.earliest, capacity);
+        this.latest = Arrays.copyOf(this.latest, capacity);
+    }
+
+    /**
+     * @return the counted authors, sorted by descending number of commits like
+     *         {@link org.gitective.core.stat.CommitCountComparator} does; authors with the same number of commits are
+     *         in the order in which they were first seen
+     */
+    public AuthorCommitCount[] getCounts()
+    {
+        AuthorCommitCount[] result = new AuthorCommitCount[this.slots.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] =
+                new AuthorCommitCount(this.names[i], this.emails[i], this.counts[i], this.earliest[i], this.latest[i]);
+        }
+        // Arrays.sort is stable for objects.
+        Arrays.sort(result, (first, second) -> Integer.compare(second.getCount(), first.getCount()));
+        return result;
+    }
+}
@@ -0,0 +1,422 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.git.internal;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.gitective.core.PersonComparator;
+import org.gitective.core.stat.CommitHistogram;
+import org.xwiki.git.QueryBudget;
+
+/**
+ * The authors of all the commits reachable from the indexed refs of a repository, stored in columns (commit id,
+ * author time, commit time and author identity) in the order in which the history walk returned them, so that the
+ * results of the {@link org.xwiki.git.GitManager} queries computed from it are the ones a full history walk would
+ * return. An incrementally updated index keeps that order as long as commit times don't go backwards in the history:
+ * the new commits are interleaved with the indexed ones by descending commit time, which is the order of the walk.
+ * <p>
+ * The index also records the tip of each indexed ref when it was last updated, so that only the commits added since
+ * then have to be walked to bring it up to date. It can be serialized with {@link #write(DataOutputStream)} and read
+ * back with {@link #read(DataInputStream)}.
+ *
+ * @version $Id$
+ * @since 9.11
+ */
+public class AuthorIndex
+{
+    private static final int MAGIC = 0x58474149;
+
+    private static final int VERSION = 2;
+
+    private static final int ID_LENGTH = Constants.OBJECT_ID_LENGTH;
+
+    private final Map<String, ObjectId> tips = new LinkedHashMap<>();
+
+    private final List<String> names = new ArrayList<>();
+
+    private final List<String> emails = new ArrayList<>();
+
+    private final Map<String, Integer> identities = new HashMap<>();
+
+    private byte[] ids = new byte[0];
+
+    private long[] times = new long[0];
+
+    /**
+     * The commit times, in seconds, which define the walk order.
+     */
+    private int[] commitTimes = new int[0];
+
+    private int[] authors = new int[0];
+
+    private int size;
+
+    /**
+     * @param ref the name of an indexed ref
+     * @return the tip of the ref when the index was last updated, {@code null} if the ref is not indexed
+     */
+    public ObjectId getTip(String ref)
+    {
+        return this.tips.get(ref);
+    }
+
+    /**
+     * @param ref the name of an indexed ref
+     * @param tip the commit the ref points to, up to which the index is now up to date
+     */
+    public void setTip(String ref, ObjectId tip)
+    {
+        this.tips.put(ref, tip.copy());
+    }
+
+    /**
+     * @return the number of indexed commits
+     */
+    public int size()
+    {
+        return this.size;
+    }
+
+    /**
+     * Add a commit after the already indexed ones.
+     *
+     * @param commit the commit to add, with its body parsed
+     */
+    public void add(RevCommit commit)
+    {
+        PersonIdent author = commit.getAuthorIdent();
+        add(commit, author.getName(), author.getEmailAddress(), author.getWhen().getTime(), commit.getCommitTime());
+    }
+
+    private void add(ObjectId id, String name, String email, long time, int commitTime)
+    {
+        if (this.size == this.times.length) {
+            int capacity = Math.max(16, this.size + (this.size >> 1));
+            this.ids = Arrays.copyOf(this.ids, capacity * ID_LENGTH);
+            this.times = Arrays.copyOf(this.times, capacity);
+            this.commitTimes = Arrays.copyOf(this.commitTimes, capacity);
+            this.authors = Arrays.copyOf(this.authors, capacity);
+        }
+        id.copyRawTo(this.ids, this.size * ID_LENGTH);
+        this.times[this.size] = time;
+        this.commitTimes[this.size] = commitTime;
+        this.authors[this.size] = getIdentity(name, email);
+        this.size++;
+    }
+
+    private int getIdentity(String name, String email)
+    {
+        String key = name + '\n' + email;
+        Integer identity = this.identities.get(key);
+        if (identity == null) {
+            identity = this.names.size();
+            this.names.add(name);
+            this.emails.add(email);
+            this.identities.put(key, identity);
+        }
+        return identity;
+    }
+
+    /**
+     * Merge the commits of the passed index with the already indexed ones. This is used to add the commits walked
+     * from the new tips of the refs. They usually all come first in walk order, but a merge can bring in commits older
+     * than already indexed ones: the two ranges are then interleaved by descending commit time, like the history walk
+     * returns them.
+     *
+     * @param newer the index of the commits added since the last update, in walk order
+     */
+    public void merge(AuthorIndex newer)
+    {
+        AuthorIndex merged = new AuthorIndex();
+        int i = 0;
+        int j = 0;
+        while (i < newer.size || j < this.size) {
+            if (j == this.size || (i < newer.size && newer.commitTimes[i] >= this.commitTimes[j])) {
+                merged.copy(newer, i++);
+            } else {
+                merged.copy(this, j++);
+            }
+        }
+
+        this.names.clear();
+        this.names.addAll(merged.names);
+        this.emails.clear();
+        this.emails.addAll(merged.emails);
+        this.identities.clear();
+        this.identities.putAll(merged.identities);
+        this.ids = merged.ids;
+        this.times = merged.times;
+        this.commitTimes = merged.commitTimes;
+        this.authors = merged.authors;
+        this.size = merged.size;
+    }
+
+    private void copy(AuthorIndex other, int position)
+    {
+        int author = other.authors[position];
+        add(other.getId(position), other.names.get(author), other.emails.get(author), other.times[position],
+            other.commitTimes[position]);
+    }
+
+    private ObjectId getId(int position)
+    {
+        return ObjectId.fromRaw(this.ids, position * ID_LENGTH);
+    }
+
+    /**
+     * Add the indexed commits authored since the passed date to a histogram, in walk order.
+     *
+     * @param histogram the histogram to fill
+     * @param since the date from which to count commits, {@code null} to count all commits
+     * @param walk used to get the {@link RevCommit} instances expected by the histogram; commits are not parsed
+     */
+    public void include(CommitHistogram histogram, Date since, RevWalk walk)
+    {
+        include(histogram, since, walk, null);
+    }
+
+    /**
+     * Add the indexed commits authored since the passed date and not seen yet to a histogram, in walk order.
+     *
+     * @param histogram the histogram to fill
+     * @param since the date from which to count commits, {@code null} to count all commits
+     * @param walk used to get the {@link RevCommit} instances expected by the histogram; commits are not parsed
+     * @param seen the commits already counted, which are skipped; the counted commits are added to it. {@code null}
+     *        to count all commits
+     */
+    public void include(CommitHistogram histogram, Date since, RevWalk walk, ObjectIdSet seen)
+    {
+        include(histogram, since, walk, seen, null);
+    }
+
+    /**
+     * Add the indexed commits authored since the passed date and not seen yet to a histogram, in walk order, until
+     * the passed budget is exhausted.
+     *
+     * @param histogram the histogram to fill
+     * @param since the date from which to count commits, {@code null} to count all commits
+     * @param walk used to get the {@link RevCommit} instances expected by the histogram; commits are not parsed
+     * @param seen the commits already counted, which are skipped; the counted commits are added to it. {@code null}
+     *        to count all commits
+     * @param budget charged for each counted commit, {@code null} for no limit
+     */
+    public void include(CommitHistogram histogram, Date since, RevWalk walk, ObjectIdSet seen, QueryBudget budget)
+    {
+        long start = since != null ? since.getTime() : Long.MIN_VALUE;
+        for (int i = 0; i < this.size; i++) {
+            if (this.times[i] < start || (seen != null && !seen.add(this.ids, i * ID_LENGTH))) {
+                continue;
+            }
+            if (budget != null && !budget.visit()) {
+                break;
+            }
+            histogram.include(walk.lookupCommit(getId(i)), getPerson(this.authors[i], this.times[i]));
+        }
+    }
+
+    /**
+     * Visit the indexed commits authored since the passed date, in walk order.
+     *
+     * @param since the date from which to visit commits, {@code null} to visit all commits
+     * @param visitor the visitor to call for each commit
+     */
+    public void visit(Date since, CommitVisitor visitor)
+    {
+        visit(since, visitor, null);
+    }
+
+    /**
+     * Visit the indexed commits authored since the passed date and not seen yet, in walk order.
+     *
+     * @param since the date from which to visit commits, {@code null} to visit all commits
+     * @param visitor the visitor to call for each commit
+     * @param seen the commits already visited, which are skipped; the visited commits are added to it. {@code null}
+     *        to visit all commits
+     */
+    public void visit(Date since, CommitVisitor visitor, ObjectIdSet seen)
+    {
+        visit(since, visitor, seen, null);
+    }
+
+    /**
+     * Visit the indexed commits authored since the passed date and not seen yet, in walk order, until the passed
+     * budget is exhausted.
+     *
+     * @param since the date from which to visit commits, {@code null} to visit all commits
+     * @param visitor the visitor to call for each commit
+     * @param seen the commits already visited, which are skipped; the visited commits are added to it. {@code null}
+     *        to visit all commits
+     * @param budget charged for each visited commit, {@code null} for no limit
+     */
+    public void visit(Date since, CommitVisitor visitor, ObjectIdSet seen, QueryBudget budget)
+    {
+        long start = since != null ? since.getTime() : Long.MIN_VALUE;
+        for (int i = 0; i < this.size; i++) {
+            if (this.times[i] < start || (seen != null && !seen.add(this.ids, i * ID_LENGTH))) {
+                continue;
+            }
+            if (budget != null && !budget.visit()) {
+                break;
+            }
+            int author = this.authors[i];
+            visitor.visit(this.names.get(author), this.emails.get(author), this.times[i]);
+        }
+    }
+
+    /**
+     * @return the time of the oldest indexed commit, in milliseconds, or {@link Long#MAX_VALUE} if the index is empty
+     */
+    public long getEarliestTime()
+    {
+        long earliest = Long.MAX_VALUE;
+        for (int i = 0; i < this.size; i++) {
+            earliest = Math.min(earliest, this.times[i]);
+        }
+        return earliest;
+    }
+
+    /**
+     * Add the authors of the indexed commits to a set of persons. Like gitective's
+     * {@link org.gitective.core.filter.commit.AuthorSetFilter}, an author is identified by its name and email and the
+     * first commit in walk order gives the time of the returned person.
+     *
+     * @param persons the set to fill, sorted using {@link PersonComparator}
+     */
+    public void includeAuthors(Set<PersonIdent> persons)
+    {
+        BitSet seen = new BitSet(this.names.size());
+        int remaining = this.names.size();
+        for (int i = 0; i < this.size && remaining > 0; i++) {
+            int author = this.authors[i];
+            if (!seen.get(author)) {
+                seen.set(author);
+                remaining--;
+                persons.add(getPerson(author, this.times[i]));
+            }
+        }
+    }
+
+    /**
+     * @return an empty set of persons using the same identity as the one of the index
+     */
+    public static Set<PersonIdent> createAuthorSet()
+    {
+        return new TreeSet<>(new PersonComparator());
+    }
+
+    private PersonIdent getPerson(int author, long time)
+    {
+        return new PersonIdent(this.names.get(author), this.emails.get(author), time, 0);
+    }
+
+    /**
+     * @param output where to write the index
+     * @throws IOException when failing to write the index
+     */
+    public void write(DataOutputStream output) throws IOException
+    {
+        output.writeInt(MAGIC);
+        output.writeInt(VERSION);
+
+        output.writeInt(this.tips.size());
+        for (Map.Entry<String, ObjectId> tip : this.tips.entrySet()) {
+            output.writeUTF(tip.getKey());
+            byte[] raw = new byte[ID_LENGTH];
+            tip.getValue().copyRawTo(raw, 0);
+            output.write(raw);
+        }
+
+        output.writeInt(this.names.size());
+        for (int i = 0; i < this.names.size(); i++) {
+            output.writeUTF(this.names.get(i));
+            output.writeUTF(this.emails.get(i));
+        }
+
+        output.writeInt(this.size);
+        output.write(this.ids, 0, this.size * ID_LENGTH);
+        for (int i = 0; i < this.size; i++) {
+            output.writeLong(this.times[i]);
+            output.writeInt(this.commitTimes[i]);
+            output.writeInt(this.authors[i]);
+        }
+    }
+
+    /**
+     * @param input where to read the index from
+     * @return the index, or {@code null} if it was written in an unsupported format
+     * @throws IOException when failing to read the index
+     */
+    public static AuthorIndex read(DataInputStream input) throws IOException
+    {
+        if (input.readInt() != MAGIC || input.readInt() != VERSION) {
+            return null;
+        }
+
+        AuthorIndex index = new AuthorIndex();
+
+        int tipCount = input.readInt();
+        for (int i = 0; i < tipCount; i++) {
+            String ref = input.readUTF();
+            byte[] raw = new byte[ID_LENGTH];
+            input.readFully(raw);
+            index.tips.put(ref, ObjectId.fromRaw(raw));
+        }
+
+        int identityCount = input.readInt();
+        for (int i = 0; i < identityCount; i++) {
+            index.getIdentity(input.readUTF(), input.readUTF());
+        }
+
+        int count = input.readInt();
+        index.ids = new byte[count * ID_LENGTH];
+        index.times = new long[count];
+        index.commitTimes = new int[count];
+        index.authors = new int[count];
+        input.readFully(index.ids);
+        for (int i = 0; i < count; i++) {
+            index.times[i] = input.readLong();
+            index.commitTimes[i] = input.readInt();
+            index.authors[i] = input.readInt();
+            if (index.authors[i] < 0 || index.authors[i] >= identityCount) {
+                throw new IOException("Invalid author identity in index");
+            }
+        }
+        index.size = count;
+
+        return index;
+    }
+}
@@ -0,0 +1,378 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.git.internal;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.Lock;
+
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevSort;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.revwalk.filter.CommitTimeRevFilter;
+import org.slf4j.Logger;
+import org.xwiki.git.QueryBudget;
+
+/**
+ * Provides up to date {@link AuthorIndex} instances for repositories. The index of a repository cloned in the
+ * permanent directory is stored in its Git directory and updated incrementally: when the indexed ref has moved
+ * forward only the new commits are walked, and when it has been rewritten (force push, branch switch) the index is
+ * rebuilt from scratch. The index of any other repository is computed in memory on each call, since we don't own its
+ * directory. The stored indexes of the most recently queried repositories are also kept in memory, and only read again
+ * when their file is modified, for instance by another node sharing the permanent directory. Since they can be used
+ * by several queries at the same time, they are never modified: updating an index creates a new one. When only the
+ * commits authored since a given date are needed, that walk is sorted by commit time and
+ * stops as soon as all the remaining commits have been committed before that date, minus a clock skew tolerance, so
+ * that its cost depends on the size of the time window rather than on the size of the history.
+ *
+ * @version $Id$
+ * @since 9.11
+ */
+public class AuthorIndexManager
+{
+    /**
+     * Name of the index file, in the Git directory of the repository.
+     */
+    private static final String INDEX_FILE = "xwiki-authors.idx";
+
+    private static final int MAX_LOADED_INDEXES = 16;
+
+    private final Path rootDirectory;
+
+    private final boolean persistent;
+
+    private final long clockSkewTolerance;
+
+    private final GitMetrics metrics;
+
+    private final Logger logger;
+
+    private final StripedLock locks = new StripedLock(16);
+
+    private final Map<File, LoadedIndex> loadedIndexes = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * An index along with the modification time and size of its file when it was read or written.
+     */
+    private static final class LoadedIndex
+    {
+        private final AuthorIndex index;
+
+        private final long lastModified;
+
+        private final long length;
+
+        LoadedIndex(AuthorIndex index, File indexFile)
+        {
+            this.index = index;
+            this.lastModified = indexFile.lastModified();
+            this.length = indexFile.length();
+        }
+
+        boolean isCurrent(File indexFile)
+        {
+            return indexFile.lastModified() == this.lastModified && indexFile.length() == this.length;
+        }
+    }
+
+    /**
+     * @param rootDirectory only the indexes of the repositories located in this directory are stored
+     * @param persistent {@code false} to never store indexes
+     * @param clockSkewTolerance the number of milliseconds a commit can have been committed before it was authored
+     * @param metrics where to record the history walks
+     * @param logger the logger to report index failures to
+     */
+    public AuthorIndexManager(File rootDirectory, boolean persistent, long clockSkewTolerance, GitMetrics metrics,
+        Logger logger)
+    {
+        this.rootDirectory = rootDirectory.toPath().toAbsolutePath().normalize();
+        this.persistent = persistent;
+        this.clockSkewTolerance = clockSkewTolerance;
+        this.metrics = metrics;
+        this.logger = logger;
+    }
+
+    /**
+     * @param repository the repository for which to get the index
+     * @return the index of all the commits reachable from {@code HEAD} in the passed repository
+     * @throws IOException when failing to walk the repository history
+     */
+    public AuthorIndex getIndex(Repository repository) throws IOException
+    {
+        return getIndex(repository, null);
+    }
+
+    /**
+     * @param repository the repository for which to get the index
+     * @param since the date from which commits are needed, {@code null} to get all commits
+     * @return an index containing at least all the commits authored since the passed date and reachable from
+     *         {@code HEAD} in the passed repository; it may contain older commits
+     * @throws IOException when failing to walk the repository history
+     */
+    public AuthorIndex getIndex(Repository repository, Date since) throws IOException
+    {
+        return getIndex(repository, since, null);
+    }
+
+    /**
+     * @param repository the repository for which to get the index
+     * @param since the date from which commits are needed, {@code null} to get all commits
+     * @param excluded commits whose history has already been taken into account, typically while walking another
+     *        repository sharing part of its history with this one, {@code null} if there are none. When the history
+     *        has to be walked, it's not walked further than these commits, which are then not indexed either; they
+     *        may still be part of a stored index.
+     * @return an index containing at least all the commits authored since the passed date, reachable from
+     *         {@code HEAD} in the passed repository and not reachable from the excluded commits; it may contain other
+     *         commits
+     * @throws IOException when failing to walk the repository history
+     */
+    public AuthorIndex getIndex(Repository repository, Date since, ObjectIdSet excluded) throws IOException
+    {
+        return getIndex(repository, since, excluded, null);
+    }
+
+    /**
+     * @param repository the repository for which to get the index
+     * @param since the date from which commits are needed, {@code null} to get all commits
+     * @param excluded commits whose history has already been taken into account, {@code null} if there are none
+     * @param budget the budget of the query using the index, {@code null} for no limit. The walk stops once it has
+     *        walked as many commits as the query can still visit, and the returned index then only contains the most
+     *        recent commits; such a partial index is never stored.
+     * @return an index containing at least all the commits authored since the passed date, reachable from
+     *         {@code HEAD} in the passed repository and not reachable from the excluded commits, unless the budget
+     *         has been exhausted; it may contain other commits
+     * @throws IOException when failing to walk the repository history
+     * @see #getIndex(Repository, Date, ObjectIdSet)
+     */
+    public AuthorIndex getIndex(Repository repository, Date since, ObjectIdSet excluded, QueryBudget budget)
+        throws IOException
+    {
+        File indexFile = getIndexFile(repository);
+        if (indexFile == null) {
+            return walk(repository, since, excluded, budget);
+        }
+
+        Lock lock = this.locks.get(indexFile);
+        lock.lock();
+        try {
+            AuthorIndex index = load(indexFile);
+            ObjectId tip = repository.resolve(Constants.HEAD);
+            if (index != null && tip != null && tip.equals(index.getTip(Constants.HEAD))) {
+                return index;
+            }
+            AuthorIndex updatedIndex = update(repository, index, budget);
+            if (updatedIndex.getTip(Constants.HEAD) != null && save(updatedIndex, indexFile)) {
+                remember(indexFile, updatedIndex);
+            }
+            return updatedIndex;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Bring the passed index up to date with the {@code HEAD} of the repository.
+     *
+     * @param repository the indexed repository
+     * @param index the previous index, which isn't modified, {@code null} to create a new one
+     * @param budget the budget of the query using the index, {@code null} for no limit
+     * @return the updated index, or only the newest commits without any tip if the budget got exhausted
+     */
+    private AuthorIndex update(Repository repository, AuthorIndex index, QueryBudget budget) throws IOException
+    {
+        ObjectId tip = repository.resolve(Constants.HEAD);
+        if (tip == null) {
+            // Empty repository.
+            return new AuthorIndex();
+        }
+
+        long start = System.nanoTime();
+        try (RevWalk walk = new RevWalk(repository)) {
+            RevCommit tipCommit = walk.parseCommit(tip);
+            RevCommit previousTip = getPreviousTip(walk, index);
+
+            AuthorIndex result = new AuthorIndex();
+            if (previousTip != null && walk.isMergedInto(previousTip, tipCommit)) {
+                // Only walk the commits added since the last update, on a copy of the index.
+                result.merge(index);
+                walk.reset();
+                walk.markUninteresting(previousTip);
+            } else {
+                if (index != null) {
+                    this.logger.debug("History of [{}] has been rewritten, rebuilding its author index",
+                        repository.getDirectory());
+                }
+                walk.reset();
+            }
+            walk.markStart(tipCommit);
+
+            AuthorIndex newCommits = new AuthorIndex();
+            for (RevCommit commit : walk) {
+                if (budget != null && budget.isExhausted(newCommits.size())) {
+                    // The previous index can't be reused since the commits in between are missing.
+                    this.metrics.historyWalked(start, newCommits.size());
+                    return newCommits;
+                }
+                newCommits.add(commit);
+            }
+            result.merge(newCommits);
+            result.setTip(Constants.HEAD, tip);
+            this.metrics.historyWalked(start, newCommits.size());
+
+            return result;
+        }
+    }
+
+    /**
+     * Index the commits reachable from {@code HEAD} without relying on a previous index.
+     */
+    private AuthorIndex walk(Repository repository, Date since, ObjectIdSet excluded, QueryBudget budget)
+        throws IOException
+    {
+        AuthorIndex index = new AuthorIndex();
+        ObjectId tip = repository.resolve(Constants.HEAD);
+        if (tip == null) {
+            return index;
+        }
+
+        long start = System.nanoTime();
+        try (RevWalk walk = new RevWalk(repository)) {
+            walk.sort(RevSort.COMMIT_TIME_DESC);
+            if (since != null) {
+                // Stops the walk once the most recent commit left to walk is older than the cutoff.
+                walk.setRevFilter(CommitTimeRevFilter.after(since.getTime() - this.clockSkewTolerance));
+            }
+            walk.markStart(walk.parseCommit(tip));
+            for (RevCommit commit : walk) {
+                if (budget != null && budget.isExhausted(index.size())) {
+                    break;
+                }
+                if (excluded != null && excluded.contains(commit)) {
+                    // Already walked from another repository: stop descending into this part of the history. The
+                    // walk ends once all the commits left to walk are behind excluded commits.
+                    walk.markUninteresting(commit);
+                } else {
+                    index.add(commit);
+                }
+            }
+        }
+        this.metrics.historyWalked(start, index.size());
+
+        return index;
+    }
+
+    private RevCommit getPreviousTip(RevWalk walk, AuthorIndex index) throws IOException
+    {
+        ObjectId previousTip = index != null ? index.getTip(Constants.HEAD) : null;
+        if (previousTip != null && walk.getObjectReader().has(previousTip)) {
+            return walk.parseCommit(previousTip);
+        }
+        return null;
+    }
+
+    private File getIndexFile(Repository repository)
+    {
+        File gitDirectory = repository.getDirectory();
+        if (!this.persistent || gitDirectory == null
+            || !gitDirectory.toPath().toAbsolutePath().normalize().startsWith(this.rootDirectory)) {
+            return null;
+        }
+        return new File(gitDirectory, INDEX_FILE);
+    }
+
+    private AuthorIndex load(File indexFile)
+    {
+        synchronized (this.loadedIndexes) {
+            LoadedIndex loadedIndex = this.loadedIndexes.get(indexFile);
+            if (loadedIndex != null && loadedIndex.isCurrent(indexFile)) {
+                return loadedIndex.index;
+            }
+        }
+
+        if (indexFile.exists()) {
+            // Read before the content, so that a concurrent rewrite leads to reading the file again.
+            long lastModified = indexFile.lastModified();
+            long length = indexFile.length();
+            try (DataInputStream input =
+                new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)))) {
+                AuthorIndex index = AuthorIndex.read(input);
+                if (indexFile.lastModified() == lastModified && indexFile.length() == length) {
+                    remember(indexFile, index);
+                }
+                return index;
+            } catch (IOException e) {
+                this.logger.warn("Failed to read the author index [{}], it will be rebuilt. Root cause: [{}]",
+                    indexFile, ExceptionUtils.getRootCauseMessage(e));
+            }
+        }
+        return null;
+    }
+
+    private void remember(File indexFile, AuthorIndex index)
+    {
+        synchronized (this.loadedIndexes) {
+            this.loadedIndexes.put(indexFile, new LoadedIndex(index, indexFile));
+            Iterator<LoadedIndex> iterator = this.loadedIndexes.values().iterator();
+            while (this.loadedIndexes.size() > MAX_LOADED_INDEXES) {
+                iterator.next();
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * @return {@code true} if the index has been saved
+     */
+    private boolean save(AuthorIndex index, File indexFile)
+    {
+        // Write to a temporary file first so that readers never see a partially written index.
+        File temporaryFile = new File(indexFile.getParentFile(), INDEX_FILE + ".tmp");
+        try {
+            try (DataOutputStream output =
+                new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporaryFile)))) {
+                index.write(output);
+            }
+            Files.move(temporaryFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+            return true;
+        } catch (IOException e) {
+            this.logger.warn("Failed to save the author index [{}]. Root cause: [{}]", indexFile,
+                ExceptionUtils.getRootCauseMessage(e));
+            return false;
+        }
+    }
+}
@@ -0,0 +1,288 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.git.internal;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.locks.Lock;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.slf4j.Logger;
+import org.xwiki.git.BlameCommit;
+import org.xwiki.git.FileBlame;
+
+/**
+ * Keeps the blame of the files, keyed by the id of the commit whose version of the file was blamed and by the path of
+ * the file. Since a commit and its history never change, neither does such a blame, and since a commit id identifies
+ * its whole history the same blame can be shared by repositories having that commit, like forks.
+ * <p>
+ * The most recently used blames are kept in memory, up to a total number of lines. The blames of the repositories
+ * cloned in the permanent directory can also be stored in their Git directory, one file per blame, so that they
+ * survive restarts; they are deleted along with the clone.
+ *
+ * @version $Id$
+ * @since 9.11
+ */
+public class BlameCache
+{
+    /**
+     * Name of the directory where blames are stored, in the Git directory of the repository.
+     */
+    private static final String CACHE_DIRECTORY = "xwiki-blame";
+
+    private static final int MAGIC = 0x58474242;
+
+    private static final int VERSION = 1;
+
+    /**
+     * Commit messages are truncated to stay below the limit of {@link DataOutputStream#writeUTF(String)}.
+     */
+    private static final int MAX_MESSAGE_LENGTH = 1000;
+
+    private final Path rootDirectory;
+
+    private final boolean persistent;
+
+    private final long maxLines;
+
+    private final Logger logger;
+
+    private final Map<Key, FileBlame> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final StripedLock locks = new StripedLock(16);
+
+    private long lineCount;
+
+    /**
+     * Identifies a version of a file.
+     */
+    private static final class Key
+    {
+        private final ObjectId commitId;
+
+        private final String path;
+
+        Key(ObjectId commitId, String path)
+        {
+            this.commitId = commitId.copy();
+            this.path = path;
+        }
+
+        @Override
+        public boolean equals(Object object)
+        {
+            if (this == object) {
+                return true;
+            }
+            if (!(object instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) object;
+            return this.commitId.equals(other.commitId) && this.path.equals(other.path);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return Objects.hash(this.commitId, this.path);
+        }
+    }
+
+    /**
+     * @param rootDirectory only the blames of the repositories located in this directory are stored
+     * @param persistent {@code false} to never store blames on disk
+     * @param maxLines the maximum total number of lines of the blames kept in memory, 0 to not keep any
+     * @param logger the logger to report storage failures to
+     */
+    public BlameCache(File rootDirectory, boolean persistent, long maxLines, Logger logger)
+    {
+        this.rootDirectory = rootDirectory.toPath().toAbsolutePath().normalize();
+        this.persistent = persistent;
+        this.maxLines = maxLines;
+        this.logger = logger;
+    }
+
+    /**
+     * @param repository the repository containing the commit
+     * @param commitId the id of a commit
+     * @param path the path of a file
+     * @return the blame of the file in the passed commit, {@code null} if it's not cached
+     */
+    public FileBlame get(Repository repository, ObjectId commitId, String path)
+    {
+        Key key = new Key(commitId, path);
+        synchronized (this) {
+            FileBlame blame = this.entries.get(key);
+            if (blame != null) {
+                return blame;
+            }
+        }
+
+        File file = getFile(repository, key);
+        FileBlame blame = file != null ? load(file, key) : null;
+        if (blame != null) {
+            keep(key, blame);
+        }
+        return blame;
+    }
+
+    /**
+     * @param repository the repository containing the commit
+     * @param commitId the id of a commit
+     * @param path the path of a file
+     * @param blame the blame of the file in the passed commit
+     * @param persist {@code true} to also store the blame on disk when the repository is cloned in the permanent
+     *        directory, {@code false} to only keep it in memory
+     */
+    public void put(Repository repository, ObjectId commitId, String path, FileBlame blame, boolean persist)
+    {
+        Key key = new Key(commitId, path);
+        keep(key, blame);
+
+        File file = persist ? getFile(repository, key) : null;
+        if (file != null && !file.exists()) {
+            save(blame, file);
+        }
+    }
+
+    /**
+     * @return the number of blames kept in memory
+     */
+    public synchronized int size()
+    {
+        return this.entries.size();
+    }
+
+    private synchronized void keep(Key key, FileBlame blame)
+    {
+        if (blame.getLineCount() > this.maxLines) {
+            return;
+        }
+        FileBlame previous = this.entries.put(key, blame);
+        if (previous != null) {
+            this.lineCount -= previous.getLineCount();
+        }
+        this.lineCount += blame.getLineCount();
+
+        Iterator<FileBlame> iterator = this.entries.values().iterator();
+        while (this.lineCount > this.maxLines && iterator.hasNext()) {
+            this.lineCount -= iterator.next().getLineCount();
+            iterator.remove();
+        }
+    }
+
+    private File getFile(Repository repository, Key key)
+    {
+        File gitDirectory = repository.getDirectory();
+        if (!this.persistent || gitDirectory == null
+            || !gitDirectory.toPath().toAbsolutePath().normalize().startsWith(this.rootDirectory)) {
+            return null;
+        }
+        // The path can be long and contain any character, so the file is named after a hash of the key.
+        String name = ObjectId.fromRaw(Constants.newMessageDigest()
+            .digest((key.commitId.name() + ':' + key.path).getBytes(StandardCharsets.UTF_8))).name();
+        return new File(new File(new File(gitDirectory, CACHE_DIRECTORY), name.substring(0, 2)), name.substring(2));
+    }
+
+    private FileBlame load(File file, Key key)
+    {
+        if (!file.exists()) {
+            return null;
+        }
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (input.readInt() != MAGIC || input.readInt() != VERSION || !key.path.equals(input.readUTF())
+                || !key.commitId.name().equals(input.readUTF())) {
+                return null;
+            }
+            int commitCount = input.readInt();
+            List<BlameCommit> commits = new ArrayList<>(commitCount);
+            for (int i = 0; i < commitCount; i++) {
+                commits.add(new BlameCommit(input.readUTF(), input.readUTF(), input.readUTF(), input.readLong(),
+                    input.readUTF()));
+            }
+            int[] lines = new int[input.readInt()];
+            for (int i = 0; i < lines.length; i++) {
+                lines[i] = input.readInt();
+            }
+            return new FileBlame(key.path, key.commitId.name(), commits, lines);
+        } catch (IOException e) {
+            this.logger.warn("Failed to read the blame [{}], it will be computed again. Root cause: [{}]", file,
+                ExceptionUtils.getRootCauseMessage(e));
+            return null;
+        }
+    }
+
+    private void save(FileBlame blame, File file)
+    {
+        // Write to a temporary file first so that readers never see a partially written blame.
+        File temporaryFile = new File(file.getParentFile(), file.getName() + ".tmp");
+        Lock lock = this.locks.get(file);
+        lock.lock();
+        try {
+            Files.createDirectories(file.getParentFile().toPath());
+            try (DataOutputStream output =
+                new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporaryFile)))) {
+                output.writeInt(MAGIC);
+                output.writeInt(VERSION);
+                output.writeUTF(blame.getPath());
+                output.writeUTF(blame.getCommitId());
+                output.writeInt(blame.getCommits().size());
+                for (BlameCommit commit : blame.getCommits()) {
+                    output.writeUTF(commit.getId());
+                    output.writeUTF(commit.getAuthorName());
+                    output.writeUTF(commit.getAuthorEmail());
+                    output.writeLong(commit.getAuthorTime());
+                    output.writeUTF(StringUtils.abbreviate(commit.getShortMessage(), MAX_MESSAGE_LENGTH));
+                }
+                output.writeInt(blame.getLineCount());
+                for (int i = 0; i < blame.getLineCount(); i++) {
+                    output.writeInt(blame.getCommitIndex(i));
+                }
+            }
+            Files.move(temporaryFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            this.logger.warn("Failed to save the blame [{}]. Root cause: [{}]", file,
+                ExceptionUtils.getRootCauseMessage(e));
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,310 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.git.internal;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.jgit.blame.BlameGenerator;
+import org.eclipse.jgit.blame.BlameResult;
+import org.eclipse.jgit.diff.DiffAlgorithm;
+import org.eclipse.jgit.diff.Edit;
+import org.eclipse.jgit.diff.HistogramDiff;
+import org.eclipse.jgit.diff.RawText;
+import org.eclipse.jgit.diff.RawTextComparator;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevTree;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.AndTreeFilter;
+import org.eclipse.jgit.treewalk.filter.PathFilter;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+import org.xwiki.git.BlameCommit;
+import org.xwiki.git.FileBlame;
+import org.xwiki.git.QueryBudget;
+
+/**
+ * Computes the blame of files incrementally. The blame of a version of a file is keyed by the commit which last
+ * modified the file, found by walking the history limited to the file. When that commit isn't a merge and the blame
+ * of the previous version of the file is cached, only the two versions are diffed: the unchanged lines keep their
+ * commit and the changed lines are attributed to the new commit, which is exactly what {@code git blame} does. This
+ * goes back up to {@link #MAX_INCREMENTAL_COMMITS} versions to find a cached blame, and the full blame of the file is
+ * computed with JGit when there's none, or when a merge or a rename is met on the way.
+ * <p>
+ * A blame can be computed within a budget: each version of the file walked and each commit to which the full blame
+ * attributes lines count as one visited commit. A blame stopped by its budget is dropped, but the blames of the
+ * intermediate versions computed until then are kept in the cache.
+ *
+ * @version $Id$
+ * @since 9.11
+ */
+public class BlameManager
+{
+    /**
+     * The maximum number of versions of a file diffed to update a cached blame, above which the full blame is
+     * computed instead.
+     */
+    private static final int MAX_INCREMENTAL_COMMITS = 100;
+
+    private static final DiffAlgorithm DIFF_ALGORITHM = new HistogramDiff();
+
+    private final BlameCache cache;
+
+    /**
+     * @param cache where to keep the computed blames
+     */
+    public BlameManager(BlameCache cache)
+    {
+        this.cache = cache;
+    }
+
+    /**
+     * @param repository the repository containing the file
+     * @param revision the commit in which the file is blamed
+     * @param path the path of the file, relative to the root of the repository
+     * @return the blame of the file, {@code null} if it doesn't exist in the passed revision
+     * @throws IOException when failing to read the history or the file
+     */
+    public FileBlame blame(Repository repository, ObjectId revision, String path) throws IOException
+    {
+        return blame(repository, revision, path, null);
+    }
+
+    /**
+     * @param repository the repository containing the file
+     * @param revision the commit in which the file is blamed
+     * @param path the path of the file, relative to the root of the repository
+     * @param budget limits the work done to blame the file, {@code null} for no limit
+     * @return the blame of the file, {@code null} if it doesn't exist in the passed revision or if the budget has
+     *         been exhausted before the blame was complete, which the budget tells
+     * @throws IOException when failing to read the history or the file
+     */
+    public FileBlame blame(Repository repository, ObjectId revision, String path, QueryBudget budget)
+        throws IOException
+    {
+        FileBlame blame = this.cache.get(repository, revision, path);
+        if (blame != null || (budget != null && budget.isExhausted())) {
+            return blame;
+        }
+
+        try (ObjectReader reader = repository.newObjectReader();
+            RevWalk walk = new RevWalk(reader);
+            RevWalk parser = new RevWalk(reader)) {
+            RevCommit start = parser.parseCommit(revision);
+            if (getBlobId(reader, start.getTree(), path) == null) {
+                return null;
+            }
+
+            // The most recent versions of the file, up to one whose blame is cached.
+            walk.setTreeFilter(AndTreeFilter.create(PathFilter.create(path), TreeFilter.ANY_DIFF));
+            walk.markStart(walk.parseCommit(revision));
+            List<RevCommit> versions = new ArrayList<>();
+            List<ObjectId> blobIds = new ArrayList<>();
+            FileBlame base = null;
+            ObjectId baseBlobId = null;
+            for (RevCommit commit = walk.next(); commit != null; commit = walk.next()) {
+                if (budget != null && !budget.visit()) {
+                    return null;
+                }
+                ObjectId blobId = getBlobId(reader, commit.getTree(), path);
+                if (!versions.isEmpty()
+                    && !isPreviousVersion(reader, parser, versions.get(versions.size() - 1), blobId, path)) {
+                    break;
+                }
+                base = this.cache.get(repository, commit, path);
+                if (base != null) {
+                    baseBlobId = blobId;
+                    break;
+                }
+                if (versions.size() == MAX_INCREMENTAL_COMMITS) {
+                    break;
+                }
+                versions.add(commit);
+                blobIds.add(blobId);
+            }
+
+            // Apply the changes of each version to the blame of the previous one, from the oldest.
+            for (int i = versions.size() - 1; i >= 0 && base != null; i--) {
+                if (budget != null && budget.isExhausted()) {
+                    return null;
+                }
+                base = update(reader, parser, base, baseBlobId, versions.get(i), blobIds.get(i));
+                baseBlobId = blobIds.get(i);
+                if (base != null) {
+                    // Only the most recent version is stored on disk, the others are likely not needed again.
+                    this.cache.put(repository, versions.get(i), path, base, i == 0);
+                }
+            }
+            blame = base;
+            if (blame == null) {
+                RevCommit commit = versions.isEmpty() ? start : versions.get(0);
+                blame = compute(repository, parser, commit, path, budget);
+                if (blame == null) {
+                    return null;
+                }
+                this.cache.put(repository, commit, path, blame, true);
+            }
+        }
+
+        // Also cache the blame by the requested revision, to skip the history walk next time.
+        this.cache.put(repository, revision, path, blame, false);
+        return blame;
+    }
+
+    /**
+     * @return {@code true} if the blame of the passed commit can be computed from the blame of the passed blob
+     */
+    private boolean isPreviousVersion(ObjectReader reader, RevWalk parser, RevCommit commit, ObjectId previousBlobId,
+        String path) throws IOException
+    {
+        if (commit.getParentCount() != 1 || previousBlobId == null) {
+            // A merge, or the file has been added.
+            return false;
+        }
+        RevCommit parent = parser.parseCommit(commit.getParent(0));
+        return previousBlobId.equals(getBlobId(reader, parent.getTree(), path));
+    }
+
+    /**
+     * @return the blame of the file in the passed commit, computed from the blame of its previous version, or
+     *         {@code null} if the previous blame doesn't match the previous version
+     */
+    private FileBlame update(ObjectReader reader, RevWalk parser, FileBlame previous, ObjectId previousBlobId,
+        RevCommit commit, ObjectId blobId) throws IOException
+    {
+        RawText previousText = new RawText(reader.open(previousBlobId, Constants.OBJ_BLOB).getCachedBytes(
+            Integer.MAX_VALUE));
+        RawText text = new RawText(reader.open(blobId, Constants.OBJ_BLOB).getCachedBytes(Integer.MAX_VALUE));
+        if (previousText.size() != previous.getLineCount()) {
+            return null;
+        }
+
+        List<BlameCommit> commits = new ArrayList<>(previous.getCommits());
+        int commitIndex = commits.size();
+        commits.add(toBlameCommit(parser.parseCommit(commit)));
+        int[] lines = new int[text.size()];
+        int previousLine = 0;
+        int line = 0;
+        for (Edit edit : DIFF_ALGORITHM.diff(RawTextComparator.DEFAULT, previousText, text)) {
+            while (line < edit.getBeginB()) {
+                lines[line++] = previous.getCommitIndex(previousLine++);
+            }
+            while (line < edit.getEndB()) {
+                lines[line++] = commitIndex;
+            }
+            previousLine = edit.getEndA();
+        }
+        while (line < lines.length) {
+            lines[line++] = previous.getCommitIndex(previousLine++);
+        }
+
+        return compact(previous.getPath(), commit.name(), commits, lines);
+    }
+
+    /**
+     * Compute the full blame of the file with JGit, one region of lines at a time so that the budget is checked
+     * between regions.
+     *
+     * @return the blame, {@code null} if the budget has been exhausted first
+     */
+    private FileBlame compute(Repository repository, RevWalk parser, RevCommit commit, String path,
+        QueryBudget budget) throws IOException
+    {
+        BlameResult result;
+        int lineCount;
+        try (BlameGenerator generator = new BlameGenerator(repository, path)) {
+            generator.setTextComparator(RawTextComparator.DEFAULT).setFollowFileRenames(true).push(null, commit);
+            result = BlameResult.create(generator);
+            lineCount = result != null ? result.getResultContents().size() : 0;
+            if (result != null) {
+                while (result.computeNext() >= 0) {
+                    if (budget != null && !budget.visit()) {
+                        return null;
+                    }
+                }
+            }
+        }
+        List<BlameCommit> commits = new ArrayList<>();
+        Map<ObjectId, Integer> commitIndexes = new HashMap<>();
+        int[] lines = new int[lineCount];
+        for (int i = 0; i < lineCount; i++) {
+            RevCommit source = result.getSourceCommit(i);
+            ObjectId sourceId = source != null ? source : commit;
+            Integer index = commitIndexes.get(sourceId);
+            if (index == null) {
+                index = commits.size();
+                commitIndexes.put(sourceId.copy(), index);
+                // Parsed again since the blame doesn't keep the commit messages.
+                commits.add(toBlameCommit(parser.parseCommit(sourceId)));
+            }
+            lines[i] = index;
+        }
+
+        return new FileBlame(path, commit.name(), commits, lines);
+    }
+
+    /**
+     * Remove the commits which are not attributed any line anymore.
+     */
+    private FileBlame compact(String path, String commitId, List<BlameCommit> commits, int[] lines)
+    {
+        int[] newIndexes = new int[commits.size()];
+        for (int line : lines) {
+            newIndexes[line] = 1;
+        }
+        List<BlameCommit> usedCommits = new ArrayList<>();
+        for (int i = 0; i < newIndexes.length; i++) {
+            if (newIndexes[i] > 0) {
+                newIndexes[i] = usedCommits.size();
+                usedCommits.add(commits.get(i));
+            }
+        }
+        for (int i = 0; i < lines.length; i++) {
+            lines[i] = newIndexes[lines[i]];
+        }
+        return new FileBlame(path, commitId, usedCommits, lines);
+    }
+
+    private BlameCommit toBlameCommit(RevCommit commit)
+    {
+        PersonIdent author = commit.getAuthorIdent();
+        return new BlameCommit(commit.name(), author.getName(), author.getEmailAddress(),
+            author.getWhen().getTime(), commit.getShortMessage());
+    }
+
+    private ObjectId getBlobId(ObjectReader reader, RevTree tree, String path) throws IOException
+    {
+        try (TreeWalk treeWalk = TreeWalk.forPath(reader, path, tree)) {
+            if (treeWalk == null || (treeWalk.getRawMode(0) & FileMode.TYPE_MASK) != FileMode.TYPE_FILE) {
+                return null;
+            }
+            return treeWalk.getObjectId(0);
+        }
+    }
+}
@@ -0,0 +1,363 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.git.internal;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.jgit.internal.storage.dfs.DfsObjDatabase;
+import org.eclipse.jgit.internal.storage.dfs.DfsOutputStream;
+import org.eclipse.jgit.internal.storage.dfs.DfsPackDescription;
+import org.eclipse.jgit.internal.storage.dfs.DfsReaderOptions;
+import org.eclipse.jgit.internal.storage.dfs.DfsReftableDatabase;
+import org.eclipse.jgit.internal.storage.dfs.DfsRepository;
+import org.eclipse.jgit.internal.storage.dfs.DfsRepositoryDescription;
+import org.eclipse.jgit.internal.storage.dfs.InMemoryRepository;
+import org.eclipse.jgit.internal.storage.dfs.ReadableChannel;
+import org.eclipse.jgit.internal.storage.pack.PackExt;
+import org.eclipse.jgit.internal.storage.reftable.ReftableConfig;
+import org.eclipse.jgit.lib.RefDatabase;
+import org.eclipse.jgit.util.FS;
+
+/**
+ * A repository kept in memory, like JGit {@link InMemoryRepository}, whose packs can't take more than a given number
+ * of bytes. The bytes are counted while they are written, so a clone or fetch that would make the repository too big
+ * fails as soon as it reaches the limit instead of once the whole pack has been received. The failed pack is rolled
+ * back and the repository keeps the objects it had before.
+ *
+ * @version $Id$
+ * @since 9.11
+ */
+public class BoundedMemoryRepository extends DfsRepository
+{
+    /**
+     * Pack names must be unique across repositories since the JGit block cache is shared, and the repositories of the
+     * store can be cloned again under the same name.
+     */
+    private static final AtomicInteger PACK_ID = new AtomicInteger();
+
+    private final long maxSize;
+
+    private final AtomicLong size = new AtomicLong();
+
+    private final MemoryObjDatabase objectDatabase;
+
+    private final MemoryRefDatabase refDatabase;
+
+    /**
+     * A pack stored in memory, with the bytes of each of its files.
+     */
+    private static final class MemoryPack extends DfsPackDescription
+    {
+        private final byte[][] files = new byte[PackExt.values().length][];
+
+        private long written;
+
+        MemoryPack(DfsRepositoryDescription repositoryDescription, String name)
+        {
+            super(repositoryDescription, name);
+        }
+    }
+
+    /**
+     * Stores the packs in memory, counting the bytes written to them against the limit of the repository.
+     */
+    private final class MemoryObjDatabase extends DfsObjDatabase
+    {
+        private List<DfsPackDescription> packs = new ArrayList<>();
+
+        MemoryObjDatabase()
+        {
+            super(BoundedMemoryRepository.this, new DfsReaderOptions());
+        }
+
+        @Override
+        protected synchronized List<DfsPackDescription> listPacks()
+        {
+            return this.packs;
+        }
+
+        @Override
+        protected DfsPackDescription newPack(PackSource source)
+        {
+            String name = String.format("pack-%d-%s", PACK_ID.incrementAndGet(), source.name());
+            return new MemoryPack(getDescription(), name).setPackSource(source);
+        }
+
+        @Override
+        protected synchronized void commitPackImpl(Collection<DfsPackDescription> added,
+            Collection<DfsPackDescription> replaced)
+        {
+            List<DfsPackDescription> newPacks = new ArrayList<>(added.size() + this.packs.size());
+            newPacks.addAll(added);
+            newPacks.addAll(this.packs);
+            if (replaced != null) {
+                newPacks.removeAll(replaced);
+                release(replaced);
+            }
+            this.packs = newPacks;
+            clearCache();
+        }
+
+        @Override
+        protected void rollbackPack(Collection<DfsPackDescription> packs)
+        {
+            release(packs);
+        }
+
+        @Override
+        protected ReadableChannel openFile(DfsPackDescription pack, PackExt ext) throws IOException
+        {
+            byte[] file = ((MemoryPack) pack).files[ext.getPosition()];
+            if (file == null) {
+                throw new FileNotFoundException(pack.getFileName(ext));
+            }
+            return new MemoryReadableChannel(file);
+        }
+
+        @Override
+        protected DfsOutputStream writeFile(DfsPackDescription pack, PackExt ext)
+        {
+            return new MemoryOutputStream((MemoryPack) pack, ext);
+        }
+
+        private void release(Collection<DfsPackDescription> packs)
+        {
+            for (DfsPackDescription pack : packs) {
+                MemoryPack memoryPack = (MemoryPack) pack;
+                synchronized (memoryPack) {
+                    size.addAndGet(-memoryPack.written);
+                    memoryPack.written = 0;
+                }
+            }
+        }
+    }
+
+    /**
+     * Keeps the references in reftables stored in the object database, like JGit {@link InMemoryRepository}.
+     */
+    private final class MemoryRefDatabase extends DfsReftableDatabase
+    {
+        MemoryRefDatabase()
+        {
+            super(BoundedMemoryRepository.this);
+        }
+
+        @Override
+        public ReftableConfig getReftableConfig()
+        {
+            ReftableConfig config = new ReftableConfig();
+            config.setAlignBlocks(false);
+            config.setIndexObjects(false);
+            config.fromConfig(getRepository().getConfig());
+            return config;
+        }
+    }
+
+    /**
+     * Writes a file of a pack in memory, failing when the pack data would make the repository too big.
+     */
+    private final class MemoryOutputStream extends DfsOutputStream
+    {
+        private final MemoryPack pack;
+
+        private final PackExt ext;
+
+        private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+
+        private byte[] data;
+
+        MemoryOutputStream(MemoryPack pack, PackExt ext)
+        {
+            this.pack = pack;
+            this.ext = ext;
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException
+        {
+            // Only the pack data is counted, like the sizes recorded by the store.
+            if (this.ext == PackExt.PACK) {
+                reserve(length);
+            }
+            this.data = null;
+            this.buffer.write(bytes, offset, length);
+        }
+
+        @Override
+        public int read(long position, ByteBuffer destination)
+        {
+            byte[] bytes = getData();
+            int length = Math.min(destination.remaining(), bytes.length - (int) position);
+            if (length == 0) {
+                return -1;
+            }
+            destination.put(bytes, (int) position, length);
+            return length;
+        }
+
+        @Override
+        public void flush()
+        {
+            this.pack.files[this.ext.getPosition()] = getData();
+        }
+
+        @Override
+        public void close()
+        {
+            flush();
+        }
+
+        private byte[] getData()
+        {
+            if (this.data == null) {
+                this.data = this.buffer.toByteArray();
+            }
+            return this.data;
+        }
+
+        private void reserve(int length) throws IOException
+        {
+            synchronized (this.pack) {
+                long newSize = size.addAndGet(length);
+                if (newSize > maxSize) {
+                    size.addAndGet(-length);
+                    throw new IOException(String.format(
+                        "The repository [%s] would take more than the [%d] bytes allowed for in-memory repositories",
+                        getDescription().getRepositoryName(), maxSize));
+                }
+                this.pack.written += length;
+            }
+        }
+    }
+
+    /**
+     * Reads a file of a pack from memory.
+     */
+    private static final class MemoryReadableChannel implements ReadableChannel
+    {
+        private final byte[] data;
+
+        private int position;
+
+        private boolean open = true;
+
+        MemoryReadableChannel(byte[] data)
+        {
+            this.data = data;
+        }
+
+        @Override
+        public int read(ByteBuffer destination)
+        {
+            int length = Math.min(destination.remaining(), this.data.length - this.position);
+            if (length == 0) {
+                return -1;
+            }
+            destination.put(this.data, this.position, length);
+            this.position += length;
+            return length;
+        }
+
+        @Override
+        public void close()
+        {
+            this.open = false;
+        }
+
+        @Override
+        public boolean isOpen()
+        {
+            return this.open;
+        }
+
+        @Override
+        public long position()
+        {
+            return this.position;
+        }
+
+        @Override
+        public void position(long newPosition)
+        {
+            this.position = (int) newPosition;
+        }
+
+        @Override
+        public long size()
+        {
+            return this.data.length;
+        }
+
+        @Override
+        public int blockSize()
+        {
+            return 0;
+        }
+
+        @Override
+        public void setReadAheadBytes(int bufferSize)
+        {
+            // Everything is already in memory.
+        }
+    }
+
+    /**
+     * @param name the name of the repository
+     * @param maxSize the maximum number of bytes its packs can take
+     */
+    public BoundedMemoryRepository(String name, long maxSize)
+    {
+        // The file system is needed to fetch from local repositories.
+        super(new InMemoryRepository.Builder().setRepositoryDescription(new DfsRepositoryDescription(name))
+            .setFS(FS.DETECTED));
+
+        this.maxSize = maxSize;
+        this.objectDatabase = new MemoryObjDatabase();
+        this.refDatabase = new MemoryRefDatabase();
+    }
+
+    @Override
+    public DfsObjDatabase getObjectDatabase()
+    {
+        return this.objectDatabase;
+    }
+
+    @Override
+    public RefDatabase getRefDatabase()
+    {
+        return this.refDatabase;
+    }
+
+    /**
+     * @return the number of bytes of pack data written to the repository, including the packs being received
+     */
+    public long getSize()
+    {
+        return this.size.get();
+    }
+}
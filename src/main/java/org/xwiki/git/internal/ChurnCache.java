@@ -0,0 +1,307 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.git.internal;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Lock;
+
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.slf4j.Logger;
+import org.xwiki.git.internal.NodeLockManager.NodeLock;
+
+/**
+ * Stores the {@link CommitChurn} of the commits of the repositories cloned in the permanent directory, so that each
+ * commit is diffed only once for the lifetime of the clone: a commit never changes, and neither does its diff with
+ * its first parent. The cache is a file of the Git directory to which the newly diffed commits are appended, starting
+ * with the maximum file size it has been computed with; it's discarded when that setting changes. Commits that are no
+ * longer reachable are kept, which is harmless since they are only looked up by id.
+ * <p>
+ * Appends are done while holding a node lock on the cache file, since the permanent directory may be shared between
+ * nodes, after truncating the partially written entry left by a node that stopped in the middle of an append. The
+ * cache files of the most recently queried repositories are kept in memory, and only read again when their size or
+ * modification time changes, for instance because another node appended to them.
+ *
+ * @version $Id$
+ * @since 9.11
+ */
+public class ChurnCache
+{
+    /**
+     * Name of the cache file, in the Git directory of the repository.
+     */
+    private static final String CACHE_FILE = "xwiki-churn.idx";
+
+    private static final int MAGIC = 0x58474343;
+
+    private static final int VERSION = 1;
+
+    private static final int ID_LENGTH = Constants.OBJECT_ID_LENGTH;
+
+    /**
+     * Magic number, version and maximum file size.
+     */
+    private static final int HEADER_LENGTH = 16;
+
+    /**
+     * Commit id, added and removed lines.
+     */
+    private static final int ENTRY_LENGTH = ID_LENGTH + 8;
+
+    private static final int MAX_LOADED_FILES = 16;
+
+    private final Path rootDirectory;
+
+    private final boolean persistent;
+
+    private final long maxFileSize;
+
+    private final NodeLockManager nodeLocks;
+
+    private final Logger logger;
+
+    private final StripedLock locks = new StripedLock(16);
+
+    private final Map<File, LoadedFile> loadedFiles = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * The content of a cache file along with its size and modification time when it was read.
+     */
+    private static final class LoadedFile
+    {
+        private final Map<ObjectId, CommitChurn> churns = new ConcurrentHashMap<>();
+
+        private final Map<ObjectId, CommitChurn> unmodifiableChurns = Collections.unmodifiableMap(this.churns);
+
+        private long length;
+
+        private long lastModified;
+
+        LoadedFile(long length, long lastModified)
+        {
+            this.length = length;
+            this.lastModified = lastModified;
+        }
+
+        boolean isCurrent(File file)
+        {
+            return file.length() == this.length && file.lastModified() == this.lastModified;
+        }
+    }
+
+    /**
+     * @param rootDirectory only the churn of the repositories located in this directory is stored
+     * @param persistent {@code false} to never store the churn of commits
+     * @param maxFileSize the size in bytes above which files are skipped when computing the churn of a commit
+     * @param nodeLocks used to append to the cache files one node at a time
+     * @param logger the logger to report cache failures to
+     */
+    public ChurnCache(File rootDirectory, boolean persistent, long maxFileSize, NodeLockManager nodeLocks,
+        Logger logger)
+    {
+        this.rootDirectory = rootDirectory.toPath().toAbsolutePath().normalize();
+        this.persistent = persistent;
+        this.maxFileSize = maxFileSize;
+        this.nodeLocks = nodeLocks;
+        this.logger = logger;
+    }
+
+    /**
+     * @param repository a repository
+     * @return the churn of the commits of the repository computed so far, indexed by commit id, which is shared and
+     *         thus can't be modified by the caller
+     */
+    public Map<ObjectId, CommitChurn> load(Repository repository)
+    {
+        File cacheFile = getCacheFile(repository);
+        if (cacheFile == null) {
+            return Collections.emptyMap();
+        }
+
+        Lock lock = this.locks.get(cacheFile);
+        lock.lock();
+        try {
+            LoadedFile loadedFile;
+            synchronized (this.loadedFiles) {
+                loadedFile = this.loadedFiles.get(cacheFile);
+            }
+            if (loadedFile == null || !loadedFile.isCurrent(cacheFile)) {
+                loadedFile = read(cacheFile);
+                synchronized (this.loadedFiles) {
+                    this.loadedFiles.put(cacheFile, loadedFile);
+                    Iterator<LoadedFile> iterator = this.loadedFiles.values().iterator();
+                    while (this.loadedFiles.size() > MAX_LOADED_FILES) {
+                        iterator.next();
+                        iterator.remove();
+                    }
+                }
+            }
+            return loadedFile.unmodifiableChurns;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private LoadedFile read(File cacheFile)
+    {
+        // Read before the content, so that entries appended in the meantime lead to reading the file again.
+        LoadedFile loadedFile = new LoadedFile(cacheFile.length(), cacheFile.lastModified());
+        if (!cacheFile.exists()) {
+            return loadedFile;
+        }
+
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(cacheFile)))) {
+            if (isValid(input)) {
+                byte[] raw = new byte[ID_LENGTH];
+                while (true) {
+                    input.readFully(raw);
+                    loadedFile.churns.put(ObjectId.fromRaw(raw), new CommitChurn(input.readInt(), input.readInt()));
+                }
+            }
+        } catch (EOFException e) {
+            // End of the cache, possibly with a partially written entry which is ignored.
+        } catch (IOException e) {
+            this.logger.warn("Failed to read the churn cache [{}], it will be rebuilt. Root cause: [{}]", cacheFile,
+                ExceptionUtils.getRootCauseMessage(e));
+        }
+
+        return loadedFile;
+    }
+
+    /**
+     * Add the churn of new commits to the cache of the repository.
+     *
+     * @param repository a repository
+     * @param churns the churn of commits that were not in the cache
+     */
+    public void save(Repository repository, Map<ObjectId, CommitChurn> churns)
+    {
+        File cacheFile = getCacheFile(repository);
+        if (cacheFile == null || churns.isEmpty()) {
+            return;
+        }
+
+        Lock lock = this.locks.get(cacheFile);
+        lock.lock();
+        NodeLock nodeLock = null;
+        try {
+            nodeLock = this.nodeLocks.lock(cacheFile);
+            LoadedFile loadedFile;
+            synchronized (this.loadedFiles) {
+                loadedFile = this.loadedFiles.get(cacheFile);
+            }
+            boolean current = loadedFile != null && loadedFile.isCurrent(cacheFile);
+            append(cacheFile, churns);
+            if (loadedFile != null) {
+                loadedFile.churns.putAll(churns);
+                if (current) {
+                    // Nobody else appended since the file was read, no need to read it again.
+                    loadedFile.length = cacheFile.length();
+                    loadedFile.lastModified = cacheFile.lastModified();
+                }
+            }
+        } catch (IOException e) {
+            this.logger.warn("Failed to save the churn cache [{}]. Root cause: [{}]", cacheFile,
+                ExceptionUtils.getRootCauseMessage(e));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (nodeLock != null) {
+                nodeLock.close();
+            }
+            lock.unlock();
+        }
+    }
+
+    private void append(File cacheFile, Map<ObjectId, CommitChurn> churns) throws IOException
+    {
+        boolean append = isValid(cacheFile);
+        try (FileChannel channel =
+            FileChannel.open(cacheFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            if (append) {
+                // Drop the partially written entry left by an interrupted append, which would shift the next ones.
+                long length = channel.size();
+                channel.truncate(length - (length - HEADER_LENGTH) % ENTRY_LENGTH);
+                channel.position(channel.size());
+            } else {
+                channel.truncate(0);
+            }
+            DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+            if (!append) {
+                output.writeInt(MAGIC);
+                output.writeInt(VERSION);
+                output.writeLong(this.maxFileSize);
+            }
+            byte[] raw = new byte[ID_LENGTH];
+            for (Map.Entry<ObjectId, CommitChurn> entry : churns.entrySet()) {
+                entry.getKey().copyRawTo(raw, 0);
+                output.write(raw);
+                output.writeInt(entry.getValue().getAddedLines());
+                output.writeInt(entry.getValue().getRemovedLines());
+            }
+            output.flush();
+        }
+    }
+
+    private boolean isValid(File cacheFile) throws IOException
+    {
+        if (!cacheFile.exists()) {
+            return false;
+        }
+        try (DataInputStream input = new DataInputStream(new FileInputStream(cacheFile))) {
+            return isValid(input);
+        } catch (EOFException e) {
+            return false;
+        }
+    }
+
+    private boolean isValid(DataInputStream input) throws IOException
+    {
+        return input.readInt() == MAGIC && input.readInt() == VERSION && input.readLong() == this.maxFileSize;
+    }
+
+    private File getCacheFile(Repository repository)
+    {
+        File gitDirectory = repository.getDirectory();
+        if (!this.persistent || gitDirectory == null
+            || !gitDirectory.toPath().toAbsolutePath().normalize().startsWith(this.rootDirectory)) {
+            return null;
+        }
+        return new File(gitDirectory, CACHE_FILE);
+    }
+}
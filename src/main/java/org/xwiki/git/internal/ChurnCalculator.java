@@ -0,0 +1,149 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.git.internal;
+
+import java.io.IOException;
+
+import org.eclipse.jgit.diff.DiffAlgorithm;
+import org.eclipse.jgit.diff.DiffConfig;
+import org.eclipse.jgit.diff.DiffEntry;
+import org.eclipse.jgit.diff.Edit;
+import org.eclipse.jgit.diff.HistogramDiff;
+import org.eclipse.jgit.diff.RawText;
+import org.eclipse.jgit.diff.RawTextComparator;
+import org.eclipse.jgit.diff.RenameDetector;
+import org.eclipse.jgit.lib.AbbreviatedObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.EmptyTreeIterator;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+
+/**
+ * Counts the lines added and removed by a commit compared to its first parent, like {@code git log --numstat} does.
+ * Only the files changed by the commit are read, the unchanged subtrees being skipped by id. Renames are detected so
+ * that a moved file only counts the lines modified while moving it. Binary files, detected the same way Git does, and
+ * files bigger than the configured size are skipped.
+ * <p>
+ * Not thread safe: each thread needs its own instance.
+ *
+ * @version $Id$
+ * @since 9.11
+ */
+public class ChurnCalculator implements AutoCloseable
+{
+    private static final DiffAlgorithm DIFF_ALGORITHM = new HistogramDiff();
+
+    private final ObjectReader reader;
+
+    private final RevWalk revWalk;
+
+    private final DiffConfig diffConfig;
+
+    private final long maxFileSize;
+
+    /**
+     * @param repository the repository containing the commits
+     * @param maxFileSize the size in bytes above which a file is skipped, 0 for no limit
+     */
+    public ChurnCalculator(Repository repository, long maxFileSize)
+    {
+        this.reader = repository.newObjectReader();
+        this.revWalk = new RevWalk(this.reader);
+        this.diffConfig = repository.getConfig().get(DiffConfig.KEY);
+        this.maxFileSize = maxFileSize;
+    }
+
+    /**
+     * @param commit a commit, whose tree must be parsed
+     * @return the lines added and removed by the commit
+     * @throws IOException when failing to read the trees or the files
+     */
+    public CommitChurn compute(RevCommit commit) throws IOException
+    {
+        try (TreeWalk walk = new TreeWalk(this.reader)) {
+            if (commit.getParentCount() > 0) {
+                walk.addTree(this.revWalk.parseCommit(commit.getParent(0)).getTree());
+            } else {
+                walk.addTree(new EmptyTreeIterator());
+            }
+            walk.addTree(commit.getTree());
+            walk.setFilter(TreeFilter.ANY_DIFF);
+            walk.setRecursive(true);
+
+            RenameDetector renameDetector = new RenameDetector(this.reader, this.diffConfig);
+            renameDetector.addAll(DiffEntry.scan(walk));
+
+            int added = 0;
+            int removed = 0;
+            for (DiffEntry entry : renameDetector.compute(NullProgressMonitor.INSTANCE)) {
+                if ((entry.getChangeType() == DiffEntry.ChangeType.RENAME
+                    || entry.getChangeType() == DiffEntry.ChangeType.COPY) && entry.getScore() == 100) {
+                    // Moved or copied without modification.
+                    continue;
+                }
+                RawText oldText = getText(entry.getOldMode(), entry.getOldId());
+                RawText newText = getText(entry.getNewMode(), entry.getNewId());
+                if (oldText == null || newText == null) {
+                    continue;
+                }
+                for (Edit edit : DIFF_ALGORITHM.diff(RawTextComparator.DEFAULT, oldText, newText)) {
+                    removed += edit.getLengthA();
+                    added += edit.getLengthB();
+                }
+            }
+
+            return new CommitChurn(added, removed);
+        }
+    }
+
+    /**
+     * @return the content of the file, empty if it's missing on this side of the diff, {@code null} if it must not be
+     *         counted
+     */
+    private RawText getText(FileMode mode, AbbreviatedObjectId id) throws IOException
+    {
+        if (mode == FileMode.MISSING) {
+            return RawText.EMPTY_TEXT;
+        }
+        if ((mode.getBits() & FileMode.TYPE_MASK) != FileMode.TYPE_FILE) {
+            // Submodules and symbolic links.
+            return null;
+        }
+        if (this.maxFileSize > 0
+            && this.reader.getObjectSize(id.toObjectId(), Constants.OBJ_BLOB) > this.maxFileSize) {
+            return null;
+        }
+        byte[] content = this.reader.open(id.toObjectId(), Constants.OBJ_BLOB).getCachedBytes(Integer.MAX_VALUE);
+        return RawText.isBinary(content) ? null : new RawText(content);
+    }
+
+    @Override
+    public void close()
+    {
+        this.revWalk.close();
+        this.reader.close();
+    }
+}
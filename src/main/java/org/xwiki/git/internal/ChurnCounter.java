@@ -0,0 +1,84 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.git.internal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.xwiki.git.AuthorChurn;
+
+/**
+ * Sums the {@link CommitChurn} of the commits of each author.
+ *
+ * @version $Id$
+ * @since 9.11
+ */
+public class ChurnCounter
+{
+    private final Map<String, Integer> slots = new HashMap<>();
+
+    private final List<String> names = new ArrayList<>();
+
+    private final List<String> emails = new ArrayList<>();
+
+    private final List<long[]> counts = new ArrayList<>();
+
+    /**
+     * Count a commit.
+     *
+     * @param name the name of the author, only kept for the first commit of an email
+     * @param email the email of the author, identifying it
+     * @param churn the lines added and removed by the commit
+     */
+    public void add(String name, String email, CommitChurn churn)
+    {
+        Integer slot = this.slots.get(email);
+        if (slot == null) {
+            slot = this.slots.size();
+            this.slots.put(email, slot);
+            this.names.add(name);
+            this.emails.add(email);
+            this.counts.add(new long[3]);
+        }
+        long[] count = this.counts.get(slot);
+        count[0]++;
+        count[1] += churn.getAddedLines();
+        count[2] += churn.getRemovedLines();
+    }
+
+    /**
+     * @return the counted authors, sorted by descending number of changed lines; authors with the same number of
+     *         changed lines are in the order in which they were first seen
+     */
+    public AuthorChurn[] getChurns()
+    {
+        AuthorChurn[] result = new AuthorChurn[this.slots.size()];
+        for (int i = 0; i < result.length; i++) {
+            long[] count = this.counts.get(i);
+            result[i] = new AuthorChurn(this.names.get(i), this.emails.get(i), (int) count[0], count[1], count[2]);
+        }
+        // Arrays.sort is stable for objects.
+        Arrays.sort(result, (first, second) -> Long.compare(second.getChangedLines(), first.getChangedLines()));
+        return result;
+    }
+}
@@ -0,0 +1,426 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.git.internal;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.RepositoryCache.FileKey;
+import org.eclipse.jgit.util.FS;
+import org.slf4j.Logger;
+
+/**
+ * Keeps track of the clones stored in the local Git directory, with their size on disk and the last time they were
+ * requested, and deletes the least recently used ones when they take more space than the configured quota. The
+ * registry is saved in the local Git directory so that access times survive restarts, and clones that are not in the
+ * registry yet, such as the ones made before the quota was configured, are found by scanning the local Git directory.
+ * <p>
+ * Clones are not deleted by the registry itself but by an evictor, which refuses to delete clones that are in use,
+ * for instance because they have been returned to a caller recently. Sizes are computed and the quota enforced by a
+ * single background thread, so that requesting or fetching a repository doesn't wait for its files to be listed.
+ * <p>
+ * Clones are made in a temporary directory which is renamed once the clone is complete. The temporary directories
+ * left behind by a crash are deleted by the evictor when scanning the local Git directory at startup, whatever the
+ * quota, and the ones still being cloned by another node are counted in the disk usage until they're renamed.
+ *
+ * @version $Id$
+ * @since 9.11
+ */
+public class CloneRegistry
+{
+    private static final String REGISTRY_FILE = ".clones";
+
+    private static final char SEPARATOR = ',';
+
+    private static final String TEMPORARY_CLONE_SUFFIX = ".clone-";
+
+    private final File rootDirectory;
+
+    private final long quota;
+
+    private final Predicate<File> evictor;
+
+    private final Logger logger;
+
+    private final Map<File, Clone> clones = new ConcurrentHashMap<>();
+
+    private final AtomicBoolean pending = new AtomicBoolean();
+
+    private final AtomicLong evictionCount = new AtomicLong();
+
+    private volatile ExecutorService executor;
+
+    /**
+     * A clone along with its size and the last time it was requested.
+     */
+    private static final class Clone
+    {
+        private final File directory;
+
+        private volatile long lastAccess;
+
+        /**
+         * Negative when the size needs to be computed again.
+         */
+        private volatile long size;
+
+        Clone(File directory, long lastAccess, long size)
+        {
+            this.directory = directory;
+            this.lastAccess = lastAccess;
+            this.size = size;
+        }
+    }
+
+    /**
+     * @param rootDirectory the directory containing all the clones
+     * @param quota the maximum number of bytes used by the clones, 0 to never delete clones
+     * @param evictor deletes the passed clone directory, returning {@code false} if it's in use
+     * @param logger the logger to report evictions to
+     */
+    public CloneRegistry(File rootDirectory, long quota, Predicate<File> evictor, Logger logger)
+    {
+        this.rootDirectory = rootDirectory.getAbsoluteFile();
+        this.quota = quota;
+        this.evictor = evictor;
+        this.logger = logger;
+    }
+
+    /**
+     * @param localDirectory the directory of a clone
+     * @return the prefix of the name of the temporary directories in which the clone is made, next to its directory
+     */
+    public static String getTemporaryClonePrefix(File localDirectory)
+    {
+        return '.' + localDirectory.getName() + TEMPORARY_CLONE_SUFFIX;
+    }
+
+    /**
+     * @param directory a directory
+     * @return the directory of the clone made in the passed temporary directory, {@code null} if it's not a temporary
+     *         clone directory
+     */
+    public static File getTemporaryCloneTarget(File directory)
+    {
+        String name = directory.getName();
+        int suffixIndex = name.lastIndexOf(TEMPORARY_CLONE_SUFFIX);
+        if (name.charAt(0) == '.' && suffixIndex > 1) {
+            return new File(directory.getParentFile(), name.substring(1, suffixIndex));
+        }
+        return null;
+    }
+
+    /**
+     * Load the registry, delete the temporary clones left by a crash and look for unregistered clones in the
+     * background.
+     */
+    public synchronized void start()
+    {
+        if (this.executor == null) {
+            this.executor = Executors.newSingleThreadExecutor(new BasicThreadFactory.Builder()
+                .namingPattern("XWiki Git clone eviction thread").daemon(true).priority(Thread.MIN_PRIORITY).build());
+            this.executor.execute(() -> {
+                load();
+                enforceQuota();
+            });
+        }
+    }
+
+    /**
+     * Record that a clone has been requested. Repositories outside of the root directory are ignored.
+     *
+     * @param directory the directory of the clone
+     */
+    public void accessed(File directory)
+    {
+        if (this.quota > 0) {
+            touch(directory);
+        }
+    }
+
+    /**
+     * Record that a clone has been created or that its size has changed, and delete older clones if the quota is now
+     * exceeded.
+     *
+     * @param directory the directory of the clone
+     */
+    public void updated(File directory)
+    {
+        ExecutorService currentExecutor = this.executor;
+        if (this.quota > 0 && currentExecutor != null) {
+            Clone clone = touch(directory);
+            if (clone == null) {
+                return;
+            }
+            clone.size = -1;
+            if (this.pending.compareAndSet(false, true)) {
+                currentExecutor.execute(() -> {
+                    this.pending.set(false);
+                    enforceQuota();
+                });
+            }
+        }
+    }
+
+    /**
+     * Delete the least recently used clones until the quota isn't exceeded anymore, skipping the ones that are in use.
+     *
+     * @return the directories of the deleted clones
+     */
+    public synchronized List<File> enforceQuota()
+    {
+        List<File> evicted = new ArrayList<>();
+        if (this.quota <= 0) {
+            return evicted;
+        }
+
+        long total = getTotalSize();
+        if (total > this.quota) {
+            List<Clone> leastRecentlyUsed = new ArrayList<>(this.clones.values());
+            leastRecentlyUsed.sort(Comparator.comparingLong(clone -> clone.lastAccess));
+            for (Clone clone : leastRecentlyUsed) {
+                if (total <= this.quota) {
+                    break;
+                }
+                if (this.evictor.test(clone.directory)) {
+                    this.clones.remove(clone.directory, clone);
+                    this.evictionCount.incrementAndGet();
+                    total -= Math.max(0, clone.size);
+                    evicted.add(clone.directory);
+                    this.logger.info("Deleted the Git clone [{}] of [{}] bytes to stay below the disk quota",
+                        clone.directory, clone.size);
+                }
+            }
+            if (total > this.quota) {
+                this.logger.warn("Git clones use [{}] bytes, more than the [{}] bytes quota, but the remaining ones "
+                    + "are in use", total, this.quota);
+            }
+        }
+
+        save();
+
+        return evicted;
+    }
+
+    /**
+     * @return the number of bytes used by the registered clones, computing the sizes that are not known yet and
+     *         dropping the clones that don't exist anymore
+     */
+    public synchronized long getTotalSize()
+    {
+        long total = 0;
+        for (Clone clone : this.clones.values()) {
+            // Clones may have been deleted by hand, and temporary clones are renamed once complete.
+            if (!clone.directory.exists()) {
+                this.clones.remove(clone.directory, clone);
+                continue;
+            }
+            if (clone.size < 0) {
+                clone.size = computeSize(clone.directory.toPath());
+            }
+            total += clone.size;
+        }
+        return total;
+    }
+
+    /**
+     * @return the number of registered clones
+     */
+    public int size()
+    {
+        return this.clones.size();
+    }
+
+    /**
+     * @return the number of clones deleted to stay below the quota
+     */
+    public long getEvictionCount()
+    {
+        return this.evictionCount.get();
+    }
+
+    /**
+     * Stop the background thread and save the access times.
+     */
+    public synchronized void dispose()
+    {
+        ExecutorService currentExecutor = this.executor;
+        if (currentExecutor != null) {
+            this.executor = null;
+            currentExecutor.shutdownNow();
+            if (this.quota > 0) {
+                save();
+            }
+        }
+    }
+
+    private Clone touch(File directory)
+    {
+        File key = directory.getAbsoluteFile();
+        if (!key.toPath().startsWith(this.rootDirectory.toPath())) {
+            // Only the clones made by the Git manager are deleted.
+            return null;
+        }
+        long now = System.currentTimeMillis();
+        Clone clone = this.clones.computeIfAbsent(key, file -> new Clone(file, now, -1));
+        clone.lastAccess = now;
+        return clone;
+    }
+
+    private void load()
+    {
+        File file = new File(this.rootDirectory, REGISTRY_FILE);
+        if (this.quota > 0 && file.exists()) {
+            Properties properties = new Properties();
+            try (InputStream input = Files.newInputStream(file.toPath())) {
+                properties.load(input);
+            } catch (IOException e) {
+                this.logger.warn("Failed to read the Git clone registry [{}]. Root cause: [{}]", file,
+                    ExceptionUtils.getRootCauseMessage(e));
+            }
+            for (String name : properties.stringPropertyNames()) {
+                String value = properties.getProperty(name);
+                int separator = value.indexOf(SEPARATOR);
+                File directory = new File(this.rootDirectory, name);
+                if (separator > 0 && directory.exists()) {
+                    try {
+                        // Clones requested since the start have a more recent access time.
+                        this.clones.putIfAbsent(directory, new Clone(directory,
+                            Long.parseLong(value.substring(0, separator)),
+                            Long.parseLong(value.substring(separator + 1))));
+                    } catch (NumberFormatException e) {
+                        this.logger.debug("Ignoring invalid Git clone registry entry [{}={}]", name, value);
+                    }
+                }
+            }
+        }
+
+        scan(this.rootDirectory);
+    }
+
+    private void scan(File directory)
+    {
+        File[] children = directory.listFiles(File::isDirectory);
+        if (children == null) {
+            return;
+        }
+        for (File child : children) {
+            if (getTemporaryCloneTarget(child) != null) {
+                deleteTemporaryClone(child);
+                continue;
+            }
+            // Skip the other internal directories.
+            if (child.getName().startsWith(".")) {
+                continue;
+            }
+            if (new File(child, Constants.DOT_GIT).exists() || FileKey.isGitRepository(child, FS.DETECTED)) {
+                if (this.quota > 0) {
+                    this.clones.putIfAbsent(child, new Clone(child, child.lastModified(), -1));
+                }
+            } else {
+                scan(child);
+            }
+        }
+    }
+
+    private void deleteTemporaryClone(File directory)
+    {
+        if (this.evictor.test(directory)) {
+            this.logger.info("Deleted the temporary Git clone [{}] left by an interrupted clone", directory);
+        } else if (this.quota > 0) {
+            // Still being cloned: it's dropped from the registry once it has been renamed.
+            this.clones.putIfAbsent(directory, new Clone(directory, directory.lastModified(), -1));
+        }
+    }
+
+    private void save()
+    {
+        Properties properties = new Properties();
+        Path root = this.rootDirectory.toPath();
+        for (Clone clone : this.clones.values()) {
+            properties.setProperty(root.relativize(clone.directory.toPath()).toString(),
+                String.valueOf(clone.lastAccess) + SEPARATOR + clone.size);
+        }
+
+        Path file = root.resolve(REGISTRY_FILE);
+        try {
+            Files.createDirectories(root);
+            Path temporaryFile = Files.createTempFile(root, REGISTRY_FILE, ".tmp");
+            try (OutputStream output = Files.newOutputStream(temporaryFile)) {
+                properties.store(output, "Git clones: last access time and size in bytes");
+            }
+            Files.move(temporaryFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            this.logger.warn("Failed to save the Git clone registry [{}]. Root cause: [{}]", file,
+                ExceptionUtils.getRootCauseMessage(e));
+        }
+    }
+
+    private long computeSize(Path directory)
+    {
+        long[] size = new long[1];
+        try {
+            Files.walkFileTree(directory, new SimpleFileVisitor<Path>()
+            {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attributes)
+                {
+                    size[0] += attributes.size();
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException e)
+                {
+                    // Files may be deleted while walking, for instance when the repository is repacked.
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (NoSuchFileException e) {
+            return 0;
+        } catch (IOException e) {
+            this.logger.debug("Failed to compute the size of [{}]", directory, e);
+        }
+        return size[0];
+    }
+}
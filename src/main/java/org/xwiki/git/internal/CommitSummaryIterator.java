@@ -0,0 +1,236 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.git.internal;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.stream.Collectors;
+
+import org.apache.commons.lang3.StringUtils;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevFlag;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.xwiki.git.CommitSummary;
+
+/**
+ * Lazily walks the history of a repository, most recent commit first, returning one {@link CommitSummary} at a time.
+ * Commit bodies are only kept until their summary has been created, but the walk keeps a small object for each commit
+ * it reaches, so memory usage grows with the number of skipped and returned commits: long histories should be listed
+ * with limited pages resumed from {@link #getCursor()} rather than with large offsets, which also walk all the skipped
+ * commits again.
+ * <p>
+ * The commits still to walk are kept in a queue ordered by commit time, which the cursor lists, so that resuming from
+ * the cursor continues exactly where the previous page stopped, including the commits of merged branches. The
+ * underlying walk is closed when the last commit has been returned, or when {@link #close()} is called.
+ *
+ * @version $Id$
+ * @since 9.11
+ */
+public class CommitSummaryIterator implements Iterator<CommitSummary>, AutoCloseable
+{
+    private static final String CURSOR_SEPARATOR = ".";
+
+    private final RevWalk walk;
+
+    private final RevFlag queued;
+
+    private final PriorityQueue<Pending> pending = new PriorityQueue<>();
+
+    private long pendingCount;
+
+    private int remaining;
+
+    private RevCommit next;
+
+    private boolean closed;
+
+    /**
+     * A commit still to walk. Commits with the same time are walked in the order in which they were reached.
+     */
+    private static final class Pending implements Comparable<Pending>
+    {
+        private final RevCommit commit;
+
+        private final long order;
+
+        Pending(RevCommit commit, long order)
+        {
+            this.commit = commit;
+            this.order = order;
+        }
+
+        @Override
+        public int compareTo(Pending other)
+        {
+            int result = Integer.compare(other.commit.getCommitTime(), this.commit.getCommitTime());
+            return result != 0 ? result : Long.compare(this.order, other.order);
+        }
+    }
+
+    /**
+     * @param repository the repository to walk
+     * @param start the commits to start walking from, either a single commit or the ones listed by a cursor
+     * @param offset the number of commits to skip
+     * @param limit the maximum number of commits to return, 0 or less for no limit
+     * @throws IOException when failing to start the walk
+     */
+    public CommitSummaryIterator(Repository repository, Collection<? extends ObjectId> start, int offset, int limit)
+        throws IOException
+    {
+        this.walk = new RevWalk(repository);
+        this.remaining = limit > 0 ? limit : Integer.MAX_VALUE;
+        // Bodies are only parsed for the returned commits, not for the skipped ones.
+        this.walk.setRetainBody(false);
+        this.queued = this.walk.newFlag("queued");
+        try {
+            for (ObjectId id : start) {
+                enqueue(this.walk.parseCommit(id));
+            }
+            int skipped = 0;
+            while (skipped < offset && poll() != null) {
+                skipped++;
+            }
+            advance();
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * @param cursor a cursor returned by {@link #getCursor()}
+     * @return the commits from which to resume the walk
+     * @throws IllegalArgumentException if the cursor is invalid
+     */
+    public static List<ObjectId> parseCursor(String cursor)
+    {
+        List<ObjectId> ids = new ArrayList<>();
+        for (String id : StringUtils.split(cursor, CURSOR_SEPARATOR)) {
+            if (!ObjectId.isId(id)) {
+                throw new IllegalArgumentException(String.format("Invalid commit cursor [%s]", cursor));
+            }
+            ids.add(ObjectId.fromString(id));
+        }
+        if (ids.isEmpty()) {
+            throw new IllegalArgumentException(String.format("Invalid commit cursor [%s]", cursor));
+        }
+        return ids;
+    }
+
+    /**
+     * @return the cursor from which to list the commits that have not been returned yet, {@code null} if all the
+     *         commits have been returned
+     */
+    public String getCursor()
+    {
+        List<RevCommit> commits = new ArrayList<>();
+        if (this.next != null) {
+            commits.add(this.next);
+        }
+        this.pending.stream().sorted().forEach(commit -> commits.add(commit.commit));
+        if (commits.isEmpty()) {
+            return null;
+        }
+        return commits.stream().map(ObjectId::getName).collect(Collectors.joining(CURSOR_SEPARATOR));
+    }
+
+    private void enqueue(RevCommit commit) throws IOException
+    {
+        if (!commit.has(this.queued)) {
+            this.walk.parseHeaders(commit);
+            commit.add(this.queued);
+            this.pending.add(new Pending(commit, this.pendingCount++));
+        }
+    }
+
+    private RevCommit poll() throws IOException
+    {
+        Pending first = this.pending.poll();
+        if (first == null) {
+            return null;
+        }
+        for (RevCommit parent : first.commit.getParents()) {
+            enqueue(parent);
+        }
+        return first.commit;
+    }
+
+    private void advance() throws IOException
+    {
+        // Stop before taking the next commit from the queue when the limit is reached, so that the cursor starts with
+        // it.
+        this.next = this.remaining > 0 && !this.closed ? poll() : null;
+        if (this.next == null) {
+            close();
+        }
+    }
+
+    @Override
+    public boolean hasNext()
+    {
+        return this.next != null && !this.closed;
+    }
+
+    @Override
+    public CommitSummary next()
+    {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+
+        RevCommit commit = this.next;
+        try {
+            this.walk.parseBody(commit);
+            PersonIdent author = commit.getAuthorIdent();
+            CommitSummary summary = new CommitSummary(commit.getName(), author.getName(), author.getEmailAddress(),
+                author.getWhen(), commit.getShortMessage());
+            commit.disposeBody();
+
+            this.remaining--;
+            advance();
+
+            return summary;
+        } catch (IOException e) {
+            close();
+            throw new RuntimeException(String.format("Failed to walk the history at commit [%s]", commit.getName()),
+                e);
+        }
+    }
+
+    /**
+     * Close the underlying walk. The cursor remains available to resume the walk later.
+     */
+    @Override
+    public void close()
+    {
+        if (!this.closed) {
+            this.closed = true;
+            this.walk.close();
+        }
+    }
+}
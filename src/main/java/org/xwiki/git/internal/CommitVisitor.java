@@ -0,0 +1,37 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.git.internal;
+
+/**
+ * Receives the indexed commits of a repository, see {@link AuthorIndex#visit(java.util.Date, CommitVisitor)}.
+ *
+ * @version $Id$
+ * @since 9.11
+ */
+@FunctionalInterface
+public interface CommitVisitor
+{
+    /**
+     * @param name the name of the author of the commit
+     * @param email the email of the author of the commit
+     * @param time the time at which the commit was authored, in milliseconds
+     */
+    void visit(String name, String email, long time);
+}
@@ -0,0 +1,77 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.git.internal;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.xwiki.git.DirectoryContributions;
+
+/**
+ * Counts the commits of each author in each directory, for {@link DirectoryContributions}.
+ *
+ * @version $Id$
+ * @since 9.11
+ */
+public class ContributionCounter
+{
+    private final AuthorCounter authors = new AuthorCounter();
+
+    private final Map<String, Map<String, Integer>> authorCounts = new HashMap<>();
+
+    private final Map<String, Integer> directoryCounts = new HashMap<>();
+
+    /**
+     * Count a commit.
+     *
+     * @param name the name of the author, only kept for the first commit of an email
+     * @param email the email of the author, identifying it
+     * @param time the time of the commit, in milliseconds
+     * @param directories the directories changed by the commit; the commit isn't counted if there are none
+     */
+    public void add(String name, String email, long time, Collection<String> directories)
+    {
+        if (directories.isEmpty()) {
+            return;
+        }
+        this.authors.add(name, email, time);
+        Map<String, Integer> counts = this.authorCounts.computeIfAbsent(email, key -> new HashMap<>());
+        for (String directory : directories) {
+            counts.merge(directory, 1, Integer::sum);
+            this.directoryCounts.merge(directory, 1, Integer::sum);
+        }
+    }
+
+    /**
+     * @param pathPrefix the path below which commits have been counted
+     * @return the counted commits
+     */
+    public DirectoryContributions getContributions(String pathPrefix)
+    {
+        List<String> directories = new ArrayList<>(this.directoryCounts.keySet());
+        Collections.sort(directories);
+        return new DirectoryContributions(pathPrefix, directories, this.authors.getCounts(), this.authorCounts,
+            this.directoryCounts);
+    }
+}
@@ -0,0 +1,386 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.git.internal;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.configuration.ConfigurationSource;
+import org.xwiki.git.CloneMode;
+
+/**
+ * Reads the Git module configuration from {@code xwiki.properties}, using the {@code git.} prefix.
+ *
+ * @version $Id$
+ * @since 9.11
+ */
+@Component
+@Singleton
+public class DefaultGitConfiguration implements GitConfiguration
+{
+    /**
+     * Prefix of all the Git module properties.
+     */
+    private static final String PREFIX = "git.";
+
+    private static final String PACK_CACHE_PREFIX = PREFIX + "packCache.";
+
+    private static final int DEFAULT_REPOSITORY_CACHE_SIZE = 50;
+
+    private static final long DEFAULT_REPOSITORY_CACHE_IDLE_TIMEOUT = 600L;
+
+    private static final long DEFAULT_UPDATE_INTERVAL = 3600L;
+
+    private static final int DEFAULT_UPDATE_THREADS = 2;
+
+    private static final long DEFAULT_CLOCK_SKEW_TOLERANCE = 86400L;
+
+    private static final int DEFAULT_TASK_THREADS = 2;
+
+    private static final int DEFAULT_TASK_QUEUE_SIZE = 100;
+
+    private static final long DEFAULT_TASK_RETENTION = 3600L;
+
+    private static final int DEFAULT_QUERY_CACHE_SIZE = 100;
+
+    private static final long DEFAULT_QUERY_CACHE_SINCE_GRANULARITY = 60L;
+
+    private static final long DEFAULT_MAINTENANCE_INTERVAL = 86400L;
+
+    /**
+     * Same as the default {@code gc.auto} of Git.
+     */
+    private static final int DEFAULT_MAINTENANCE_LOOSE_OBJECT_THRESHOLD = 6700;
+
+    /**
+     * Same as the default {@code gc.autoPackLimit} of Git.
+     */
+    private static final int DEFAULT_MAINTENANCE_PACK_THRESHOLD = 50;
+
+    private static final long DEFAULT_MAINTENANCE_PACK_EXPIRY = 300L;
+
+    private static final long DEFAULT_DISK_QUOTA = 0L;
+
+    private static final long DEFAULT_DISK_QUOTA_LEASE = 600L;
+
+    private static final long DEFAULT_MEMORY_REPOSITORY_MAX_SIZE = 100L;
+
+    private static final long DEFAULT_MEMORY_REPOSITORY_TIME_TO_LIVE = 600L;
+
+    // The pack cache defaults are the JGit ones.
+
+    private static final int DEFAULT_PACK_CACHE_OPEN_FILES = 128;
+
+    private static final long DEFAULT_PACK_CACHE_LIMIT = 10L;
+
+    private static final int DEFAULT_PACK_CACHE_WINDOW_SIZE = 8;
+
+    private static final boolean DEFAULT_PACK_CACHE_MMAP = false;
+
+    private static final int DEFAULT_DELTA_BASE_CACHE_LIMIT = 10;
+
+    private static final int DEFAULT_STREAM_FILE_THRESHOLD = 50;
+
+    private static final long DEFAULT_QUERY_MAX_COMMITS = 0;
+
+    private static final long DEFAULT_QUERY_TIMEOUT = 0;
+
+    private static final int DEFAULT_SYNC_THREADS = 8;
+
+    private static final int DEFAULT_SYNC_HOST_THREADS = 4;
+
+    private static final int DEFAULT_SYNC_ATTEMPTS = 3;
+
+    private static final long DEFAULT_SYNC_RETRY_DELAY = 10;
+
+    private static final long DEFAULT_LOCK_LEASE = 60;
+
+    private static final boolean DEFAULT_CHURN_CACHE = true;
+
+    private static final long DEFAULT_CHURN_MAX_FILE_SIZE = 1024L;
+
+    private static final long DEFAULT_BLAME_CACHE_SIZE = 1000000L;
+
+    private static final boolean DEFAULT_BLAME_PERSISTENT = true;
+
+    /**
+     * Defined in {@code xwiki.properties}.
+     */
+    @Inject
+    @Named("xwikiproperties")
+    private ConfigurationSource configuration;
+
+    @Inject
+    private Logger logger;
+
+    @Override
+    public int getRepositoryCacheSize()
+    {
+        return this.configuration.getProperty(PREFIX + "repositoryCache.size", DEFAULT_REPOSITORY_CACHE_SIZE);
+    }
+
+    @Override
+    public long getRepositoryCacheIdleTimeout()
+    {
+        return this.configuration.getProperty(PREFIX + "repositoryCache.idleTimeout",
+            DEFAULT_REPOSITORY_CACHE_IDLE_TIMEOUT);
+    }
+
+    @Override
+    public long getUpdateInterval()
+    {
+        return this.configuration.getProperty(PREFIX + "update.interval", DEFAULT_UPDATE_INTERVAL);
+    }
+
+    @Override
+    public int getUpdateThreads()
+    {
+        return this.configuration.getProperty(PREFIX + "update.threads", DEFAULT_UPDATE_THREADS);
+    }
+
+    @Override
+    public boolean isAuthorIndexEnabled()
+    {
+        return this.configuration.getProperty(PREFIX + "authorIndex.enabled", true);
+    }
+
+    @Override
+    public int getQueryThreads()
+    {
+        return this.configuration.getProperty(PREFIX + "query.threads", Runtime.getRuntime().availableProcessors());
+    }
+
+    @Override
+    public long getClockSkewTolerance()
+    {
+        return this.configuration.getProperty(PREFIX + "query.clockSkewTolerance", DEFAULT_CLOCK_SKEW_TOLERANCE);
+    }
+
+    @Override
+    public int getTaskThreads()
+    {
+        return this.configuration.getProperty(PREFIX + "task.threads", DEFAULT_TASK_THREADS);
+    }
+
+    @Override
+    public int getTaskQueueSize()
+    {
+        return this.configuration.getProperty(PREFIX + "task.queueSize", DEFAULT_TASK_QUEUE_SIZE);
+    }
+
+    @Override
+    public long getTaskRetention()
+    {
+        return this.configuration.getProperty(PREFIX + "task.retention", DEFAULT_TASK_RETENTION);
+    }
+
+    @Override
+    public int getQueryCacheSize()
+    {
+        return this.configuration.getProperty(PREFIX + "queryCache.size", DEFAULT_QUERY_CACHE_SIZE);
+    }
+
+    @Override
+    public long getQueryCacheSinceGranularity()
+    {
+        return this.configuration.getProperty(PREFIX + "queryCache.sinceGranularity",
+            DEFAULT_QUERY_CACHE_SINCE_GRANULARITY);
+    }
+
+    @Override
+    public CloneMode getCloneMode()
+    {
+        String mode = this.configuration.getProperty(PREFIX + "clone.mode", CloneMode.CHECKOUT.name());
+        try {
+            return CloneMode.valueOf(mode.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            this.logger.warn("Invalid Git clone mode [{}], using [{}] instead. Valid values are {}", mode,
+                CloneMode.CHECKOUT, Arrays.toString(CloneMode.values()));
+            return CloneMode.CHECKOUT;
+        }
+    }
+
+    @Override
+    public long getMaintenanceInterval()
+    {
+        return this.configuration.getProperty(PREFIX + "maintenance.interval", DEFAULT_MAINTENANCE_INTERVAL);
+    }
+
+    @Override
+    public int getMaintenanceLooseObjectThreshold()
+    {
+        return this.configuration.getProperty(PREFIX + "maintenance.looseObjectThreshold",
+            DEFAULT_MAINTENANCE_LOOSE_OBJECT_THRESHOLD);
+    }
+
+    @Override
+    public int getMaintenancePackThreshold()
+    {
+        return this.configuration.getProperty(PREFIX + "maintenance.packThreshold",
+            DEFAULT_MAINTENANCE_PACK_THRESHOLD);
+    }
+
+    @Override
+    public long getMaintenancePackExpiry()
+    {
+        return this.configuration.getProperty(PREFIX + "maintenance.packExpiry", DEFAULT_MAINTENANCE_PACK_EXPIRY);
+    }
+
+    @Override
+    public long getDiskQuota()
+    {
+        return this.configuration.getProperty(PREFIX + "diskQuota", DEFAULT_DISK_QUOTA);
+    }
+
+    @Override
+    public long getDiskQuotaLease()
+    {
+        return this.configuration.getProperty(PREFIX + "diskQuota.lease", DEFAULT_DISK_QUOTA_LEASE);
+    }
+
+    @Override
+    public long getMemoryRepositoryMaxSize()
+    {
+        return this.configuration.getProperty(PREFIX + "memoryRepository.maxSize", DEFAULT_MEMORY_REPOSITORY_MAX_SIZE);
+    }
+
+    @Override
+    public long getMemoryRepositoryTimeToLive()
+    {
+        return this.configuration.getProperty(PREFIX + "memoryRepository.timeToLive",
+            DEFAULT_MEMORY_REPOSITORY_TIME_TO_LIVE);
+    }
+
+    @Override
+    public boolean isPackCacheConfigured()
+    {
+        return this.configuration.getKeys().stream().anyMatch(key -> key.startsWith(PACK_CACHE_PREFIX));
+    }
+
+    @Override
+    public int getPackCacheOpenFiles()
+    {
+        return this.configuration.getProperty(PACK_CACHE_PREFIX + "openFiles", DEFAULT_PACK_CACHE_OPEN_FILES);
+    }
+
+    @Override
+    public long getPackCacheLimit()
+    {
+        return this.configuration.getProperty(PACK_CACHE_PREFIX + "limit", DEFAULT_PACK_CACHE_LIMIT);
+    }
+
+    @Override
+    public int getPackCacheWindowSize()
+    {
+        return this.configuration.getProperty(PACK_CACHE_PREFIX + "windowSize", DEFAULT_PACK_CACHE_WINDOW_SIZE);
+    }
+
+    @Override
+    public boolean isPackCacheMMap()
+    {
+        return this.configuration.getProperty(PACK_CACHE_PREFIX + "mmap", DEFAULT_PACK_CACHE_MMAP);
+    }
+
+    @Override
+    public int getDeltaBaseCacheLimit()
+    {
+        return this.configuration.getProperty(PACK_CACHE_PREFIX + "deltaBaseCacheLimit",
+            DEFAULT_DELTA_BASE_CACHE_LIMIT);
+    }
+
+    @Override
+    public int getStreamFileThreshold()
+    {
+        return this.configuration.getProperty(PACK_CACHE_PREFIX + "streamFileThreshold",
+            DEFAULT_STREAM_FILE_THRESHOLD);
+    }
+
+    @Override
+    public long getQueryMaxCommits()
+    {
+        return this.configuration.getProperty(PREFIX + "query.maxCommits", DEFAULT_QUERY_MAX_COMMITS);
+    }
+
+    @Override
+    public long getQueryTimeout()
+    {
+        return this.configuration.getProperty(PREFIX + "query.timeout", DEFAULT_QUERY_TIMEOUT);
+    }
+
+    @Override
+    public int getSyncThreads()
+    {
+        return this.configuration.getProperty(PREFIX + "sync.threads", DEFAULT_SYNC_THREADS);
+    }
+
+    @Override
+    public int getSyncHostThreads()
+    {
+        return this.configuration.getProperty(PREFIX + "sync.hostThreads", DEFAULT_SYNC_HOST_THREADS);
+    }
+
+    @Override
+    public int getSyncAttempts()
+    {
+        return this.configuration.getProperty(PREFIX + "sync.attempts", DEFAULT_SYNC_ATTEMPTS);
+    }
+
+    @Override
+    public long getSyncRetryDelay()
+    {
+        return this.configuration.getProperty(PREFIX + "sync.retryDelay", DEFAULT_SYNC_RETRY_DELAY);
+    }
+
+    @Override
+    public long getLockLease()
+    {
+        return this.configuration.getProperty(PREFIX + "lock.lease", DEFAULT_LOCK_LEASE);
+    }
+
+    @Override
+    public boolean isChurnCacheEnabled()
+    {
+        return this.configuration.getProperty(PREFIX + "churn.cache", DEFAULT_CHURN_CACHE);
+    }
+
+    @Override
+    public long getChurnMaxFileSize()
+    {
+        return this.configuration.getProperty(PREFIX + "churn.maxFileSize", DEFAULT_CHURN_MAX_FILE_SIZE);
+    }
+
+    @Override
+    public long getBlameCacheSize()
+    {
+        return this.configuration.getProperty(PREFIX + "blame.cacheSize", DEFAULT_BLAME_CACHE_SIZE);
+    }
+
+    @Override
+    public boolean isBlamePersistent()
+    {
+        return this.configuration.getProperty(PREFIX + "blame.persistent", DEFAULT_BLAME_PERSISTENT);
+    }
+}
@@ -20,42 +20,126 @@
 package org.xwiki.git.internal;
 
 import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Lock;
+import java.util.function.ObjIntConsumer;
+import java.util.function.Supplier;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
+import org.apache.commons.lang3.exception.ExceptionUtils;
 import org.eclipse.jgit.api.CloneCommand;
 import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.MergeCommand.FastForwardMode;
+import org.eclipse.jgit.api.MergeResult;
+import org.eclipse.jgit.api.MergeResult.MergeStatus;
+import org.eclipse.jgit.internal.storage.dfs.DfsRepository;
+import org.eclipse.jgit.lib.BranchConfig;
+import org.eclipse.jgit.lib.ConfigConstants;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.ProgressMonitor;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.RefUpdate;
 import org.eclipse.jgit.lib.Repository;
-import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+import org.eclipse.jgit.lib.RepositoryCache.FileKey;
+import org.eclipse.jgit.lib.StoredConfig;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevSort;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.revwalk.filter.CommitTimeRevFilter;
+import org.eclipse.jgit.storage.file.WindowCacheConfig;
+import org.eclipse.jgit.transport.CredentialsProvider;
+import org.eclipse.jgit.transport.FetchResult;
+import org.eclipse.jgit.transport.RefSpec;
+import org.eclipse.jgit.transport.RemoteConfig;
 import org.eclipse.jgit.transport.UsernamePasswordCredentialsProvider;
-import org.gitective.core.CommitFinder;
-import org.gitective.core.filter.commit.AndCommitFilter;
-import org.gitective.core.filter.commit.AuthorDateFilter;
-import org.gitective.core.filter.commit.AuthorSetFilter;
-import org.gitective.core.filter.commit.CommitCountFilter;
-import org.gitective.core.stat.AuthorHistogramFilter;
+import org.eclipse.jgit.util.FS;
+import org.eclipse.jgit.util.FileUtils;
 import org.gitective.core.stat.CommitCountComparator;
+import org.gitective.core.stat.CommitHistogram;
 import org.gitective.core.stat.UserCommitActivity;
 import org.slf4j.Logger;
 import org.xwiki.component.annotation.Component;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
 import org.xwiki.environment.Environment;
+import org.xwiki.git.ActivityPeriod;
+import org.xwiki.git.ActivitySeries;
+import org.xwiki.git.AuthorChurn;
+import org.xwiki.git.AuthorCommitCount;
+import org.xwiki.git.CloneMode;
+import org.xwiki.git.CommitPage;
+import org.xwiki.git.CommitSummary;
+import org.xwiki.git.DirectoryContributions;
+import org.xwiki.git.FileBlame;
 import org.xwiki.git.GitManager;
+import org.xwiki.git.GitStatistics;
+import org.xwiki.git.GitTask;
+import org.xwiki.git.MaintenanceReport;
+import org.xwiki.git.QueryBudget;
+import org.xwiki.git.QueryResult;
+import org.xwiki.git.SyncRequest;
+import org.xwiki.git.SyncResult;
+import org.xwiki.git.internal.NodeLockManager.NodeLock;
 
 /**
- * Provides services to access a Git repository by storing the data in the XWiki permanent directory.
+ * Provides services to access a Git repository by storing the data in the XWiki permanent directory. Opened
+ * repositories are kept in a {@link RepositoryCache} so that callers asking several times for the same repository
+ * share the same handle; callers may release their reference with {@link Repository#close()} when they're done.
+ * Clones, fetches and queries are measured by {@link GitMetrics}, which is registered in JMX as
+ * {@code org.xwiki.git:type=GitManager}.
  *
  * @version $Id$
  * @since 5.3M2
  */
 @Component
 @Singleton
-public class DefaultGitManager implements GitManager
+public class DefaultGitManager implements GitManager, Initializable, Disposable
 {
+    private static final long GC_WAIT_TIMEOUT = 60000L;
+
+    private static final long GC_WAIT_INTERVAL = 10L;
+
+    /**
+     * Followed by a number making the name unique, since several instances can live in the same JVM (e.g. several
+     * web applications, or a redeployed one before the previous one is disposed).
+     */
+    private static final String MBEAN_NAME = "org.xwiki.git:type=GitManager,id=";
+
+    private static final String WALK_TASK = "Walking history";
+
+    /**
+     * The minimum number of commits diffed by a thread, below which splitting the work costs more than it saves.
+     */
+    private static final int MIN_DIFF_CHUNK_SIZE = 64;
+
     /**
      * Required to get access to the Environment's permanent directory, where the Script service will clone Git
      * repositories.
@@ -69,89 +153,1448 @@ public class DefaultGitManager implements GitManager
     @Inject
     private Logger logger;
 
+    @Inject
+    private GitConfiguration configuration;
+
+    /**
+     * Open repositories, shared between callers.
+     */
+    private RepositoryCache repositoryCache;
+
+    /**
+     * Serialize clones and opening of the same repository, while letting different repositories be cloned in parallel.
+     */
+    private final StripedLock repositoryLocks = new StripedLock(64);
+
+    /**
+     * Updates registered repositories in the background.
+     */
+    private RepositoryUpdater repositoryUpdater;
+
+    /**
+     * Serializes clones, fetches and repacks of the same repository across the nodes sharing the permanent directory.
+     */
+    private NodeLockManager nodeLocks;
+
+    /**
+     * Repacks the repositories regularly or when they have too many loose objects or packs.
+     */
+    private RepositoryMaintainer repositoryMaintainer;
+
+    /**
+     * Deletes the least recently used clones when they take too much disk space.
+     */
+    private CloneRegistry cloneRegistry;
+
+    /**
+     * The number of milliseconds during which a returned repository is considered in use and thus not deleted.
+     */
+    private long diskQuotaLease;
+
+    /**
+     * Clones or updates many repositories at once.
+     */
+    private RepositorySynchronizer repositorySynchronizer;
+
+    /**
+     * Keeps the repositories cloned in memory.
+     */
+    private MemoryRepositoryStore memoryRepositoryStore;
+
+    /**
+     * Indexes the authors of the commits, to avoid walking the whole history on each query.
+     */
+    private AuthorIndexManager authorIndexManager;
+
+    /**
+     * Stores the number of lines changed by each commit, which never changes.
+     */
+    private ChurnCache churnCache;
+
+    /**
+     * The size in bytes above which files are not diffed when counting changed lines, 0 for no limit.
+     */
+    private long churnMaxFileSize;
+
+    /**
+     * Computes the blame of files, reusing the blame of their previous versions.
+     */
+    private BlameManager blameManager;
+
+    /**
+     * Walks the histories of several repositories in parallel, {@code null} when they're walked sequentially.
+     */
+    private ExecutorService queryExecutor;
+
+    /**
+     * Results of the author queries, reused while the repositories don't change.
+     */
+    private QueryResultCache queryResultCache;
+
+    /**
+     * Executes the asynchronous operations.
+     */
+    private GitTaskExecutor taskExecutor;
+
+    /**
+     * Counts and times the operations, exposed through JMX.
+     */
+    private GitMetrics metrics;
+
+    /**
+     * The name under which the metrics are registered in JMX, {@code null} if they couldn't be registered.
+     */
+    private ObjectName mbeanName;
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        configurePackCache();
+        this.nodeLocks = new NodeLockManager(this.configuration.getLockLease() * 1000L, this.logger);
+        this.repositoryCache = new RepositoryCache(this.configuration.getRepositoryCacheSize(),
+            this.configuration.getRepositoryCacheIdleTimeout() * 1000L);
+        this.queryResultCache = new QueryResultCache(this.configuration.getQueryCacheSize(),
+            this.configuration.getQueryCacheSinceGranularity() * 1000L);
+        this.metrics = new GitMetrics(this.repositoryCache, this.queryResultCache);
+        registerMBean();
+        this.repositoryUpdater = new RepositoryUpdater(this, this.configuration.getUpdateInterval() * 1000L,
+            this.configuration.getUpdateThreads(), this.logger);
+        this.repositoryMaintainer = new RepositoryMaintainer(this, this.configuration.getMaintenanceInterval() * 1000L,
+            this.configuration.getMaintenanceLooseObjectThreshold(), this.configuration.getMaintenancePackThreshold(),
+            this.configuration.getMaintenancePackExpiry() * 1000L, this.metrics, this.logger);
+        long diskQuota = this.configuration.getDiskQuota() * 1024L * 1024L;
+        this.diskQuotaLease = this.configuration.getDiskQuotaLease() * 1000L;
+        this.cloneRegistry = new CloneRegistry(getLocalGitDirectory(), diskQuota, this::evictClone, this.logger);
+        this.cloneRegistry.start();
+        this.repositorySynchronizer = new RepositorySynchronizer(this::synchronize,
+            this.configuration.getSyncThreads(), this.configuration.getSyncHostThreads(),
+            this.configuration.getSyncAttempts(), this.configuration.getSyncRetryDelay() * 1000L, this.logger);
+        this.memoryRepositoryStore = new MemoryRepositoryStore(
+            this.configuration.getMemoryRepositoryMaxSize() * 1024L * 1024L,
+            this.configuration.getMemoryRepositoryTimeToLive() * 1000L);
+        this.authorIndexManager = new AuthorIndexManager(getLocalGitDirectory(),
+            this.configuration.isAuthorIndexEnabled(), this.configuration.getClockSkewTolerance() * 1000L,
+            this.metrics, this.logger);
+        this.churnMaxFileSize = this.configuration.getChurnMaxFileSize() * 1024L;
+        this.churnCache = new ChurnCache(getLocalGitDirectory(), this.configuration.isChurnCacheEnabled(),
+            this.churnMaxFileSize, this.nodeLocks, this.logger);
+        this.blameManager = new BlameManager(new BlameCache(getLocalGitDirectory(),
+            this.configuration.isBlamePersistent(), this.configuration.getBlameCacheSize(), this.logger));
+        this.taskExecutor = new GitTaskExecutor(this.configuration.getTaskThreads(),
+            this.configuration.getTaskQueueSize(), this.configuration.getTaskRetention() * 1000L);
+        int queryThreads = this.configuration.getQueryThreads();
+        if (queryThreads > 1) {
+            this.queryExecutor = Executors.newFixedThreadPool(queryThreads,
+                new BasicThreadFactory.Builder().namingPattern("XWiki Git query thread %d").daemon(true).build());
+        }
+    }
+
+    @Override
+    public void dispose()
+    {
+        this.taskExecutor.dispose();
+        if (this.queryExecutor != null) {
+            this.queryExecutor.shutdownNow();
+        }
+        this.repositorySynchronizer.dispose();
+        this.repositoryUpdater.dispose();
+        this.repositoryMaintainer.dispose();
+        this.cloneRegistry.dispose();
+        this.memoryRepositoryStore.dispose();
+        this.repositoryCache.clear();
+        this.queryResultCache.clear();
+        this.nodeLocks.dispose();
+        unregisterMBean();
+    }
+
+    /**
+     * The JGit defaults are meant for desktop applications reading a few repositories, while a wiki may walk the
+     * history of hundreds of large repositories. Note that the pack cache is shared by all the JGit users of the
+     * application and reconfiguring it empties it, so it's only reconfigured when asked to.
+     */
+    private void configurePackCache()
+    {
+        if (!this.configuration.isPackCacheConfigured()) {
+            this.logger.debug("No Git pack cache property set, keeping the current JGit pack cache configuration");
+            return;
+        }
+
+        WindowCacheConfig config = new WindowCacheConfig();
+        // Keep the JGit defaults for invalid values.
+        if (this.configuration.getPackCacheOpenFiles() > 0) {
+            config.setPackedGitOpenFiles(this.configuration.getPackCacheOpenFiles());
+        }
+        if (this.configuration.getPackCacheLimit() > 0) {
+            config.setPackedGitLimit(this.configuration.getPackCacheLimit() * WindowCacheConfig.MB);
+        }
+        if (this.configuration.getPackCacheWindowSize() > 0) {
+            config.setPackedGitWindowSize(this.configuration.getPackCacheWindowSize() * WindowCacheConfig.KB);
+        }
+        config.setPackedGitMMAP(this.configuration.isPackCacheMMap());
+        if (this.configuration.getDeltaBaseCacheLimit() > 0) {
+            config.setDeltaBaseCacheLimit(this.configuration.getDeltaBaseCacheLimit() * WindowCacheConfig.MB);
+        }
+        if (this.configuration.getStreamFileThreshold() > 0) {
+            config.setStreamFileThreshold(this.configuration.getStreamFileThreshold() * WindowCacheConfig.MB);
+        }
+
+        try {
+            config.install();
+            this.logger.info("Configured the Git pack cache: [{}] open files, [{}] bytes limit, [{}] bytes windows, "
+                + "memory mapping [{}], [{}] bytes delta base cache limit, [{}] bytes stream file threshold",
+                config.getPackedGitOpenFiles(), config.getPackedGitLimit(), config.getPackedGitWindowSize(),
+                config.isPackedGitMMAP(), config.getDeltaBaseCacheLimit(), config.getStreamFileThreshold());
+        } catch (IllegalArgumentException e) {
+            this.logger.warn("Invalid Git pack cache configuration, keeping the previous one. Root cause: [{}]",
+                ExceptionUtils.getRootCauseMessage(e));
+        }
+    }
+
+    private void registerMBean()
+    {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            for (int id = 1; this.mbeanName == null; id++) {
+                ObjectName name = new ObjectName(MBEAN_NAME + id);
+                try {
+                    server.registerMBean(this.metrics, name);
+                    this.mbeanName = name;
+                } catch (InstanceAlreadyExistsException e) {
+                    // Registered by another instance, try the next id.
+                }
+            }
+            this.logger.debug("Git metrics registered in JMX as [{}]", this.mbeanName);
+        } catch (Exception e) {
+            this.logger.warn("Failed to register the Git metrics in JMX. Root cause: [{}]",
+                ExceptionUtils.getRootCauseMessage(e));
+        }
+    }
+
+    private void unregisterMBean()
+    {
+        if (this.mbeanName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(this.mbeanName);
+            } catch (Exception e) {
+                this.logger.debug("Failed to unregister the Git metrics from JMX", e);
+            }
+            this.mbeanName = null;
+        }
+    }
+
     @Override
     public Repository getRepository(String repositoryURI, String localDirectoryName, CloneCommand cloneCommand)
     {
-        Repository repository;
+        return getRepository(repositoryURI, localDirectoryName, cloneCommand, null, null);
+    }
+
+    @Override
+    public Repository getRepository(String repositoryURI, String localDirectoryName, CloneMode mode, String branch,
+        CredentialsProvider credentialsProvider)
+    {
+        return getRepository(repositoryURI, localDirectoryName, mode, branch, credentialsProvider, null);
+    }
+
+    /**
+     * @param cloned set to {@code true} if the repository had to be cloned, can be {@code null}
+     */
+    private Repository getRepository(String repositoryURI, String localDirectoryName, CloneMode mode, String branch,
+        CredentialsProvider credentialsProvider, AtomicBoolean cloned)
+    {
+        if (mode == CloneMode.MEMORY) {
+            return getMemoryRepository(repositoryURI, localDirectoryName, branch, credentialsProvider,
+                NullProgressMonitor.INSTANCE, cloned);
+        }
+        return getRepository(repositoryURI, localDirectoryName,
+            createCloneCommand(mode, branch, credentialsProvider), branch, cloned);
+    }
+
+    private Repository getMemoryRepository(String repositoryURI, String name, String branch,
+        CredentialsProvider credentialsProvider, ProgressMonitor monitor, AtomicBoolean cloned)
+    {
+        try {
+            return this.memoryRepositoryStore.get(repositoryURI, name, branch, credentialsProvider, monitor, cloned);
+        } catch (Exception e) {
+            throw new RuntimeException(String.format("Failed to clone [%s] in memory", repositoryURI), e);
+        }
+    }
 
+    /**
+     * @param singleBranch the only branch fetched by the clone command, to which later fetches are restricted, or
+     *        {@code null}
+     * @param cloned set to {@code true} if the repository had to be cloned, can be {@code null}
+     */
+    private Repository getRepository(String repositoryURI, String localDirectoryName, CloneCommand cloneCommand,
+        String singleBranch, AtomicBoolean cloned)
+    {
         // Specify the local directory where the repository will be saved.
-        File localGitDirectory = new File(this.environment.getPermanentDirectory(), "git");
+        File localGitDirectory = getLocalGitDirectory();
         File localDirectory = new File(localGitDirectory, localDirectoryName);
-        File gitDirectory = new File(localDirectory, ".git");
-        this.logger.debug("Local Git repository is at [{}]", gitDirectory);
+        File gitDirectory = getGitDirectory(localDirectory);
+        this.logger.debug("Local Git repository is at [{}]", localDirectory);
+
+        // Step 1: Reuse the repository if it's already open.
+        Repository repository = gitDirectory != null ? this.repositoryCache.get(gitDirectory) : null;
+        if (repository != null) {
+            this.cloneRegistry.accessed(localDirectory);
+            return repository;
+        }
+
+        // Only one thread at a time may clone or open a given repository. Threads asking for the same repository while
+        // it's being cloned wait for the clone to finish and then get the cloned repository.
+        Lock lock = this.repositoryLocks.get(localDirectory.getAbsoluteFile());
+        lock.lock();
+        try {
+            // Step 2: Verify if the repository has already been cloned, bare or not. Other nodes sharing the permanent
+            // directory wait for the node cloning it and then open the clone.
+            gitDirectory = getGitDirectory(localDirectory);
+            if (gitDirectory == null) {
+                NodeLock nodeLock = this.nodeLocks.lock(localDirectory);
+                try {
+                    gitDirectory = getGitDirectory(localDirectory);
+                    if (gitDirectory == null) {
+                        repository = cloneRepository(repositoryURI, localDirectory, cloneCommand, singleBranch);
+                        gitDirectory = repository.getDirectory();
+                        if (cloned != null) {
+                            cloned.set(true);
+                        }
+                        this.cloneRegistry.updated(localDirectory);
+                    }
+                } finally {
+                    nodeLock.close();
+                }
+            }
+            if (repository == null) {
+                repository = this.repositoryCache.get(gitDirectory);
+                if (repository != null) {
+                    this.cloneRegistry.accessed(localDirectory);
+                    return repository;
+                }
+
+                // Step 3: Initialize Git environment.
+                long start = System.nanoTime();
+                repository = this.repositoryCache.open(gitDirectory);
+                this.metrics.repositoryOpened(start);
+                this.cloneRegistry.accessed(localDirectory);
+            }
+
+            this.repositoryMaintainer.track(repository);
+            return this.repositoryCache.put(gitDirectory, repository);
+        } catch (Exception e) {
+            throw new RuntimeException(String.format("Failed to execute Git command in [%s]", localDirectory), e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the Git directory of the repository cloned in the passed directory: its {@code .git} subdirectory, or
+     *         the directory itself for bare clones, {@code null} if the repository hasn't been cloned
+     */
+    private File getGitDirectory(File localDirectory)
+    {
+        File gitDirectory = new File(localDirectory, Constants.DOT_GIT);
+        if (gitDirectory.exists()) {
+            return gitDirectory;
+        } else if (FileKey.isGitRepository(localDirectory, FS.DETECTED)) {
+            return localDirectory;
+        }
+        return null;
+    }
+
+    /**
+     * Delete a clone to stay below the disk quota, unless it's being used: cloned, fetched or maintained by any node,
+     * returned to a caller less than the lease time ago, or updated in the background. Callers never release the
+     * repositories they get, so the lease is the only way to know they're done with them. Repositories are only
+     * returned while holding the repository lock, so none can be returned between the check and the deletion.
+     * <p>
+     * Temporary clone directories are deleted unless the clone they belong to is still running, in which case both
+     * locks of the clone directory are held.
+     *
+     * @return {@code true} if the clone has been deleted
+     */
+    private boolean evictClone(File directory)
+    {
+        File temporaryCloneTarget = CloneRegistry.getTemporaryCloneTarget(directory);
+        File localDirectory = temporaryCloneTarget != null ? temporaryCloneTarget : directory;
+        Lock lock = this.repositoryLocks.get(localDirectory.getAbsoluteFile());
+        if (!lock.tryLock()) {
+            return false;
+        }
+        try (NodeLock nodeLock = this.nodeLocks.tryLock(localDirectory)) {
+            if (nodeLock == null) {
+                // Being cloned, fetched or repacked by another node.
+                return false;
+            }
+            File gitDirectory = temporaryCloneTarget == null ? getGitDirectory(localDirectory) : null;
+            if (gitDirectory != null) {
+                if (System.currentTimeMillis() - this.repositoryCache.getLastAccess(gitDirectory) < this.diskQuotaLease
+                    || this.repositoryUpdater.isRegistered(gitDirectory)) {
+                    return false;
+                }
+                this.repositoryCache.remove(gitDirectory);
+            }
+            FileUtils.delete(directory, FileUtils.RECURSIVE | FileUtils.SKIP_MISSING | FileUtils.RETRY);
+            return true;
+        } catch (IOException e) {
+            this.logger.warn("Failed to delete the Git clone [{}]. Root cause: [{}]", directory,
+                ExceptionUtils.getRootCauseMessage(e));
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private CloneCommand createCloneCommand(CloneMode mode, String branch, CredentialsProvider credentialsProvider)
+    {
+        CloneCommand cloneCommand = Git.cloneRepository()
+            .setBare(mode == CloneMode.BARE)
+            .setNoCheckout(mode == CloneMode.NO_CHECKOUT)
+            .setCredentialsProvider(credentialsProvider);
+        if (branch != null) {
+            cloneCommand.setBranch(branch)
+                .setCloneAllBranches(false)
+                .setBranchesToClone(Collections.singleton(Constants.R_HEADS + branch));
+        }
+        return cloneCommand;
+    }
+
+    /**
+     * Git only lets the lock of a repository be taken using the directory in which it was cloned, whether it's bare
+     * or not, since the Git directory isn't known before the repository is cloned.
+     */
+    private Object getLockKey(Repository repository)
+    {
+        File localDirectory = getLocalDirectory(repository);
+        // In-memory repositories are only known through their handle.
+        return localDirectory != null ? localDirectory : repository;
+    }
+
+    /**
+     * @return the directory in which the repository was cloned, {@code null} for in-memory repositories
+     */
+    private File getLocalDirectory(Repository repository)
+    {
+        if (repository.getDirectory() == null) {
+            return null;
+        }
+        return (repository.isBare() ? repository.getDirectory() : repository.getWorkTree()).getAbsoluteFile();
+    }
+
+    /**
+     * Clone the repository in a temporary directory next to the target directory and then rename it, so that a
+     * partially cloned repository is never visible, even if the clone fails or XWiki is stopped in the middle of it.
+     */
+    private Repository cloneRepository(String repositoryURI, File localDirectory, CloneCommand cloneCommand,
+        String singleBranch) throws Exception
+    {
+        File parentDirectory = localDirectory.getParentFile();
+        parentDirectory.mkdirs();
+        File temporaryDirectory =
+            Files.createTempDirectory(parentDirectory.toPath(), CloneRegistry.getTemporaryClonePrefix(localDirectory))
+                .toFile();
+        this.logger.debug("Cloning [{}] in [{}]", repositoryURI, temporaryDirectory);
 
-        // Initialize builder for the Git environment.
+        long start = this.metrics.cloneStarted();
+        boolean bare;
+        long receivedBytes;
         try {
-            // Step 1: Initialize Git environment.
-            repository = new FileRepositoryBuilder().setGitDir(gitDirectory)
-                .readEnvironment()
-                .findGitDir()
-                .build();
-
-            // Step 2: Verify if the directory exists and isn't empty.
-            if (!gitDirectory.exists()) {
-                Git git = cloneCommand.setDirectory(localDirectory)
-                    .setURI(repositoryURI)
-                    .call();
-                repository = git.getRepository();
+            try (Git git = cloneCommand.setDirectory(temporaryDirectory).setURI(repositoryURI).call()) {
+                bare = git.getRepository().isBare();
+                receivedBytes = getPackSize(git.getRepository());
+                if (singleBranch != null) {
+                    restrictFetchToBranch(git.getRepository(), singleBranch);
+                }
+                if (!bare && git.getRepository().resolve(Constants.HEAD) == null) {
+                    createLocalBranch(git.getRepository(), singleBranch);
+                }
+                waitForAutomaticGarbageCollection(git.getRepository().getDirectory());
+            }
+
+            // An empty target directory would prevent the rename.
+            if (localDirectory.isDirectory()) {
+                Files.deleteIfExists(localDirectory.toPath());
             }
+            Files.move(temporaryDirectory.toPath(), localDirectory.toPath(), StandardCopyOption.ATOMIC_MOVE);
         } catch (Exception e) {
-            throw new RuntimeException(String.format("Failed to execute Git command in [%s]", gitDirectory), e);
+            this.metrics.cloneFinished(start, false, 0);
+            FileUtils.delete(temporaryDirectory, FileUtils.RECURSIVE | FileUtils.IGNORE_ERRORS);
+            throw e;
+        }
+        this.metrics.cloneFinished(start, true, receivedBytes);
+
+        return this.repositoryCache.open(bare ? localDirectory : new File(localDirectory, Constants.DOT_GIT));
+    }
+
+    /**
+     * JGit doesn't create the local branch when cloning without checkout, contrary to Git, so there would be nothing to
+     * query nor to update.
+     *
+     * @param branch the branch to create, or {@code null} for the one HEAD points to
+     */
+    private void createLocalBranch(Repository repository, String branch) throws Exception
+    {
+        String fullBranch = branch != null ? Constants.R_HEADS + branch : repository.getFullBranch();
+        String shortBranch = Repository.shortenRefName(fullBranch);
+        Ref remoteRef =
+            repository.exactRef(Constants.R_REMOTES + Constants.DEFAULT_REMOTE_NAME + '/' + shortBranch);
+        if (remoteRef == null) {
+            // Empty repository or HEAD pointing to a branch that doesn't exist on the remote.
+            return;
+        }
+
+        RefUpdate refUpdate = repository.updateRef(fullBranch);
+        refUpdate.setNewObjectId(remoteRef.getObjectId());
+        refUpdate.update();
+        repository.updateRef(Constants.HEAD).link(fullBranch);
+
+        StoredConfig config = repository.getConfig();
+        config.setString(ConfigConstants.CONFIG_BRANCH_SECTION, shortBranch, ConfigConstants.CONFIG_KEY_REMOTE,
+            Constants.DEFAULT_REMOTE_NAME);
+        config.setString(ConfigConstants.CONFIG_BRANCH_SECTION, shortBranch, ConfigConstants.CONFIG_KEY_MERGE,
+            fullBranch);
+        config.save();
+    }
+
+    /**
+     * JGit only fetches the requested branch when cloning but still configures the remote to fetch all branches, which
+     * later updates would do.
+     */
+    private void restrictFetchToBranch(Repository repository, String branch) throws Exception
+    {
+        StoredConfig config = repository.getConfig();
+        RemoteConfig remote = new RemoteConfig(config, Constants.DEFAULT_REMOTE_NAME);
+        for (RefSpec refSpec : new ArrayList<>(remote.getFetchRefSpecs())) {
+            remote.removeFetchRefSpec(refSpec);
+        }
+        String destination = repository.isBare() ? Constants.R_HEADS
+            : Constants.R_REMOTES + Constants.DEFAULT_REMOTE_NAME + '/';
+        remote.addFetchRefSpec(
+            new RefSpec().setForceUpdate(true).setSourceDestination(Constants.R_HEADS + branch, destination + branch));
+        remote.update(config);
+        config.save();
+    }
+
+    /**
+     * @return the size of the packs of the passed repository, which is how much has been received when fetching
+     */
+    private long getPackSize(Repository repository) throws IOException
+    {
+        if (repository instanceof DfsRepository) {
+            return MemoryRepositoryStore.getPackSize((DfsRepository) repository);
+        }
+
+        long size = 0;
+        File[] packs = new File(repository.getDirectory(), "objects/pack").listFiles();
+        if (packs != null) {
+            for (File pack : packs) {
+                if (pack.getName().endsWith(".pack")) {
+                    size += pack.length();
+                }
+            }
         }
+        return size;
+    }
 
-        return repository;
+    /**
+     * JGit starts an automatic garbage collection in the background after fetching objects. Moving the repository
+     * while it runs would make it fail, so wait for it to release its lock first.
+     */
+    private void waitForAutomaticGarbageCollection(File gitDirectory) throws InterruptedException
+    {
+        File gcLock = new File(gitDirectory, "gc.log.lock");
+        long deadline = System.currentTimeMillis() + GC_WAIT_TIMEOUT;
+        while (gcLock.exists() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(GC_WAIT_INTERVAL);
+        }
     }
 
     @Override
     public Repository getRepository(String repositoryURI, String localDirectoryName)
     {
-        // Simple CloneCommand with default settings
-        CloneCommand cloneCommand = Git.cloneRepository();
-        return getRepository(repositoryURI, localDirectoryName, cloneCommand);
+        // Simple CloneCommand with the configured clone mode
+        return getRepository(repositoryURI, localDirectoryName, getCloneMode(), null, null);
     }
 
     @Override
     public Repository getRepository(String repositoryURI, String localDirectoryName, String username, String accessCode)
     {
         // CloneCommand with basic authentication
-        CloneCommand cloneCommand = Git.cloneRepository();
-        cloneCommand.setCredentialsProvider(new UsernamePasswordCredentialsProvider(username, accessCode));
-        return getRepository(repositoryURI, localDirectoryName, cloneCommand);
+        return getRepository(repositoryURI, localDirectoryName, getCloneMode(), null,
+            new UsernamePasswordCredentialsProvider(username, accessCode));
     }
 
-    @Override
-    public Set<PersonIdent> findAuthors(List<Repository> repositories)
+    private CloneMode getCloneMode()
     {
-        CommitFinder finder = new CommitFinder(repositories);
-        AuthorSetFilter authors = new AuthorSetFilter();
-        finder.setFilter(authors).find();
+        CloneMode mode = this.configuration.getCloneMode();
+        return mode != null ? mode : CloneMode.CHECKOUT;
+    }
 
-        return authors.getPersons();
+    @Override
+    public FetchResult fetch(Repository repository, CredentialsProvider credentialsProvider)
+    {
+        Lock lock = this.repositoryLocks.get(getLockKey(repository));
+        lock.lock();
+        NodeLock nodeLock = null;
+        try (Git git = new Git(repository)) {
+            nodeLock = this.nodeLocks.lock(getLocalDirectory(repository));
+            return fetch(git, credentialsProvider);
+        } catch (Exception e) {
+            throw new RuntimeException(String.format("Failed to fetch [%s]", repository.getDirectory()), e);
+        } finally {
+            if (nodeLock != null) {
+                nodeLock.close();
+            }
+            lock.unlock();
+        }
     }
 
     @Override
-    public UserCommitActivity[] countAuthorCommits(Date since, List<Repository> repositories)
+    public boolean update(Repository repository, CredentialsProvider credentialsProvider)
     {
-        if (repositories.isEmpty()) {
-            return new UserCommitActivity[0];
+        return updateRepository(repository, credentialsProvider) == SyncResult.Status.UPDATED;
+    }
+
+    /**
+     * @return {@link SyncResult.Status#UPDATED} if new commits have been fetched, {@link SyncResult.Status#UP_TO_DATE}
+     *         if there was nothing new to fetch, {@link SyncResult.Status#UPDATED_BY_OTHER_NODE} if another node was
+     *         updating the repository
+     */
+    private SyncResult.Status updateRepository(Repository repository, CredentialsProvider credentialsProvider)
+    {
+        Lock lock = this.repositoryLocks.get(getLockKey(repository));
+        lock.lock();
+        File localDirectory = getLocalDirectory(repository);
+        try (NodeLock nodeLock = this.nodeLocks.tryLock(localDirectory); Git git = new Git(repository)) {
+            if (nodeLock == null) {
+                // Another node is updating the shared clone: wait for it to finish and use what it fetched.
+                this.nodeLocks.lock(localDirectory).close();
+                return SyncResult.Status.UPDATED_BY_OTHER_NODE;
+            }
+            FetchResult result = fetch(git, credentialsProvider);
+            boolean updated = !result.getTrackingRefUpdates().isEmpty();
+            // Bare repositories fetch directly into their local branches.
+            if (!repository.isBare()) {
+                updated |= fastForward(git);
+            }
+            return updated ? SyncResult.Status.UPDATED : SyncResult.Status.UP_TO_DATE;
+        } catch (Exception e) {
+            throw new RuntimeException(String.format("Failed to update [%s]", repository.getDirectory()), e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private FetchResult fetch(Git git, CredentialsProvider credentialsProvider) throws Exception
+    {
+        long start = this.metrics.fetchStarted();
+        long packSize = getPackSize(git.getRepository());
+        try {
+            FetchResult result = git.fetch().setCredentialsProvider(credentialsProvider).call();
+            long fetchedSize = Math.max(0, getPackSize(git.getRepository()) - packSize);
+            if (git.getRepository() instanceof DfsRepository) {
+                // The size of in-memory repositories is bounded by their store, which only knew their cloned size.
+                this.memoryRepositoryStore.updated((DfsRepository) git.getRepository());
+            }
+            this.metrics.fetchFinished(start, true, fetchedSize);
+            this.repositoryMaintainer.check(git.getRepository());
+            File localDirectory = getLocalDirectory(git.getRepository());
+            if (localDirectory != null) {
+                this.cloneRegistry.updated(localDirectory);
+            }
+            return result;
+        } catch (Exception e) {
+            this.metrics.fetchFinished(start, false, 0);
+            throw e;
+        }
+    }
+
+    /**
+     * Fast-forward the current branch to its upstream branch, if any.
+     */
+    private boolean fastForward(Git git) throws Exception
+    {
+        Repository repository = git.getRepository();
+        String fullBranch = repository.getFullBranch();
+        if (fullBranch == null || !fullBranch.startsWith(Constants.R_HEADS)) {
+            // Detached HEAD, nothing to update.
+            return false;
         }
 
-        CommitFinder finder = new CommitFinder(repositories);
+        String upstream = new BranchConfig(repository.getConfig(), repository.getBranch()).getRemoteTrackingBranch();
+        Ref upstreamRef = upstream != null ? repository.exactRef(upstream) : null;
+        if (upstreamRef == null) {
+            return false;
+        }
 
-        CommitCountFilter countFilter = new CommitCountFilter();
-        AuthorHistogramFilter histogramFilter = new AuthorHistogramFilter();
-        AuthorSetFilter authorFilter = new AuthorSetFilter();
+        if (!repository.getIndexFile().exists()) {
+            // Nothing has been checked out (no-checkout clone), only move the branch.
+            RefUpdate refUpdate = repository.updateRef(fullBranch);
+            refUpdate.setNewObjectId(upstreamRef.getObjectId());
+            RefUpdate.Result result = refUpdate.update();
+            if (result == RefUpdate.Result.REJECTED) {
+                this.logger.warn("Can't fast-forward [{}] in [{}] since it has diverged from [{}]", fullBranch,
+                    repository.getDirectory(), upstream);
+            }
+            return result == RefUpdate.Result.FAST_FORWARD;
+        }
 
-        AndCommitFilter filters = new AndCommitFilter();
-        if (since != null) {
-            AuthorDateFilter dateFilter = new AuthorDateFilter(since);
-            filters.add(dateFilter);
+        MergeResult result = git.merge().include(upstreamRef).setFastForward(FastForwardMode.FF_ONLY).call();
+        if (result.getMergeStatus() == MergeStatus.ABORTED) {
+            this.logger.warn("Can't fast-forward [{}] in [{}] since it has diverged from [{}]", fullBranch,
+                repository.getDirectory(), upstream);
         }
+        return result.getMergeStatus() == MergeStatus.FAST_FORWARD;
+    }
+
+    @Override
+    public List<SyncResult> synchronize(List<SyncRequest> requests)
+    {
+        return this.repositorySynchronizer.synchronize(requests, NullProgressMonitor.INSTANCE);
+    }
+
+    @Override
+    public GitTask<List<SyncResult>> synchronizeAsync(List<SyncRequest> requests)
+    {
+        return this.taskExecutor.submit(monitor -> this.repositorySynchronizer.synchronize(requests, monitor));
+    }
+
+    /**
+     * Clone the requested repository, or update it if it's already cloned.
+     */
+    private SyncResult synchronize(SyncRequest request)
+    {
+        CloneMode mode = request.getMode() != null ? request.getMode() : getCloneMode();
+        // Set while holding the repository lock, so that a concurrent clone or open can't be mistaken for ours.
+        AtomicBoolean cloned = new AtomicBoolean();
+        Repository repository = getRepository(request.getRepositoryURI(), request.getLocalDirectoryName(), mode,
+            request.getBranch(), request.getCredentialsProvider(), cloned);
+
+        // A repository that has just been cloned, on disk or in memory, has nothing new to fetch.
+        SyncResult.Status status =
+            cloned.get() ? SyncResult.Status.CLONED : updateRepository(repository, request.getCredentialsProvider());
+        return new SyncResult(request, status, repository, 1, 0, null);
+    }
 
-        filters.add(countFilter, authorFilter, histogramFilter);
+    @Override
+    public void scheduleUpdate(Repository repository, CredentialsProvider credentialsProvider)
+    {
+        this.repositoryUpdater.register(repository, credentialsProvider);
+    }
 
-        finder.setFilter(filters).find();
+    @Override
+    public boolean cancelScheduledUpdate(Repository repository)
+    {
+        return this.repositoryUpdater.unregister(repository);
+    }
 
-        return histogramFilter.getHistogram().getUserActivity(new CommitCountComparator());
+    @Override
+    public MaintenanceReport maintain(Repository repository, boolean force)
+    {
+        // Repacking while objects are being received would lose them or the new packs.
+        Lock lock = this.repositoryLocks.get(getLockKey(repository));
+        lock.lock();
+        NodeLock nodeLock = null;
+        try {
+            nodeLock = this.nodeLocks.lock(getLocalDirectory(repository));
+            MaintenanceReport report = this.repositoryMaintainer.maintain(repository, force);
+            if (report.isPerformed()) {
+                this.cloneRegistry.updated(getLocalDirectory(repository));
+            }
+            return report;
+        } catch (Exception e) {
+            throw new RuntimeException(String.format("Failed to maintain [%s]", repository.getDirectory()), e);
+        } finally {
+            if (nodeLock != null) {
+                nodeLock.close();
+            }
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Iterator<CommitSummary> getCommits(Repository repository, String start, int offset, int limit)
+    {
+        try {
+            ObjectId startId = resolveStart(repository, start);
+            if (startId == null) {
+                return Collections.emptyIterator();
+            }
+            return new CommitSummaryIterator(repository, Collections.singletonList(startId), offset, limit);
+        } catch (IOException e) {
+            throw new RuntimeException(
+                String.format("Failed to walk the history of the Git repository [%s]", repository.getDirectory()), e);
+        }
+    }
+
+    @Override
+    public CommitPage getCommitPage(Repository repository, String start, String cursor, int limit)
+    {
+        List<ObjectId> startIds;
+        try {
+            if (cursor != null) {
+                startIds = CommitSummaryIterator.parseCursor(cursor);
+            } else {
+                ObjectId startId = resolveStart(repository, start);
+                if (startId == null) {
+                    return new CommitPage(Collections.emptyList(), null);
+                }
+                startIds = Collections.singletonList(startId);
+            }
+
+            try (CommitSummaryIterator iterator = new CommitSummaryIterator(repository, startIds, 0, limit)) {
+                List<CommitSummary> commits = new ArrayList<>();
+                iterator.forEachRemaining(commits::add);
+                return new CommitPage(commits, iterator.getCursor());
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(
+                String.format("Failed to walk the history of the Git repository [%s]", repository.getDirectory()), e);
+        }
+    }
+
+    /**
+     * @return the commit from which to list commits, {@code null} if the repository is empty
+     */
+    private ObjectId resolveStart(Repository repository, String start) throws IOException
+    {
+        ObjectId startId = repository.resolve(start != null ? start : Constants.HEAD);
+        if (startId == null && start != null) {
+            throw new IllegalArgumentException(String.format("Unknown revision [%s]", start));
+        }
+        return startId;
+    }
+
+    @Override
+    public FileBlame blame(Repository repository, String revision, String path)
+    {
+        return queryBlame(repository, revision, path, null);
+    }
+
+    @Override
+    public QueryResult<FileBlame> blame(Repository repository, String revision, String path, QueryBudget budget)
+    {
+        return new QueryResult<>(queryBlame(repository, revision, path, budget), budget.getReachedLimit(),
+            budget.getVisitedCommitCount());
+    }
+
+    private FileBlame queryBlame(Repository repository, String revision, String path, QueryBudget budget)
+    {
+        return measureQuery(() -> {
+            try {
+                ObjectId revisionId = repository.resolve(revision != null ? revision : Constants.HEAD);
+                if (revisionId == null) {
+                    if (revision != null) {
+                        throw new IllegalArgumentException(String.format("Unknown revision [%s]", revision));
+                    }
+                    // Empty repository.
+                    return null;
+                }
+                return this.blameManager.blame(repository, revisionId, path, budget);
+            } catch (IOException e) {
+                throw new RuntimeException(String.format("Failed to blame [%s] in the Git repository [%s]", path,
+                    repository.getDirectory()), e);
+            }
+        });
+    }
+
+    @Override
+    public Set<PersonIdent> findAuthors(List<Repository> repositories)
+    {
+        return queryAuthors(repositories, null);
+    }
+
+    @Override
+    public QueryResult<Set<PersonIdent>> findAuthors(List<Repository> repositories, QueryBudget budget)
+    {
+        return new QueryResult<>(queryAuthors(repositories, budget), budget.getReachedLimit(),
+            budget.getVisitedCommitCount());
+    }
+
+    private Set<PersonIdent> queryAuthors(List<Repository> repositories, QueryBudget budget)
+    {
+        Set<PersonIdent> result = measureQuery(() -> this.queryResultCache.get("findAuthors", null, repositories,
+            () -> collectAuthors(repositories, budget), authors -> isComplete(budget)));
+
+        // The result may be shared with other callers through the cache, give a copy to the caller.
+        Set<PersonIdent> authors = AuthorIndex.createAuthorSet();
+        authors.addAll(result);
+        return authors;
+    }
+
+    private Set<PersonIdent> collectAuthors(List<Repository> repositories, QueryBudget budget)
+    {
+        Set<PersonIdent> authors = AuthorIndex.createAuthorSet();
+        for (AuthorIndex index : getAuthorIndexes(repositories, null, NullProgressMonitor.INSTANCE, budget)) {
+            index.includeAuthors(authors);
+        }
+
+        return authors;
+    }
+
+    @Override
+    public UserCommitActivity[] countAuthorCommits(Date since, List<Repository> repositories)
+    {
+        return countAuthorCommits(since, repositories, false, NullProgressMonitor.INSTANCE, null);
+    }
+
+    @Override
+    public UserCommitActivity[] countAuthorCommits(Date since, List<Repository> repositories, boolean deduplicate)
+    {
+        return countAuthorCommits(since, repositories, deduplicate, NullProgressMonitor.INSTANCE, null);
+    }
+
+    @Override
+    public QueryResult<UserCommitActivity[]> countAuthorCommits(Date since, List<Repository> repositories,
+        boolean deduplicate, QueryBudget budget)
+    {
+        return new QueryResult<>(
+            countAuthorCommits(since, repositories, deduplicate, NullProgressMonitor.INSTANCE, budget),
+            budget.getReachedLimit(), budget.getVisitedCommitCount());
+    }
+
+    private UserCommitActivity[] countAuthorCommits(Date since, List<Repository> repositories, boolean deduplicate,
+        ProgressMonitor monitor, QueryBudget budget)
+    {
+        if (repositories.isEmpty()) {
+            return new UserCommitActivity[0];
+        }
+
+        Date roundedSince = this.queryResultCache.round(since);
+        String query = deduplicate ? "countUniqueAuthorCommits" : "countAuthorCommits";
+        return measureQuery(() -> this.queryResultCache.get(query, roundedSince, repositories,
+            () -> computeAuthorCommits(roundedSince, repositories, deduplicate, monitor, budget),
+            result -> isComplete(budget))).clone();
+    }
+
+    private UserCommitActivity[] computeAuthorCommits(Date since, List<Repository> repositories, boolean deduplicate,
+        ProgressMonitor monitor, QueryBudget budget)
+    {
+        CommitHistogram histogram = new CommitHistogram();
+        ObjectIdSet seen = deduplicate ? new ObjectIdSet() : null;
+        visitAuthorIndexes(repositories, since, seen, monitor, budget, (index, i) -> {
+            try (RevWalk walk = new RevWalk(repositories.get(i))) {
+                index.include(histogram, since, walk, seen, budget);
+            }
+        });
+
+        return histogram.getUserActivity(new CommitCountComparator());
+    }
+
+    @Override
+    public AuthorCommitCount[] getAuthorCommitCounts(Date since, List<Repository> repositories)
+    {
+        return getAuthorCommitCounts(since, repositories, false, NullProgressMonitor.INSTANCE, null);
+    }
+
+    @Override
+    public AuthorCommitCount[] getAuthorCommitCounts(Date since, List<Repository> repositories, boolean deduplicate)
+    {
+        return getAuthorCommitCounts(since, repositories, deduplicate, NullProgressMonitor.INSTANCE, null);
+    }
+
+    @Override
+    public QueryResult<AuthorCommitCount[]> getAuthorCommitCounts(Date since, List<Repository> repositories,
+        boolean deduplicate, QueryBudget budget)
+    {
+        return new QueryResult<>(
+            getAuthorCommitCounts(since, repositories, deduplicate, NullProgressMonitor.INSTANCE, budget),
+            budget.getReachedLimit(), budget.getVisitedCommitCount());
+    }
+
+    private AuthorCommitCount[] getAuthorCommitCounts(Date since, List<Repository> repositories, boolean deduplicate,
+        ProgressMonitor monitor, QueryBudget budget)
+    {
+        Date roundedSince = this.queryResultCache.round(since);
+        String query = deduplicate ? "getUniqueAuthorCommitCounts" : "getAuthorCommitCounts";
+        return measureQuery(() -> this.queryResultCache.get(query, roundedSince, repositories,
+            () -> computeAuthorCommitCounts(roundedSince, repositories, deduplicate, monitor, budget),
+            result -> isComplete(budget))).clone();
+    }
+
+    private AuthorCommitCount[] computeAuthorCommitCounts(Date since, List<Repository> repositories,
+        boolean deduplicate, ProgressMonitor monitor, QueryBudget budget)
+    {
+        AuthorCounter counter = new AuthorCounter();
+        ObjectIdSet seen = deduplicate ? new ObjectIdSet() : null;
+        visitAuthorIndexes(repositories, since, seen, monitor, budget,
+            (index, i) -> index.visit(since, counter::add, seen, budget));
+
+        return counter.getCounts();
+    }
+
+    @Override
+    public ActivitySeries getActivitySeries(Date since, ActivityPeriod period, List<Repository> repositories)
+    {
+        return getActivitySeries(since, period, repositories, NullProgressMonitor.INSTANCE, null);
+    }
+
+    @Override
+    public QueryResult<ActivitySeries> getActivitySeries(Date since, ActivityPeriod period,
+        List<Repository> repositories, QueryBudget budget)
+    {
+        return new QueryResult<>(getActivitySeries(since, period, repositories, NullProgressMonitor.INSTANCE, budget),
+            budget.getReachedLimit(), budget.getVisitedCommitCount());
+    }
+
+    private ActivitySeries getActivitySeries(Date since, ActivityPeriod period, List<Repository> repositories,
+        ProgressMonitor monitor, QueryBudget budget)
+    {
+        return measureQuery(() -> {
+            List<AuthorIndex> indexes = getAuthorIndexes(repositories, since, monitor, budget);
+
+            long start;
+            if (since != null) {
+                start = since.getTime();
+            } else {
+                start = Long.MAX_VALUE;
+                for (AuthorIndex index : indexes) {
+                    start = Math.min(start, index.getEarliestTime());
+                }
+            }
+            long end = System.currentTimeMillis();
+
+            ActivityCounter counter = new ActivityCounter(period, Math.min(start, end), end, repositories.size());
+            for (int i = 0; i < indexes.size(); i++) {
+                indexes.get(i).visit(since, counter.forRepository(i), null, budget);
+            }
+
+            return counter.getSeries();
+        });
+    }
+
+    @Override
+    public DirectoryContributions getDirectoryContributions(Date since, List<Repository> repositories,
+        String pathPrefix, boolean detectRenames)
+    {
+        return queryDirectoryContributions(since, repositories, pathPrefix, detectRenames, null);
+    }
+
+    @Override
+    public QueryResult<DirectoryContributions> getDirectoryContributions(Date since, List<Repository> repositories,
+        String pathPrefix, boolean detectRenames, QueryBudget budget)
+    {
+        return new QueryResult<>(queryDirectoryContributions(since, repositories, pathPrefix, detectRenames, budget),
+            budget.getReachedLimit(), budget.getVisitedCommitCount());
+    }
+
+    private DirectoryContributions queryDirectoryContributions(Date since, List<Repository> repositories,
+        String pathPrefix, boolean detectRenames, QueryBudget budget)
+    {
+        Date roundedSince = this.queryResultCache.round(since);
+        String prefix = DirectoryChangeScanner.normalize(pathPrefix);
+        String query =
+            (detectRenames ? "getDirectoryContributionsWithRenames:" : "getDirectoryContributions:") + prefix;
+        return measureQuery(() -> this.queryResultCache.get(query, roundedSince, repositories,
+            () -> computeDirectoryContributions(roundedSince, repositories, prefix, detectRenames, budget),
+            result -> isComplete(budget)));
+    }
+
+    private DirectoryContributions computeDirectoryContributions(Date since, List<Repository> repositories,
+        String pathPrefix, boolean detectRenames, QueryBudget budget)
+    {
+        ContributionCounter counter = new ContributionCounter();
+        for (Repository repository : repositories) {
+            if (budget != null && budget.isExhausted(0)) {
+                break;
+            }
+            try {
+                List<RevCommit> commits = listCommits(repository, since, budget);
+                List<Set<String>> directories = scanCommits(repository, commits, pathPrefix, detectRenames, budget);
+                for (int i = 0; i < commits.size(); i++) {
+                    // Null for the commits that haven't been diffed within the budget.
+                    if (directories.get(i) != null) {
+                        PersonIdent author = commits.get(i).getAuthorIdent();
+                        counter.add(author.getName(), author.getEmailAddress(), author.getWhen().getTime(),
+                            directories.get(i));
+                    }
+                }
+            } catch (IOException e) {
+                throw new RuntimeException(
+                    String.format("Failed to diff the commits of the Git repository [%s]", repository.getDirectory()),
+                    e);
+            }
+        }
+
+        return counter.getContributions(pathPrefix);
+    }
+
+    /**
+     * @param budget the budget of the query, the walk stopping once it can't visit more commits, {@code null} for no
+     *        limit
+     * @return the non merge commits reachable from the HEAD of the repository, authored after the passed date
+     */
+    private List<RevCommit> listCommits(Repository repository, Date since, QueryBudget budget) throws IOException
+    {
+        List<RevCommit> commits = new ArrayList<>();
+        ObjectId head = repository.resolve(Constants.HEAD);
+        if (head == null) {
+            return commits;
+        }
+        try (RevWalk walk = new RevWalk(repository)) {
+            walk.sort(RevSort.COMMIT_TIME_DESC);
+            if (since != null) {
+                // The commit time is used to stop the walk early, but the author time is the one that is reported.
+                walk.setRevFilter(CommitTimeRevFilter
+                    .after(since.getTime() - this.configuration.getClockSkewTolerance() * 1000L));
+            }
+            walk.markStart(walk.parseCommit(head));
+            for (RevCommit commit : walk) {
+                if (budget != null && budget.isExhausted(commits.size())) {
+                    break;
+                }
+                if (commit.getParentCount() < 2
+                    && (since == null || !commit.getAuthorIdent().getWhen().before(since))) {
+                    commits.add(commit);
+                }
+            }
+        }
+        return commits;
+    }
+
+    /**
+     * Find the directories changed by each commit.
+     *
+     * @param budget charged for each diffed commit, {@code null} for no limit
+     * @return the directories changed by each commit, in the order of the commits, {@code null} for the commits that
+     *         haven't been diffed within the budget
+     */
+    private List<Set<String>> scanCommits(Repository repository, List<RevCommit> commits, String pathPrefix,
+        boolean detectRenames, QueryBudget budget) throws IOException
+    {
+        return diffCommits(commits, chunk -> {
+            List<Set<String>> directories = new ArrayList<>(chunk.size());
+            try (DirectoryChangeScanner scanner = new DirectoryChangeScanner(repository, pathPrefix, detectRenames)) {
+                for (RevCommit commit : chunk) {
+                    if (budget != null && !budget.visit()) {
+                        break;
+                    }
+                    directories.add(scanner.scan(commit));
+                }
+            }
+            return directories;
+        });
+    }
+
+    /**
+     * Diff each commit with its first parent. The commits are independent from each other so they are split in
+     * chunks diffed in parallel, each chunk with its own object reader.
+     *
+     * @param differ diffs the commits of a chunk, one after the other, and may stop before the end of the chunk
+     * @return the result of the diff of each commit, in the order of the commits, {@code null} for the commits that
+     *         the differ didn't reach
+     */
+    private <T> List<T> diffCommits(List<RevCommit> commits, CommitDiffer<T> differ) throws IOException
+    {
+        List<T> results = new ArrayList<>(commits.size());
+        if (this.queryExecutor == null || commits.size() <= MIN_DIFF_CHUNK_SIZE) {
+            addChunkResults(results, differ.diff(commits), commits.size());
+            return results;
+        }
+
+        int chunkSize =
+            Math.max(MIN_DIFF_CHUNK_SIZE, commits.size() / (this.configuration.getQueryThreads() * 4) + 1);
+        List<Future<List<T>>> futures = new ArrayList<>();
+        List<Integer> chunkSizes = new ArrayList<>();
+        for (int start = 0; start < commits.size(); start += chunkSize) {
+            List<RevCommit> chunk = commits.subList(start, Math.min(start + chunkSize, commits.size()));
+            futures.add(this.queryExecutor.submit(() -> differ.diff(chunk)));
+            chunkSizes.add(chunk.size());
+        }
+        try {
+            for (int i = 0; i < futures.size(); i++) {
+                addChunkResults(results, getResult(futures.get(i)), chunkSizes.get(i));
+            }
+        } finally {
+            for (Future<List<T>> future : futures) {
+                future.cancel(true);
+            }
+        }
+        return results;
+    }
+
+    private <T> void addChunkResults(List<T> results, List<T> chunkResults, int chunkSize)
+    {
+        results.addAll(chunkResults);
+        for (int i = chunkResults.size(); i < chunkSize; i++) {
+            results.add(null);
+        }
+    }
+
+    @Override
+    public AuthorChurn[] getAuthorChurn(Date since, List<Repository> repositories)
+    {
+        return queryAuthorChurn(since, repositories, null);
+    }
+
+    @Override
+    public QueryResult<AuthorChurn[]> getAuthorChurn(Date since, List<Repository> repositories, QueryBudget budget)
+    {
+        return new QueryResult<>(queryAuthorChurn(since, repositories, budget), budget.getReachedLimit(),
+            budget.getVisitedCommitCount());
+    }
+
+    private AuthorChurn[] queryAuthorChurn(Date since, List<Repository> repositories, QueryBudget budget)
+    {
+        Date roundedSince = this.queryResultCache.round(since);
+        return measureQuery(() -> this.queryResultCache.get("getAuthorChurn", roundedSince, repositories,
+            () -> computeAuthorChurn(roundedSince, repositories, budget), result -> isComplete(budget))).clone();
+    }
+
+    private AuthorChurn[] computeAuthorChurn(Date since, List<Repository> repositories, QueryBudget budget)
+    {
+        ChurnCounter counter = new ChurnCounter();
+        for (Repository repository : repositories) {
+            if (budget != null && budget.isExhausted(0)) {
+                break;
+            }
+            try {
+                List<RevCommit> commits = listCommits(repository, since, budget);
+                Map<ObjectId, CommitChurn> churns = this.churnCache.load(repository);
+                // The stored churns are charged first, the remaining budget goes to the commits to diff.
+                Set<ObjectId> counted = new HashSet<>();
+                List<RevCommit> missingCommits = new ArrayList<>();
+                for (RevCommit commit : commits) {
+                    if (!churns.containsKey(commit)) {
+                        missingCommits.add(commit);
+                    } else if (budget == null || budget.visit()) {
+                        counted.add(commit);
+                    }
+                }
+                List<CommitChurn> missingChurns = diffCommits(missingCommits, chunk -> {
+                    List<CommitChurn> chunkChurns = new ArrayList<>(chunk.size());
+                    try (ChurnCalculator calculator = new ChurnCalculator(repository, this.churnMaxFileSize)) {
+                        for (RevCommit commit : chunk) {
+                            if (budget != null && !budget.visit()) {
+                                break;
+                            }
+                            chunkChurns.add(calculator.compute(commit));
+                        }
+                    }
+                    return chunkChurns;
+                });
+                Map<ObjectId, CommitChurn> newChurns = new LinkedHashMap<>();
+                for (int i = 0; i < missingCommits.size(); i++) {
+                    // Null for the commits that haven't been diffed within the budget.
+                    if (missingChurns.get(i) != null) {
+                        newChurns.put(missingCommits.get(i).copy(), missingChurns.get(i));
+                    }
+                }
+                // Save what has been computed even if the query is truncated, so that the next query goes further.
+                this.churnCache.save(repository, newChurns);
+                counted.addAll(newChurns.keySet());
+
+                for (RevCommit commit : commits) {
+                    if (counted.contains(commit)) {
+                        PersonIdent author = commit.getAuthorIdent();
+                        CommitChurn churn = newChurns.get(commit);
+                        counter.add(author.getName(), author.getEmailAddress(),
+                            churn != null ? churn : churns.get(commit));
+                    }
+                }
+            } catch (IOException e) {
+                throw new RuntimeException(
+                    String.format("Failed to diff the commits of the Git repository [%s]", repository.getDirectory()),
+                    e);
+            }
+        }
+
+        return counter.getChurns();
+    }
+
+    @Override
+    public GitTask<Repository> getRepositoryAsync(String repositoryURI, String localDirectoryName,
+        CloneCommand cloneCommand)
+    {
+        return this.taskExecutor.submit(monitor -> getRepository(repositoryURI, localDirectoryName,
+            cloneCommand.setProgressMonitor(monitor)));
+    }
+
+    @Override
+    public GitTask<Repository> getRepositoryAsync(String repositoryURI, String localDirectoryName, CloneMode mode,
+        String branch, CredentialsProvider credentialsProvider)
+    {
+        if (mode == CloneMode.MEMORY) {
+            return this.taskExecutor.submit(monitor -> getMemoryRepository(repositoryURI, localDirectoryName, branch,
+                credentialsProvider, monitor, null));
+        }
+        return this.taskExecutor.submit(monitor -> getRepository(repositoryURI, localDirectoryName,
+            createCloneCommand(mode, branch, credentialsProvider).setProgressMonitor(monitor), branch, null));
+    }
+
+    @Override
+    public GitTask<UserCommitActivity[]> countAuthorCommitsAsync(Date since, List<Repository> repositories)
+    {
+        return this.taskExecutor.submit(monitor -> countAuthorCommits(since, repositories, false, monitor, null));
+    }
+
+    @Override
+    public GitTask<UserCommitActivity[]> countAuthorCommitsAsync(Date since, List<Repository> repositories,
+        QueryBudget budget)
+    {
+        return this.taskExecutor.submit(monitor -> countAuthorCommits(since, repositories, false, monitor, budget),
+            budget);
+    }
+
+    @Override
+    public GitTask<AuthorCommitCount[]> getAuthorCommitCountsAsync(Date since, List<Repository> repositories)
+    {
+        return this.taskExecutor.submit(monitor -> getAuthorCommitCounts(since, repositories, false, monitor, null));
+    }
+
+    @Override
+    public GitTask<AuthorCommitCount[]> getAuthorCommitCountsAsync(Date since, List<Repository> repositories,
+        QueryBudget budget)
+    {
+        return this.taskExecutor.submit(monitor -> getAuthorCommitCounts(since, repositories, false, monitor, budget),
+            budget);
+    }
+
+    @Override
+    public GitTask<?> getTask(String id)
+    {
+        return this.taskExecutor.get(id);
+    }
+
+    @Override
+    public GitStatistics getStatistics()
+    {
+        return this.metrics;
+    }
+
+    private boolean isComplete(QueryBudget budget)
+    {
+        return budget == null || !budget.isTruncated();
+    }
+
+    private <T> T measureQuery(Supplier<T> query)
+    {
+        long start = this.metrics.queryStarted();
+        boolean success = false;
+        try {
+            T result = query.get();
+            success = true;
+            return result;
+        } finally {
+            this.metrics.queryFinished(start, success);
+        }
+    }
+
+    /**
+     * Get the author indexes of the passed repositories, walking their histories in parallel when there are several
+     * of them. The indexes are merged by the caller in the order of the repositories so that the result is the same
+     * as with a sequential walk.
+     *
+     * @param since the date from which commits are needed, {@code null} if all commits are needed
+     * @param monitor notified each time the index of a repository is ready
+     * @param budget the budget of the query, {@code null} for no limit
+     */
+    private List<AuthorIndex> getAuthorIndexes(List<Repository> repositories, Date since, ProgressMonitor monitor,
+        QueryBudget budget)
+    {
+        List<AuthorIndex> indexes = new ArrayList<>(repositories.size());
+        monitor.beginTask(WALK_TASK, repositories.size());
+        if (this.queryExecutor == null || repositories.size() < 2) {
+            for (Repository repository : repositories) {
+                indexes.add(getAuthorIndex(repository, since, null, monitor, budget));
+            }
+        } else {
+            List<Future<AuthorIndex>> futures = new ArrayList<>(repositories.size());
+            for (Repository repository : repositories) {
+                futures.add(
+                    this.queryExecutor.submit(() -> getAuthorIndex(repository, since, null, monitor, budget)));
+            }
+            try {
+                for (Future<AuthorIndex> future : futures) {
+                    indexes.add(getResult(future));
+                }
+            } finally {
+                for (Future<AuthorIndex> future : futures) {
+                    future.cancel(true);
+                }
+            }
+        }
+
+        monitor.endTask();
+
+        return indexes;
+    }
+
+    /**
+     * Pass the author index of each repository to the consumer, in the order of the repositories.
+     *
+     * @param seen {@code null} to get the indexes of all the repositories in parallel. Otherwise, the commits already
+     *        counted, to which the consumer adds the commits it counts: the repositories are then handled one after
+     *        the other and the history walk of each one stops at the commits counted in the previous ones, so that
+     *        the history shared by forks and mirrors is only walked once
+     * @param consumer called with each index and the position of its repository
+     */
+    private void visitAuthorIndexes(List<Repository> repositories, Date since, ObjectIdSet seen,
+        ProgressMonitor monitor, QueryBudget budget, ObjIntConsumer<AuthorIndex> consumer)
+    {
+        if (seen == null) {
+            List<AuthorIndex> indexes = getAuthorIndexes(repositories, since, monitor, budget);
+            for (int i = 0; i < indexes.size(); i++) {
+                consumer.accept(indexes.get(i), i);
+            }
+        } else {
+            monitor.beginTask(WALK_TASK, repositories.size());
+            for (int i = 0; i < repositories.size(); i++) {
+                consumer.accept(getAuthorIndex(repositories.get(i), since, seen, monitor, budget), i);
+            }
+            monitor.endTask();
+        }
+    }
+
+    private <T> T getResult(Future<T> future)
+    {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while walking the history of Git repositories", e);
+        }
+    }
+
+    private AuthorIndex getAuthorIndex(Repository repository, Date since, ObjectIdSet excluded,
+        ProgressMonitor monitor, QueryBudget budget)
+    {
+        if (monitor.isCancelled()) {
+            throw new CancellationException("The query has been cancelled");
+        }
+        if (budget != null && budget.isExhausted()) {
+            // Don't even start walking, the query returns what it has computed so far.
+            monitor.update(1);
+            return new AuthorIndex();
+        }
+        try {
+            AuthorIndex index = this.authorIndexManager.getIndex(repository, since, excluded, budget);
+            monitor.update(1);
+            return index;
+        } catch (Exception e) {
+            throw new RuntimeException(
+                String.format("Failed to walk the history of the Git repository [%s]", repository.getDirectory()), e);
+        }
+    }
+
+    private File getLocalGitDirectory()
+    {
+        return new File(this.environment.getPermanentDirectory(), "git");
+    }
+
+    /**
+     * Diffs a chunk of commits with their first parent.
+     *
+     * @param <T> the type of the result of a diff
+     */
+    @FunctionalInterface
+    private interface CommitDiffer<T>
+    {
+        List<T> diff(List<RevCommit> commits) throws IOException;
     }
 }
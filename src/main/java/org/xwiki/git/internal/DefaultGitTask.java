@@ -0,0 +1,228 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.git.internal;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.eclipse.jgit.lib.ProgressMonitor;
+import org.xwiki.git.GitTask;
+import org.xwiki.git.QueryBudget;
+
+/**
+ * A {@link GitTask} which receives its progress from JGit, by being passed as the {@link ProgressMonitor} of the
+ * operation it executes.
+ *
+ * @param <T> the type of the result of the task
+ * @version $Id$
+ * @since 9.11
+ */
+public class DefaultGitTask<T> implements GitTask<T>, ProgressMonitor
+{
+    private final String id;
+
+    private final QueryBudget budget;
+
+    private final CompletableFuture<T> future = new CompletableFuture<>();
+
+    private volatile boolean started;
+
+    private volatile String step;
+
+    private volatile int stepCompleted;
+
+    private volatile int stepTotal;
+
+    private volatile String error;
+
+    private volatile long completionTime;
+
+    /**
+     * @param id the id of the task
+     */
+    public DefaultGitTask(String id)
+    {
+        this(id, null);
+    }
+
+    /**
+     * @param id the id of the task
+     * @param budget the budget limiting the query executed by the task, {@code null} if it's not limited
+     */
+    public DefaultGitTask(String id, QueryBudget budget)
+    {
+        this.id = id;
+        this.budget = budget;
+        this.future.whenComplete((result, throwable) -> this.completionTime = System.currentTimeMillis());
+    }
+
+    /**
+     * Execute the task in the current thread, unless it has been cancelled in the meantime.
+     *
+     * @param work the operation to execute, which receives the task as progress monitor
+     */
+    public void run(Function<ProgressMonitor, T> work)
+    {
+        if (this.future.isDone()) {
+            return;
+        }
+
+        this.started = true;
+        try {
+            T result = work.apply(this);
+            this.completionTime = System.currentTimeMillis();
+            this.future.complete(result);
+        } catch (Exception e) {
+            fail(e);
+        } catch (Error e) {
+            // Complete the task so that it doesn't stay running forever, and let the thread deal with the error.
+            fail(e);
+            throw e;
+        }
+    }
+
+    /**
+     * @param cause the reason of the failure
+     */
+    public void fail(Throwable cause)
+    {
+        this.error = ExceptionUtils.getRootCauseMessage(cause);
+        // Set before completing so that the task can be purged as soon as it's seen as over.
+        this.completionTime = System.currentTimeMillis();
+        this.future.completeExceptionally(cause);
+    }
+
+    /**
+     * @return the time at which the task was over, in milliseconds, 0 if it's not over
+     */
+    public long getCompletionTime()
+    {
+        return this.completionTime;
+    }
+
+    @Override
+    public String getId()
+    {
+        return this.id;
+    }
+
+    @Override
+    public State getState()
+    {
+        if (this.future.isCancelled()) {
+            return State.CANCELLED;
+        } else if (this.future.isCompletedExceptionally()) {
+            return State.FAILED;
+        } else if (this.future.isDone()) {
+            return State.DONE;
+        } else if (this.started) {
+            return State.RUNNING;
+        }
+        return State.WAITING;
+    }
+
+    @Override
+    public boolean isDone()
+    {
+        return this.future.isDone();
+    }
+
+    @Override
+    public String getStep()
+    {
+        return this.step;
+    }
+
+    @Override
+    public int getStepCompleted()
+    {
+        return this.stepCompleted;
+    }
+
+    @Override
+    public int getStepTotal()
+    {
+        return this.stepTotal;
+    }
+
+    @Override
+    public T getResult()
+    {
+        return getState() == State.DONE ? this.future.join() : null;
+    }
+
+    @Override
+    public String getError()
+    {
+        return this.error;
+    }
+
+    @Override
+    public boolean isTruncated()
+    {
+        return getState() == State.DONE && this.budget != null && this.budget.isTruncated();
+    }
+
+    @Override
+    public CompletableFuture<T> getFuture()
+    {
+        return this.future;
+    }
+
+    @Override
+    public boolean cancel()
+    {
+        return this.future.cancel(false);
+    }
+
+    @Override
+    public void start(int totalTasks)
+    {
+        // Only the progress of the current step is reported.
+    }
+
+    @Override
+    public void beginTask(String title, int totalWork)
+    {
+        this.step = title;
+        this.stepCompleted = 0;
+        this.stepTotal = totalWork == UNKNOWN ? 0 : totalWork;
+    }
+
+    @Override
+    public synchronized void update(int completed)
+    {
+        // Called from several threads when walking several repositories in parallel.
+        this.stepCompleted += completed;
+    }
+
+    @Override
+    public void endTask()
+    {
+        // Keep showing the last step until the next one begins.
+    }
+
+    @Override
+    public boolean isCancelled()
+    {
+        return this.future.isCancelled();
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.git.internal;
+
+import java.io.IOException;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.apache.commons.lang3.StringUtils;
+import org.eclipse.jgit.diff.DiffConfig;
+import org.eclipse.jgit.diff.DiffEntry;
+import org.eclipse.jgit.diff.RenameDetector;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.EmptyTreeIterator;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.AndTreeFilter;
+import org.eclipse.jgit.treewalk.filter.PathFilter;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+
+/**
+ * Finds the directories right below a path that are changed by a commit, compared to its first parent. The trees of
+ * the commit and of its parent are walked together and the subtrees having the same id on both sides are skipped
+ * without being read, so the cost of a commit depends on the size of its change and not on the size of the
+ * repository. Without rename detection the walk doesn't even go deeper than the directories right below the path.
+ * <p>
+ * Not thread safe: each thread needs its own instance.
+ *
+ * @version $Id$
+ * @since 9.11
+ */
+public class DirectoryChangeScanner implements AutoCloseable
+{
+    /**
+     * The directory in which the files right below the path prefix are counted.
+     */
+    private static final String ROOT = "";
+
+    private static final String SEPARATOR = "/";
+
+    private final ObjectReader reader;
+
+    private final RevWalk revWalk;
+
+    private final String pathPrefix;
+
+    private final DiffConfig diffConfig;
+
+    /**
+     * @param repository the repository containing the scanned commits
+     * @param pathPrefix the path below which changes are looked for, normalized with {@link #normalize(String)}
+     * @param detectRenames {@code true} to ignore the files moved without being modified
+     */
+    public DirectoryChangeScanner(Repository repository, String pathPrefix, boolean detectRenames)
+    {
+        this.reader = repository.newObjectReader();
+        this.revWalk = new RevWalk(this.reader);
+        this.pathPrefix = pathPrefix;
+        this.diffConfig = detectRenames ? repository.getConfig().get(DiffConfig.KEY) : null;
+    }
+
+    /**
+     * @param pathPrefix a path, {@code null} for the whole repository
+     * @return the path without leading and trailing slashes, the empty string for the whole repository
+     */
+    public static String normalize(String pathPrefix)
+    {
+        return StringUtils.strip(StringUtils.defaultString(pathPrefix), SEPARATOR);
+    }
+
+    /**
+     * @param commit a commit, whose tree must be parsed
+     * @return the directories right below the path prefix changed by the commit, relative to the path prefix
+     * @throws IOException when failing to read the trees
+     */
+    public Set<String> scan(RevCommit commit) throws IOException
+    {
+        try (TreeWalk walk = new TreeWalk(this.reader)) {
+            if (commit.getParentCount() > 0) {
+                walk.addTree(this.revWalk.parseCommit(commit.getParent(0)).getTree());
+            } else {
+                walk.addTree(new EmptyTreeIterator());
+            }
+            walk.addTree(commit.getTree());
+
+            return this.diffConfig != null ? scanFiles(walk) : scanDirectories(walk);
+        }
+    }
+
+    private Set<String> scanDirectories(TreeWalk walk) throws IOException
+    {
+        Set<String> directories = new TreeSet<>();
+        walk.setFilter(getFilter());
+        while (walk.next()) {
+            String path = walk.getPathString();
+            if (path.length() <= this.pathPrefix.length()) {
+                // The path prefix or one of its parents.
+                if (walk.isSubtree()) {
+                    walk.enterSubtree();
+                } else if (path.equals(this.pathPrefix)) {
+                    // The path prefix is a file.
+                    directories.add(ROOT);
+                }
+            } else {
+                // Right below the path prefix, since we don't enter the subtrees below it.
+                directories.add(walk.isSubtree() ? getRelativePath(path) : ROOT);
+            }
+        }
+        return directories;
+    }
+
+    private Set<String> scanFiles(TreeWalk walk) throws IOException
+    {
+        walk.setFilter(getFilter());
+        walk.setRecursive(true);
+        RenameDetector renameDetector = new RenameDetector(this.reader, this.diffConfig);
+        renameDetector.addAll(DiffEntry.scan(walk));
+
+        Set<String> directories = new TreeSet<>();
+        for (DiffEntry entry : renameDetector.compute(NullProgressMonitor.INSTANCE)) {
+            if ((entry.getChangeType() == DiffEntry.ChangeType.RENAME
+                || entry.getChangeType() == DiffEntry.ChangeType.COPY) && entry.getScore() == 100) {
+                // Moved or copied without modification.
+                continue;
+            }
+            String path = entry.getChangeType() == DiffEntry.ChangeType.DELETE ? entry.getOldPath()
+                : entry.getNewPath();
+            if (isBelowPrefix(path)) {
+                String relativePath = getRelativePath(path);
+                int separator = relativePath.indexOf(SEPARATOR);
+                directories.add(separator > 0 ? relativePath.substring(0, separator) : ROOT);
+            }
+        }
+        return directories;
+    }
+
+    /**
+     * Renames are detected among all the changes of the commit, so that the files moved below the path prefix from
+     * another directory are recognized as such.
+     */
+    private TreeFilter getFilter()
+    {
+        if (this.pathPrefix.isEmpty() || this.diffConfig != null) {
+            return TreeFilter.ANY_DIFF;
+        }
+        return AndTreeFilter.create(PathFilter.create(this.pathPrefix), TreeFilter.ANY_DIFF);
+    }
+
+    private boolean isBelowPrefix(String path)
+    {
+        return this.pathPrefix.isEmpty() || path.equals(this.pathPrefix)
+            || path.startsWith(this.pathPrefix + SEPARATOR);
+    }
+
+    private String getRelativePath(String path)
+    {
+        return this.pathPrefix.isEmpty() || path.length() <= this.pathPrefix.length() ? path
+            : path.substring(this.pathPrefix.length() + 1);
+    }
+
+    @Override
+    public void close()
+    {
+        this.revWalk.close();
+        this.reader.close();
+    }
+}
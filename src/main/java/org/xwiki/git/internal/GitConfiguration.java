@@ -0,0 +1,249 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.git.internal;
+
+import org.xwiki.component.annotation.Role;
+import org.xwiki.git.CloneMode;
+
+/**
+ * Configuration options for the Git module, read from {@code xwiki.properties}.
+ *
+ * @version $Id$
+ * @since 9.11
+ */
+@Role
+public interface GitConfiguration
+{
+    /**
+     * @return the maximum number of repositories kept open in memory, or 0 to disable the repository cache
+     */
+    int getRepositoryCacheSize();
+
+    /**
+     * @return the number of seconds after which an open repository that hasn't been accessed is closed, or 0 to only
+     *         close repositories when the cache is full
+     */
+    long getRepositoryCacheIdleTimeout();
+
+    /**
+     * @return the number of seconds between two background updates of the repositories registered for scheduled
+     *         updates, or 0 to disable background updates
+     */
+    long getUpdateInterval();
+
+    /**
+     * @return the maximum number of repositories updated at the same time in the background
+     */
+    int getUpdateThreads();
+
+    /**
+     * @return {@code true} if the authors of the commits of the repositories cloned in the permanent directory should
+     *         be indexed on disk, so that only new commits have to be walked by author queries
+     */
+    boolean isAuthorIndexEnabled();
+
+    /**
+     * @return the maximum number of repositories whose history is walked at the same time by a query on several
+     *         repositories, 1 to walk them one after the other in the calling thread
+     */
+    int getQueryThreads();
+
+    /**
+     * @return the number of seconds a commit can have been committed before it was authored, used to stop walking
+     *         the history early when only the commits authored since a given date are needed
+     */
+    long getClockSkewTolerance();
+
+    /**
+     * @return the maximum number of background tasks (asynchronous clones and queries) executed at the same time
+     */
+    int getTaskThreads();
+
+    /**
+     * @return the maximum number of background tasks waiting to be executed, further tasks being rejected
+     */
+    int getTaskQueueSize();
+
+    /**
+     * @return the number of seconds during which the result of a background task can be fetched once it's over
+     */
+    long getTaskRetention();
+
+    /**
+     * @return the maximum number of author query results kept in memory, or 0 to disable the query result cache
+     */
+    int getQueryCacheSize();
+
+    /**
+     * @return the number of seconds to which the {@code since} date of cached author queries is rounded down, so that
+     *         queries made shortly after each other share the same result
+     */
+    long getQueryCacheSinceGranularity();
+
+    /**
+     * @return how repositories are cloned when no clone mode or clone command is specified
+     */
+    CloneMode getCloneMode();
+
+    /**
+     * @return the number of seconds between two maintenances of each repository, 0 to only maintain repositories when
+     *         they have too many loose objects or packs
+     */
+    long getMaintenanceInterval();
+
+    /**
+     * @return the number of loose objects above which a repository is repacked after a fetch, 0 to ignore them
+     */
+    int getMaintenanceLooseObjectThreshold();
+
+    /**
+     * @return the number of packs above which a repository is repacked after a fetch, 0 to ignore them
+     */
+    int getMaintenancePackThreshold();
+
+    /**
+     * @return the number of seconds the old packs are kept after a repack, for the readers still using them, 0 to
+     *         delete them right away
+     */
+    long getMaintenancePackExpiry();
+
+    /**
+     * @return the maximum number of megabytes used by the clones in the permanent directory, the least recently used
+     *         ones being deleted when it's exceeded, or 0 to never delete clones
+     */
+    long getDiskQuota();
+
+    /**
+     * @return the number of seconds during which a repository that has been returned to a caller is considered in use,
+     *         and thus not deleted to stay below the disk quota
+     */
+    long getDiskQuotaLease();
+
+    /**
+     * @return the maximum number of megabytes used by the repositories cloned in memory, 0 to disable them
+     */
+    long getMemoryRepositoryMaxSize();
+
+    /**
+     * @return the number of seconds after which a repository cloned in memory that hasn't been requested is discarded
+     */
+    long getMemoryRepositoryTimeToLive();
+
+    /**
+     * @return {@code true} if at least one of the pack cache properties is set, {@code false} to keep the JGit pack
+     *         cache configuration, which is shared by all the JGit users of the application
+     */
+    boolean isPackCacheConfigured();
+
+    /**
+     * @return the maximum number of pack files kept open by JGit
+     */
+    int getPackCacheOpenFiles();
+
+    /**
+     * @return the maximum number of megabytes of pack files kept in memory by JGit, shared by all repositories
+     */
+    long getPackCacheLimit();
+
+    /**
+     * @return the number of kilobytes of a pack file read at once, a power of 2
+     */
+    int getPackCacheWindowSize();
+
+    /**
+     * @return {@code true} to map pack files in memory instead of reading them, which avoids copying them in the heap
+     *         but keeps them open until the garbage collector releases them
+     */
+    boolean isPackCacheMMap();
+
+    /**
+     * @return the maximum number of megabytes used to cache the base objects of deltas while walking the history
+     */
+    int getDeltaBaseCacheLimit();
+
+    /**
+     * @return the size in megabytes above which objects are streamed instead of being loaded in memory
+     */
+    int getStreamFileThreshold();
+
+    /**
+     * @return the maximum number of commits visited by a query executed from a script, or 0 for no limit; scripts
+     *         can't raise it
+     */
+    long getQueryMaxCommits();
+
+    /**
+     * @return the maximum number of seconds a query executed from a script can take, or 0 for no limit; scripts can't
+     *         raise it
+     */
+    long getQueryTimeout();
+
+    /**
+     * @return the maximum number of repositories cloned or updated at the same time by a bulk synchronization
+     */
+    int getSyncThreads();
+
+    /**
+     * @return the maximum number of repositories from the same host cloned or updated at the same time by a bulk
+     *         synchronization, or 0 for no other limit than {@link #getSyncThreads()}
+     */
+    int getSyncHostThreads();
+
+    /**
+     * @return the maximum number of attempts made to clone or update a repository during a bulk synchronization
+     */
+    int getSyncAttempts();
+
+    /**
+     * @return the number of seconds to wait before retrying to clone or update a repository, doubled after each
+     *         failed attempt
+     */
+    long getSyncRetryDelay();
+
+    /**
+     * @return the number of seconds after which the lock taken by a node of the cluster to clone, fetch or repack a
+     *         repository of the shared permanent directory is considered abandoned if the node hasn't renewed it, or
+     *         0 to not coordinate nodes
+     */
+    long getLockLease();
+
+    /**
+     * @return {@code true} if the number of lines changed by each commit of the repositories cloned in the permanent
+     *         directory should be stored on disk, so that each commit is diffed only once
+     */
+    boolean isChurnCacheEnabled();
+
+    /**
+     * @return the size in kilobytes above which a file is not diffed when counting the lines changed by a commit, 0
+     *         for no limit
+     */
+    long getChurnMaxFileSize();
+
+    /**
+     * @return the maximum total number of lines of the file blames kept in memory, 0 to not keep any
+     */
+    long getBlameCacheSize();
+
+    /**
+     * @return {@code true} if the blames of the files of the repositories cloned in the permanent directory should be
+     *         stored on disk, so that they survive restarts
+     */
+    boolean isBlamePersistent();
+}
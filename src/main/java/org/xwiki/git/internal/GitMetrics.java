@@ -0,0 +1,414 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.git.internal;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.eclipse.jgit.internal.storage.dfs.DfsBlockCache;
+import org.eclipse.jgit.storage.file.WindowCacheStats;
+
+/**
+ * Collects the {@link org.xwiki.git.GitStatistics} of a {@link DefaultGitManager}. Recording is cheap enough to be done
+ * on every operation: counters are {@link LongAdder}s, which don't contend when updated from several threads, and
+ * durations are measured with {@link System#nanoTime()}. Operations are recorded by calling one of the
+ * {@code *Started()} methods, which returns the start time to pass to the matching {@code *Finished()} method.
+ *
+ * @version $Id$
+ * @since 9.11
+ */
+public class GitMetrics implements GitMetricsMBean
+{
+    private final RepositoryCache repositoryCache;
+
+    private final QueryResultCache queryResultCache;
+
+    private final Operation clones = new Operation();
+
+    private final Operation fetches = new Operation();
+
+    private final Operation queries = new Operation();
+
+    private final Operation maintenances = new Operation();
+
+    private final LongAdder openCount = new LongAdder();
+
+    private final LongAdder openTime = new LongAdder();
+
+    private final LongAdder walkCount = new LongAdder();
+
+    private final LongAdder walkTime = new LongAdder();
+
+    private final LongAdder visitedCommitCount = new LongAdder();
+
+    /**
+     * Counters of a kind of operation.
+     */
+    private static final class Operation
+    {
+        private final LongAdder count = new LongAdder();
+
+        private final LongAdder failureCount = new LongAdder();
+
+        private final LongAdder time = new LongAdder();
+
+        private final LongAdder bytes = new LongAdder();
+
+        private final AtomicInteger inFlight = new AtomicInteger();
+
+        long started()
+        {
+            this.inFlight.incrementAndGet();
+            return System.nanoTime();
+        }
+
+        void finished(long start, boolean success, long receivedBytes)
+        {
+            this.time.add(System.nanoTime() - start);
+            this.inFlight.decrementAndGet();
+            if (success) {
+                this.count.increment();
+                this.bytes.add(receivedBytes);
+            } else {
+                this.failureCount.increment();
+            }
+        }
+    }
+
+    /**
+     * @param repositoryCache the repository cache whose state is reported
+     * @param queryResultCache the query result cache whose state is reported
+     */
+    public GitMetrics(RepositoryCache repositoryCache, QueryResultCache queryResultCache)
+    {
+        this.repositoryCache = repositoryCache;
+        this.queryResultCache = queryResultCache;
+    }
+
+    /**
+     * @return the start time of the clone
+     */
+    public long cloneStarted()
+    {
+        return this.clones.started();
+    }
+
+    /**
+     * @param start the value returned by {@link #cloneStarted()}
+     * @param success {@code true} if the clone succeeded
+     * @param receivedBytes the size of the packs received
+     */
+    public void cloneFinished(long start, boolean success, long receivedBytes)
+    {
+        this.clones.finished(start, success, receivedBytes);
+    }
+
+    /**
+     * @return the start time of the fetch
+     */
+    public long fetchStarted()
+    {
+        return this.fetches.started();
+    }
+
+    /**
+     * @param start the value returned by {@link #fetchStarted()}
+     * @param success {@code true} if the fetch succeeded
+     * @param receivedBytes the size of the packs received
+     */
+    public void fetchFinished(long start, boolean success, long receivedBytes)
+    {
+        this.fetches.finished(start, success, receivedBytes);
+    }
+
+    /**
+     * @return the start time of the query
+     */
+    public long queryStarted()
+    {
+        return this.queries.started();
+    }
+
+    /**
+     * @param start the value returned by {@link #queryStarted()}
+     * @param success {@code true} if the query succeeded
+     */
+    public void queryFinished(long start, boolean success)
+    {
+        this.queries.finished(start, success, 0);
+    }
+
+    /**
+     * @return the start time of the repacking
+     */
+    public long maintenanceStarted()
+    {
+        return this.maintenances.started();
+    }
+
+    /**
+     * @param start the value returned by {@link #maintenanceStarted()}
+     * @param success {@code true} if the repository has been repacked
+     */
+    public void maintenanceFinished(long start, boolean success)
+    {
+        this.maintenances.finished(start, success, 0);
+    }
+
+    /**
+     * @param start the value of {@link System#nanoTime()} before the repository was opened
+     */
+    public void repositoryOpened(long start)
+    {
+        this.openTime.add(System.nanoTime() - start);
+        this.openCount.increment();
+    }
+
+    /**
+     * @param start the value of {@link System#nanoTime()} before the walk started
+     * @param commits the number of commits visited by the walk
+     */
+    public void historyWalked(long start, int commits)
+    {
+        this.walkTime.add(System.nanoTime() - start);
+        this.walkCount.increment();
+        this.visitedCommitCount.add(commits);
+    }
+
+    @Override
+    public long getCloneCount()
+    {
+        return this.clones.count.sum();
+    }
+
+    @Override
+    public long getCloneFailureCount()
+    {
+        return this.clones.failureCount.sum();
+    }
+
+    @Override
+    public long getCloneTime()
+    {
+        return toMillis(this.clones.time);
+    }
+
+    @Override
+    public long getCloneBytes()
+    {
+        return this.clones.bytes.sum();
+    }
+
+    @Override
+    public long getFetchCount()
+    {
+        return this.fetches.count.sum();
+    }
+
+    @Override
+    public long getFetchFailureCount()
+    {
+        return this.fetches.failureCount.sum();
+    }
+
+    @Override
+    public long getFetchTime()
+    {
+        return toMillis(this.fetches.time);
+    }
+
+    @Override
+    public long getFetchBytes()
+    {
+        return this.fetches.bytes.sum();
+    }
+
+    @Override
+    public long getOpenCount()
+    {
+        return this.openCount.sum();
+    }
+
+    @Override
+    public long getOpenTime()
+    {
+        return toMillis(this.openTime);
+    }
+
+    @Override
+    public long getQueryCount()
+    {
+        return this.queries.count.sum();
+    }
+
+    @Override
+    public long getQueryTime()
+    {
+        return toMillis(this.queries.time);
+    }
+
+    @Override
+    public long getWalkCount()
+    {
+        return this.walkCount.sum();
+    }
+
+    @Override
+    public long getWalkTime()
+    {
+        return toMillis(this.walkTime);
+    }
+
+    @Override
+    public long getVisitedCommitCount()
+    {
+        return this.visitedCommitCount.sum();
+    }
+
+    @Override
+    public int getRepositoryCacheSize()
+    {
+        return this.repositoryCache.size();
+    }
+
+    @Override
+    public long getRepositoryCacheHitCount()
+    {
+        return this.repositoryCache.getHitCount();
+    }
+
+    @Override
+    public long getRepositoryCacheMissCount()
+    {
+        return this.repositoryCache.getMissCount();
+    }
+
+    @Override
+    public long getRepositoryCacheEvictionCount()
+    {
+        return this.repositoryCache.getEvictionCount();
+    }
+
+    @Override
+    public int getQueryCacheSize()
+    {
+        return this.queryResultCache.size();
+    }
+
+    @Override
+    public long getQueryCacheHitCount()
+    {
+        return this.queryResultCache.getHitCount();
+    }
+
+    @Override
+    public long getQueryCacheMissCount()
+    {
+        return this.queryResultCache.getMissCount();
+    }
+
+    @Override
+    public long getMaintenanceCount()
+    {
+        return this.maintenances.count.sum();
+    }
+
+    @Override
+    public long getMaintenanceFailureCount()
+    {
+        return this.maintenances.failureCount.sum();
+    }
+
+    @Override
+    public long getMaintenanceTime()
+    {
+        return toMillis(this.maintenances.time);
+    }
+
+    @Override
+    public int getPackCacheOpenFiles()
+    {
+        return WindowCacheStats.getOpenFiles();
+    }
+
+    @Override
+    public long getPackCacheOpenBytes()
+    {
+        return WindowCacheStats.getOpenBytes();
+    }
+
+    @Override
+    public long getMemoryPackCacheHitCount()
+    {
+        return sum(DfsBlockCache.getInstance().getHitCount());
+    }
+
+    @Override
+    public long getMemoryPackCacheMissCount()
+    {
+        return sum(DfsBlockCache.getInstance().getMissCount());
+    }
+
+    @Override
+    public double getMemoryPackCacheHitRatio()
+    {
+        // Read the cache once so that both counts are consistent.
+        DfsBlockCache cache = DfsBlockCache.getInstance();
+        long hits = sum(cache.getHitCount());
+        long total = hits + sum(cache.getMissCount());
+        return total > 0 ? (double) hits / total : 0;
+    }
+
+    @Override
+    public int getInFlightCloneCount()
+    {
+        return this.clones.inFlight.get();
+    }
+
+    @Override
+    public int getInFlightFetchCount()
+    {
+        return this.fetches.inFlight.get();
+    }
+
+    @Override
+    public int getInFlightQueryCount()
+    {
+        return this.queries.inFlight.get();
+    }
+
+    /**
+     * JGit counts the block cache accesses separately for each kind of pack file.
+     */
+    private static long sum(long[] counts)
+    {
+        long sum = 0;
+        for (long count : counts) {
+            sum += count;
+        }
+        return sum;
+    }
+
+    private static long toMillis(LongAdder nanos)
+    {
+        return TimeUnit.NANOSECONDS.toMillis(nanos.sum());
+    }
+}
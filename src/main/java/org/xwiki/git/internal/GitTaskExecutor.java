@@ -0,0 +1,131 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.git.internal;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
+import org.eclipse.jgit.lib.ProgressMonitor;
+import org.xwiki.git.GitTask;
+import org.xwiki.git.QueryBudget;
+
+/**
+ * Executes {@link GitTask}s on a bounded pool of threads with a bounded queue, so that scripts starting many clones
+ * can't exhaust the resources of the server, and keeps them around for some time after they're over so that their
+ * result can be fetched later.
+ *
+ * @version $Id$
+ * @since 9.11
+ */
+public class GitTaskExecutor
+{
+    private static final long KEEP_ALIVE = 60L;
+
+    private final ThreadPoolExecutor executor;
+
+    private final long retention;
+
+    private final Map<String, DefaultGitTask<?>> tasks = new ConcurrentHashMap<>();
+
+    /**
+     * @param threads the maximum number of tasks executed at the same time
+     * @param queueSize the maximum number of tasks waiting to be executed
+     * @param retention the number of milliseconds during which a task can still be looked up once it's over
+     */
+    public GitTaskExecutor(int threads, int queueSize, long retention)
+    {
+        int poolSize = Math.max(1, threads);
+        this.executor = new ThreadPoolExecutor(poolSize, poolSize, KEEP_ALIVE, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(Math.max(1, queueSize)),
+            new BasicThreadFactory.Builder().namingPattern("XWiki Git task thread %d").daemon(true).build());
+        // Threads are only kept while there are tasks to execute.
+        this.executor.allowCoreThreadTimeOut(true);
+        this.retention = retention;
+    }
+
+    /**
+     * @param work the operation to execute, which receives a progress monitor to report its progress to
+     * @param <T> the type of the result of the operation
+     * @return the task executing the operation, already failed if too many tasks are waiting
+     */
+    public <T> GitTask<T> submit(Function<ProgressMonitor, T> work)
+    {
+        return submit(work, null);
+    }
+
+    /**
+     * @param work the query to execute, which receives a progress monitor to report its progress to
+     * @param budget the budget limiting the query, which tells the task whether its result is partial
+     * @param <T> the type of the result of the query
+     * @return the task executing the query, already failed if too many tasks are waiting
+     */
+    public <T> GitTask<T> submit(Function<ProgressMonitor, T> work, QueryBudget budget)
+    {
+        purge();
+
+        DefaultGitTask<T> task = new DefaultGitTask<>(UUID.randomUUID().toString(), budget);
+        this.tasks.put(task.getId(), task);
+        try {
+            this.executor.execute(() -> task.run(work));
+        } catch (RejectedExecutionException e) {
+            task.fail(new RuntimeException(
+                String.format("Too many Git tasks are waiting to be executed [%s]", this.executor.getQueue().size()),
+                e));
+        }
+
+        return task;
+    }
+
+    /**
+     * @param id the id of a task
+     * @return the task, {@code null} if there's no such task or if it's been over for too long
+     */
+    public GitTask<?> get(String id)
+    {
+        purge();
+        return this.tasks.get(id);
+    }
+
+    /**
+     * Cancel all the tasks and stop the threads.
+     */
+    public void dispose()
+    {
+        for (DefaultGitTask<?> task : this.tasks.values()) {
+            task.cancel();
+        }
+        this.executor.shutdownNow();
+        this.tasks.clear();
+    }
+
+    private void purge()
+    {
+        long now = System.currentTimeMillis();
+        this.tasks.values().removeIf(
+            task -> task.getCompletionTime() > 0 && now - task.getCompletionTime() > this.retention);
+    }
+}
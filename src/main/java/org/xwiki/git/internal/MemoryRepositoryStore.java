@@ -0,0 +1,356 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.git.internal;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Lock;
+
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.internal.storage.dfs.DfsPackFile;
+import org.eclipse.jgit.internal.storage.dfs.DfsRepository;
+import org.eclipse.jgit.internal.storage.pack.PackExt;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ProgressMonitor;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.StoredConfig;
+import org.eclipse.jgit.transport.CredentialsProvider;
+import org.eclipse.jgit.transport.FetchResult;
+import org.eclipse.jgit.transport.RefSpec;
+import org.eclipse.jgit.transport.RemoteConfig;
+import org.eclipse.jgit.transport.URIish;
+
+/**
+ * Keeps bare clones in memory, using {@link BoundedMemoryRepository}, for one-off queries that shouldn't leave
+ * anything in the permanent directory. Repositories are discarded once they haven't been requested for the time to
+ * live, and the size of their packs is bounded: the least recently used repositories are discarded to make room for
+ * new ones or for the objects fetched into the stored ones, and a clone or fetch making a repository bigger than the
+ * whole limit fails. The pack data is counted while it's received, so a transfer is aborted as soon as it reaches the
+ * limit instead of once the whole pack is in memory.
+ * <p>
+ * Discarded repositories are only dropped from the store: callers still holding them can keep using them until they
+ * release them, at which point their memory is reclaimed by the garbage collector.
+ *
+ * @version $Id$
+ * @since 9.11
+ */
+public class MemoryRepositoryStore
+{
+    private final long maxSize;
+
+    private final long timeToLive;
+
+    private final Map<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final StripedLock locks = new StripedLock(16);
+
+    private long totalSize;
+
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * A repository kept in memory along with the size of its packs and the last time it was requested.
+     */
+    private static final class Entry
+    {
+        private final DfsRepository repository;
+
+        private long size;
+
+        private long lastAccess;
+
+        Entry(DfsRepository repository, long size, long lastAccess)
+        {
+            this.repository = repository;
+            this.size = size;
+            this.lastAccess = lastAccess;
+        }
+    }
+
+    /**
+     * @param maxSize the maximum number of bytes of packs kept in memory, 0 to disable in-memory repositories
+     * @param timeToLive the number of milliseconds after which a repository that hasn't been requested is discarded
+     */
+    public MemoryRepositoryStore(long maxSize, long timeToLive)
+    {
+        this.maxSize = maxSize;
+        this.timeToLive = timeToLive;
+    }
+
+    /**
+     * Get a repository from the store, cloning it in memory if it's not there.
+     *
+     * @param repositoryURI the URI of the repository to clone
+     * @param name the name identifying the repository in the store
+     * @param branch the only branch to clone, {@code null} to clone all branches
+     * @param credentialsProvider the credentials used to authenticate with the remote repository, can be {@code null}
+     * @param monitor the monitor to report the clone progress to
+     * @return the repository
+     * @throws Exception when failing to clone the repository, or if it's too big in which case the clone is aborted
+     */
+    public Repository get(String repositoryURI, String name, String branch, CredentialsProvider credentialsProvider,
+        ProgressMonitor monitor) throws Exception
+    {
+        return get(repositoryURI, name, branch, credentialsProvider, monitor, null);
+    }
+
+    /**
+     * Get a repository from the store, cloning it in memory if it's not there.
+     *
+     * @param repositoryURI the URI of the repository to clone
+     * @param name the name identifying the repository in the store
+     * @param branch the only branch to clone, {@code null} to clone all branches
+     * @param credentialsProvider the credentials used to authenticate with the remote repository, can be {@code null}
+     * @param monitor the monitor to report the clone progress to
+     * @param cloned set to {@code true} if the repository had to be cloned, can be {@code null}
+     * @return the repository
+     * @throws Exception when failing to clone the repository, or if it's too big in which case the clone is aborted
+     */
+    public Repository get(String repositoryURI, String name, String branch, CredentialsProvider credentialsProvider,
+        ProgressMonitor monitor, AtomicBoolean cloned) throws Exception
+    {
+        if (this.maxSize <= 0) {
+            throw new IllegalStateException("In-memory repositories are disabled");
+        }
+
+        Repository repository = get(name);
+        if (repository != null) {
+            return repository;
+        }
+
+        // Concurrent requests for the same repository wait for the first clone instead of cloning it again.
+        Lock lock = this.locks.get(name);
+        lock.lock();
+        try {
+            repository = get(name);
+            if (repository != null) {
+                return repository;
+            }
+
+            DfsRepository clone = cloneRepository(repositoryURI, name, branch, credentialsProvider, monitor);
+            put(name, clone, getPackSize(clone));
+            if (cloned != null) {
+                cloned.set(true);
+            }
+            return clone;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Record the new size of a stored repository after objects have been fetched into it, discarding the least
+     * recently used other repositories to make room. The fetch itself fails if it would make the repository bigger than
+     * the whole limit. Repositories that are not in the store, or not anymore, are ignored.
+     *
+     * @param repository the repository into which objects have been fetched
+     * @throws IOException when failing to list the packs of the repository
+     */
+    public void updated(DfsRepository repository) throws IOException
+    {
+        long size = getPackSize(repository);
+        String name = repository.getDescription().getRepositoryName();
+        synchronized (this) {
+            Entry entry = this.entries.get(name);
+            if (entry == null || entry.repository != repository) {
+                return;
+            }
+            this.totalSize += size - entry.size;
+            entry.size = size;
+            makeRoom(0, entry);
+        }
+    }
+
+    /**
+     * @return the number of repositories kept in memory
+     */
+    public synchronized int size()
+    {
+        return this.entries.size();
+    }
+
+    /**
+     * @return the size of the packs of all the repositories kept in memory, in bytes
+     */
+    public synchronized long getTotalSize()
+    {
+        return this.totalSize;
+    }
+
+    /**
+     * Discard the repositories that haven't been requested for longer than the time to live.
+     */
+    public synchronized void expire()
+    {
+        long now = System.currentTimeMillis();
+        // Entries are in access order so we can stop at the first one that has been used recently.
+        Iterator<Entry> iterator = this.entries.values().iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next();
+            if (now - entry.lastAccess < this.timeToLive) {
+                break;
+            }
+            iterator.remove();
+            this.totalSize -= entry.size;
+        }
+    }
+
+    /**
+     * Stop the expiration thread and discard all repositories.
+     */
+    public synchronized void dispose()
+    {
+        if (this.scheduler != null) {
+            this.scheduler.shutdownNow();
+            this.scheduler = null;
+        }
+        this.entries.clear();
+        this.totalSize = 0;
+    }
+
+    /**
+     * @param repository a repository stored in memory
+     * @return the size of its packs, in bytes
+     * @throws IOException when failing to list the packs
+     */
+    public static long getPackSize(DfsRepository repository) throws IOException
+    {
+        long size = 0;
+        for (DfsPackFile pack : repository.getObjectDatabase().getPacks()) {
+            size += pack.getPackDescription().getFileSize(PackExt.PACK);
+        }
+        return size;
+    }
+
+    private synchronized Repository get(String name)
+    {
+        expire();
+        Entry entry = this.entries.get(name);
+        if (entry != null) {
+            entry.lastAccess = System.currentTimeMillis();
+            return entry.repository;
+        }
+        return null;
+    }
+
+    private synchronized void put(String name, DfsRepository repository, long size)
+    {
+        expire();
+        makeRoom(size, null);
+        this.entries.put(name, new Entry(repository, size, System.currentTimeMillis()));
+        this.totalSize += size;
+
+        // The thread is only started when the first repository is stored.
+        if (this.scheduler == null && this.timeToLive > 0) {
+            this.scheduler = Executors.newSingleThreadScheduledExecutor(new BasicThreadFactory.Builder()
+                .namingPattern("XWiki Git in-memory repository expiration").daemon(true).build());
+            long period = Math.min(this.timeToLive, TimeUnit.MINUTES.toMillis(1));
+            this.scheduler.scheduleWithFixedDelay(this::expire, period, period, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Discard the least recently used repositories, except the kept one, until the passed number of bytes fits.
+     */
+    private void makeRoom(long size, Entry kept)
+    {
+        Iterator<Entry> iterator = this.entries.values().iterator();
+        while (this.totalSize + size > this.maxSize && iterator.hasNext()) {
+            Entry entry = iterator.next();
+            if (entry != kept) {
+                this.totalSize -= entry.size;
+                iterator.remove();
+            }
+        }
+    }
+
+    private DfsRepository cloneRepository(String repositoryURI, String name, String branch,
+        CredentialsProvider credentialsProvider, ProgressMonitor monitor) throws Exception
+    {
+        // Fetching into a bounded repository makes the transfer fail as soon as the pack data exceeds the limit.
+        DfsRepository repository = new BoundedMemoryRepository(name, this.maxSize);
+
+        // Like a bare clone: remote branches are fetched directly as local branches, and the same configuration is
+        // used by later updates.
+        String branches = branch != null ? branch : "*";
+        StoredConfig config = repository.getConfig();
+        RemoteConfig remote = new RemoteConfig(config, Constants.DEFAULT_REMOTE_NAME);
+        remote.addURI(new URIish(repositoryURI));
+        remote.addFetchRefSpec(new RefSpec().setForceUpdate(true)
+            .setSourceDestination(Constants.R_HEADS + branches, Constants.R_HEADS + branches));
+        remote.update(config);
+
+        try (Git git = new Git(repository)) {
+            FetchResult result = git.fetch().setCredentialsProvider(credentialsProvider).setProgressMonitor(monitor)
+                .call();
+            String head = getHead(result, branch);
+            if (head != null) {
+                repository.updateRef(Constants.HEAD).link(head);
+            }
+        }
+
+        return repository;
+    }
+
+    /**
+     * @return the branch to which {@code HEAD} should point: the requested branch, or the branch pointed by the remote
+     *         {@code HEAD}, preferring {@code master} when the server doesn't tell and several branches point to the
+     *         same commit
+     */
+    private String getHead(FetchResult result, String branch)
+    {
+        if (branch != null) {
+            return Constants.R_HEADS + branch;
+        }
+
+        Ref remoteHead = result.getAdvertisedRef(Constants.HEAD);
+        if (remoteHead != null && remoteHead.isSymbolic()) {
+            return remoteHead.getTarget().getName();
+        }
+        ObjectId headId = remoteHead != null ? remoteHead.getObjectId() : null;
+        if (headId == null) {
+            return null;
+        }
+        List<String> candidates = new ArrayList<>();
+        for (Ref ref : result.getAdvertisedRefs()) {
+            if (ref.getName().startsWith(Constants.R_HEADS) && headId.equals(ref.getObjectId())) {
+                candidates.add(ref.getName());
+            }
+        }
+        String master = Constants.R_HEADS + Constants.MASTER;
+        if (candidates.contains(master)) {
+            return master;
+        }
+        Collections.sort(candidates);
+        return candidates.isEmpty() ? null : candidates.get(0);
+    }
+}
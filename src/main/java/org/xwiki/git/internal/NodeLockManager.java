@@ -0,0 +1,310 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.git.internal;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.slf4j.Logger;
+
+/**
+ * Coordinates the nodes of a cluster sharing the permanent directory, so that only one of them clones, fetches or
+ * repacks a given repository at a time. A directory is locked by atomically creating a lock file next to it, holding
+ * a token unique to the owner. The owner renews its lease by touching the lock file regularly, and deletes it when
+ * it's done. A lock file which hasn't been touched for longer than the lease belongs to a node that crashed or was
+ * stopped abruptly, and is broken by the next node needing the directory. Since leases are compared to the time of
+ * the local node, the clocks of the nodes must be synchronized with a precision much better than the lease.
+ * <p>
+ * Locks are reentrant. Another thread of the node trying to take a lock held by the node sees it as held by another
+ * node, so they are best used in addition to in-process locks, so that the threads of a node don't compete for the
+ * same lock file.
+ *
+ * @version $Id$
+ * @since 9.11
+ */
+public class NodeLockManager
+{
+    private static final String LOCK_EXTENSION = ".lock";
+
+    private static final long MAX_POLL_INTERVAL = 1000L;
+
+    /**
+     * Identifies this node in the lock files, to know who holds a lock when investigating.
+     */
+    private static final String NODE_NAME = ManagementFactory.getRuntimeMXBean().getName();
+
+    private final long lease;
+
+    private final Logger logger;
+
+    private final Map<Path, NodeLock> heldLocks = new ConcurrentHashMap<>();
+
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * A lock held by this node.
+     */
+    public final class NodeLock implements AutoCloseable
+    {
+        private final Path lockFile;
+
+        private final String token;
+
+        private final Thread owner = Thread.currentThread();
+
+        private int holdCount = 1;
+
+        private NodeLock(Path lockFile, String token)
+        {
+            this.lockFile = lockFile;
+            this.token = token;
+        }
+
+        /**
+         * Release the lock, deleting the lock file if it's still ours.
+         */
+        @Override
+        public void close()
+        {
+            if (this.lockFile != null) {
+                release(this);
+            }
+        }
+    }
+
+    /**
+     * @param lease the number of milliseconds after which a lock that hasn't been renewed can be broken, 0 to disable
+     *        locking between nodes
+     * @param logger the logger to report broken and lost locks to
+     */
+    public NodeLockManager(long lease, Logger logger)
+    {
+        this.lease = lease;
+        this.logger = logger;
+    }
+
+    /**
+     * Lock the passed directory, waiting while another node holds it.
+     *
+     * @param directory the directory to lock, which doesn't need to exist, {@code null} for nothing to lock
+     * @return the lock, to close once done with the directory
+     * @throws IOException when failing to create the lock file
+     * @throws InterruptedException when interrupted while waiting for another node
+     */
+    public NodeLock lock(File directory) throws IOException, InterruptedException
+    {
+        NodeLock lock;
+        while ((lock = tryLock(directory)) == null) {
+            Thread.sleep(Math.max(1, Math.min(this.lease / 10, MAX_POLL_INTERVAL)));
+        }
+        return lock;
+    }
+
+    /**
+     * Lock the passed directory unless another node holds it.
+     *
+     * @param directory the directory to lock, which doesn't need to exist, {@code null} for nothing to lock
+     * @return the lock, to close once done with the directory, or {@code null} if another node holds it
+     * @throws IOException when failing to create the lock file
+     */
+    public NodeLock tryLock(File directory) throws IOException
+    {
+        if (this.lease <= 0 || directory == null) {
+            return new NodeLock(null, null);
+        }
+
+        Path lockFile = getLockFile(directory);
+        NodeLock heldLock = this.heldLocks.get(lockFile);
+        if (heldLock != null) {
+            if (heldLock.owner != Thread.currentThread()) {
+                return null;
+            }
+            heldLock.holdCount++;
+            return heldLock;
+        }
+
+        Files.createDirectories(lockFile.getParent());
+        String token = NODE_NAME + ' ' + UUID.randomUUID();
+        do {
+            try {
+                Files.write(lockFile, token.getBytes(StandardCharsets.UTF_8), StandardOpenOption.CREATE_NEW,
+                    StandardOpenOption.WRITE);
+                NodeLock lock = new NodeLock(lockFile, token);
+                this.heldLocks.put(lockFile, lock);
+                startRenewal();
+                return lock;
+            } catch (FileAlreadyExistsException e) {
+                // Held by another node, or by a node which is gone.
+            }
+        } while (breakExpiredLock(lockFile));
+
+        return null;
+    }
+
+    /**
+     * Stop renewing the leases and release the locks still held.
+     */
+    public void dispose()
+    {
+        synchronized (this) {
+            if (this.scheduler != null) {
+                this.scheduler.shutdownNow();
+            }
+        }
+        for (NodeLock lock : this.heldLocks.values()) {
+            deleteIfOwned(lock);
+        }
+        this.heldLocks.clear();
+    }
+
+    private Path getLockFile(File directory)
+    {
+        File absoluteDirectory = directory.getAbsoluteFile();
+        // Hidden and next to the directory, like the temporary clone directories, so that it's there before the clone.
+        return new File(absoluteDirectory.getParentFile(), '.' + absoluteDirectory.getName() + LOCK_EXTENSION)
+            .toPath();
+    }
+
+    private void release(NodeLock lock)
+    {
+        // Only the owner thread changes the hold count.
+        if (--lock.holdCount > 0) {
+            return;
+        }
+        this.heldLocks.remove(lock.lockFile, lock);
+        deleteIfOwned(lock);
+    }
+
+    private void deleteIfOwned(NodeLock lock)
+    {
+        try {
+            if (isOwner(lock)) {
+                Files.deleteIfExists(lock.lockFile);
+            }
+        } catch (IOException e) {
+            this.logger.warn("Failed to delete the lock file [{}]. Root cause: [{}]", lock.lockFile,
+                ExceptionUtils.getRootCauseMessage(e));
+        }
+    }
+
+    private boolean isOwner(NodeLock lock) throws IOException
+    {
+        return lock.token.equals(readToken(lock.lockFile));
+    }
+
+    private String readToken(Path lockFile) throws IOException
+    {
+        try {
+            return new String(Files.readAllBytes(lockFile), StandardCharsets.UTF_8);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Delete the passed lock file if its lease has expired. The lock file is first renamed, which only one of the
+     * nodes trying to break it at the same time can do, and then checked to be the expired one, since a node may
+     * have broken it and taken the lock in the meantime.
+     *
+     * @return {@code true} if the lock file is gone and locking can be attempted again
+     */
+    private boolean breakExpiredLock(Path lockFile)
+    {
+        try {
+            FileTime lastRenewal = Files.getLastModifiedTime(lockFile);
+            if (System.currentTimeMillis() - lastRenewal.toMillis() < this.lease) {
+                return false;
+            }
+            String expiredToken = readToken(lockFile);
+
+            Path brokenFile = lockFile.resolveSibling(lockFile.getFileName() + "." + UUID.randomUUID());
+            Files.move(lockFile, brokenFile, StandardCopyOption.ATOMIC_MOVE);
+            String brokenToken = readToken(brokenFile);
+            if (expiredToken != null && expiredToken.equals(brokenToken)) {
+                this.logger.warn("Broke the lock [{}] of [{}] whose lease expired on [{}]", lockFile, expiredToken,
+                    lastRenewal);
+            } else {
+                // We moved a lock just taken by another node: give it back, unless a third node took the lock.
+                try {
+                    Files.createLink(lockFile, brokenFile);
+                } catch (FileAlreadyExistsException e) {
+                    this.logger.debug("Failed to restore the lock [{}]", lockFile);
+                }
+            }
+            Files.deleteIfExists(brokenFile);
+            return true;
+        } catch (NoSuchFileException e) {
+            // Released or broken in the meantime.
+            return true;
+        } catch (IOException e) {
+            this.logger.warn("Failed to break the expired lock [{}]. Root cause: [{}]", lockFile,
+                ExceptionUtils.getRootCauseMessage(e));
+            return false;
+        }
+    }
+
+    private synchronized void startRenewal()
+    {
+        // The thread is only started when the first lock is taken.
+        if (this.scheduler == null) {
+            this.scheduler = Executors.newSingleThreadScheduledExecutor(new BasicThreadFactory.Builder()
+                .namingPattern("XWiki Git lock renewal thread").daemon(true).priority(Thread.MAX_PRIORITY).build());
+            long interval = Math.max(1, this.lease / 3);
+            this.scheduler.scheduleWithFixedDelay(this::renewAll, interval, interval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void renewAll()
+    {
+        for (NodeLock lock : this.heldLocks.values()) {
+            try {
+                if (isOwner(lock)) {
+                    Files.setLastModifiedTime(lock.lockFile, FileTime.fromMillis(System.currentTimeMillis()));
+                } else if (this.heldLocks.remove(lock.lockFile, lock)) {
+                    // Not released in the meantime.
+                    this.logger.warn("Lost the lock [{}], another node may be modifying the same repository",
+                        lock.lockFile);
+                }
+            } catch (IOException e) {
+                if (this.heldLocks.get(lock.lockFile) == lock) {
+                    this.logger.warn("Failed to renew the lock [{}]. Root cause: [{}]", lock.lockFile,
+                        ExceptionUtils.getRootCauseMessage(e));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.git.internal;
+
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.util.NB;
+
+/**
+ * A set of object ids stored in a single byte array using open addressing, which takes between 28 and 56 bytes per id
+ * depending on the load instead of the 100 or so bytes of a {@code HashSet<ObjectId>}, and doesn't create any object
+ * when ids are added or looked up, including from the raw ids stored in an {@link AuthorIndex}.
+ * <p>
+ * Like JGit's maps, it relies on object ids being uniformly distributed and uses their second word as hash code. The
+ * set is not thread safe.
+ *
+ * @version $Id$
+ * @since 9.11
+ */
+public class ObjectIdSet
+{
+    private static final int ID_LENGTH = Constants.OBJECT_ID_LENGTH;
+
+    /**
+     * Offset of the word used as hash code in a raw id, see {@link AnyObjectId#hashCode()}.
+     */
+    private static final int HASH_OFFSET = 4;
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private byte[] ids = new byte[INITIAL_CAPACITY * ID_LENGTH];
+
+    private boolean[] used = new boolean[INITIAL_CAPACITY];
+
+    private int mask = INITIAL_CAPACITY - 1;
+
+    private int size;
+
+    /**
+     * @param id an object id
+     * @return {@code true} if the id is in the set
+     */
+    public boolean contains(AnyObjectId id)
+    {
+        for (int slot = id.hashCode() & this.mask; this.used[slot]; slot = (slot + 1) & this.mask) {
+            if (id.compareTo(this.ids, slot * ID_LENGTH) == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param id the object id to add
+     * @return {@code true} if the id wasn't already in the set
+     */
+    public boolean add(AnyObjectId id)
+    {
+        int slot = id.hashCode() & this.mask;
+        for (; this.used[slot]; slot = (slot + 1) & this.mask) {
+            if (id.compareTo(this.ids, slot * ID_LENGTH) == 0) {
+                return false;
+            }
+        }
+        id.copyRawTo(this.ids, slot * ID_LENGTH);
+        this.used[slot] = true;
+        grow();
+        return true;
+    }
+
+    /**
+     * @param raw a buffer containing the raw object id to add
+     * @param offset the position of the object id in the buffer
+     * @return {@code true} if the id wasn't already in the set
+     */
+    public boolean add(byte[] raw, int offset)
+    {
+        int slot = NB.decodeInt32(raw, offset + HASH_OFFSET) & this.mask;
+        for (; this.used[slot]; slot = (slot + 1) & this.mask) {
+            if (ObjectId.equals(raw, offset, this.ids, slot * ID_LENGTH)) {
+                return false;
+            }
+        }
+        System.arraycopy(raw, offset, this.ids, slot * ID_LENGTH, ID_LENGTH);
+        this.used[slot] = true;
+        grow();
+        return true;
+    }
+
+    /**
+     * @return the number of ids in the set
+     */
+    public int size()
+    {
+        return this.size;
+    }
+
+    private void grow()
+    {
+        this.size++;
+        // Keep the load factor under 3/4 so that probe sequences stay short.
+        if (this.size * 4 < this.used.length * 3) {
+            return;
+        }
+
+        byte[] oldIds = this.ids;
+        boolean[] oldUsed = this.used;
+        int capacity = oldUsed.length * 2;
+        this.ids = new byte[capacity * ID_LENGTH];
+        this.used = new boolean[capacity];
+        this.mask = capacity - 1;
+        for (int i = 0; i < oldUsed.length; i++) {
+            if (oldUsed[i]) {
+                int slot = NB.decodeInt32(oldIds, i * ID_LENGTH + HASH_OFFSET) & this.mask;
+                while (this.used[slot]) {
+                    slot = (slot + 1) & this.mask;
+                }
+                System.arraycopy(oldIds, i * ID_LENGTH, this.ids, slot * ID_LENGTH, ID_LENGTH);
+                this.used[slot] = true;
+            }
+        }
+    }
+}
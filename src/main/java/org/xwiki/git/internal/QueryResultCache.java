@@ -0,0 +1,247 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.git.internal;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
+
+/**
+ * Keeps the results of the author queries, so that dashboards repeatedly asking the same question about repositories
+ * which rarely change don't walk their histories each time. A result is keyed by the query, the repositories and the
+ * {@code since} date, and is only reused while the {@code HEAD} of each repository still points to the same commit as
+ * when it was computed, which is cheap to check since JGit only reads a ref again when its file has changed. The
+ * least recently used results are evicted when the cache is full.
+ * <p>
+ * To let queries made a few seconds apart, such as "the last 30 days", share their result, the {@code since} dates
+ * should be rounded with {@link #round(Date)} before computing and caching the result.
+ *
+ * @version $Id$
+ * @since 9.11
+ */
+public class QueryResultCache
+{
+    private final int maxSize;
+
+    private final long sinceGranularity;
+
+    private final Map<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final AtomicLong hitCount = new AtomicLong();
+
+    private final AtomicLong missCount = new AtomicLong();
+
+    /**
+     * Identifies a query.
+     */
+    private static final class Key
+    {
+        private final String query;
+
+        private final Date since;
+
+        private final List<File> gitDirectories;
+
+        Key(String query, Date since, List<File> gitDirectories)
+        {
+            this.query = query;
+            this.since = since;
+            this.gitDirectories = gitDirectories;
+        }
+
+        @Override
+        public boolean equals(Object object)
+        {
+            if (this == object) {
+                return true;
+            }
+            if (!(object instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) object;
+            return this.query.equals(other.query) && Objects.equals(this.since, other.since)
+                && this.gitDirectories.equals(other.gitDirectories);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return Objects.hash(this.query, this.since, this.gitDirectories);
+        }
+    }
+
+    /**
+     * A cached result along with the state of the repositories it was computed from.
+     */
+    private static final class Entry
+    {
+        private final List<ObjectId> tips;
+
+        private final Object result;
+
+        Entry(List<ObjectId> tips, Object result)
+        {
+            this.tips = tips;
+            this.result = result;
+        }
+    }
+
+    /**
+     * @param maxSize the maximum number of results kept, 0 to disable caching
+     * @param sinceGranularity the number of milliseconds to which {@code since} dates are rounded, 0 to not round
+     *        them
+     */
+    public QueryResultCache(int maxSize, long sinceGranularity)
+    {
+        this.maxSize = maxSize;
+        this.sinceGranularity = sinceGranularity;
+    }
+
+    /**
+     * @param since a date from which commits are queried, can be {@code null}
+     * @return the passed date rounded down to the configured granularity when the cache is enabled, so that close
+     *         dates share the same cached result
+     */
+    public Date round(Date since)
+    {
+        if (since == null || this.maxSize <= 0 || this.sinceGranularity <= 0) {
+            return since;
+        }
+        return new Date(Math.floorDiv(since.getTime(), this.sinceGranularity) * this.sinceGranularity);
+    }
+
+    /**
+     * @param query the name of the query
+     * @param since the date from which commits are queried, {@code null} for all commits
+     * @param repositories the queried repositories
+     * @param computer computes the result when it's not cached or when the repositories have changed
+     * @param <T> the type of the result
+     * @return the result of the query, shared with other callers so it must not be modified
+     */
+    public <T> T get(String query, Date since, List<Repository> repositories, Supplier<T> computer)
+    {
+        return get(query, since, repositories, computer, result -> true);
+    }
+
+    /**
+     * @param query the name of the query
+     * @param since the date from which commits are queried, {@code null} for all commits
+     * @param repositories the queried repositories
+     * @param computer computes the result when it's not cached or when the repositories have changed
+     * @param cacheable tells whether a computed result can be cached, which isn't the case of partial results
+     * @param <T> the type of the result
+     * @return the result of the query, shared with other callers so it must not be modified
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T get(String query, Date since, List<Repository> repositories, Supplier<T> computer,
+        Predicate<? super T> cacheable)
+    {
+        if (this.maxSize <= 0) {
+            return computer.get();
+        }
+
+        List<File> gitDirectories = new ArrayList<>(repositories.size());
+        List<ObjectId> tips = new ArrayList<>(repositories.size());
+        try {
+            for (Repository repository : repositories) {
+                if (repository.getDirectory() == null) {
+                    // Can't identify the repository.
+                    return computer.get();
+                }
+                gitDirectories.add(repository.getDirectory().getAbsoluteFile());
+                Ref head = repository.exactRef(Constants.HEAD);
+                tips.add(head != null ? head.getObjectId() : null);
+            }
+        } catch (IOException e) {
+            // Let the query report the problem.
+            return computer.get();
+        }
+
+        Key key = new Key(query, since, gitDirectories);
+        synchronized (this) {
+            Entry entry = this.entries.get(key);
+            if (entry != null && entry.tips.equals(tips)) {
+                this.hitCount.incrementAndGet();
+                return (T) entry.result;
+            }
+        }
+
+        this.missCount.incrementAndGet();
+        // Computed outside of the lock so that other queries aren't blocked. If the repositories change in the
+        // meantime the result may be more recent than the tips it's stored with, which only causes it to be computed
+        // again on the next call.
+        T result = computer.get();
+        if (cacheable.test(result)) {
+            synchronized (this) {
+                this.entries.put(key, new Entry(tips, result));
+                if (this.entries.size() > this.maxSize) {
+                    this.entries.remove(this.entries.keySet().iterator().next());
+                }
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Forget all results.
+     */
+    public synchronized void clear()
+    {
+        this.entries.clear();
+    }
+
+    /**
+     * @return the number of results currently cached
+     */
+    public synchronized int size()
+    {
+        return this.entries.size();
+    }
+
+    /**
+     * @return the number of queries answered from the cache
+     */
+    public long getHitCount()
+    {
+        return this.hitCount.get();
+    }
+
+    /**
+     * @return the number of queries that had to be computed
+     */
+    public long getMissCount()
+    {
+        return this.missCount.get();
+    }
+}
@@ -0,0 +1,316 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.git.internal;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+
+/**
+ * Keeps {@link Repository} handles open between calls, keyed by their Git directory, so that pack indexes and
+ * configuration files don't need to be read again every time a repository is requested. Entries are evicted in least
+ * recently used order when the cache is full, and when they haven't been accessed for longer than the idle timeout.
+ * <p>
+ * The cache owns the cached handles: {@link #get(File)} and {@link #put(File, Repository)} return them without adding
+ * a reference, since scripts have no way to release one, and they are closed when evicted. Callers must thus not close
+ * them. Since callers don't report when they are done with a repository, the cache records the last time each
+ * repository was opened or handed out, so that a repository can be considered in use for a while afterwards.
+ *
+ * @version $Id$
+ * @since 9.11
+ */
+public class RepositoryCache
+{
+    private final int maxSize;
+
+    private final long idleTimeout;
+
+    private final Map<File, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final Map<File, Long> accessTimes = new HashMap<>();
+
+    private final AtomicLong hitCount = new AtomicLong();
+
+    private final AtomicLong missCount = new AtomicLong();
+
+    private final AtomicLong evictionCount = new AtomicLong();
+
+    /**
+     * A cached repository along with the last time it was accessed.
+     */
+    private static final class Entry
+    {
+        private final Repository repository;
+
+        private long lastAccess;
+
+        Entry(Repository repository, long lastAccess)
+        {
+            this.repository = repository;
+            this.lastAccess = lastAccess;
+        }
+    }
+
+    /**
+     * @param maxSize the maximum number of repositories kept open, 0 to disable caching
+     * @param idleTimeout the number of milliseconds after which a repository that hasn't been accessed is evicted, 0
+     *        to never evict repositories because of inactivity
+     */
+    public RepositoryCache(int maxSize, long idleTimeout)
+    {
+        this.maxSize = maxSize;
+        this.idleTimeout = idleTimeout;
+    }
+
+    /**
+     * @param gitDirectory the Git directory of the repository
+     * @return the cached repository, owned by the cache, or {@code null} if the repository is not in the cache
+     */
+    public Repository get(File gitDirectory)
+    {
+        File key = toKey(gitDirectory);
+        List<Repository> evicted = new ArrayList<>();
+        Repository repository = null;
+
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            evictIdle(now, evicted);
+            Entry entry = this.entries.get(key);
+            if (entry != null) {
+                if (key.exists()) {
+                    entry.lastAccess = now;
+                    this.accessTimes.put(key, now);
+                    repository = entry.repository;
+                } else {
+                    // The repository has been deleted behind our back.
+                    this.entries.remove(key);
+                    this.evictionCount.incrementAndGet();
+                    evicted.add(entry.repository);
+                }
+            }
+        }
+
+        close(evicted);
+
+        if (repository != null) {
+            this.hitCount.incrementAndGet();
+        } else {
+            this.missCount.incrementAndGet();
+        }
+
+        return repository;
+    }
+
+    /**
+     * Open a repository without caching it, recording the access.
+     *
+     * @param gitDirectory the Git directory of the repository
+     * @return the opened repository, which the caller must close or pass to {@link #put(File, Repository)}
+     * @throws IOException if the repository can't be opened
+     */
+    public Repository open(File gitDirectory) throws IOException
+    {
+        File key = toKey(gitDirectory);
+        Repository repository = new FileRepositoryBuilder().setGitDir(gitDirectory).readEnvironment().build();
+        synchronized (this) {
+            this.accessTimes.put(key, System.currentTimeMillis());
+        }
+        return repository;
+    }
+
+    /**
+     * @param gitDirectory the Git directory of the repository
+     * @return the last time the repository was opened or returned by the cache, in milliseconds, 0 if it wasn't
+     *         since it was last removed with {@link #remove(File)}
+     */
+    public synchronized long getLastAccess(File gitDirectory)
+    {
+        return this.accessTimes.getOrDefault(toKey(gitDirectory), 0L);
+    }
+
+    /**
+     * Add a freshly opened repository to the cache. The cache takes over the reference held on the passed repository.
+     * If another thread has cached the same repository in the meantime the passed repository is closed and the already
+     * cached one is returned instead. When caching is disabled the passed repository is returned as is.
+     *
+     * @param gitDirectory the Git directory of the repository
+     * @param repository the repository to cache
+     * @return the cached repository, owned by the cache
+     */
+    public Repository put(File gitDirectory, Repository repository)
+    {
+        if (this.maxSize <= 0) {
+            return repository;
+        }
+
+        File key = toKey(gitDirectory);
+        List<Repository> evicted = new ArrayList<>();
+        Repository result;
+
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            evictIdle(now, evicted);
+            Entry entry = this.entries.get(key);
+            if (entry != null) {
+                // Lost the race against another thread, drop our own handle.
+                evicted.add(repository);
+            } else {
+                entry = new Entry(repository, now);
+                this.entries.put(key, entry);
+                evictOverflow(evicted);
+            }
+            entry.lastAccess = now;
+            this.accessTimes.put(key, now);
+            result = entry.repository;
+        }
+
+        close(evicted);
+
+        return result;
+    }
+
+    /**
+     * Remove a repository from the cache, closing it, and forget when it was last accessed.
+     *
+     * @param gitDirectory the Git directory of the repository
+     * @return {@code true} if the repository was in the cache
+     */
+    public boolean remove(File gitDirectory)
+    {
+        File key = toKey(gitDirectory);
+        Entry entry;
+        synchronized (this) {
+            entry = this.entries.remove(key);
+            this.accessTimes.remove(key);
+        }
+        if (entry != null) {
+            entry.repository.close();
+        }
+        return entry != null;
+    }
+
+    /**
+     * @param gitDirectory the Git directory of the repository
+     * @return {@code true} if the repository is kept open by the cache, without counting it as an access
+     */
+    public synchronized boolean contains(File gitDirectory)
+    {
+        return this.entries.containsKey(toKey(gitDirectory));
+    }
+
+    /**
+     * Release the references held by the cache on all repositories and empty the cache.
+     */
+    public void clear()
+    {
+        List<Repository> evicted = new ArrayList<>();
+        synchronized (this) {
+            for (Entry entry : this.entries.values()) {
+                evicted.add(entry.repository);
+            }
+            this.entries.clear();
+        }
+        close(evicted);
+    }
+
+    /**
+     * @return the number of repositories currently kept open by the cache
+     */
+    public synchronized int size()
+    {
+        return this.entries.size();
+    }
+
+    /**
+     * @return the number of requests served from the cache
+     */
+    public long getHitCount()
+    {
+        return this.hitCount.get();
+    }
+
+    /**
+     * @return the number of requests that required opening or cloning the repository
+     */
+    public long getMissCount()
+    {
+        return this.missCount.get();
+    }
+
+    /**
+     * @return the number of repositories evicted because the cache was full, they were idle or they were deleted
+     */
+    public long getEvictionCount()
+    {
+        return this.evictionCount.get();
+    }
+
+    private void evictIdle(long now, List<Repository> evicted)
+    {
+        if (this.idleTimeout <= 0) {
+            return;
+        }
+
+        // Entries are in access order so we can stop at the first one that has been used recently.
+        Iterator<Entry> iterator = this.entries.values().iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next();
+            if (now - entry.lastAccess < this.idleTimeout) {
+                break;
+            }
+            iterator.remove();
+            this.evictionCount.incrementAndGet();
+            evicted.add(entry.repository);
+        }
+    }
+
+    private void evictOverflow(List<Repository> evicted)
+    {
+        Iterator<Entry> iterator = this.entries.values().iterator();
+        while (this.entries.size() > this.maxSize && iterator.hasNext()) {
+            evicted.add(iterator.next().repository);
+            iterator.remove();
+            this.evictionCount.incrementAndGet();
+        }
+    }
+
+    private void close(List<Repository> repositories)
+    {
+        // Closing is done outside of the lock since it may involve I/O. Handles also registered for background
+        // updates are only really closed once unregistered.
+        for (Repository repository : repositories) {
+            repository.close();
+        }
+    }
+
+    private File toKey(File gitDirectory)
+    {
+        return gitDirectory.toPath().toAbsolutePath().normalize().toFile();
+    }
+}
@@ -0,0 +1,253 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.git.internal;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.ParseException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.eclipse.jgit.internal.storage.file.FileRepository;
+import org.eclipse.jgit.internal.storage.file.GC;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+import org.eclipse.jgit.storage.pack.PackConfig;
+import org.slf4j.Logger;
+import org.xwiki.git.GitManager;
+import org.xwiki.git.MaintenanceReport;
+import org.xwiki.git.PackStatistics;
+
+/**
+ * Repacks the repositories used through the {@link GitManager}, which otherwise accumulate loose objects and packs
+ * with each fetch. Each repository is repacked at a regular interval, and as soon as a fetch leaves it with more loose
+ * objects or packs than the configured thresholds. A single low priority thread does all the repacking, so that only
+ * one repository is repacked at a time, and the repacking itself goes through
+ * {@link GitManager#maintain(Repository, boolean)} which doesn't let it run at the same time as a clone or a fetch of
+ * the same repository.
+ *
+ * @version $Id$
+ * @since 9.11
+ */
+public class RepositoryMaintainer
+{
+    private final GitManager gitManager;
+
+    private final long interval;
+
+    private final int looseObjectThreshold;
+
+    private final int packThreshold;
+
+    private final long packExpireAge;
+
+    private final GitMetrics metrics;
+
+    private final Logger logger;
+
+    private final Set<File> repositories = ConcurrentHashMap.newKeySet();
+
+    private final Set<File> pending = ConcurrentHashMap.newKeySet();
+
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * @param gitManager used to maintain the repositories
+     * @param interval the number of milliseconds between two maintenances of a repository, 0 to only maintain
+     *        repositories when they cross a threshold
+     * @param looseObjectThreshold the number of loose objects above which a repository is repacked, 0 to ignore them
+     * @param packThreshold the number of packs above which a repository is repacked, 0 to ignore them
+     * @param packExpireAge the number of milliseconds the old packs are kept after a repack, for the readers that
+     *        still use them, 0 to delete them right away
+     * @param metrics where to record the time spent repacking
+     * @param logger the logger to report maintenance results and failures to
+     */
+    public RepositoryMaintainer(GitManager gitManager, long interval, int looseObjectThreshold, int packThreshold,
+        long packExpireAge, GitMetrics metrics, Logger logger)
+    {
+        this.gitManager = gitManager;
+        this.interval = interval;
+        this.looseObjectThreshold = looseObjectThreshold;
+        this.packThreshold = packThreshold;
+        this.packExpireAge = packExpireAge;
+        this.metrics = metrics;
+        this.logger = logger;
+    }
+
+    /**
+     * Maintain a repository regularly from now on. Only its Git directory is remembered: it's opened again for each
+     * maintenance.
+     *
+     * @param repository the repository to maintain
+     */
+    public void track(Repository repository)
+    {
+        if (isEnabled() && repository instanceof FileRepository
+            && this.repositories.add(repository.getDirectory().getAbsoluteFile())) {
+            start();
+        }
+    }
+
+    /**
+     * Queue the maintenance of a repository that has just been fetched, which is only performed if it crossed one of
+     * the thresholds.
+     *
+     * @param repository the repository to check
+     */
+    public void check(Repository repository)
+    {
+        if ((this.looseObjectThreshold > 0 || this.packThreshold > 0) && repository instanceof FileRepository) {
+            File gitDirectory = repository.getDirectory().getAbsoluteFile();
+            this.repositories.add(gitDirectory);
+            queue(gitDirectory, false);
+        }
+    }
+
+    /**
+     * Queue the maintenance of all the tracked repositories that are not already waiting for one.
+     */
+    public void maintainAll()
+    {
+        for (File gitDirectory : this.repositories) {
+            queue(gitDirectory, true);
+        }
+    }
+
+    /**
+     * Repack a repository if it needs it. The caller is responsible for not doing it while the repository is being
+     * cloned or fetched.
+     *
+     * @param repository the repository to repack
+     * @param force {@code true} to repack the repository even if it didn't cross any threshold
+     * @return the pack statistics of the repository before and after the maintenance
+     * @throws IOException if the repository can't be read or written
+     * @throws ParseException if the expiration date of unreachable objects is invalid in the repository configuration
+     */
+    public MaintenanceReport maintain(Repository repository, boolean force) throws IOException, ParseException
+    {
+        if (!(repository instanceof FileRepository)) {
+            // Only repositories stored in files can be repacked.
+            return new MaintenanceReport(null, false, null, null, 0);
+        }
+
+        String directory = repository.getDirectory().getPath();
+
+        GC gc = new GC((FileRepository) repository);
+        PackStatistics before = getStatistics(gc);
+        if (!force && !isThresholdCrossed(before)) {
+            return new MaintenanceReport(directory, false, before, before, 0);
+        }
+
+        PackConfig packConfig = new PackConfig(repository);
+        packConfig.setBuildBitmaps(true);
+        gc.setPackConfig(packConfig);
+        // Repository handles opened before the repack may still read from the old packs, so they are only deleted by a
+        // later repack once they are older than the grace period.
+        gc.setPackExpireAgeMillis(this.packExpireAge);
+
+        long start = this.metrics.maintenanceStarted();
+        boolean success = false;
+        try {
+            gc.gc();
+            success = true;
+        } finally {
+            this.metrics.maintenanceFinished(start, success);
+        }
+
+        PackStatistics after = getStatistics(gc);
+        MaintenanceReport report = new MaintenanceReport(directory, true, before, after,
+            TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        this.logger.info("Repacked [{}] in [{}] ms: [{}] -> [{}]", directory, report.getDuration(), before, after);
+        return report;
+    }
+
+    /**
+     * Stop the background thread.
+     */
+    public synchronized void dispose()
+    {
+        if (this.scheduler != null) {
+            this.scheduler.shutdownNow();
+        }
+        this.repositories.clear();
+    }
+
+    private boolean isEnabled()
+    {
+        return this.interval > 0 || this.looseObjectThreshold > 0 || this.packThreshold > 0;
+    }
+
+    private boolean isThresholdCrossed(PackStatistics statistics)
+    {
+        return (this.looseObjectThreshold > 0 && statistics.getLooseObjectCount() > this.looseObjectThreshold)
+            || (this.packThreshold > 0 && statistics.getPackFileCount() > this.packThreshold);
+    }
+
+    private PackStatistics getStatistics(GC gc) throws IOException
+    {
+        GC.RepoStatistics statistics = gc.getStatistics();
+        return new PackStatistics(statistics.numberOfPackFiles, statistics.numberOfPackedObjects,
+            statistics.sizeOfPackedObjects, statistics.numberOfLooseObjects, statistics.sizeOfLooseObjects,
+            statistics.numberOfBitmaps);
+    }
+
+    private synchronized void start()
+    {
+        // The thread is only started when the first repository is tracked.
+        if (this.scheduler == null) {
+            this.scheduler = Executors.newSingleThreadScheduledExecutor(new BasicThreadFactory.Builder()
+                .namingPattern("XWiki Git maintenance thread").daemon(true).priority(Thread.MIN_PRIORITY).build());
+            if (this.interval > 0) {
+                this.scheduler.scheduleWithFixedDelay(this::maintainAll, this.interval, this.interval,
+                    TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    private void queue(File gitDirectory, boolean force)
+    {
+        start();
+        if (this.pending.add(gitDirectory)) {
+            this.scheduler.execute(() -> maintain(gitDirectory, force));
+        }
+    }
+
+    private void maintain(File gitDirectory, boolean force)
+    {
+        try (Repository repository = new FileRepositoryBuilder().setGitDir(gitDirectory).readEnvironment().build()) {
+            // The repository may have been deleted since it was tracked.
+            if (repository.getObjectDatabase().exists()) {
+                this.gitManager.maintain(repository, force);
+            } else {
+                this.repositories.remove(gitDirectory);
+            }
+        } catch (Exception e) {
+            this.logger.warn("Failed to maintain the Git repository [{}]. Root cause: [{}]", gitDirectory,
+                ExceptionUtils.getRootCauseMessage(e));
+        } finally {
+            this.pending.remove(gitDirectory);
+        }
+    }
+}
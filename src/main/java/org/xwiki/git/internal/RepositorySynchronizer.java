@@ -0,0 +1,338 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.git.internal;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.eclipse.jgit.lib.ProgressMonitor;
+import org.eclipse.jgit.transport.URIish;
+import org.slf4j.Logger;
+import org.xwiki.git.SyncRequest;
+import org.xwiki.git.SyncResult;
+
+/**
+ * Clones or updates many repositories at once. At most a given number of repositories are synchronized at the same
+ * time, and at most a given number of them from the same host so that a fleet of repositories hosted on the same
+ * server doesn't look like an attack. A repository whose synchronization fails is retried later, after a delay
+ * doubling with each attempt, while the other repositories are synchronized. The waiting repositories are started
+ * in order, skipping those whose host is busy, and the slots are shared by all the synchronizations running at the
+ * same time.
+ *
+ * @version $Id$
+ * @since 9.11
+ */
+public class RepositorySynchronizer
+{
+    private static final String TASK = "Synchronizing repositories";
+
+    private static final long KEEP_ALIVE = 60L;
+
+    /**
+     * The retry delay stops doubling after this number of attempts.
+     */
+    private static final int MAX_BACKOFF_SHIFT = 6;
+
+    private final Function<SyncRequest, SyncResult> worker;
+
+    private final int threads;
+
+    private final int hostThreads;
+
+    private final int attempts;
+
+    private final long retryDelay;
+
+    private final Logger logger;
+
+    /**
+     * The synchronizations waiting for a free slot, guarded by {@code this}.
+     */
+    private final Deque<Job> waiting = new ArrayDeque<>();
+
+    /**
+     * The number of running synchronizations per host, guarded by {@code this}.
+     */
+    private final Map<String, Integer> runningPerHost = new HashMap<>();
+
+    /**
+     * The synchronizations not completed yet, running, waiting or about to be retried.
+     */
+    private final Set<Job> pending = ConcurrentHashMap.newKeySet();
+
+    private int running;
+
+    private ScheduledThreadPoolExecutor executor;
+
+    private boolean disposed;
+
+    /**
+     * The synchronization of a repository, over all its attempts.
+     */
+    private static final class Job
+    {
+        private final SyncRequest request;
+
+        private final String host;
+
+        private final ProgressMonitor monitor;
+
+        private final CompletableFuture<SyncResult> result = new CompletableFuture<>();
+
+        private int attempts;
+
+        private long start;
+
+        private Job(SyncRequest request, String host, ProgressMonitor monitor)
+        {
+            this.request = request;
+            this.host = host;
+            this.monitor = monitor;
+        }
+    }
+
+    /**
+     * @param worker clones or updates a repository, throwing an exception when it fails; the number of attempts and
+     *        the duration of the returned result are ignored
+     * @param threads the maximum number of repositories synchronized at the same time
+     * @param hostThreads the maximum number of repositories from the same host synchronized at the same time, 0 for
+     *        no other limit than the number of threads
+     * @param attempts the maximum number of attempts made to synchronize a repository
+     * @param retryDelay the number of milliseconds to wait before the second attempt, doubled for each next attempt
+     * @param logger the logger to report failures to
+     */
+    public RepositorySynchronizer(Function<SyncRequest, SyncResult> worker, int threads, int hostThreads,
+        int attempts, long retryDelay, Logger logger)
+    {
+        this.worker = worker;
+        this.threads = Math.max(1, threads);
+        this.hostThreads = hostThreads;
+        this.attempts = Math.max(1, attempts);
+        this.retryDelay = Math.max(0, retryDelay);
+        this.logger = logger;
+    }
+
+    /**
+     * Synchronize the passed repositories and wait for all of them to be synchronized.
+     *
+     * @param requests the repositories to synchronize
+     * @param monitor notified each time a repository is synchronized; the repositories not started yet are
+     *        cancelled when it's cancelled
+     * @return the outcome of the synchronization of each repository, in the order of the requests
+     */
+    public List<SyncResult> synchronize(List<SyncRequest> requests, ProgressMonitor monitor)
+    {
+        monitor.beginTask(TASK, requests.size());
+        List<Job> jobs = new ArrayList<>(requests.size());
+        for (SyncRequest request : requests) {
+            jobs.add(new Job(request, getHost(request.getRepositoryURI()), monitor));
+        }
+        this.pending.addAll(jobs);
+        synchronized (this) {
+            this.waiting.addAll(jobs);
+        }
+        schedule();
+
+        List<SyncResult> results = new ArrayList<>(jobs.size());
+        try {
+            for (Job job : jobs) {
+                results.add(job.result.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            cancel(jobs);
+            throw new RuntimeException("Interrupted while synchronizing Git repositories", e);
+        } catch (ExecutionException e) {
+            // Jobs are always completed normally.
+            throw new RuntimeException(e.getCause());
+        }
+        monitor.endTask();
+
+        return results;
+    }
+
+    /**
+     * Stop the threads and cancel the synchronizations that haven't started yet.
+     */
+    public void dispose()
+    {
+        synchronized (this) {
+            this.disposed = true;
+            if (this.executor != null) {
+                this.executor.shutdownNow();
+            }
+        }
+        // Don't let the callers wait for synchronizations that will never happen.
+        cancel(new ArrayList<>(this.pending));
+    }
+
+    /**
+     * Start as many waiting synchronizations as the limits allow.
+     */
+    private synchronized void schedule()
+    {
+        if (this.disposed) {
+            return;
+        }
+        Iterator<Job> iterator = this.waiting.iterator();
+        while (this.running < this.threads && iterator.hasNext()) {
+            Job job = iterator.next();
+            int hostRunning = this.runningPerHost.getOrDefault(job.host, 0);
+            if (this.hostThreads <= 0 || hostRunning < this.hostThreads) {
+                iterator.remove();
+                this.running++;
+                this.runningPerHost.put(job.host, hostRunning + 1);
+                getExecutor().execute(() -> run(job));
+            }
+        }
+    }
+
+    private ScheduledThreadPoolExecutor getExecutor()
+    {
+        // Threads are only started when the first synchronization is requested, and stopped once idle.
+        if (this.executor == null) {
+            this.executor = new ScheduledThreadPoolExecutor(this.threads, new BasicThreadFactory.Builder()
+                .namingPattern("XWiki Git synchronization thread %d").daemon(true).build());
+            this.executor.setKeepAliveTime(KEEP_ALIVE, TimeUnit.SECONDS);
+            this.executor.allowCoreThreadTimeOut(true);
+        }
+        return this.executor;
+    }
+
+    private void run(Job job)
+    {
+        try {
+            attempt(job);
+        } finally {
+            synchronized (this) {
+                this.running--;
+                this.runningPerHost.merge(job.host, -1, Integer::sum);
+                this.runningPerHost.remove(job.host, 0);
+            }
+            schedule();
+        }
+    }
+
+    private void attempt(Job job)
+    {
+        if (job.monitor.isCancelled()) {
+            complete(job, SyncResult.Status.CANCELLED, null, null);
+            return;
+        }
+
+        if (job.attempts++ == 0) {
+            job.start = System.nanoTime();
+        }
+        try {
+            SyncResult result = this.worker.apply(job.request);
+            complete(job, result.getStatus(), result, null);
+        } catch (Exception e) {
+            String error = ExceptionUtils.getRootCauseMessage(e);
+            if (job.attempts < this.attempts) {
+                long delay = getRetryDelay(job.attempts);
+                this.logger.debug("Failed to synchronize [{}], retrying in [{}] ms. Root cause: [{}]",
+                    job.request.getRepositoryURI(), delay, error);
+                retry(job, delay);
+            } else {
+                this.logger.warn("Failed to synchronize [{}] after [{}] attempts. Root cause: [{}]",
+                    job.request.getRepositoryURI(), job.attempts, error);
+                complete(job, SyncResult.Status.FAILED, null, error);
+            }
+        }
+    }
+
+    /**
+     * @return the delay before the next attempt, with some jitter so that the repositories of a host which was
+     *         unavailable for a while are not all retried at the same time
+     */
+    private long getRetryDelay(int attempt)
+    {
+        long delay = this.retryDelay << Math.min(attempt - 1, MAX_BACKOFF_SHIFT);
+        return delay + (delay > 1 ? ThreadLocalRandom.current().nextLong(delay / 2) : 0);
+    }
+
+    private void retry(Job job, long delay)
+    {
+        try {
+            // The job waits without using a slot, and goes back at the end of the queue.
+            synchronized (this) {
+                getExecutor().schedule(() -> {
+                    synchronized (this) {
+                        this.waiting.addLast(job);
+                    }
+                    schedule();
+                }, delay, TimeUnit.MILLISECONDS);
+            }
+        } catch (RejectedExecutionException e) {
+            // Disposed in the meantime.
+            complete(job, SyncResult.Status.CANCELLED, null, null);
+        }
+    }
+
+    private void complete(Job job, SyncResult.Status status, SyncResult result, String error)
+    {
+        long duration = job.attempts > 0 ? TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - job.start) : 0;
+        if (job.result.complete(new SyncResult(job.request, status, result != null ? result.getRepository() : null,
+            job.attempts, duration, error))) {
+            this.pending.remove(job);
+            job.monitor.update(1);
+        }
+    }
+
+    private void cancel(List<Job> jobs)
+    {
+        synchronized (this) {
+            this.waiting.removeAll(jobs);
+        }
+        for (Job job : jobs) {
+            complete(job, SyncResult.Status.CANCELLED, null, null);
+        }
+    }
+
+    /**
+     * @return the host the repository is cloned from, the empty string for local repositories
+     */
+    private String getHost(String repositoryURI)
+    {
+        try {
+            return StringUtils.defaultString(new URIish(repositoryURI).getHost());
+        } catch (Exception e) {
+            // Let the clone report the invalid URI.
+            return StringUtils.EMPTY;
+        }
+    }
+}
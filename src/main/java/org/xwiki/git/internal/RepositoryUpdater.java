@@ -0,0 +1,210 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.git.internal;
+
+import java.io.File;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.transport.CredentialsProvider;
+import org.slf4j.Logger;
+import org.xwiki.git.GitManager;
+
+/**
+ * Regularly updates registered repositories in the background. A single scheduler thread triggers the updates which
+ * are then executed by a bounded pool of threads, so that a large number of registered repositories doesn't open a
+ * large number of network connections at the same time. A repository is never queued twice: if its previous update
+ * is still running or waiting when the next one is due, the next one is skipped.
+ *
+ * @version $Id$
+ * @since 9.11
+ */
+public class RepositoryUpdater
+{
+    private final GitManager gitManager;
+
+    private final long interval;
+
+    private final int threads;
+
+    private final Logger logger;
+
+    private final Map<File, Registration> registrations = new ConcurrentHashMap<>();
+
+    private final Set<File> pending = ConcurrentHashMap.newKeySet();
+
+    private ScheduledExecutorService scheduler;
+
+    private ExecutorService workers;
+
+    /**
+     * A registered repository along with the credentials needed to update it.
+     */
+    private static final class Registration
+    {
+        private final Repository repository;
+
+        private final CredentialsProvider credentialsProvider;
+
+        Registration(Repository repository, CredentialsProvider credentialsProvider)
+        {
+            this.repository = repository;
+            this.credentialsProvider = credentialsProvider;
+        }
+    }
+
+    /**
+     * @param gitManager used to update the repositories
+     * @param interval the number of milliseconds between two updates of a repository, 0 to disable updates
+     * @param threads the maximum number of repositories updated at the same time
+     * @param logger the logger to report update failures to
+     */
+    public RepositoryUpdater(GitManager gitManager, long interval, int threads, Logger logger)
+    {
+        this.gitManager = gitManager;
+        this.interval = interval;
+        this.threads = Math.max(1, threads);
+        this.logger = logger;
+    }
+
+    /**
+     * Register a repository to be updated regularly. The updater keeps its own reference on the repository until it's
+     * unregistered.
+     *
+     * @param repository the repository to update
+     * @param credentialsProvider the credentials used to authenticate with the remote repository, can be {@code null}
+     */
+    public void register(Repository repository, CredentialsProvider credentialsProvider)
+    {
+        if (this.interval <= 0) {
+            this.logger.warn("Background updates are disabled, [{}] won't be updated", repository.getDirectory());
+            return;
+        } else if (repository.getDirectory() == null) {
+            this.logger.warn("In-memory repositories can't be updated in the background");
+            return;
+        }
+
+        repository.incrementOpen();
+        Registration previous = this.registrations.put(getKey(repository),
+            new Registration(repository, credentialsProvider));
+        if (previous != null) {
+            previous.repository.close();
+        }
+
+        start();
+    }
+
+    /**
+     * @param repository the repository to stop updating
+     * @return {@code true} if the repository was registered
+     */
+    public boolean unregister(Repository repository)
+    {
+        if (repository.getDirectory() == null) {
+            return false;
+        }
+        Registration registration = this.registrations.remove(getKey(repository));
+        if (registration != null) {
+            registration.repository.close();
+        }
+        return registration != null;
+    }
+
+    /**
+     * @param gitDirectory the Git directory of a repository
+     * @return {@code true} if the repository is registered to be updated regularly
+     */
+    public boolean isRegistered(File gitDirectory)
+    {
+        return this.registrations.containsKey(gitDirectory.getAbsoluteFile());
+    }
+
+    /**
+     * Queue an update of all registered repositories that are not already waiting for one.
+     */
+    public void updateAll()
+    {
+        for (Map.Entry<File, Registration> entry : this.registrations.entrySet()) {
+            File key = entry.getKey();
+            Registration registration = entry.getValue();
+            if (this.pending.add(key)) {
+                this.workers.execute(() -> update(key, registration));
+            }
+        }
+    }
+
+    /**
+     * Stop the background threads and release the registered repositories.
+     */
+    public synchronized void dispose()
+    {
+        if (this.scheduler != null) {
+            this.scheduler.shutdownNow();
+            this.workers.shutdownNow();
+        }
+        for (File key : this.registrations.keySet()) {
+            Registration registration = this.registrations.remove(key);
+            if (registration != null) {
+                registration.repository.close();
+            }
+        }
+    }
+
+    private synchronized void start()
+    {
+        // Threads are only started when the first repository is registered.
+        if (this.scheduler == null) {
+            this.workers = Executors.newFixedThreadPool(this.threads, new BasicThreadFactory.Builder()
+                .namingPattern("XWiki Git update thread %d").daemon(true).priority(Thread.MIN_PRIORITY).build());
+            this.scheduler = Executors.newSingleThreadScheduledExecutor(new BasicThreadFactory.Builder()
+                .namingPattern("XWiki Git update scheduler").daemon(true).build());
+            this.scheduler.scheduleWithFixedDelay(this::updateAll, this.interval, this.interval,
+                TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void update(File key, Registration registration)
+    {
+        try {
+            // The repository may have been unregistered while waiting.
+            if (this.registrations.get(key) == registration) {
+                this.gitManager.update(registration.repository, registration.credentialsProvider);
+            }
+        } catch (Exception e) {
+            this.logger.warn("Failed to update the Git repository [{}]. Root cause: [{}]", key,
+                ExceptionUtils.getRootCauseMessage(e));
+        } finally {
+            this.pending.remove(key);
+        }
+    }
+
+    private File getKey(Repository repository)
+    {
+        return repository.getDirectory().getAbsoluteFile();
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.git.internal;
+
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A fixed set of locks shared by hashing keys, so that operations on the same key are serialized while operations on
+ * different keys can, most of the time, run in parallel, without keeping one lock per key around forever.
+ *
+ * @version $Id$
+ * @since 9.11
+ */
+public class StripedLock
+{
+    private final Lock[] locks;
+
+    /**
+     * @param stripes the number of locks to share between keys
+     */
+    public StripedLock(int stripes)
+    {
+        this.locks = new Lock[stripes];
+        for (int i = 0; i < stripes; i++) {
+            this.locks[i] = new ReentrantLock();
+        }
+    }
+
+    /**
+     * @param key the key to lock
+     * @return the lock guarding the passed key
+     */
+    public Lock get(Object key)
+    {
+        // Spread the hash bits since file paths with a common prefix tend to have close hash codes.
+        int hash = key.hashCode();
+        hash ^= hash >>> 16;
+        return this.locks[(hash & Integer.MAX_VALUE) % this.locks.length];
+    }
+}
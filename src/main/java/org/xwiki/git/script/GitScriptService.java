@@ -21,8 +21,13 @@ package org.xwiki.git.script;
 
 import java.util.Arrays;
 import java.util.Date;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Locale;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 import javax.inject.Inject;
 import javax.inject.Named;
@@ -32,16 +37,40 @@ import org.eclipse.jgit.api.CloneCommand;
 import org.eclipse.jgit.api.Git;
 import org.eclipse.jgit.lib.PersonIdent;
 import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.transport.FetchResult;
+import org.eclipse.jgit.transport.UsernamePasswordCredentialsProvider;
 import org.gitective.core.stat.UserCommitActivity;
 import org.joda.time.DateTime;
+import org.slf4j.Logger;
 import org.xwiki.component.annotation.Component;
+import org.xwiki.git.ActivityPeriod;
+import org.xwiki.git.ActivitySeries;
+import org.xwiki.git.AuthorChurn;
+import org.xwiki.git.AuthorCommitCount;
+import org.xwiki.git.CloneMode;
+import org.xwiki.git.CommitPage;
+import org.xwiki.git.CommitSummary;
+import org.xwiki.git.DirectoryContributions;
+import org.xwiki.git.FileBlame;
 import org.xwiki.git.GitManager;
+import org.xwiki.git.GitStatistics;
+import org.xwiki.git.GitTask;
+import org.xwiki.git.MaintenanceReport;
+import org.xwiki.git.QueryBudget;
+import org.xwiki.git.QueryResult;
+import org.xwiki.git.SyncRequest;
+import org.xwiki.git.SyncResult;
+import org.xwiki.git.internal.GitConfiguration;
 import org.xwiki.script.service.ScriptService;
 import org.xwiki.stability.Unstable;
 
 /**
  * Various APIs to make it easy to perform Git commands from within scripts.
  * <p>
+ * The date from which the author and churn queries count commits is rounded down to the query cache granularity, one
+ * minute by default (see {@link GitManager}), so that the same query made a few seconds later is served from the
+ * cache.
+ * <p>
  * Example usage from Velocity:
  * <pre><code>
  *   {{velocity}}
@@ -68,6 +97,14 @@ public class GitScriptService implements ScriptService
     @Inject
     private GitManager gitManager;
 
+    @Inject
+    private GitConfiguration configuration;
+
+    @Inject
+    private Logger logger;
+
+    private final ThreadLocal<Boolean> lastQueryTruncated = ThreadLocal.withInitial(() -> Boolean.FALSE);
+
     /**
      * Clone a Git repository by storing it locally in the XWiki Permanent directory. If the repository is already
      * cloned, no action is done.
@@ -118,6 +155,47 @@ public class GitScriptService implements ScriptService
         return this.gitManager.getRepository(repositoryURI, localDirectoryName, cloneCommand);
     }
 
+    /**
+     * Clone a Git repository in the given mode and store it locally in the XWiki Permanent directory. If the
+     * repository is already cloned, no action is done.
+     *
+     * @param repositoryURI the URI to the Git repository to clone (eg "git://github.com/xwiki/xwiki-commons.git")
+     * @param localDirectoryName the name of the directory where the Git repository will be cloned (this directory is
+     *        relative to the permanent directory
+     * @param mode the clone mode, one of "checkout", "no_checkout", "bare" or "memory" (see {@link CloneMode})
+     * @return the cloned Repository instance
+     * @since 9.11
+     */
+    @Unstable
+    public Repository getRepository(String repositoryURI, String localDirectoryName, String mode)
+    {
+        return getRepository(repositoryURI, localDirectoryName, mode, null, null, null);
+    }
+
+    /**
+     * Clone a Git repository in the given mode, optionally fetching a single branch and using the credentials provided
+     * by user, and store it locally in the XWiki Permanent directory. If the repository is already cloned, no action
+     * is done.
+     *
+     * @param repositoryURI the URI to the Git repository to clone (eg "git://github.com/xwiki/xwiki-commons.git")
+     * @param localDirectoryName the name of the directory where the Git repository will be cloned (this directory is
+     *        relative to the permanent directory
+     * @param mode the clone mode, one of "checkout", "no_checkout", "bare" or "memory" (see {@link CloneMode})
+     * @param branch the only branch to clone and later update, or {@code null} to clone all branches
+     * @param username the username of the Git user, or {@code null} for anonymous access
+     * @param accessCode the password or OAuth or personal access token that authenticates with the Git user
+     * @return the cloned Repository instance
+     * @since 9.11
+     */
+    @Unstable
+    public Repository getRepository(String repositoryURI, String localDirectoryName, String mode, String branch,
+        String username, String accessCode)
+    {
+        CloneMode cloneMode = mode != null ? CloneMode.valueOf(mode.toUpperCase(Locale.ROOT)) : null;
+        return this.gitManager.getRepository(repositoryURI, localDirectoryName, cloneMode, branch,
+            username != null ? new UsernamePasswordCredentialsProvider(username, accessCode) : null);
+    }
+
     /**
      * Create a CloneCommand object for custom clone options.
      *
@@ -130,24 +208,231 @@ public class GitScriptService implements ScriptService
         return Git.cloneRepository();
     }
 
+    /**
+     * Fetch the new commits and refs from the remote repository the passed repository was cloned from.
+     *
+     * @param repository the repository to fetch into
+     * @return the result of the fetch
+     * @since 9.11
+     */
+    @Unstable
+    public FetchResult fetch(Repository repository)
+    {
+        return this.gitManager.fetch(repository, null);
+    }
+
+    /**
+     * Fetch the new commits and refs from the protected remote repository the passed repository was cloned from.
+     *
+     * @param repository the repository to fetch into
+     * @param username the username of the Git user
+     * @param accessCode the password or OAuth or personal access token that authenticates with the Git user
+     * @return the result of the fetch
+     * @since 9.11
+     */
+    @Unstable
+    public FetchResult fetch(Repository repository, String username, String accessCode)
+    {
+        return this.gitManager.fetch(repository, new UsernamePasswordCredentialsProvider(username, accessCode));
+    }
+
+    /**
+     * Fetch the remote repository the passed repository was cloned from and fast-forward the current branch.
+     *
+     * @param repository the repository to update
+     * @return {@code true} if new commits or refs have been retrieved, {@code false} if the repository was up to date
+     * @since 9.11
+     */
+    @Unstable
+    public boolean update(Repository repository)
+    {
+        return this.gitManager.update(repository, null);
+    }
+
+    /**
+     * Fetch the protected remote repository the passed repository was cloned from and fast-forward the current branch.
+     *
+     * @param repository the repository to update
+     * @param username the username of the Git user
+     * @param accessCode the password or OAuth or personal access token that authenticates with the Git user
+     * @return {@code true} if new commits or refs have been retrieved, {@code false} if the repository was up to date
+     * @since 9.11
+     */
+    @Unstable
+    public boolean update(Repository repository, String username, String accessCode)
+    {
+        return this.gitManager.update(repository, new UsernamePasswordCredentialsProvider(username, accessCode));
+    }
+
+    /**
+     * Register a repository to be updated regularly in the background, so that pages reading it don't have to wait
+     * for the network.
+     *
+     * @param repository the repository to update regularly
+     * @since 9.11
+     */
+    @Unstable
+    public void scheduleUpdate(Repository repository)
+    {
+        this.gitManager.scheduleUpdate(repository, null);
+    }
+
+    /**
+     * Register a protected repository to be updated regularly in the background, so that pages reading it don't have
+     * to wait for the network.
+     *
+     * @param repository the repository to update regularly
+     * @param username the username of the Git user
+     * @param accessCode the password or OAuth or personal access token that authenticates with the Git user
+     * @since 9.11
+     */
+    @Unstable
+    public void scheduleUpdate(Repository repository, String username, String accessCode)
+    {
+        this.gitManager.scheduleUpdate(repository, new UsernamePasswordCredentialsProvider(username, accessCode));
+    }
+
+    /**
+     * Stop updating a repository in the background.
+     *
+     * @param repository the repository to stop updating
+     * @return {@code true} if the repository was registered for background updates
+     * @since 9.11
+     */
+    @Unstable
+    public boolean cancelScheduledUpdate(Repository repository)
+    {
+        return this.gitManager.cancelScheduledUpdate(repository);
+    }
+
+    /**
+     * Repack a repository now, even if it doesn't have many loose objects or packs yet, waiting for running clones or
+     * fetches of the repository to finish.
+     *
+     * @param repository the repository to repack
+     * @return the pack statistics of the repository before and after it was repacked
+     * @since 9.11
+     */
+    @Unstable
+    public MaintenanceReport maintain(Repository repository)
+    {
+        return this.gitManager.maintain(repository, true);
+    }
+
+    /**
+     * List the commits reachable from {@code HEAD}, most recent first. Skipped commits are walked again on every call,
+     * so use {@link #getCommitPage(Repository, String, int)} to page through long histories.
+     *
+     * @param repository the repository in which to list commits
+     * @param offset the number of commits to skip
+     * @param limit the maximum number of commits to return, 0 for no limit
+     * @return the commits, walked lazily while iterating
+     * @since 9.11
+     */
+    @Unstable
+    public Iterator<CommitSummary> getCommits(Repository repository, int offset, int limit)
+    {
+        return this.gitManager.getCommits(repository, null, offset, limit);
+    }
+
+    /**
+     * List the commits reachable from the passed revision, most recent first. Skipped commits are walked again on
+     * every call, so use {@link #getCommitPage(Repository, String, String, int)} to page through long histories.
+     *
+     * @param repository the repository in which to list commits
+     * @param start the revision from which to start listing commits (e.g. a commit id or branch name)
+     * @param offset the number of commits to skip
+     * @param limit the maximum number of commits to return, 0 for no limit
+     * @return the commits, walked lazily while iterating
+     * @since 9.11
+     */
+    @Unstable
+    public Iterator<CommitSummary> getCommits(Repository repository, String start, int offset, int limit)
+    {
+        return this.gitManager.getCommits(repository, start, offset, limit);
+    }
+
+    /**
+     * List the commits reachable from {@code HEAD}, most recent first, one page at a time.
+     * <p>
+     * Example usage from Velocity:
+     * <pre><code>
+     *   #set ($page = $services.git.getCommitPage($repository, $request.cursor, 50))
+     *   #foreach ($commit in $page.commits)
+     *     * $commit.shortMessage
+     *   #end
+     *   #if ($page.nextCursor)
+     *     [[Next&gt;&gt;||queryString="cursor=$escapetool.url($page.nextCursor)"]]
+     *   #end
+     * </code></pre>
+     *
+     * @param repository the repository in which to list commits
+     * @param cursor the cursor of the previous page, {@code null} for the first page
+     * @param limit the maximum number of commits in the page, 0 for no limit
+     * @return the page of commits, with the cursor of the next page
+     * @since 9.11
+     */
+    @Unstable
+    public CommitPage getCommitPage(Repository repository, String cursor, int limit)
+    {
+        return this.gitManager.getCommitPage(repository, null, cursor, limit);
+    }
+
+    /**
+     * List the commits reachable from the passed revision, most recent first, one page at a time.
+     *
+     * @param repository the repository in which to list commits
+     * @param start the revision from which to start listing commits (e.g. a commit id or branch name), ignored when a
+     *        cursor is passed
+     * @param cursor the cursor of the previous page, {@code null} for the first page
+     * @param limit the maximum number of commits in the page, 0 for no limit
+     * @return the page of commits, with the cursor of the next page
+     * @since 9.11
+     */
+    @Unstable
+    public CommitPage getCommitPage(Repository repository, String start, String cursor, int limit)
+    {
+        return this.gitManager.getCommitPage(repository, start, cursor, limit);
+    }
+
     /**
      * Find all authors who have ever committed code in the passed repository.
      *
      * @param repositories the list of repositories in which to look for authors
-     * @return the list of authors who have ever contributed code in the passed repository
+     * @return the list of authors who have ever contributed code in the passed repository, partial if the configured
+     *         query limits were reached (see {@link #isLastQueryTruncated()})
      * @since 5.3M2
      */
     public Set<PersonIdent> findAuthors(Repository... repositories)
     {
-        return this.gitManager.findAuthors(Arrays.asList(repositories));
+        List<Repository> repositoryList = Arrays.asList(repositories);
+        return withDefaultBudget(budget -> this.gitManager.findAuthors(repositoryList, budget),
+            () -> this.gitManager.findAuthors(repositoryList));
+    }
+
+    /**
+     * Find the authors who have committed code in the passed repositories, within the passed budget.
+     *
+     * @param repositories the list of repositories in which to look for authors
+     * @param budget limits the work done by the query (see {@link #createQueryBudget(long, long)}), {@code null} to
+     *        use the configured limits
+     * @return the authors found, flagged as truncated if the budget was exhausted before all commits were visited
+     * @since 9.11
+     */
+    @Unstable
+    public QueryResult<Set<PersonIdent>> findAuthors(List<Repository> repositories, QueryBudget budget)
+    {
+        return this.gitManager.findAuthors(repositories, budget != null ? budget : createQueryBudget());
     }
 
     /**
      * Count commits done by all authors in the passed repositories and since the passed date.
      *
-     * @param sinceDays the number of days to look back in the past or look from the beginning if set to 0
+     * @param sinceDays the number of days to look back in the past, rounded down to the query cache granularity,
+     *        or look from the beginning if set to 0
      * @param repositories the list of repositories in which to look for commits
-     * @return the author commit activity
+     * @return the author commit activity, partial if the configured query limits were reached (see
+     *         {@link #isLastQueryTruncated()})
      * @since 5.3M2
      */
     public UserCommitActivity[] countAuthorCommits(int sinceDays, Repository... repositories)
@@ -158,12 +443,584 @@ public class GitScriptService implements ScriptService
     /**
      * Count commits done by all authors in the passed repositories and since the passed date.
      *
-     * @param sinceDays the number of days to look back in the past or look from the beginning if set to 0
+     * @param sinceDays the number of days to look back in the past, rounded down to the query cache granularity,
+     *        or look from the beginning if set to 0
      * @param repositories the list of repositories in which to look for commits
-     * @return the author commit activity
+     * @return the author commit activity, partial if the configured query limits were reached (see
+     *         {@link #isLastQueryTruncated()})
      * @since 5.3M2
      */
     public UserCommitActivity[] countAuthorCommits(int sinceDays, List<Repository> repositories)
+    {
+        Date since = getSinceDate(sinceDays);
+        return withDefaultBudget(budget -> this.gitManager.countAuthorCommits(since, repositories, false, budget),
+            () -> this.gitManager.countAuthorCommits(since, repositories));
+    }
+
+    /**
+     * Count commits done by all authors in the passed repositories and since the passed date, using much less memory
+     * than {@link #countAuthorCommits(int, Repository...)} since the ids and dates of the commits are not kept.
+     *
+     * @param sinceDays the number of days to look back in the past, rounded down to the query cache granularity,
+     *        or look from the beginning if set to 0
+     * @param repositories the list of repositories in which to look for commits
+     * @return the number of commits of each author, sorted by descending number of commits, partial if the configured
+     *         query limits were reached (see {@link #isLastQueryTruncated()})
+     * @since 9.11
+     */
+    @Unstable
+    public AuthorCommitCount[] getAuthorCommitCounts(int sinceDays, Repository... repositories)
+    {
+        return getAuthorCommitCounts(sinceDays, Arrays.asList(repositories));
+    }
+
+    /**
+     * Count commits done by all authors in the passed repositories and since the passed date, using much less memory
+     * than {@link #countAuthorCommits(int, List)} since the ids and dates of the commits are not kept.
+     *
+     * @param sinceDays the number of days to look back in the past, rounded down to the query cache granularity,
+     *        or look from the beginning if set to 0
+     * @param repositories the list of repositories in which to look for commits
+     * @return the number of commits of each author, sorted by descending number of commits, partial if the configured
+     *         query limits were reached (see {@link #isLastQueryTruncated()})
+     * @since 9.11
+     */
+    @Unstable
+    public AuthorCommitCount[] getAuthorCommitCounts(int sinceDays, List<Repository> repositories)
+    {
+        Date since = getSinceDate(sinceDays);
+        return withDefaultBudget(budget -> this.gitManager.getAuthorCommitCounts(since, repositories, false, budget),
+            () -> this.gitManager.getAuthorCommitCounts(since, repositories));
+    }
+
+    /**
+     * Count commits done by all authors in the passed repositories and since the passed date, optionally counting the
+     * commits shared by several repositories (forks, mirrors) only once.
+     *
+     * @param sinceDays the number of days to look back in the past, rounded down to the query cache granularity,
+     *        or look from the beginning if set to 0
+     * @param repositories the list of repositories in which to look for commits
+     * @param deduplicate {@code true} to count each commit only once, in the first repository containing it
+     * @return the author commit activity, partial if the configured query limits were reached (see
+     *         {@link #isLastQueryTruncated()})
+     * @since 9.11
+     */
+    @Unstable
+    public UserCommitActivity[] countAuthorCommits(int sinceDays, List<Repository> repositories, boolean deduplicate)
+    {
+        Date since = getSinceDate(sinceDays);
+        return withDefaultBudget(
+            budget -> this.gitManager.countAuthorCommits(since, repositories, deduplicate, budget),
+            () -> this.gitManager.countAuthorCommits(since, repositories, deduplicate));
+    }
+
+    /**
+     * Count commits done by all authors in the passed repositories and since the passed date, within the passed
+     * budget. The most recent commits are visited first so a truncated result covers the most recent history.
+     * <p>
+     * Example usage from Velocity:
+     * <pre><code>
+     *   #set ($result = $services.git.countAuthorCommits(30, $repositories, false,
+     *     $services.git.createQueryBudget(100000, 10)))
+     *   #if ($result.truncated)
+     *     {{warning}}Only the $result.visitedCommitCount most recent commits have been counted.{{/warning}}
+     *   #end
+     * </code></pre>
+     *
+     * @param sinceDays the number of days to look back in the past, rounded down to the query cache granularity,
+     *        or look from the beginning if set to 0
+     * @param repositories the list of repositories in which to look for commits
+     * @param deduplicate {@code true} to count each commit only once, in the first repository containing it
+     * @param budget limits the work done by the query (see {@link #createQueryBudget(long, long)}), {@code null} to
+     *        use the configured limits
+     * @return the author commit activity, flagged as truncated if the budget was exhausted
+     * @since 9.11
+     */
+    @Unstable
+    public QueryResult<UserCommitActivity[]> countAuthorCommits(int sinceDays, List<Repository> repositories,
+        boolean deduplicate, QueryBudget budget)
+    {
+        return this.gitManager.countAuthorCommits(getSinceDate(sinceDays), repositories, deduplicate,
+            budget != null ? budget : createQueryBudget());
+    }
+
+    /**
+     * Count commits done by all authors in the passed repositories and since the passed date, without keeping the ids
+     * and dates of the commits, optionally counting the commits shared by several repositories (forks, mirrors) only
+     * once.
+     *
+     * @param sinceDays the number of days to look back in the past, rounded down to the query cache granularity,
+     *        or look from the beginning if set to 0
+     * @param repositories the list of repositories in which to look for commits
+     * @param deduplicate {@code true} to count each commit only once, in the first repository containing it
+     * @return the number of commits of each author, sorted by descending number of commits, partial if the configured
+     *         query limits were reached (see {@link #isLastQueryTruncated()})
+     * @since 9.11
+     */
+    @Unstable
+    public AuthorCommitCount[] getAuthorCommitCounts(int sinceDays, List<Repository> repositories,
+        boolean deduplicate)
+    {
+        Date since = getSinceDate(sinceDays);
+        return withDefaultBudget(
+            budget -> this.gitManager.getAuthorCommitCounts(since, repositories, deduplicate, budget),
+            () -> this.gitManager.getAuthorCommitCounts(since, repositories, deduplicate));
+    }
+
+    /**
+     * Count commits done by all authors in the passed repositories and since the passed date, without keeping the ids
+     * and dates of the commits, within the passed budget. The most recent commits are visited first so a truncated
+     * result covers the most recent history.
+     *
+     * @param sinceDays the number of days to look back in the past, rounded down to the query cache granularity,
+     *        or look from the beginning if set to 0
+     * @param repositories the list of repositories in which to look for commits
+     * @param deduplicate {@code true} to count each commit only once, in the first repository containing it
+     * @param budget limits the work done by the query (see {@link #createQueryBudget(long, long)}), {@code null} to
+     *        use the configured limits
+     * @return the number of commits of each author, flagged as truncated if the budget was exhausted
+     * @since 9.11
+     */
+    @Unstable
+    public QueryResult<AuthorCommitCount[]> getAuthorCommitCounts(int sinceDays, List<Repository> repositories,
+        boolean deduplicate, QueryBudget budget)
+    {
+        return this.gitManager.getAuthorCommitCounts(getSinceDate(sinceDays), repositories, deduplicate,
+            budget != null ? budget : createQueryBudget());
+    }
+
+    /**
+     * Tell whether the result of the last query made by the current request with one of the methods that don't take a
+     * budget, such as {@link #countAuthorCommits(int, List)}, is partial because the limits configured with
+     * {@code git.query.maxCommits} and {@code git.query.timeout} were reached. Background queries tell it with
+     * {@link GitTask#isTruncated()} instead.
+     * <p>
+     * Example usage from Velocity:
+     * <pre><code>
+     *   #set ($data = $services.git.countAuthorCommits(30, $repository))
+     *   #if ($services.git.lastQueryTruncated)
+     *     The counts only cover the most recent commits.
+     *   #end
+     * </code></pre>
+     *
+     * @return {@code true} if the last query stopped before visiting all the commits
+     * @since 9.11
+     */
+    @Unstable
+    public boolean isLastQueryTruncated()
+    {
+        return this.lastQueryTruncated.get();
+    }
+
+    /**
+     * Create a budget limiting the work done by a query to the limits configured with {@code git.query.maxCommits}
+     * and {@code git.query.timeout} in {@code xwiki.properties}. These limits also apply to the queries executed
+     * without a budget. The timeout starts now, and the budget can be cancelled with {@code $budget.cancel()}.
+     *
+     * @return a new budget with the configured limits
+     * @since 9.11
+     */
+    @Unstable
+    public QueryBudget createQueryBudget()
+    {
+        return createQueryBudget(0, 0);
+    }
+
+    /**
+     * Create a budget limiting the work done by a query. The configured limits (see {@link #createQueryBudget()})
+     * can't be raised: the lowest of the passed and configured limits is used. The timeout starts now.
+     *
+     * @param maxCommits the maximum number of commits the query can visit, 0 to use the configured limit
+     * @param timeout the maximum number of seconds the query can take, 0 to use the configured limit
+     * @return a new budget
+     * @since 9.11
+     */
+    @Unstable
+    public QueryBudget createQueryBudget(long maxCommits, long timeout)
+    {
+        return new QueryBudget(min(maxCommits, this.configuration.getQueryMaxCommits()),
+            TimeUnit.SECONDS.toMillis(min(timeout, this.configuration.getQueryTimeout())));
+    }
+
+    /**
+     * Count commits done in the passed repositories since the passed date, per day, week or month, per author, per
+     * repository and in total. This walks the history of each repository only once, whatever the number of buckets.
+     *
+     * @param sinceDays the number of days to look back in the past or look from the beginning if set to 0
+     * @param period the length of the buckets: {@code day}, {@code week} or {@code month}
+     * @param repositories the list of repositories in which to look for commits
+     * @return the commit counts over time, partial if the configured query limits were reached (see
+     *         {@link #isLastQueryTruncated()})
+     * @since 9.11
+     */
+    @Unstable
+    public ActivitySeries getActivitySeries(int sinceDays, String period, Repository... repositories)
+    {
+        return getActivitySeries(sinceDays, period, Arrays.asList(repositories));
+    }
+
+    /**
+     * Count commits done in the passed repositories since the passed date, per day, week or month, per author, per
+     * repository and in total. This walks the history of each repository only once, whatever the number of buckets.
+     *
+     * @param sinceDays the number of days to look back in the past or look from the beginning if set to 0
+     * @param period the length of the buckets: {@code day}, {@code week} or {@code month}
+     * @param repositories the list of repositories in which to look for commits
+     * @return the commit counts over time, partial if the configured query limits were reached (see
+     *         {@link #isLastQueryTruncated()})
+     * @since 9.11
+     */
+    @Unstable
+    public ActivitySeries getActivitySeries(int sinceDays, String period, List<Repository> repositories)
+    {
+        Date since = getSinceDate(sinceDays);
+        ActivityPeriod activityPeriod = ActivityPeriod.valueOf(period.toUpperCase(Locale.ROOT));
+        return withDefaultBudget(
+            budget -> this.gitManager.getActivitySeries(since, activityPeriod, repositories, budget),
+            () -> this.gitManager.getActivitySeries(since, activityPeriod, repositories));
+    }
+
+    /**
+     * Find the commit which last modified each line of a file in the current revision of a repository. The blame is
+     * cached, so that rendering the same file again is cheap.
+     *
+     * @param repository the repository containing the file
+     * @param path the path of the file, relative to the root of the repository
+     * @return the blame of the file, {@code null} if the file doesn't exist or if it couldn't be blamed within the
+     *         configured query limits (see {@link #isLastQueryTruncated()})
+     * @since 9.11
+     */
+    @Unstable
+    public FileBlame blame(Repository repository, String path)
+    {
+        return blame(repository, null, path);
+    }
+
+    /**
+     * Find the commit which last modified each line of a file in the passed revision of a repository.
+     *
+     * @param repository the repository containing the file
+     * @param revision the commit, branch or tag in which the file is blamed, {@code null} for the current revision
+     * @param path the path of the file, relative to the root of the repository
+     * @return the blame of the file, {@code null} if the file doesn't exist in the passed revision or if it couldn't be
+     *         blamed within the configured query limits (see {@link #isLastQueryTruncated()})
+     * @since 9.11
+     */
+    @Unstable
+    public FileBlame blame(Repository repository, String revision, String path)
+    {
+        return withDefaultBudget(budget -> this.gitManager.blame(repository, revision, path, budget),
+            () -> this.gitManager.blame(repository, revision, path));
+    }
+
+    /**
+     * Count the lines added and removed by each author in the passed repositories. Binary files, big files and files
+     * moved without modification are not counted.
+     *
+     * @param sinceDays the number of days to look back in the past, rounded down to the query cache granularity,
+     *        or look from the beginning if set to 0
+     * @param repositories the list of repositories in which to look for commits
+     * @return the line counts of each author, sorted by descending number of changed lines, partial if the configured
+     *         query limits were reached (see {@link #isLastQueryTruncated()})
+     * @since 9.11
+     */
+    @Unstable
+    public AuthorChurn[] getAuthorChurn(int sinceDays, Repository... repositories)
+    {
+        return getAuthorChurn(sinceDays, Arrays.asList(repositories));
+    }
+
+    /**
+     * Count the lines added and removed by each author in the passed repositories.
+     *
+     * @param sinceDays the number of days to look back in the past, rounded down to the query cache granularity,
+     *        or look from the beginning if set to 0
+     * @param repositories the list of repositories in which to look for commits
+     * @return the line counts of each author, sorted by descending number of changed lines, partial if the configured
+     *         query limits were reached (see {@link #isLastQueryTruncated()})
+     * @since 9.11
+     */
+    @Unstable
+    public AuthorChurn[] getAuthorChurn(int sinceDays, List<Repository> repositories)
+    {
+        Date since = getSinceDate(sinceDays);
+        return withDefaultBudget(budget -> this.gitManager.getAuthorChurn(since, repositories, budget),
+            () -> this.gitManager.getAuthorChurn(since, repositories));
+    }
+
+    /**
+     * Count the commits of each author in each of the directories right below the passed path. The files moved
+     * without modification are counted like any other change.
+     *
+     * @param sinceDays the number of days to look back in the past, rounded down to the query cache granularity,
+     *        or look from the beginning if set to 0
+     * @param pathPrefix the path of the directory whose subdirectories are counted, empty for the root
+     * @param repositories the list of repositories in which to look for commits
+     * @return the commit counts per author and per directory, partial if the configured query limits were reached (see
+     *         {@link #isLastQueryTruncated()})
+     * @since 9.11
+     */
+    @Unstable
+    public DirectoryContributions getDirectoryContributions(int sinceDays, String pathPrefix,
+        Repository... repositories)
+    {
+        return getDirectoryContributions(sinceDays, pathPrefix, false, Arrays.asList(repositories));
+    }
+
+    /**
+     * Count the commits of each author in each of the directories right below the passed path.
+     *
+     * @param sinceDays the number of days to look back in the past, rounded down to the query cache granularity,
+     *        or look from the beginning if set to 0
+     * @param pathPrefix the path of the directory whose subdirectories are counted, empty for the root
+     * @param detectRenames {@code true} to not count the files moved or copied without modification, which is slower
+     * @param repositories the list of repositories in which to look for commits
+     * @return the commit counts per author and per directory, partial if the configured query limits were reached (see
+     *         {@link #isLastQueryTruncated()})
+     * @since 9.11
+     */
+    @Unstable
+    public DirectoryContributions getDirectoryContributions(int sinceDays, String pathPrefix, boolean detectRenames,
+        List<Repository> repositories)
+    {
+        Date since = getSinceDate(sinceDays);
+        return withDefaultBudget(
+            budget -> this.gitManager.getDirectoryContributions(since, repositories, pathPrefix, detectRenames,
+                budget),
+            () -> this.gitManager.getDirectoryContributions(since, repositories, pathPrefix, detectRenames));
+    }
+
+    /**
+     * Clone a Git repository in the background, or open it if it's already cloned. The returned task can be polled
+     * for progress, or looked up later with {@link #getTask(String)}, and holds the repository once it's done.
+     *
+     * @param repositoryURI the URI to the Git repository to clone (eg "git://github.com/xwiki/xwiki-commons.git")
+     * @param localDirectoryName the name of the directory where the Git repository will be cloned (this directory is
+     *        relative to the permanent directory
+     * @return the task cloning the repository
+     * @since 9.11
+     */
+    @Unstable
+    public GitTask<Repository> getRepositoryAsync(String repositoryURI, String localDirectoryName)
+    {
+        return this.gitManager.getRepositoryAsync(repositoryURI, localDirectoryName, Git.cloneRepository());
+    }
+
+    /**
+     * Clone a protected Git repository in the background, or open it if it's already cloned.
+     *
+     * @param repositoryURI the URI to the Git repository to clone (eg "git://github.com/xwiki/xwiki-commons.git")
+     * @param localDirectoryName the name of the directory where the Git repository will be cloned (this directory is
+     *        relative to the permanent directory
+     * @param username the username of the Git user
+     * @param accessCode the password or OAuth or personal access token that authenticates with the Git user
+     * @return the task cloning the repository
+     * @since 9.11
+     */
+    @Unstable
+    public GitTask<Repository> getRepositoryAsync(String repositoryURI, String localDirectoryName, String username,
+        String accessCode)
+    {
+        CloneCommand cloneCommand = Git.cloneRepository();
+        cloneCommand.setCredentialsProvider(new UsernamePasswordCredentialsProvider(username, accessCode));
+        return this.gitManager.getRepositoryAsync(repositoryURI, localDirectoryName, cloneCommand);
+    }
+
+    /**
+     * Same as {@link #countAuthorCommits(int, List)} but executed in the background.
+     *
+     * @param sinceDays the number of days to look back in the past, rounded down to the query cache granularity,
+     *        or look from the beginning if set to 0
+     * @param repositories the list of repositories in which to look for commits
+     * @return the task counting the commits, whose result is partial if the configured query limits were reached (see
+     *         {@link GitTask#isTruncated()})
+     * @since 9.11
+     */
+    @Unstable
+    public GitTask<UserCommitActivity[]> countAuthorCommitsAsync(int sinceDays, List<Repository> repositories)
+    {
+        Date since = getSinceDate(sinceDays);
+        return withDefaultBudgetAsync(budget -> this.gitManager.countAuthorCommitsAsync(since, repositories, budget),
+            () -> this.gitManager.countAuthorCommitsAsync(since, repositories));
+    }
+
+    /**
+     * Same as {@link #getAuthorCommitCounts(int, List)} but executed in the background.
+     *
+     * @param sinceDays the number of days to look back in the past, rounded down to the query cache granularity,
+     *        or look from the beginning if set to 0
+     * @param repositories the list of repositories in which to look for commits
+     * @return the task counting the commits, whose result is partial if the configured query limits were reached (see
+     *         {@link GitTask#isTruncated()})
+     * @since 9.11
+     */
+    @Unstable
+    public GitTask<AuthorCommitCount[]> getAuthorCommitCountsAsync(int sinceDays, List<Repository> repositories)
+    {
+        Date since = getSinceDate(sinceDays);
+        return withDefaultBudgetAsync(
+            budget -> this.gitManager.getAuthorCommitCountsAsync(since, repositories, budget),
+            () -> this.gitManager.getAuthorCommitCountsAsync(since, repositories));
+    }
+
+    /**
+     * Create the description of a repository to synchronize with {@link #synchronize(List)}.
+     *
+     * @param repositoryURI the URI to the Git repository to clone (eg "git://github.com/xwiki/xwiki-commons.git")
+     * @param localDirectoryName the name of the directory where the Git repository will be cloned (this directory is
+     *        relative to the permanent directory
+     * @return the repository to synchronize
+     * @since 9.11
+     */
+    @Unstable
+    public SyncRequest createSyncRequest(String repositoryURI, String localDirectoryName)
+    {
+        return createSyncRequest(repositoryURI, localDirectoryName, null, null, null, null);
+    }
+
+    /**
+     * Create the description of a repository to synchronize with {@link #synchronize(List)}.
+     *
+     * @param repositoryURI the URI to the Git repository to clone (eg "git://github.com/xwiki/xwiki-commons.git")
+     * @param localDirectoryName the name of the directory where the Git repository will be cloned (this directory is
+     *        relative to the permanent directory
+     * @param mode the clone mode, one of "checkout", "no_checkout", "bare" or "memory" (see {@link CloneMode}), or
+     *        {@code null} for the configured clone mode
+     * @param branch the only branch to clone and update, or {@code null} to clone all branches
+     * @param username the username of the Git user, or {@code null} for anonymous access
+     * @param accessCode the password or OAuth or personal access token that authenticates with the Git user
+     * @return the repository to synchronize
+     * @since 9.11
+     */
+    @Unstable
+    public SyncRequest createSyncRequest(String repositoryURI, String localDirectoryName, String mode, String branch,
+        String username, String accessCode)
+    {
+        CloneMode cloneMode = mode != null ? CloneMode.valueOf(mode.toUpperCase(Locale.ROOT)) : null;
+        return new SyncRequest(repositoryURI, localDirectoryName, cloneMode, branch,
+            username != null ? new UsernamePasswordCredentialsProvider(username, accessCode) : null);
+    }
+
+    /**
+     * Clone the passed repositories, or update those already cloned, several at a time, retrying the failed ones.
+     * <p>
+     * Example usage from Groovy:
+     * <pre><code>
+     *   def requests = repositories.collect { services.git.createSyncRequest(it.uri, it.name) }
+     *   services.git.synchronize(requests).findAll { !it.successful }.each {
+     *     println "${it.request.repositoryURI}: ${it.error}"
+     *   }
+     * </code></pre>
+     *
+     * @param requests the repositories to synchronize, created with {@link #createSyncRequest(String, String)}
+     * @return the outcome of the synchronization of each repository, in the order of the requests
+     * @since 9.11
+     */
+    @Unstable
+    public List<SyncResult> synchronize(List<SyncRequest> requests)
+    {
+        return this.gitManager.synchronize(requests);
+    }
+
+    /**
+     * Same as {@link #synchronize(List)} but executed in the background.
+     *
+     * @param requests the repositories to synchronize, created with {@link #createSyncRequest(String, String)}
+     * @return the task synchronizing the repositories
+     * @since 9.11
+     */
+    @Unstable
+    public GitTask<List<SyncResult>> synchronizeAsync(List<SyncRequest> requests)
+    {
+        return this.gitManager.synchronizeAsync(requests);
+    }
+
+    /**
+     * Look up a task started by one of the asynchronous methods, for example from a page polling for its progress.
+     *
+     * @param id the id of the task
+     * @return the task, {@code null} if there's no such task or if it has been over for too long
+     * @since 9.11
+     */
+    @Unstable
+    public GitTask<?> getTask(String id)
+    {
+        return this.gitManager.getTask(id);
+    }
+
+    /**
+     * Get counters describing the activity of the Git module (clones, fetches, history walks, repository cache), to
+     * find out where the time goes when pages using Git are slow. For example
+     * {@code $services.git.statistics.cloneTime} is the total time spent cloning, in milliseconds.
+     *
+     * @return the live statistics of the Git module
+     * @since 9.11
+     */
+    @Unstable
+    public GitStatistics getStatistics()
+    {
+        return this.gitManager.getStatistics();
+    }
+
+    /**
+     * @return the lowest of the passed limits, 0 meaning no limit
+     */
+    private long min(long limit, long configuredLimit)
+    {
+        if (limit <= 0) {
+            return Math.max(configuredLimit, 0);
+        }
+        return configuredLimit > 0 ? Math.min(limit, configuredLimit) : limit;
+    }
+
+    /**
+     * Execute a query within the configured limits, if any, recording whether its result is partial.
+     */
+    private <T> T withDefaultBudget(Function<QueryBudget, QueryResult<T>> limitedQuery, Supplier<T> query)
+    {
+        this.lastQueryTruncated.set(Boolean.FALSE);
+        QueryBudget budget = createQueryBudget();
+        if (isUnlimited(budget)) {
+            return query.get();
+        }
+
+        QueryResult<T> result = limitedQuery.apply(budget);
+        warnIfTruncated(budget);
+        this.lastQueryTruncated.set(budget.isTruncated());
+        return result.getValue();
+    }
+
+    /**
+     * Execute a background query within the configured limits, if any. The budget is created right away so that the
+     * timeout includes the time the task waits for a thread.
+     */
+    private <T> GitTask<T> withDefaultBudgetAsync(Function<QueryBudget, GitTask<T>> limitedQuery,
+        Supplier<GitTask<T>> query)
+    {
+        QueryBudget budget = createQueryBudget();
+        if (isUnlimited(budget)) {
+            return query.get();
+        }
+
+        GitTask<T> task = limitedQuery.apply(budget);
+        task.getFuture().thenRun(() -> warnIfTruncated(budget));
+        return task;
+    }
+
+    private boolean isUnlimited(QueryBudget budget)
+    {
+        return budget.getMaxCommits() == 0 && budget.getTimeout() == 0;
+    }
+
+    private void warnIfTruncated(QueryBudget budget)
+    {
+        if (budget.isTruncated()) {
+            this.logger.warn("Git query stopped after visiting [{}] commits because of the [{}] limit, "
+                + "its result is partial", budget.getVisitedCommitCount(), budget.getReachedLimit());
+        }
+    }
+
+    private Date getSinceDate(int sinceDays)
     {
         Date date = null;
         if (sinceDays > 0) {
@@ -171,6 +1028,6 @@ public class GitScriptService implements ScriptService
             DateTime now = new DateTime();
             date = now.minusDays(sinceDays).toDate();
         }
-        return this.gitManager.countAuthorCommits(date, repositories);
+        return date;
     }
 }
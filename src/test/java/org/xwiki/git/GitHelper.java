@@ -21,11 +21,21 @@ package org.xwiki.git;
 
 import java.io.File;
 import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
 import java.util.Date;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
 
 import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.CommitBuilder;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
 import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.RefUpdate;
 import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.TreeFormatter;
 import org.eclipse.jgit.revwalk.RevCommit;
 import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
 import org.junit.*;
@@ -92,6 +102,94 @@ public class GitHelper
         Assert.assertNotNull(commit);
     }
 
+    /**
+     * Generates a repository of the given size by writing objects directly, which is much faster than going through
+     * the working tree and makes it possible to create repositories with tens of thousands of commits.
+     * <p>
+     * Commits are spread round-robin over the authors and over the branches ({@code master}, {@code branch-1}, ...),
+     * each one modifying a single file of a flat tree and being one hour older than the next one, the most recent
+     * commit being made at {@code now}. When there are several branches they are all merged into {@code master} by a
+     * final commit so that the whole history is reachable from {@code HEAD}.
+     *
+     * @param repoName the name of the repository directory, relative to the permanent git directory
+     * @param commits the number of (non merge) commits to generate
+     * @param authors the number of distinct authors
+     * @param branches the number of branches
+     * @param files the number of files in the tree
+     * @param now the date of the most recent commit
+     * @return the generated repository
+     */
+    public Repository createSyntheticRepository(String repoName, int commits, int authors, int branches, int files,
+        Date now) throws Exception
+    {
+        Repository repository = createGitTestRepository(repoName);
+        TimeZone timeZone = TimeZone.getTimeZone("UTC");
+        long hour = TimeUnit.HOURS.toMillis(1);
+        long start = now.getTime() - (commits - 1) * hour;
+
+        PersonIdent[] idents = new PersonIdent[authors];
+        for (int i = 0; i < authors; i++) {
+            idents[i] = new PersonIdent("Author " + i, "author" + i + "@example.com");
+        }
+        String[] names = new String[files];
+        for (int i = 0; i < files; i++) {
+            // Zero padded so that the natural order is the order Git expects for tree entries.
+            names[i] = String.format("file%06d.txt", i);
+        }
+        ObjectId[] blobs = new ObjectId[files];
+        ObjectId[] tips = new ObjectId[branches];
+        ObjectId treeId = null;
+
+        try (ObjectInserter inserter = repository.newObjectInserter()) {
+            ObjectId emptyBlob = inserter.insert(Constants.OBJ_BLOB, new byte[0]);
+            for (int i = 0; i < files; i++) {
+                blobs[i] = emptyBlob;
+            }
+            for (int i = 0; i < commits; i++) {
+                blobs[i % files] = inserter.insert(Constants.OBJ_BLOB,
+                    ("content " + i).getBytes(StandardCharsets.UTF_8));
+                TreeFormatter tree = new TreeFormatter();
+                for (int j = 0; j < files; j++) {
+                    tree.append(names[j], FileMode.REGULAR_FILE, blobs[j]);
+                }
+                PersonIdent ident = new PersonIdent(idents[i % authors], new Date(start + i * hour), timeZone);
+                CommitBuilder commit = new CommitBuilder();
+                treeId = inserter.insert(tree);
+                commit.setTreeId(treeId);
+                commit.setAuthor(ident);
+                commit.setCommitter(ident);
+                commit.setMessage("commit " + i);
+                int branch = i % branches;
+                if (tips[branch] != null) {
+                    commit.setParentId(tips[branch]);
+                }
+                tips[branch] = inserter.insert(commit);
+            }
+            if (branches > 1 && commits > branches) {
+                CommitBuilder merge = new CommitBuilder();
+                merge.setTreeId(treeId);
+                PersonIdent ident = new PersonIdent(idents[0], now, timeZone);
+                merge.setAuthor(ident);
+                merge.setCommitter(ident);
+                merge.setMessage("merge branches");
+                merge.setParentIds(tips);
+                tips[0] = inserter.insert(merge);
+            }
+            inserter.flush();
+        }
+
+        for (int i = 0; i < branches; i++) {
+            if (tips[i] != null) {
+                RefUpdate refUpdate =
+                    repository.updateRef(Constants.R_HEADS + (i == 0 ? Constants.MASTER : "branch-" + i));
+                refUpdate.setNewObjectId(tips[i]);
+                refUpdate.forceUpdate();
+            }
+        }
+
+        return repository;
+    }
+
     /**
      * TODO: Remove once we upgrade the parent pom to a more recent version of XWiki. Once we move to JUni5 we have an
      * {@code @XWikiTempDir} annotation.
@@ -0,0 +1,277 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.git.internal;
+
+import java.io.File;
+import java.util.Date;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.MergeCommand.FastForwardMode;
+import org.eclipse.jgit.api.ResetCommand.ResetType;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.gitective.core.CommitFinder;
+import org.gitective.core.filter.commit.AuthorSetFilter;
+import org.gitective.core.stat.AuthorHistogramFilter;
+import org.gitective.core.stat.CommitCountComparator;
+import org.gitective.core.stat.CommitHistogram;
+import org.gitective.core.stat.UserCommitActivity;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.xwiki.environment.Environment;
+import org.xwiki.git.GitHelper;
+import org.xwiki.git.QueryBudget;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for {@link AuthorIndexManager}.
+ *
+ * @version $Id$
+ * @since 9.11
+ */
+public class AuthorIndexManagerTest
+{
+    private static final PersonIdent ALICE = new PersonIdent("Alice", "alice@doe.com");
+
+    private static final PersonIdent BOB = new PersonIdent("Bob", "bob@doe.com");
+
+    private final GitMetrics metrics = new GitMetrics(new RepositoryCache(0, 0), new QueryResultCache(0, 0));
+
+    private GitHelper gitHelper;
+
+    private AuthorIndexManager indexManager;
+
+    private Repository repository;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        Environment environment = mock(Environment.class);
+        File permanentDirectory = GitHelper.createTemporaryDirectory();
+        when(environment.getPermanentDirectory()).thenReturn(permanentDirectory);
+        this.gitHelper = new GitHelper(environment);
+        this.indexManager =
+            new AuthorIndexManager(new File(permanentDirectory, "git"), true, 0, this.metrics, mock(Logger.class));
+        this.repository = this.gitHelper.createGitTestRepository("indexed");
+    }
+
+    private void commit(String path, PersonIdent author) throws Exception
+    {
+        this.gitHelper.add(this.repository.getDirectory(), path, path, author, author, "Commit " + path);
+    }
+
+    private void assertSameAsWalk() throws Exception
+    {
+        AuthorHistogramFilter histogramFilter = new AuthorHistogramFilter();
+        AuthorSetFilter authorFilter = new AuthorSetFilter();
+        new CommitFinder(this.repository).setFilter(histogramFilter).find();
+        new CommitFinder(this.repository).setFilter(authorFilter).find();
+
+        AuthorIndex index = this.indexManager.getIndex(this.repository);
+        CommitHistogram histogram = new CommitHistogram();
+        try (RevWalk walk = new RevWalk(this.repository)) {
+            index.include(histogram, null, walk);
+        }
+        Set<PersonIdent> authors = AuthorIndex.createAuthorSet();
+        index.includeAuthors(authors);
+
+        UserCommitActivity[] expected = histogramFilter.getHistogram().getUserActivity(new CommitCountComparator());
+        UserCommitActivity[] actual = histogram.getUserActivity(new CommitCountComparator());
+        assertEquals(expected.length, actual.length);
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i].getEmail(), actual[i].getEmail());
+            assertArrayEquals(expected[i].getIds(), actual[i].getIds());
+            assertArrayEquals(expected[i].getTimes(), actual[i].getTimes());
+        }
+        assertEquals(authorFilter.getPersons(), authors);
+    }
+
+    @Test
+    public void indexIsUpdatedIncrementally() throws Exception
+    {
+        commit("a.txt", ALICE);
+        commit("b.txt", BOB);
+        assertSameAsWalk();
+        assertTrue(new File(this.repository.getDirectory(), "xwiki-authors.idx").exists());
+
+        commit("c.txt", ALICE);
+        assertEquals(3, this.indexManager.getIndex(this.repository).size());
+        assertSameAsWalk();
+
+        // Only the new commit has been walked, and the up to date index has been reused without walking.
+        assertEquals(2, this.metrics.getWalkCount());
+        assertEquals(3, this.metrics.getVisitedCommitCount());
+    }
+
+    @Test
+    public void storedIndexIsKeptInMemory() throws Exception
+    {
+        commit("a.txt", ALICE);
+        AuthorIndex index = this.indexManager.getIndex(this.repository);
+        // Not read again from the disk.
+        assertSame(index, this.indexManager.getIndex(this.repository));
+
+        // Another node updates the stored index.
+        commit("b.txt", BOB);
+        AuthorIndexManager otherNodeIndexManager = new AuthorIndexManager(
+            this.repository.getDirectory().getParentFile().getParentFile(), true, 0, this.metrics, mock(Logger.class));
+        assertEquals(2, otherNodeIndexManager.getIndex(this.repository).size());
+        long walkCount = this.metrics.getWalkCount();
+
+        // Read again from the disk rather than walked, and the index used by previous queries isn't modified.
+        AuthorIndex updatedIndex = this.indexManager.getIndex(this.repository);
+        assertNotSame(index, updatedIndex);
+        assertEquals(2, updatedIndex.size());
+        assertEquals(1, index.size());
+        assertEquals(walkCount, this.metrics.getWalkCount());
+    }
+
+    @Test
+    public void indexIsRebuiltWhenHistoryIsRewritten() throws Exception
+    {
+        commit("a.txt", ALICE);
+        commit("b.txt", BOB);
+        commit("c.txt", BOB);
+        assertEquals(3, this.indexManager.getIndex(this.repository).size());
+
+        try (Git git = new Git(this.repository)) {
+            git.reset().setMode(ResetType.HARD).setRef("HEAD~2").call();
+        }
+        commit("d.txt", ALICE);
+
+        assertEquals(2, this.indexManager.getIndex(this.repository).size());
+        assertSameAsWalk();
+    }
+
+    private PersonIdent at(PersonIdent person, long time)
+    {
+        return new PersonIdent(person, new Date(time), TimeZone.getDefault());
+    }
+
+    @Test
+    public void indexIsMergedWithOlderBranch() throws Exception
+    {
+        long start = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(10);
+        long hour = TimeUnit.HOURS.toMillis(1);
+        File gitDirectory = this.repository.getDirectory();
+        this.gitHelper.add(gitDirectory, "a.txt", "a", at(ALICE, start), at(ALICE, start), "Commit a.txt");
+        try (Git git = new Git(this.repository)) {
+            git.branchCreate().setName("side").call();
+            this.gitHelper.add(gitDirectory, "c.txt", "c", at(BOB, start + 2 * hour), at(BOB, start + 2 * hour),
+                "Commit c.txt");
+            assertEquals(2, this.indexManager.getIndex(this.repository).size());
+
+            // Bob's older commit is merged after his newer one has been indexed.
+            git.checkout().setName("side").call();
+            this.gitHelper.add(gitDirectory, "b.txt", "b", at(BOB, start + hour), at(BOB, start + hour),
+                "Commit b.txt");
+            git.checkout().setName("master").call();
+            git.merge().include(this.repository.resolve("side")).setCommit(false)
+                .setFastForward(FastForwardMode.NO_FF).call();
+            git.commit().setMessage("Merge side").setAuthor(at(ALICE, start + 3 * hour))
+                .setCommitter(at(ALICE, start + 3 * hour)).call();
+        }
+
+        assertSameAsWalk();
+        assertEquals(4, this.indexManager.getIndex(this.repository).size());
+    }
+
+    @Test
+    public void dateBoundedWalkStopsEarly() throws Exception
+    {
+        long now = System.currentTimeMillis();
+        for (int days : new int[] {100, 50, 20, 0}) {
+            PersonIdent author =
+                new PersonIdent(ALICE, new Date(now - TimeUnit.DAYS.toMillis(days)), TimeZone.getDefault());
+            this.gitHelper.add(this.repository.getDirectory(), days + ".txt", "", author, author, "Commit " + days);
+        }
+
+        AuthorIndexManager transientIndexManager = new AuthorIndexManager(
+            GitHelper.createTemporaryDirectory(), false, TimeUnit.DAYS.toMillis(5), this.metrics, mock(Logger.class));
+        Date since = new Date(now - TimeUnit.DAYS.toMillis(30));
+
+        // The walk stops at the commit made 50 days ago, which is older than the cutoff even with the tolerance.
+        AuthorIndex index = transientIndexManager.getIndex(this.repository, since);
+        assertEquals(2, index.size());
+
+        CommitHistogram histogram = new CommitHistogram();
+        try (RevWalk walk = new RevWalk(this.repository)) {
+            index.include(histogram, since, walk);
+        }
+        assertEquals(2, histogram.getActivity(ALICE.getEmailAddress()).getCount());
+        assertEquals(4, transientIndexManager.getIndex(this.repository).size());
+    }
+
+    @Test
+    public void walkStopsAtExcludedCommits() throws Exception
+    {
+        commit("a.txt", ALICE);
+        commit("b.txt", BOB);
+        File forkDirectory = new File(GitHelper.createTemporaryDirectory(), "fork");
+        Repository fork = Git.cloneRepository().setURI(this.repository.getDirectory().getAbsolutePath())
+            .setDirectory(forkDirectory).call().getRepository();
+        this.gitHelper.add(fork.getDirectory(), "c.txt", "c", BOB, BOB, "Commit c.txt");
+
+        // The fork isn't in the permanent directory so its history is walked.
+        ObjectIdSet seen = new ObjectIdSet();
+        this.indexManager.getIndex(this.repository).visit(null, (name, email, time) -> { }, seen);
+        assertEquals(2, seen.size());
+        long visitedCommits = this.metrics.getVisitedCommitCount();
+
+        AuthorIndex forkIndex = this.indexManager.getIndex(fork, null, seen);
+        assertEquals(1, forkIndex.size());
+        assertEquals(visitedCommits + 1, this.metrics.getVisitedCommitCount());
+        assertEquals(3, this.indexManager.getIndex(fork).size());
+    }
+
+    @Test
+    public void walkStopsWhenBudgetIsExhausted() throws Exception
+    {
+        commit("a.txt", ALICE);
+        commit("b.txt", BOB);
+        commit("c.txt", ALICE);
+
+        QueryBudget budget = new QueryBudget(2, 0);
+        AuthorIndex partialIndex = this.indexManager.getIndex(this.repository, null, null, budget);
+        assertEquals(2, partialIndex.size());
+        assertEquals(QueryBudget.Limit.COMMITS, budget.getReachedLimit());
+        // A partial index is never stored.
+        assertFalse(new File(this.repository.getDirectory(), "xwiki-authors.idx").exists());
+
+        ObjectIdSet seen = new ObjectIdSet();
+        partialIndex.visit(null, (name, email, time) -> { }, seen, budget);
+        assertEquals(2, budget.getVisitedCommitCount());
+        assertEquals(2, seen.size());
+        assertEquals(3, this.indexManager.getIndex(this.repository).size());
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.git.internal;
+
+import java.io.File;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.blame.BlameResult;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.Repository;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.xwiki.environment.Environment;
+import org.xwiki.git.FileBlame;
+import org.xwiki.git.GitHelper;
+import org.xwiki.git.QueryBudget;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for {@link BlameManager} and {@link BlameCache}.
+ *
+ * @version $Id$
+ * @since 9.11
+ */
+public class BlameManagerTest
+{
+    private static final PersonIdent ALICE = new PersonIdent("Alice", "alice@doe.com");
+
+    private static final PersonIdent BOB = new PersonIdent("Bob", "bob@doe.com");
+
+    private static final String PATH = "doc/page.txt";
+
+    private File permanentDirectory;
+
+    private GitHelper gitHelper;
+
+    private Repository repository;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        Environment environment = mock(Environment.class);
+        this.permanentDirectory = GitHelper.createTemporaryDirectory();
+        when(environment.getPermanentDirectory()).thenReturn(this.permanentDirectory);
+        this.gitHelper = new GitHelper(environment);
+        this.repository = this.gitHelper.createGitTestRepository("blamed");
+    }
+
+    private ObjectId commit(PersonIdent author, String... lines) throws Exception
+    {
+        this.gitHelper.add(this.repository.getDirectory(), PATH, String.join("\n", lines) + "\n", author, author,
+            "Commit by " + author.getName());
+        return this.repository.resolve("HEAD");
+    }
+
+    private BlameManager createBlameManager(long maxLines)
+    {
+        return new BlameManager(new BlameCache(this.permanentDirectory, true, maxLines, mock(Logger.class)));
+    }
+
+    private void assertSameAsJGit(FileBlame blame, ObjectId revision) throws Exception
+    {
+        BlameResult expected;
+        try (Git git = new Git(this.repository)) {
+            expected = git.blame().setStartCommit(revision).setFilePath(PATH).call();
+        }
+        expected.computeAll();
+        assertEquals(expected.getResultContents().size(), blame.getLineCount());
+        for (int i = 0; i < blame.getLineCount(); i++) {
+            assertEquals(expected.getSourceCommit(i).name(), blame.getCommit(i).getId());
+            assertEquals(expected.getSourceAuthor(i).getEmailAddress(), blame.getCommit(i).getAuthorEmail());
+        }
+    }
+
+    @Test
+    public void blameIsUpdatedIncrementally() throws Exception
+    {
+        BlameManager blameManager = createBlameManager(1000);
+        ObjectId first = commit(ALICE, "one", "two", "three", "four");
+        FileBlame blame = blameManager.blame(this.repository, first, PATH);
+        assertSameAsJGit(blame, first);
+        assertEquals(1, blame.getCommits().size());
+
+        ObjectId second = commit(BOB, "one", "deux", "three", "four", "five");
+        ObjectId third = commit(ALICE, "zero", "one", "deux", "four", "five");
+        this.gitHelper.add(this.repository.getDirectory(), "other.txt", "other", BOB, BOB, "Other file");
+        ObjectId head = this.repository.resolve("HEAD");
+
+        blame = blameManager.blame(this.repository, head, PATH);
+        assertEquals(third.name(), blame.getCommitId());
+        assertSameAsJGit(blame, head);
+        assertSameAsJGit(blameManager.blame(this.repository, second, PATH), second);
+        assertSame(blame, blameManager.blame(this.repository, head, PATH));
+
+        assertNull(blameManager.blame(this.repository, head, "missing.txt"));
+        assertNull(blameManager.blame(this.repository, head, "doc"));
+    }
+
+    @Test
+    public void blameStopsWhenTheBudgetIsExhausted() throws Exception
+    {
+        BlameManager blameManager = createBlameManager(1000);
+        commit(ALICE, "one", "two");
+        ObjectId head = commit(BOB, "one", "two", "three");
+
+        QueryBudget cancelled = new QueryBudget(0, 0);
+        cancelled.cancel();
+        assertNull(blameManager.blame(this.repository, head, PATH, cancelled));
+        assertEquals(QueryBudget.Limit.CANCELLED, cancelled.getReachedLimit());
+
+        // Both commits are walked, but the full blame can't visit the commits it attributes lines to.
+        QueryBudget budget = new QueryBudget(2, 0);
+        assertNull(blameManager.blame(this.repository, head, PATH, budget));
+        assertEquals(QueryBudget.Limit.COMMITS, budget.getReachedLimit());
+
+        // Nothing has been cached.
+        budget = new QueryBudget(10, 0);
+        assertSameAsJGit(blameManager.blame(this.repository, head, PATH, budget), head);
+        assertFalse(budget.isTruncated());
+    }
+
+    @Test
+    public void blameIsStoredOnDisk() throws Exception
+    {
+        commit(ALICE, "one", "two");
+        ObjectId head = commit(BOB, "one", "two", "three");
+        FileBlame blame = createBlameManager(1000).blame(this.repository, head, PATH);
+        assertTrue(new File(this.repository.getDirectory(), "xwiki-blame").isDirectory());
+
+        // Not kept in memory, but read from the disk.
+        BlameCache cache = new BlameCache(this.permanentDirectory, true, 0, mock(Logger.class));
+        FileBlame storedBlame = cache.get(this.repository, head, PATH);
+        assertEquals(0, cache.size());
+        assertEquals(blame.getLineCount(), storedBlame.getLineCount());
+        for (int i = 0; i < blame.getLineCount(); i++) {
+            assertEquals(blame.getCommit(i).getId(), storedBlame.getCommit(i).getId());
+            assertEquals(blame.getCommit(i).getShortMessage(), storedBlame.getCommit(i).getShortMessage());
+        }
+
+        // The least recently used blames are evicted from memory.
+        BlameCache smallCache = new BlameCache(GitHelper.createTemporaryDirectory(), true, 5, mock(Logger.class));
+        smallCache.put(this.repository, head, PATH, blame, true);
+        smallCache.put(this.repository, head, "copy.txt", blame, true);
+        assertEquals(1, smallCache.size());
+        assertNull(smallCache.get(this.repository, head, PATH));
+    }
+}
@@ -0,0 +1,224 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.git.internal;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.Map;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.xwiki.environment.Environment;
+import org.xwiki.git.GitHelper;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for {@link ChurnCalculator} and {@link ChurnCache}.
+ *
+ * @version $Id$
+ * @since 9.11
+ */
+public class ChurnCalculatorTest
+{
+    private static final PersonIdent ALICE = new PersonIdent("Alice", "alice@doe.com");
+
+    private File permanentDirectory;
+
+    private Repository repository;
+
+    private NodeLockManager nodeLocks = new NodeLockManager(60000, mock(Logger.class));
+
+    @Before
+    public void setUp() throws Exception
+    {
+        Environment environment = mock(Environment.class);
+        this.permanentDirectory = GitHelper.createTemporaryDirectory();
+        when(environment.getPermanentDirectory()).thenReturn(this.permanentDirectory);
+        this.repository = new GitHelper(environment).createGitTestRepository("churned");
+    }
+
+    @After
+    public void tearDown()
+    {
+        this.nodeLocks.dispose();
+    }
+
+    private RevCommit commit(String path, byte[] content) throws Exception
+    {
+        File file = new File(this.repository.getWorkTree(), path);
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), content);
+        return commitAll(path);
+    }
+
+    private RevCommit commit(String path, String... lines) throws Exception
+    {
+        return commit(path, toBytes(lines));
+    }
+
+    private byte[] toBytes(String... lines)
+    {
+        return (String.join("\n", lines) + "\n").getBytes(StandardCharsets.UTF_8);
+    }
+
+    private RevCommit commitAll(String pattern) throws Exception
+    {
+        try (Git git = new Git(this.repository)) {
+            git.add().addFilepattern(pattern).setUpdate(false).call();
+            git.add().addFilepattern(pattern).setUpdate(true).call();
+            git.commit().setMessage("Commit " + pattern).setAuthor(ALICE).setCommitter(ALICE).call();
+        }
+        try (RevWalk walk = new RevWalk(this.repository)) {
+            return walk.parseCommit(this.repository.resolve("HEAD"));
+        }
+    }
+
+    private void assertChurn(int added, int removed, RevCommit commit, long maxFileSize) throws Exception
+    {
+        try (ChurnCalculator calculator = new ChurnCalculator(this.repository, maxFileSize)) {
+            CommitChurn churn = calculator.compute(commit);
+            assertEquals(added, churn.getAddedLines());
+            assertEquals(removed, churn.getRemovedLines());
+        }
+    }
+
+    @Test
+    public void countChangedLines() throws Exception
+    {
+        assertChurn(3, 0, commit("a.txt", "one", "two", "three"), 0);
+        assertChurn(2, 1, commit("a.txt", "one", "deux", "three", "four"), 0);
+
+        // A file moved without modification isn't counted.
+        File workTree = this.repository.getWorkTree();
+        File moved = new File(workTree, "dir/a.txt");
+        moved.getParentFile().mkdirs();
+        assertTrue(new File(workTree, "a.txt").renameTo(moved));
+        assertChurn(0, 0, commitAll("."), 0);
+        assertChurn(1, 0, commit("dir/a.txt", "one", "deux", "three", "four", "five"), 0);
+
+        // A file moved and modified only counts its changes.
+        assertTrue(moved.delete());
+        File movedAgain = new File(workTree, "other/a.txt");
+        movedAgain.getParentFile().mkdirs();
+        Files.write(movedAgain.toPath(), toBytes("one", "deux", "three", "four", "five", "six"));
+        assertChurn(1, 0, commitAll("."), 0);
+
+        assertChurn(0, 0, commit("binary.bin", new byte[] {1, 0, 2, 0}), 0);
+        RevCommit big = commit("big.txt", "line one", "line two");
+        assertChurn(0, 0, big, 10);
+        assertChurn(2, 0, big, 0);
+
+        assertTrue(new File(workTree, "big.txt").delete());
+        assertChurn(0, 2, commitAll("."), 0);
+    }
+
+    @Test
+    public void cacheOnlyStoresClonesOfThePermanentDirectory() throws Exception
+    {
+        ObjectId commit = commit("a.txt", "one");
+        Map<ObjectId, CommitChurn> churns = Collections.singletonMap(commit, new CommitChurn(1, 0));
+
+        ChurnCache cache = new ChurnCache(this.permanentDirectory, true, 100, this.nodeLocks, mock(Logger.class));
+        cache.save(this.repository, churns);
+        assertEquals(1, cache.load(this.repository).get(commit).getAddedLines());
+
+        // Appended to the existing cache.
+        ObjectId other = commit("b.txt", "one", "two");
+        cache.save(this.repository, Collections.singletonMap(other, new CommitChurn(2, 0)));
+        assertEquals(2, cache.load(this.repository).size());
+
+        // Discarded when computed with another maximum file size.
+        ChurnCache otherCache = new ChurnCache(this.permanentDirectory, true, 200, this.nodeLocks, mock(Logger.class));
+        assertEquals(0, otherCache.load(this.repository).size());
+        otherCache.save(this.repository, churns);
+        assertEquals(1, otherCache.load(this.repository).size());
+
+        ChurnCache outsideCache =
+            new ChurnCache(GitHelper.createTemporaryDirectory(), true, 200, this.nodeLocks, mock(Logger.class));
+        outsideCache.save(this.repository, Collections.singletonMap(other, new CommitChurn(2, 0)));
+        assertEquals(1, otherCache.load(this.repository).size());
+        assertEquals(0, outsideCache.load(this.repository).size());
+    }
+
+    @Test
+    public void cacheIsKeptInMemory() throws Exception
+    {
+        ObjectId commit = commit("a.txt", "one");
+        ChurnCache cache = new ChurnCache(this.permanentDirectory, true, 100, this.nodeLocks, mock(Logger.class));
+        cache.save(this.repository, Collections.singletonMap(commit, new CommitChurn(1, 0)));
+
+        Map<ObjectId, CommitChurn> churns = cache.load(this.repository);
+        assertEquals(1, churns.size());
+        // Not read again as long as the file doesn't change, even after an append of this cache.
+        ObjectId other = commit("b.txt", "one", "two");
+        cache.save(this.repository, Collections.singletonMap(other, new CommitChurn(2, 0)));
+        assertSame(churns, cache.load(this.repository));
+        assertEquals(2, churns.size());
+
+        // Read again when another node appends to the file.
+        ChurnCache otherNodeCache =
+            new ChurnCache(this.permanentDirectory, true, 100, this.nodeLocks, mock(Logger.class));
+        ObjectId third = commit("c.txt", "one");
+        otherNodeCache.save(this.repository, Collections.singletonMap(third, new CommitChurn(3, 0)));
+        Map<ObjectId, CommitChurn> reloaded = cache.load(this.repository);
+        assertNotSame(churns, reloaded);
+        assertEquals(3, reloaded.get(third).getAddedLines());
+    }
+
+    @Test
+    public void partiallyWrittenEntryIsDropped() throws Exception
+    {
+        ObjectId commit = commit("a.txt", "one");
+        ChurnCache cache = new ChurnCache(this.permanentDirectory, true, 100, this.nodeLocks, mock(Logger.class));
+        cache.save(this.repository, Collections.singletonMap(commit, new CommitChurn(1, 0)));
+
+        // A node stopped in the middle of an append.
+        File cacheFile = new File(this.repository.getDirectory(), "xwiki-churn.idx");
+        Files.write(cacheFile.toPath(), new byte[] {1, 2, 3}, StandardOpenOption.APPEND);
+
+        ObjectId other = commit("b.txt", "one", "two");
+        cache.save(this.repository, Collections.singletonMap(other, new CommitChurn(2, 3)));
+
+        Map<ObjectId, CommitChurn> churns =
+            new ChurnCache(this.permanentDirectory, true, 100, this.nodeLocks, mock(Logger.class))
+                .load(this.repository);
+        assertEquals(2, churns.size());
+        assertEquals(1, churns.get(commit).getAddedLines());
+        assertEquals(2, churns.get(other).getAddedLines());
+        assertEquals(3, churns.get(other).getRemovedLines());
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.git.internal;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jgit.util.FileUtils;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.xwiki.git.GitHelper;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Unit tests for {@link CloneRegistry}.
+ *
+ * @version $Id$
+ * @since 9.11
+ */
+public class CloneRegistryTest
+{
+    private File rootDirectory;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        this.rootDirectory = new File(GitHelper.createTemporaryDirectory(), "git");
+    }
+
+    private File createClone(String name, int size) throws Exception
+    {
+        File directory = new File(this.rootDirectory, name);
+        File gitDirectory = new File(directory, ".git");
+        gitDirectory.mkdirs();
+        Files.write(new File(gitDirectory, "objects.pack").toPath(), new byte[size]);
+        return directory;
+    }
+
+    private boolean delete(File directory)
+    {
+        try {
+            FileUtils.delete(directory, FileUtils.RECURSIVE);
+            return true;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    @Test
+    public void evictLeastRecentlyUsedClones() throws Exception
+    {
+        File first = createClone("first", 1000);
+        File second = createClone("second", 1000);
+        File third = createClone("third", 1000);
+        CloneRegistry registry = new CloneRegistry(this.rootDirectory, 2500, this::delete, mock(Logger.class));
+        for (File clone : Arrays.asList(second, first, third)) {
+            registry.accessed(clone);
+            Thread.sleep(2);
+        }
+        assertEquals(3000, registry.getTotalSize());
+
+        assertEquals(Collections.singletonList(second), registry.enforceQuota());
+        assertFalse(second.exists());
+        assertEquals(2, registry.size());
+        assertEquals(2000, registry.getTotalSize());
+
+        // Below the quota, nothing to do.
+        assertEquals(Collections.emptyList(), registry.enforceQuota());
+        assertEquals(1, registry.getEvictionCount());
+    }
+
+    @Test
+    public void clonesInUseAreNotEvicted() throws Exception
+    {
+        File first = createClone("first", 1000);
+        File second = createClone("second", 1000);
+        File third = createClone("third", 1000);
+        CloneRegistry registry = new CloneRegistry(this.rootDirectory, 1500,
+            directory -> !directory.equals(first) && delete(directory), mock(Logger.class));
+        for (File clone : Arrays.asList(first, second, third)) {
+            registry.accessed(clone);
+            Thread.sleep(2);
+        }
+        assertEquals(Arrays.asList(second, third), registry.enforceQuota());
+        assertTrue(first.exists());
+    }
+
+    @Test
+    public void registryIsSavedAndClonesAreDiscovered() throws Exception
+    {
+        File registered = createClone("registered", 100);
+        CloneRegistry registry = new CloneRegistry(this.rootDirectory, 10000, this::delete, mock(Logger.class));
+        registry.accessed(registered);
+        registry.enforceQuota();
+        assertTrue(new File(this.rootDirectory, ".clones").exists());
+
+        createClone("group/nested", 100);
+        createClone(".temporary-clone", 100);
+        File unrelated = new File(this.rootDirectory, "unrelated");
+        unrelated.mkdirs();
+
+        CloneRegistry reloaded = new CloneRegistry(this.rootDirectory, 10000, this::delete, mock(Logger.class));
+        reloaded.start();
+        try {
+            long timeout = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+            while (reloaded.size() < 2 && System.currentTimeMillis() < timeout) {
+                Thread.sleep(10);
+            }
+            assertEquals(2, reloaded.size());
+            assertEquals(200, reloaded.getTotalSize());
+        } finally {
+            reloaded.dispose();
+        }
+    }
+
+    @Test
+    public void temporaryClonesAreDeletedUnlessStillCloning() throws Exception
+    {
+        File stale = createClone(".stale.clone-1", 100);
+        File nested = createClone("group/.nested.clone-2", 100);
+        File cloning = createClone(".cloning.clone-3", 100);
+        CloneRegistry registry = new CloneRegistry(this.rootDirectory, 10000,
+            directory -> !directory.equals(cloning) && delete(directory), mock(Logger.class));
+        registry.start();
+        try {
+            long timeout = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+            while ((stale.exists() || nested.exists() || registry.size() < 1)
+                && System.currentTimeMillis() < timeout) {
+                Thread.sleep(10);
+            }
+            assertFalse(stale.exists());
+            assertFalse(nested.exists());
+            // The clone still running is counted until it's renamed.
+            assertEquals(1, registry.size());
+            assertEquals(100, registry.getTotalSize());
+            delete(cloning);
+            assertEquals(0, registry.getTotalSize());
+        } finally {
+            registry.dispose();
+        }
+    }
+
+    @Test
+    public void temporaryClonesAreDeletedWithoutQuota() throws Exception
+    {
+        File stale = createClone(".stale.clone-1", 100);
+        CloneRegistry registry = new CloneRegistry(this.rootDirectory, 0, this::delete, mock(Logger.class));
+        registry.start();
+        try {
+            long timeout = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+            while (stale.exists() && System.currentTimeMillis() < timeout) {
+                Thread.sleep(10);
+            }
+            assertFalse(stale.exists());
+            assertEquals(0, registry.size());
+        } finally {
+            registry.dispose();
+        }
+    }
+}
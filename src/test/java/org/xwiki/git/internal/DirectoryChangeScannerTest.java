@@ -0,0 +1,140 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.git.internal;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.junit.Before;
+import org.junit.Test;
+import org.xwiki.environment.Environment;
+import org.xwiki.git.GitHelper;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for {@link DirectoryChangeScanner}.
+ *
+ * @version $Id$
+ * @since 9.11
+ */
+public class DirectoryChangeScannerTest
+{
+    private static final PersonIdent ALICE = new PersonIdent("Alice", "alice@doe.com");
+
+    private static final String CONTENT = "Some content long enough for the rename detection to compare files.\n";
+
+    private GitHelper gitHelper;
+
+    private Repository repository;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        Environment environment = mock(Environment.class);
+        when(environment.getPermanentDirectory()).thenReturn(GitHelper.createTemporaryDirectory());
+        this.gitHelper = new GitHelper(environment);
+        this.repository = this.gitHelper.createGitTestRepository("scanned");
+    }
+
+    private RevCommit commit(String... paths) throws Exception
+    {
+        for (String path : paths) {
+            this.gitHelper.add(this.repository.getDirectory(), path, CONTENT + path, ALICE, ALICE, "Commit " + path);
+        }
+        return head();
+    }
+
+    private RevCommit head() throws Exception
+    {
+        try (RevWalk walk = new RevWalk(this.repository)) {
+            return walk.parseCommit(this.repository.resolve("HEAD"));
+        }
+    }
+
+    private RevCommit move(String from, String to) throws Exception
+    {
+        File workTree = this.repository.getWorkTree();
+        File target = new File(workTree, to);
+        target.getParentFile().mkdirs();
+        assertTrue(new File(workTree, from).renameTo(target));
+        try (Git git = new Git(this.repository)) {
+            git.rm().addFilepattern(from).call();
+            git.add().addFilepattern(to).call();
+            git.commit().setMessage("Move " + from).setAuthor(ALICE).setCommitter(ALICE).call();
+        }
+        return head();
+    }
+
+    private Set<String> scan(RevCommit commit, String pathPrefix, boolean detectRenames) throws Exception
+    {
+        try (DirectoryChangeScanner scanner = new DirectoryChangeScanner(this.repository,
+            DirectoryChangeScanner.normalize(pathPrefix), detectRenames)) {
+            return scanner.scan(commit);
+        }
+    }
+
+    private Set<String> set(String... directories)
+    {
+        return new HashSet<>(Arrays.asList(directories));
+    }
+
+    @Test
+    public void scanDirectoriesBelowPrefix() throws Exception
+    {
+        RevCommit first = commit("core/api/A.java");
+        RevCommit second = commit("core/pom.xml");
+        RevCommit third = commit("docs/README.md");
+
+        assertEquals(set("core"), scan(first, null, false));
+        assertEquals(set("api"), scan(first, "/core/", false));
+        assertEquals(set(""), scan(second, "core", false));
+        assertEquals(Collections.emptySet(), scan(third, "core", false));
+        assertEquals(set(""), scan(first, "core/api/A.java", false));
+        assertEquals(Collections.emptySet(), scan(first, "cor", false));
+        assertEquals(set("api"), scan(first, "core", true));
+        assertEquals(Collections.emptySet(), scan(third, "core", true));
+    }
+
+    @Test
+    public void ignoreMovesWhenDetectingRenames() throws Exception
+    {
+        commit("core/api/A.java");
+        RevCommit moved = move("core/api/A.java", "core/impl/A.java");
+
+        assertEquals(set("api", "impl"), scan(moved, "core", false));
+        assertEquals(Collections.emptySet(), scan(moved, "core", true));
+
+        RevCommit movedOut = move("core/impl/A.java", "other/A.java");
+        assertEquals(set("impl"), scan(movedOut, "core", false));
+        assertEquals(Collections.emptySet(), scan(movedOut, "core", true));
+    }
+}
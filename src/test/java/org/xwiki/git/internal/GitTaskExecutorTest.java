@@ -0,0 +1,79 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.git.internal;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.xwiki.git.GitTask;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Unit tests for {@link GitTaskExecutor}.
+ *
+ * @version $Id$
+ * @since 9.11
+ */
+public class GitTaskExecutorTest
+{
+    private GitTaskExecutor executor;
+
+    @Before
+    public void setUp()
+    {
+        this.executor = new GitTaskExecutor(1, 1, 0);
+    }
+
+    @After
+    public void tearDown()
+    {
+        this.executor.dispose();
+    }
+
+    @Test
+    public void taskThrowingAnErrorFailsAndIsPurged() throws Exception
+    {
+        Error error = new NoClassDefFoundError("Missing class");
+        GitTask<String> task = this.executor.submit(monitor -> {
+            throw error;
+        });
+
+        try {
+            task.getFuture().get(10, TimeUnit.SECONDS);
+            fail("The task should have failed");
+        } catch (ExecutionException expected) {
+            assertSame(error, expected.getCause());
+        }
+        assertEquals(GitTask.State.FAILED, task.getState());
+        assertTrue(task.getError().contains("Missing class"));
+
+        // The task is over so it's dropped once the retention time has elapsed.
+        Thread.sleep(10);
+        assertNull(this.executor.get(task.getId()));
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.git.internal;
+
+import java.io.File;
+
+import org.apache.commons.lang3.RandomStringUtils;
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.internal.storage.dfs.DfsRepository;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.Repository;
+import org.junit.Before;
+import org.junit.Test;
+import org.xwiki.environment.Environment;
+import org.xwiki.git.GitHelper;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for {@link MemoryRepositoryStore}.
+ *
+ * @version $Id$
+ * @since 9.11
+ */
+public class MemoryRepositoryStoreTest
+{
+    private static final PersonIdent AUTHOR = new PersonIdent("Alice", "alice@doe.com");
+
+    private GitHelper gitHelper;
+
+    private File origin;
+
+    private String repositoryURI;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        Environment environment = mock(Environment.class);
+        when(environment.getPermanentDirectory()).thenReturn(GitHelper.createTemporaryDirectory());
+        this.gitHelper = new GitHelper(environment);
+        this.origin = this.gitHelper.createGitTestRepository("origin").getDirectory();
+        this.gitHelper.add(this.origin, "a.txt", "a", AUTHOR, AUTHOR, "Commit a.txt");
+        this.repositoryURI = this.origin.getAbsolutePath();
+    }
+
+    private Repository get(MemoryRepositoryStore store, String name) throws Exception
+    {
+        return store.get(this.repositoryURI, name, null, null, NullProgressMonitor.INSTANCE);
+    }
+
+    private void fetch(MemoryRepositoryStore store, Repository repository) throws Exception
+    {
+        try (Git git = new Git(repository)) {
+            git.fetch().call();
+        }
+        store.updated((DfsRepository) repository);
+    }
+
+    @Test
+    public void repositoryIsClonedOnce() throws Exception
+    {
+        MemoryRepositoryStore store = new MemoryRepositoryStore(Long.MAX_VALUE, 60000);
+        try {
+            Repository repository = get(store, "memory");
+            assertNull(repository.getDirectory());
+            assertEquals("refs/heads/master", repository.getFullBranch());
+            assertTrue(repository.resolve(Constants.HEAD) != null);
+            assertSame(repository, get(store, "memory"));
+            assertEquals(1, store.size());
+            assertTrue(store.getTotalSize() > 0);
+        } finally {
+            store.dispose();
+        }
+    }
+
+    @Test
+    public void leastRecentlyUsedRepositoriesAreDiscardedToStayBelowTheLimit() throws Exception
+    {
+        MemoryRepositoryStore unbounded = new MemoryRepositoryStore(Long.MAX_VALUE, 60000);
+        get(unbounded, "memory");
+        long size = unbounded.getTotalSize();
+        unbounded.dispose();
+
+        MemoryRepositoryStore store = new MemoryRepositoryStore(size * 3 / 2, 60000);
+        try {
+            Repository first = get(store, "first");
+            get(store, "second");
+            assertEquals(1, store.size());
+            assertEquals(size, store.getTotalSize());
+            // The first one has been discarded and is cloned again.
+            assertNotSame(first, get(store, "first"));
+        } finally {
+            store.dispose();
+        }
+    }
+
+    @Test
+    public void repositoriesBiggerThanTheLimitAreRejected() throws Exception
+    {
+        MemoryRepositoryStore store = new MemoryRepositoryStore(1, 60000);
+        try {
+            get(store, "memory");
+            fail("The repository should be too big");
+        } catch (Exception expected) {
+            assertTrue(ExceptionUtils.getRootCauseMessage(expected).contains("bytes allowed"));
+            assertEquals(0, store.size());
+        } finally {
+            store.dispose();
+        }
+    }
+
+    @Test
+    public void fetchedObjectsAreCounted() throws Exception
+    {
+        MemoryRepositoryStore unbounded = new MemoryRepositoryStore(Long.MAX_VALUE, 60000);
+        get(unbounded, "memory");
+        long size = unbounded.getTotalSize();
+        unbounded.dispose();
+
+        MemoryRepositoryStore store = new MemoryRepositoryStore(size * 5 / 2, 60000);
+        try {
+            Repository first = get(store, "first");
+            get(store, "second");
+            assertEquals(2, store.size());
+
+            // The second repository is discarded to make room for the objects fetched into the first one.
+            this.gitHelper.add(this.origin, "b.txt", "b", AUTHOR, AUTHOR, "Commit b.txt");
+            fetch(store, first);
+            assertEquals(1, store.size());
+            assertTrue(store.getTotalSize() > size);
+            assertSame(first, get(store, "first"));
+
+            // The fetch is aborted while receiving the pack and the repository keeps the objects it had.
+            long fetchedSize = store.getTotalSize();
+            this.gitHelper.add(this.origin, "c.txt", RandomStringUtils.randomAlphanumeric((int) size * 10), AUTHOR,
+                AUTHOR, "Commit c.txt");
+            try {
+                fetch(store, first);
+                fail("The repository should be too big");
+            } catch (Exception expected) {
+                assertTrue(ExceptionUtils.getRootCauseMessage(expected).contains("bytes allowed"));
+                assertEquals(1, store.size());
+                assertEquals(fetchedSize, store.getTotalSize());
+                assertEquals(fetchedSize, ((BoundedMemoryRepository) first).getSize());
+                assertTrue(first.resolve("master:b.txt") != null);
+                assertNull(first.resolve("master:c.txt"));
+            }
+        } finally {
+            store.dispose();
+        }
+    }
+
+    @Test
+    public void idleRepositoriesExpire() throws Exception
+    {
+        MemoryRepositoryStore store = new MemoryRepositoryStore(Long.MAX_VALUE, 1);
+        try {
+            get(store, "memory");
+            Thread.sleep(10);
+            store.expire();
+            assertEquals(0, store.size());
+            assertEquals(0, store.getTotalSize());
+        } finally {
+            store.dispose();
+        }
+    }
+}
@@ -0,0 +1,201 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.git.internal;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.helpers.NOPLogger;
+import org.xwiki.git.GitHelper;
+import org.xwiki.git.internal.NodeLockManager.NodeLock;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Unit tests for {@link NodeLockManager}, using other JVMs to play the other nodes of a cluster.
+ *
+ * @version $Id$
+ * @since 9.11
+ */
+public class NodeLockManagerTest
+{
+    private File directory;
+
+    private File logFile;
+
+    private Path lockFile;
+
+    private NodeLockManager lockManager;
+
+    private final List<Process> nodes = new ArrayList<>();
+
+    /**
+     * Lock a directory, write to a log file when the lock is taken and before it's released, and hold it for a while
+     * in between.
+     *
+     * @param args the directory to lock, the log file, the number of milliseconds to hold the lock and the lease
+     * @throws Exception when failing to lock
+     */
+    public static void main(String[] args) throws Exception
+    {
+        String node = args[0] + '-' + System.nanoTime();
+        Path log = new File(args[1]).toPath();
+        NodeLockManager lockManager = new NodeLockManager(Long.parseLong(args[3]), NOPLogger.NOP_LOGGER);
+        NodeLock lock = lockManager.lock(new File(args[0]));
+        try {
+            Files.write(log, Collections.singletonList("start " + node), StandardOpenOption.CREATE,
+                StandardOpenOption.APPEND);
+            Thread.sleep(Long.parseLong(args[2]));
+            Files.write(log, Collections.singletonList("end " + node), StandardOpenOption.APPEND);
+        } finally {
+            lock.close();
+        }
+        lockManager.dispose();
+    }
+
+    @Before
+    public void setUp() throws Exception
+    {
+        File root = GitHelper.createTemporaryDirectory();
+        this.directory = new File(root, "repository");
+        this.logFile = new File(root, "log.txt");
+        this.lockFile = new File(root, ".repository.lock").toPath();
+    }
+
+    @After
+    public void tearDown()
+    {
+        for (Process node : this.nodes) {
+            node.destroyForcibly();
+        }
+        if (this.lockManager != null) {
+            this.lockManager.dispose();
+        }
+    }
+
+    private Process startNode(long holdTime, long lease) throws Exception
+    {
+        String java = new File(new File(System.getProperty("java.home"), "bin"), "java").getAbsolutePath();
+        Process node = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"), getClass().getName(),
+            this.directory.getAbsolutePath(), this.logFile.getAbsolutePath(), String.valueOf(holdTime),
+            String.valueOf(lease)).inheritIO().start();
+        this.nodes.add(node);
+        return node;
+    }
+
+    private List<String> readLog() throws Exception
+    {
+        return this.logFile.exists() ? Files.readAllLines(this.logFile.toPath()) : Collections.emptyList();
+    }
+
+    @Test
+    public void lockIsExclusiveAcrossNodes() throws Exception
+    {
+        for (int i = 0; i < 3; i++) {
+            startNode(300, 5000);
+        }
+        for (Process node : this.nodes) {
+            assertTrue(node.waitFor(60, TimeUnit.SECONDS));
+            assertEquals(0, node.exitValue());
+        }
+
+        List<String> log = readLog();
+        assertEquals(6, log.size());
+        for (int i = 0; i < log.size(); i += 2) {
+            // Each node released the lock before the next one took it.
+            assertTrue(log.get(i).startsWith("start "));
+            assertEquals(log.get(i).replace("start ", "end "), log.get(i + 1));
+        }
+        assertFalse(Files.exists(this.lockFile));
+    }
+
+    @Test
+    public void lockOfCrashedNodeExpires() throws Exception
+    {
+        Process node = startNode(60000, 1000);
+        long start = System.currentTimeMillis();
+        while (readLog().isEmpty()) {
+            assertTrue(System.currentTimeMillis() - start < 60000);
+            Thread.sleep(50);
+        }
+
+        // The lease is renewed as long as the node is alive.
+        this.lockManager = new NodeLockManager(1000, mock(Logger.class));
+        Thread.sleep(1500);
+        assertNull(this.lockManager.tryLock(this.directory));
+
+        node.destroyForcibly().waitFor();
+        CompletableFuture<NodeLock> lock = CompletableFuture.supplyAsync(() -> {
+            try {
+                return this.lockManager.lock(this.directory);
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        lock.get(30, TimeUnit.SECONDS).close();
+        assertFalse(Files.exists(this.lockFile));
+    }
+
+    @Test
+    public void expiredLockIsBroken() throws Exception
+    {
+        Files.write(this.lockFile, "gone".getBytes(StandardCharsets.UTF_8));
+        Files.setLastModifiedTime(this.lockFile, FileTime.fromMillis(System.currentTimeMillis() - 10000));
+
+        this.lockManager = new NodeLockManager(5000, mock(Logger.class));
+        NodeLock lock = this.lockManager.tryLock(this.directory);
+        assertNotNull(lock);
+        assertNotEquals("gone", new String(Files.readAllBytes(this.lockFile), StandardCharsets.UTF_8));
+
+        // Reentrant for the owner thread only.
+        assertSame(lock, this.lockManager.tryLock(this.directory));
+        assertNull(CompletableFuture.supplyAsync(() -> {
+            try {
+                return this.lockManager.tryLock(this.directory);
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }).get());
+        lock.close();
+        assertTrue(Files.exists(this.lockFile));
+        lock.close();
+        assertFalse(Files.exists(this.lockFile));
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.git.internal;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.eclipse.jgit.lib.ObjectId;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for {@link ObjectIdSet}.
+ *
+ * @version $Id$
+ * @since 9.11
+ */
+public class ObjectIdSetTest
+{
+    private final Random random = new Random(42);
+
+    private ObjectId randomId()
+    {
+        byte[] raw = new byte[20];
+        this.random.nextBytes(raw);
+        return ObjectId.fromRaw(raw);
+    }
+
+    @Test
+    public void addAndContains()
+    {
+        ObjectIdSet set = new ObjectIdSet();
+        List<ObjectId> ids = new ArrayList<>();
+        // Enough ids to make the set grow several times.
+        for (int i = 0; i < 10000; i++) {
+            ObjectId id = randomId();
+            ids.add(id);
+            assertFalse(set.contains(id));
+            assertTrue(set.add(id));
+        }
+
+        assertEquals(ids.size(), set.size());
+        for (ObjectId id : ids) {
+            assertTrue(set.contains(id));
+            assertFalse(set.add(id.copy()));
+        }
+        assertFalse(set.contains(randomId()));
+        assertEquals(ids.size(), set.size());
+    }
+
+    @Test
+    public void addRaw()
+    {
+        ObjectIdSet set = new ObjectIdSet();
+        ObjectId first = randomId();
+        ObjectId second = randomId();
+        byte[] raw = new byte[45];
+        first.copyRawTo(raw, 5);
+        second.copyRawTo(raw, 25);
+
+        assertTrue(set.add(raw, 5));
+        assertFalse(set.add(first));
+        assertTrue(set.contains(first));
+        assertTrue(set.add(second));
+        assertFalse(set.add(raw, 25));
+        assertEquals(2, set.size());
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.git.internal;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.Repository;
+import org.junit.Before;
+import org.junit.Test;
+import org.xwiki.git.GitHelper;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Unit tests for {@link QueryResultCache}.
+ *
+ * @version $Id$
+ * @since 9.11
+ */
+public class QueryResultCacheTest
+{
+    private File directory;
+
+    private final AtomicInteger computations = new AtomicInteger();
+
+    @Before
+    public void setUp()
+    {
+        this.directory = GitHelper.createTemporaryDirectory();
+    }
+
+    private Git init(String name) throws Exception
+    {
+        Git git = Git.init().setDirectory(new File(this.directory, name)).call();
+        commit(git);
+        return git;
+    }
+
+    private void commit(Git git) throws Exception
+    {
+        git.commit().setAllowEmpty(true).setMessage("commit").call();
+    }
+
+    private Integer query(QueryResultCache cache, String query, List<Repository> repositories)
+    {
+        return cache.get(query, null, repositories, this.computations::incrementAndGet);
+    }
+
+    @Test
+    public void resultIsReusedUntilHeadMoves() throws Exception
+    {
+        QueryResultCache cache = new QueryResultCache(10, 0);
+        Git git = init("moving");
+        List<Repository> repositories = Collections.singletonList(git.getRepository());
+
+        assertEquals(1, (int) query(cache, "query", repositories));
+        assertEquals(1, (int) query(cache, "query", repositories));
+        assertEquals(2, (int) query(cache, "other query", repositories));
+
+        commit(git);
+        assertEquals(3, (int) query(cache, "query", repositories));
+        assertEquals(3, (int) query(cache, "query", repositories));
+
+        assertEquals(2, cache.getHitCount());
+        assertEquals(3, cache.getMissCount());
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void evictLeastRecentlyUsed() throws Exception
+    {
+        QueryResultCache cache = new QueryResultCache(2, 0);
+        List<Repository> first = Collections.singletonList(init("first").getRepository());
+        List<Repository> second = Collections.singletonList(init("second").getRepository());
+        List<Repository> both = Arrays.asList(first.get(0), second.get(0));
+
+        query(cache, "query", first);
+        query(cache, "query", second);
+        // Access the first result so that the second one becomes the least recently used.
+        query(cache, "query", first);
+        query(cache, "query", both);
+
+        assertEquals(2, cache.size());
+        assertEquals(1, (int) query(cache, "query", first));
+        assertEquals(4, (int) query(cache, "query", second));
+    }
+
+    @Test
+    public void sinceIsRounded()
+    {
+        QueryResultCache cache = new QueryResultCache(10, 60000);
+        assertEquals(new Date(120000), cache.round(new Date(179999)));
+        assertEquals(null, cache.round(null));
+        assertEquals(new Date(179999), new QueryResultCache(0, 60000).round(new Date(179999)));
+    }
+
+    @Test
+    public void disabledCacheKeepsNothing() throws Exception
+    {
+        QueryResultCache cache = new QueryResultCache(0, 0);
+        List<Repository> repositories = Collections.singletonList(init("disabled").getRepository());
+
+        assertEquals(1, (int) query(cache, "query", repositories));
+        assertEquals(2, (int) query(cache, "query", repositories));
+        assertEquals(0, cache.size());
+    }
+}
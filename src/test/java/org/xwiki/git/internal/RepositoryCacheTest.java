@@ -0,0 +1,144 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.git.internal;
+
+import java.io.File;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.Repository;
+import org.junit.Before;
+import org.junit.Test;
+import org.xwiki.git.GitHelper;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for {@link RepositoryCache}.
+ *
+ * @version $Id$
+ * @since 9.11
+ */
+public class RepositoryCacheTest
+{
+    private File directory;
+
+    @Before
+    public void setUp()
+    {
+        this.directory = GitHelper.createTemporaryDirectory();
+    }
+
+    private Repository open(String name) throws Exception
+    {
+        return Git.init().setDirectory(new File(this.directory, name)).call().getRepository();
+    }
+
+    @Test
+    public void getReturnsSameHandle() throws Exception
+    {
+        RepositoryCache cache = new RepositoryCache(10, 0);
+        Repository repository = open("same");
+        File gitDirectory = repository.getDirectory();
+
+        assertNull(cache.get(gitDirectory));
+        Repository cached = cache.put(gitDirectory, repository);
+        assertSame(repository, cached);
+        assertSame(repository, cache.get(gitDirectory));
+
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void evictLeastRecentlyUsed() throws Exception
+    {
+        RepositoryCache cache = new RepositoryCache(2, 0);
+        Repository first = open("first");
+        Repository second = open("second");
+        Repository third = open("third");
+
+        cache.put(first.getDirectory(), first);
+        cache.put(second.getDirectory(), second);
+        // Access the first repository so that the second one becomes the least recently used.
+        cache.get(first.getDirectory());
+        cache.put(third.getDirectory(), third);
+
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getEvictionCount());
+        assertNotNull(cache.get(first.getDirectory()));
+        assertNull(cache.get(second.getDirectory()));
+    }
+
+    @Test
+    public void evictIdle() throws Exception
+    {
+        RepositoryCache cache = new RepositoryCache(10, 1);
+        Repository repository = open("idle");
+
+        cache.put(repository.getDirectory(), repository);
+        Thread.sleep(10);
+
+        assertNull(cache.get(repository.getDirectory()));
+        assertEquals(1, cache.getEvictionCount());
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void accessesAreRecorded() throws Exception
+    {
+        RepositoryCache cache = new RepositoryCache(1, 0);
+        File gitDirectory = open("accessed").getDirectory();
+        File otherGitDirectory = open("other").getDirectory();
+        assertEquals(0, cache.getLastAccess(gitDirectory));
+
+        long start = System.currentTimeMillis();
+        cache.put(gitDirectory, cache.open(gitDirectory));
+        long opened = cache.getLastAccess(gitDirectory);
+        assertTrue(opened >= start);
+
+        Thread.sleep(10);
+        cache.get(gitDirectory);
+        assertTrue(cache.getLastAccess(gitDirectory) > opened);
+
+        // Still recorded once evicted, since callers may still use the repository.
+        cache.put(otherGitDirectory, cache.open(otherGitDirectory));
+        assertNull(cache.get(gitDirectory));
+        assertTrue(cache.getLastAccess(gitDirectory) > opened);
+
+        assertTrue(cache.remove(otherGitDirectory));
+        assertEquals(0, cache.getLastAccess(otherGitDirectory));
+    }
+
+    @Test
+    public void disabledCacheKeepsNothing() throws Exception
+    {
+        RepositoryCache cache = new RepositoryCache(0, 0);
+        Repository repository = open("disabled");
+
+        assertSame(repository, cache.put(repository.getDirectory(), repository));
+        assertNull(cache.get(repository.getDirectory()));
+        assertEquals(0, cache.size());
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.git.internal;
+
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.Repository;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.xwiki.environment.Environment;
+import org.xwiki.git.GitHelper;
+import org.xwiki.git.GitManager;
+import org.xwiki.git.MaintenanceReport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for {@link RepositoryMaintainer}.
+ *
+ * @version $Id$
+ * @since 9.11
+ */
+public class RepositoryMaintainerTest
+{
+    private static final PersonIdent AUTHOR = new PersonIdent("Alice", "alice@doe.com");
+
+    private final GitMetrics metrics = new GitMetrics(new RepositoryCache(0, 0), new QueryResultCache(0, 0));
+
+    private final GitManager gitManager = mock(GitManager.class);
+
+    private GitHelper gitHelper;
+
+    private Repository repository;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        Environment environment = mock(Environment.class);
+        when(environment.getPermanentDirectory()).thenReturn(GitHelper.createTemporaryDirectory());
+        this.gitHelper = new GitHelper(environment);
+        this.repository = this.gitHelper.createGitTestRepository("maintained");
+    }
+
+    private void commit(String path) throws Exception
+    {
+        this.gitHelper.add(this.repository.getDirectory(), path, path, AUTHOR, AUTHOR, "Commit " + path);
+    }
+
+    @Test
+    public void repackWritesBitmaps() throws Exception
+    {
+        commit("a.txt");
+        commit("b.txt");
+        RepositoryMaintainer maintainer = new RepositoryMaintainer(this.gitManager, 0, 0, 0, 0, this.metrics,
+            mock(Logger.class));
+
+        MaintenanceReport report = maintainer.maintain(this.repository, true);
+
+        assertTrue(report.isPerformed());
+        // Two commits, two blobs and two trees.
+        assertEquals(6, report.getBefore().getLooseObjectCount());
+        assertEquals(0, report.getBefore().getPackFileCount());
+        assertEquals(0, report.getAfter().getLooseObjectCount());
+        assertEquals(1, report.getAfter().getPackFileCount());
+        assertEquals(6, report.getAfter().getPackedObjectCount());
+        assertTrue(report.getAfter().getBitmapCount() > 0);
+        assertEquals(1, this.metrics.getMaintenanceCount());
+    }
+
+    @Test
+    public void oldPacksAreKeptDuringTheGracePeriod() throws Exception
+    {
+        RepositoryMaintainer maintainer = new RepositoryMaintainer(this.gitManager, 0, 0, 0,
+            TimeUnit.MINUTES.toMillis(5), this.metrics, mock(Logger.class));
+        commit("a.txt");
+        assertEquals(1, maintainer.maintain(this.repository, true).getAfter().getPackFileCount());
+
+        commit("b.txt");
+        MaintenanceReport report = maintainer.maintain(this.repository, true);
+
+        // The new pack holds every object while the old one is still there for the readers using it.
+        assertEquals(2, report.getAfter().getPackFileCount());
+        assertEquals(0, report.getAfter().getLooseObjectCount());
+    }
+
+    @Test
+    public void repackWhenThresholdIsCrossed() throws Exception
+    {
+        RepositoryMaintainer maintainer = new RepositoryMaintainer(this.gitManager, 0, 5, 0, 0, this.metrics,
+            mock(Logger.class));
+        when(this.gitManager.maintain(any(Repository.class), anyBoolean()))
+            .thenAnswer(invocation -> maintainer.maintain((Repository) invocation.getArguments()[0],
+                (Boolean) invocation.getArguments()[1]));
+        try {
+            commit("a.txt");
+            MaintenanceReport report = maintainer.maintain(this.repository, false);
+            assertFalse(report.isPerformed());
+            assertEquals(3, report.getAfter().getLooseObjectCount());
+
+            // Nothing to do yet.
+            maintainer.check(this.repository);
+            commit("b.txt");
+            maintainer.check(this.repository);
+
+            long timeout = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+            while (this.metrics.getMaintenanceCount() == 0 && System.currentTimeMillis() < timeout) {
+                Thread.sleep(10);
+            }
+            assertEquals(1, this.metrics.getMaintenanceCount());
+            assertEquals(0, maintainer.maintain(this.repository, false).getBefore().getLooseObjectCount());
+        } finally {
+            maintainer.dispose();
+        }
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.git.internal;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.ProgressMonitor;
+import org.eclipse.jgit.lib.Repository;
+import org.junit.After;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.xwiki.git.SyncRequest;
+import org.xwiki.git.SyncResult;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for {@link RepositorySynchronizer}.
+ *
+ * @version $Id$
+ * @since 9.11
+ */
+public class RepositorySynchronizerTest
+{
+    private final Repository repository = mock(Repository.class);
+
+    private final AtomicInteger running = new AtomicInteger();
+
+    private final AtomicInteger maxRunning = new AtomicInteger();
+
+    private final Map<String, AtomicInteger> runningPerHost = new ConcurrentHashMap<>();
+
+    private final Map<String, Integer> maxRunningPerHost = new ConcurrentHashMap<>();
+
+    private final Map<String, AtomicInteger> failures = new ConcurrentHashMap<>();
+
+    private RepositorySynchronizer synchronizer;
+
+    @After
+    public void tearDown()
+    {
+        this.synchronizer.dispose();
+    }
+
+    /**
+     * Pretends to clone the repository, failing as many times as the number in its directory name.
+     */
+    private SyncResult clone(SyncRequest request)
+    {
+        String host = request.getRepositoryURI().split("/")[2];
+        int hostRunning = this.runningPerHost.computeIfAbsent(host, key -> new AtomicInteger()).incrementAndGet();
+        this.maxRunningPerHost.merge(host, hostRunning, Math::max);
+        this.maxRunning.accumulateAndGet(this.running.incrementAndGet(), Math::max);
+        try {
+            Thread.sleep(20);
+            int expectedFailures = Integer.parseInt(request.getLocalDirectoryName().split("-")[1]);
+            AtomicInteger failureCount =
+                this.failures.computeIfAbsent(request.getLocalDirectoryName(), key -> new AtomicInteger());
+            if (failureCount.getAndIncrement() < expectedFailures) {
+                throw new RuntimeException("Connection reset");
+            }
+            return new SyncResult(request, SyncResult.Status.CLONED, this.repository, 1, 0, null);
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        } finally {
+            this.running.decrementAndGet();
+            this.runningPerHost.get(host).decrementAndGet();
+        }
+    }
+
+    private List<SyncRequest> createRequests(String host, int count, int failures)
+    {
+        List<SyncRequest> requests = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            requests.add(new SyncRequest("https://" + host + "/repository" + i + ".git", host + i + "-" + failures,
+                null));
+        }
+        return requests;
+    }
+
+    @Test
+    public void synchronizeWithinLimits()
+    {
+        this.synchronizer = new RepositorySynchronizer(this::clone, 3, 2, 1, 0, mock(Logger.class));
+        List<SyncRequest> requests = createRequests("a.org", 6, 0);
+        requests.addAll(createRequests("b.org", 3, 0));
+
+        List<SyncResult> results = this.synchronizer.synchronize(requests, NullProgressMonitor.INSTANCE);
+
+        assertEquals(requests.size(), results.size());
+        for (int i = 0; i < requests.size(); i++) {
+            assertSame(requests.get(i), results.get(i).getRequest());
+            assertEquals(SyncResult.Status.CLONED, results.get(i).getStatus());
+            assertSame(this.repository, results.get(i).getRepository());
+        }
+        assertEquals(3, this.maxRunning.get());
+        assertEquals(2, this.maxRunningPerHost.get("a.org").intValue());
+        assertTrue(this.maxRunningPerHost.get("b.org") <= 2);
+    }
+
+    @Test
+    public void synchronizeRetriesFailedRepositories()
+    {
+        Logger logger = mock(Logger.class);
+        this.synchronizer = new RepositorySynchronizer(this::clone, 2, 0, 3, 10, logger);
+        List<SyncRequest> requests = createRequests("a.org", 1, 2);
+        requests.addAll(createRequests("b.org", 1, 5));
+
+        List<SyncResult> results = this.synchronizer.synchronize(requests, NullProgressMonitor.INSTANCE);
+
+        assertTrue(results.get(0).isSuccessful());
+        assertEquals(3, results.get(0).getAttempts());
+        assertNull(results.get(0).getError());
+        // Waited 10 then about 20 milliseconds before retrying.
+        assertTrue(results.get(0).getDuration() >= 30);
+
+        assertFalse(results.get(1).isSuccessful());
+        assertEquals(SyncResult.Status.FAILED, results.get(1).getStatus());
+        assertEquals(3, results.get(1).getAttempts());
+        assertEquals("RuntimeException: Connection reset", results.get(1).getError());
+    }
+
+    @Test
+    public void synchronizeCancelled()
+    {
+        this.synchronizer = new RepositorySynchronizer(this::clone, 1, 0, 1, 0, mock(Logger.class));
+        ProgressMonitor monitor = mock(ProgressMonitor.class);
+        when(monitor.isCancelled()).thenReturn(true);
+
+        List<SyncResult> results = this.synchronizer.synchronize(createRequests("a.org", 2, 0), monitor);
+
+        assertEquals(SyncResult.Status.CANCELLED, results.get(0).getStatus());
+        assertEquals(0, results.get(1).getAttempts());
+        assertEquals(0, this.maxRunning.get());
+    }
+}
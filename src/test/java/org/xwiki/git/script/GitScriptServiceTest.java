@@ -20,7 +20,22 @@
 package org.xwiki.git.script;
 
 import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
 import java.util.Set;
+import java.util.TimeZone;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 
 import org.apache.commons.io.FileUtils;
 import org.eclipse.jgit.api.CloneCommand;
@@ -29,14 +44,40 @@ import org.eclipse.jgit.lib.PersonIdent;
 import org.eclipse.jgit.lib.Repository;
 import org.gitective.core.stat.UserCommitActivity;
 import org.junit.*;
+import org.slf4j.Logger;
+import org.xwiki.configuration.ConfigurationSource;
+import org.xwiki.configuration.internal.MemoryConfigurationSource;
 import org.xwiki.environment.Environment;
+import org.xwiki.git.ActivitySeries;
+import org.xwiki.git.AuthorChurn;
+import org.xwiki.git.AuthorCommitCount;
+import org.xwiki.git.CommitPage;
+import org.xwiki.git.CommitSummary;
+import org.xwiki.git.DirectoryContributions;
+import org.xwiki.git.FileBlame;
 import org.xwiki.git.GitHelper;
+import org.xwiki.git.GitManager;
+import org.xwiki.git.GitStatistics;
+import org.xwiki.git.GitTask;
+import org.xwiki.git.MaintenanceReport;
+import org.xwiki.git.QueryBudget;
+import org.xwiki.git.QueryResult;
+import org.xwiki.git.SyncRequest;
+import org.xwiki.git.SyncResult;
+import org.xwiki.git.internal.DefaultGitConfiguration;
 import org.xwiki.git.internal.DefaultGitManager;
+import org.xwiki.git.internal.NodeLockManager;
 import org.xwiki.script.service.ScriptService;
 import org.xwiki.test.annotation.ComponentList;
 import org.xwiki.test.mockito.MockitoComponentManagerRule;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
 /**
@@ -46,6 +87,7 @@ import static org.mockito.Mockito.when;
  * @since 4.2M1
  */
 @ComponentList({
+    DefaultGitConfiguration.class,
     DefaultGitManager.class,
     GitScriptService.class
 })
@@ -60,6 +102,10 @@ public class GitScriptServiceTest
 
     private File testRepository;
 
+    private GitHelper gitHelper;
+
+    private MemoryConfigurationSource configuration;
+
     @Before
     public void setupRepository() throws Exception
     {
@@ -67,6 +113,11 @@ public class GitScriptServiceTest
         Environment environment = this.componentManager.registerMockComponent(Environment.class);
         when(environment.getPermanentDirectory()).thenReturn(GitHelper.createTemporaryDirectory());
         GitHelper gitHelper = new GitHelper(environment);
+        this.gitHelper = gitHelper;
+
+        // Use the default configuration
+        this.configuration = new MemoryConfigurationSource();
+        this.componentManager.registerComponent(ConfigurationSource.class, "xwikiproperties", this.configuration);
 
         // Delete repositories
         FileUtils.deleteDirectory(gitHelper.getRepositoryFile(TEST_REPO_ORIG));
@@ -119,4 +170,566 @@ public class GitScriptServiceTest
         // Now check branch
         assertEquals("master", repository.getBranch());
     }
+
+    @Test
+    public void getRepositoryWithInvalidCloneMode() throws Exception
+    {
+        this.configuration.setProperty("git.clone.mode", "bogus");
+        GitScriptService service = this.componentManager.getInstance(ScriptService.class, "git");
+        Repository repository = service.getRepository(this.testRepository.getAbsolutePath(), TEST_REPO_CLONED);
+        // The default mode is used instead.
+        assertFalse(repository.isBare());
+        assertTrue(new File(repository.getWorkTree(), "test.txt").exists());
+    }
+
+    @Test
+    public void getRepositoryBareIsReopened() throws Exception
+    {
+        // Don't keep the repository open so that it's reopened from disk.
+        this.configuration.setProperty("git.repositoryCache.size", 0);
+        GitScriptService service = this.componentManager.getInstance(ScriptService.class, "git");
+        Repository repository = service.getRepository(this.testRepository.getAbsolutePath(), TEST_REPO_CLONED, "bare");
+        assertTrue(repository.isBare());
+        assertEquals(1, service.getStatistics().getCloneCount());
+
+        Repository reopened = service.getRepository(this.testRepository.getAbsolutePath(), TEST_REPO_CLONED, "bare");
+        assertTrue(reopened.isBare());
+        assertEquals(repository.getDirectory(), reopened.getDirectory());
+        assertEquals(1, service.getStatistics().getCloneCount());
+        assertEquals(1, service.getStatistics().getOpenCount());
+    }
+
+    @Test
+    public void getRepositoryIsDeletedWhenExceedingTheDiskQuota() throws Exception
+    {
+        this.configuration.setProperty("git.diskQuota", 1);
+        this.configuration.setProperty("git.diskQuota.lease", 0);
+        // Keep the origin out of the local Git directory so that only the clones count, each one using more than half
+        // of the quota.
+        File origin = new File(GitHelper.createTemporaryDirectory(), "origin");
+        try (Git git = Git.init().setDirectory(origin).call()) {
+            origin = git.getRepository().getDirectory();
+        }
+        Random random = new Random(42);
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < 400000; i++) {
+            content.append((char) ('0' + random.nextInt(64)));
+        }
+        this.gitHelper.add(origin, "large.txt", content.toString(), new PersonIdent("test author", "author@doe.com"),
+            new PersonIdent("test committer", "committer@doe.com"), "large file");
+
+        // Scripts never release the repositories they get.
+        GitScriptService service = this.componentManager.getInstance(ScriptService.class, "git");
+        File first = service.getRepository(origin.getAbsolutePath(), "first").getWorkTree();
+        File second = service.getRepository(origin.getAbsolutePath(), "second").getWorkTree();
+
+        // The quota is enforced in the background.
+        for (int i = 0; i < 100 && first.exists(); i++) {
+            Thread.sleep(100);
+        }
+        assertFalse(first.exists());
+        assertTrue(new File(second, "large.txt").exists());
+
+        // The deleted repository is cloned again when requested.
+        assertTrue(new File(service.getRepository(origin.getAbsolutePath(), "first").getWorkTree(), "large.txt")
+            .exists());
+    }
+
+    @Test
+    public void temporaryClonesLeftByACrashAreDeletedAtStartup() throws Exception
+    {
+        File localDirectory = this.gitHelper.getRepositoryFile(TEST_REPO_CLONED);
+        File temporaryClone = new File(localDirectory.getParentFile(), '.' + TEST_REPO_CLONED + ".clone-123");
+        new File(temporaryClone, ".git").mkdirs();
+
+        this.componentManager.getInstance(ScriptService.class, "git");
+
+        // The local Git directory is scanned in the background.
+        for (int i = 0; i < 100 && temporaryClone.exists(); i++) {
+            Thread.sleep(100);
+        }
+        assertFalse(temporaryClone.exists());
+    }
+
+    @Test
+    public void getRepositorySingleBranchWithoutCheckout() throws Exception
+    {
+        try (Git git = Git.open(this.testRepository)) {
+            git.branchCreate().setName("stable").call();
+        }
+        GitScriptService service = this.componentManager.getInstance(ScriptService.class, "git");
+        Repository repository = service.getRepository(this.testRepository.getAbsolutePath(), TEST_REPO_CLONED,
+            "no_checkout", "master", null, null);
+
+        assertFalse(repository.isBare());
+        assertFalse(new File(repository.getWorkTree(), "test.txt").exists());
+        assertNotNull(repository.exactRef("refs/remotes/origin/master"));
+        assertEquals(null, repository.exactRef("refs/remotes/origin/stable"));
+        assertEquals(Arrays.asList("+refs/heads/master:refs/remotes/origin/master"),
+            Arrays.asList(repository.getConfig().getStringList("remote", "origin", "fetch")));
+        assertEquals(1, service.findAuthors(repository).size());
+
+        this.gitHelper.add(this.testRepository, "test2.txt", "other content",
+            new PersonIdent("other author", "other@doe.com"), new PersonIdent("test committer", "committer@doe.com"),
+            "second commit");
+
+        assertTrue(service.update(repository));
+        assertEquals(2, service.findAuthors(repository).size());
+        assertFalse(new File(repository.getWorkTree(), "test2.txt").exists());
+        assertEquals(null, repository.exactRef("refs/remotes/origin/stable"));
+    }
+
+    @Test
+    public void getRepositoryInMemory() throws Exception
+    {
+        GitScriptService service = this.componentManager.getInstance(ScriptService.class, "git");
+        Repository repository =
+            service.getRepository(this.testRepository.getAbsolutePath(), TEST_REPO_CLONED, "memory");
+        assertEquals(null, repository.getDirectory());
+        assertFalse(this.gitHelper.getRepositoryFile(TEST_REPO_CLONED).exists());
+        assertSame(repository,
+            service.getRepository(this.testRepository.getAbsolutePath(), TEST_REPO_CLONED, "memory"));
+        assertEquals(1, service.countAuthorCommits(1, repository).length);
+        GitStatistics statistics = service.getStatistics();
+        assertTrue(statistics.getMemoryPackCacheHitCount() + statistics.getMemoryPackCacheMissCount() > 0);
+
+        this.gitHelper.add(this.testRepository, "test2.txt", "other content",
+            new PersonIdent("other author", "other@doe.com"), new PersonIdent("test committer", "committer@doe.com"),
+            "second commit");
+        assertTrue(service.update(repository));
+        assertEquals(2, service.findAuthors(repository).size());
+    }
+
+    @Test
+    public void maintainRepository() throws Exception
+    {
+        // Delete the old packs right away since nothing else reads them.
+        this.configuration.setProperty("git.maintenance.packExpiry", 0);
+        GitScriptService service = this.componentManager.getInstance(ScriptService.class, "git");
+        Repository repository = service.getRepository(this.testRepository.getAbsolutePath(), TEST_REPO_CLONED);
+        this.gitHelper.add(this.testRepository, "test2.txt", "other content",
+            new PersonIdent("other author", "other@doe.com"), new PersonIdent("test committer", "committer@doe.com"),
+            "second commit");
+        assertTrue(service.update(repository));
+
+        MaintenanceReport report = service.maintain(repository);
+        assertTrue(report.isPerformed());
+        assertEquals(1, report.getAfter().getPackFileCount());
+        assertEquals(0, report.getAfter().getLooseObjectCount());
+        assertEquals(6, report.getAfter().getPackedObjectCount());
+        assertEquals(1, service.getStatistics().getMaintenanceCount());
+        assertEquals(2, service.findAuthors(repository).size());
+    }
+
+    @Test
+    public void getRepositoryConcurrently() throws Exception
+    {
+        GitScriptService service = this.componentManager.getInstance(ScriptService.class, "git");
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Repository>> futures = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                futures.add(executor.submit(
+                    () -> service.getRepository(this.testRepository.getAbsolutePath(), TEST_REPO_CLONED)));
+            }
+            Repository repository = futures.get(0).get();
+            for (Future<Repository> future : futures) {
+                assertSame(repository, future.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        // Only the published clone is left, no temporary directory.
+        File[] files = this.gitHelper.getRepositoryFile(TEST_REPO_CLONED).getParentFile().listFiles();
+        assertEquals(2, files.length);
+    }
+
+    @Test
+    public void updateRepository() throws Exception
+    {
+        GitScriptService service = this.componentManager.getInstance(ScriptService.class, "git");
+        Repository repository = service.getRepository(this.testRepository.getAbsolutePath(), TEST_REPO_CLONED);
+        assertFalse(service.update(repository));
+
+        this.gitHelper.add(this.testRepository, "test2.txt", "other content",
+            new PersonIdent("other author", "other@doe.com"), new PersonIdent("test committer", "committer@doe.com"),
+            "second commit");
+
+        assertTrue(service.update(repository));
+        assertEquals(2, service.findAuthors(repository).size());
+        assertTrue(new File(repository.getWorkTree(), "test2.txt").exists());
+    }
+
+    @Test
+    public void countAuthorCommitsInSeveralRepositories() throws Exception
+    {
+        GitScriptService service = this.componentManager.getInstance(ScriptService.class, "git");
+        Repository first = service.getRepository(this.testRepository.getAbsolutePath(), TEST_REPO_CLONED);
+        Repository second = service.getRepository(this.testRepository.getAbsolutePath(), TEST_REPO_CLONED + "-2");
+
+        UserCommitActivity[] commits = service.countAuthorCommits(0, first, second);
+        // 1 author
+        assertEquals(1, commits.length);
+        // The same commit is counted once per repository
+        assertEquals(2, commits[0].getCount());
+        assertEquals(1, service.findAuthors(first, second).size());
+
+        AuthorCommitCount[] counts = service.getAuthorCommitCounts(0, first, second);
+        assertEquals(1, counts.length);
+        assertEquals("author@doe.com", counts[0].getEmail());
+        assertEquals(2, counts[0].getCount());
+        assertEquals(commits[0].getEarliest(), counts[0].getEarliest());
+        assertEquals(commits[0].getLatest(), counts[0].getLatest());
+
+        // Unless shared commits are deduplicated
+        assertEquals(1, service.countAuthorCommits(0, Arrays.asList(first, second), true)[0].getCount());
+        assertEquals(1, service.getAuthorCommitCounts(0, Arrays.asList(first, second), true)[0].getCount());
+    }
+
+    @Test
+    public void countAuthorCommitsWithinBudget() throws Exception
+    {
+        PersonIdent author = new PersonIdent("test author", "author@doe.com");
+        this.gitHelper.add(this.testRepository, "second.txt", "second", author, author, "second commit");
+        this.gitHelper.add(this.testRepository, "third.txt", "third", author, author, "third commit");
+        this.configuration.setProperty("git.query.maxCommits", 2);
+        GitScriptService service = this.componentManager.getInstance(ScriptService.class, "git");
+        Repository repository = service.getRepository(this.testRepository.getAbsolutePath(), TEST_REPO_CLONED);
+        List<Repository> repositories = Arrays.asList(repository);
+
+        // The configured limit can only be lowered.
+        assertEquals(2, service.createQueryBudget(5, 0).getMaxCommits());
+        assertEquals(1, service.createQueryBudget(1, 0).getMaxCommits());
+
+        QueryResult<UserCommitActivity[]> result = service.countAuthorCommits(0, repositories, false, null);
+        assertTrue(result.isTruncated());
+        assertEquals(QueryBudget.Limit.COMMITS, result.getReachedLimit());
+        assertEquals(2, result.getVisitedCommitCount());
+        assertEquals(2, result.getValue()[0].getCount());
+        // The configured limit also applies to the queries executed without a budget.
+        assertEquals(2, service.getAuthorCommitCounts(0, repository)[0].getCount());
+        assertTrue(service.isLastQueryTruncated());
+        assertEquals(2, Arrays.stream(service.getActivitySeries(0, "day", repository).getTotalCounts()).sum());
+        GitTask<AuthorCommitCount[]> task = service.getAuthorCommitCountsAsync(0, repositories);
+        assertEquals(2, task.getFuture().get(10, TimeUnit.SECONDS)[0].getCount());
+        assertTrue(task.isTruncated());
+        assertEquals(2, service.getDirectoryContributions(0, null, repository).getAuthors().get(0).getCount());
+        assertEquals(2, service.getAuthorChurn(0, repository)[0].getCommitCount());
+
+        QueryBudget budget = service.createQueryBudget();
+        budget.cancel();
+        QueryResult<AuthorCommitCount[]> cancelled = service.getAuthorCommitCounts(0, repositories, false, budget);
+        assertEquals(QueryBudget.Limit.CANCELLED, cancelled.getReachedLimit());
+        assertEquals(0, cancelled.getValue().length);
+
+        // Partial results are not cached.
+        this.configuration.setProperty("git.query.maxCommits", 0);
+        assertEquals(3, service.countAuthorCommits(0, repository)[0].getCount());
+        assertFalse(service.isLastQueryTruncated());
+        assertEquals(3, service.getDirectoryContributions(0, null, repository).getAuthors().get(0).getCount());
+        assertEquals(3, service.getAuthorChurn(0, repository)[0].getCommitCount());
+        result = service.countAuthorCommits(0, repositories, false, null);
+        assertFalse(result.isTruncated());
+        assertEquals(1, service.findAuthors(repositories, null).getValue().size());
+    }
+
+    @Test
+    public void synchronizeRepositories() throws Exception
+    {
+        this.configuration.setProperty("git.sync.retryDelay", 0);
+        GitScriptService service = this.componentManager.getInstance(ScriptService.class, "git");
+        List<SyncRequest> requests = Arrays.asList(
+            service.createSyncRequest(this.testRepository.getAbsolutePath(), TEST_REPO_CLONED),
+            service.createSyncRequest(this.testRepository.getAbsolutePath(), TEST_REPO_CLONED + "-bare", "bare",
+                null, null, null),
+            service.createSyncRequest(new File(this.testRepository, "missing").getAbsolutePath(), "missing"));
+
+        List<SyncResult> results = service.synchronize(requests);
+        assertEquals(SyncResult.Status.CLONED, results.get(0).getStatus());
+        assertEquals(SyncResult.Status.CLONED, results.get(1).getStatus());
+        assertTrue(results.get(1).getRepository().isBare());
+        assertEquals(SyncResult.Status.FAILED, results.get(2).getStatus());
+        assertEquals(3, results.get(2).getAttempts());
+        assertNotNull(results.get(2).getError());
+
+        PersonIdent author = new PersonIdent("test author", "author@doe.com");
+        this.gitHelper.add(this.testRepository, "second.txt", "second", author, author, "second commit");
+        GitTask<List<SyncResult>> task = service.synchronizeAsync(requests.subList(0, 2));
+        List<SyncResult> updateResults = task.getFuture().get();
+        assertEquals(SyncResult.Status.UPDATED, updateResults.get(0).getStatus());
+        assertEquals(SyncResult.Status.UPDATED, updateResults.get(1).getStatus());
+        assertEquals(SyncResult.Status.UP_TO_DATE, service.synchronize(requests).get(0).getStatus());
+
+        // Another node sharing the permanent directory is updating the clone: wait for it instead of fetching.
+        NodeLockManager otherNode = new NodeLockManager(60000, mock(Logger.class));
+        try {
+            NodeLockManager.NodeLock otherLock = otherNode.lock(results.get(0).getRepository().getWorkTree());
+            ExecutorService executor = Executors.newSingleThreadExecutor();
+            executor.execute(() -> {
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                otherLock.close();
+            });
+            executor.shutdown();
+            SyncResult result = service.synchronize(requests.subList(0, 1)).get(0);
+            assertEquals(SyncResult.Status.UPDATED_BY_OTHER_NODE, result.getStatus());
+            assertTrue(result.isSuccessful());
+        } finally {
+            otherNode.dispose();
+        }
+    }
+
+    @Test
+    public void synchronizeInMemory() throws Exception
+    {
+        GitScriptService service = this.componentManager.getInstance(ScriptService.class, "git");
+        List<SyncRequest> requests = Arrays.asList(service.createSyncRequest(this.testRepository.getAbsolutePath(),
+            TEST_REPO_CLONED, "memory", null, null, null));
+
+        // The repository has just been cloned so there's nothing to fetch.
+        assertEquals(SyncResult.Status.CLONED, service.synchronize(requests).get(0).getStatus());
+        assertEquals(0, service.getStatistics().getFetchCount());
+
+        assertEquals(SyncResult.Status.UP_TO_DATE, service.synchronize(requests).get(0).getStatus());
+        assertEquals(1, service.getStatistics().getFetchCount());
+    }
+
+    @Test
+    public void getCommitsPageByPage() throws Exception
+    {
+        PersonIdent author = new PersonIdent("test author", "author@doe.com");
+        for (int i = 2; i <= 5; i++) {
+            this.gitHelper.add(this.testRepository, "test" + i + ".txt", "content", author, author, "commit " + i);
+        }
+
+        GitScriptService service = this.componentManager.getInstance(ScriptService.class, "git");
+        Repository repository = service.getRepository(this.testRepository.getAbsolutePath(), TEST_REPO_CLONED);
+
+        Iterator<CommitSummary> page = service.getCommits(repository, 1, 2);
+        assertEquals("commit 4", page.next().getShortMessage());
+        CommitSummary last = page.next();
+        assertEquals("commit 3", last.getShortMessage());
+        assertFalse(page.hasNext());
+
+        page = service.getCommits(repository, last.getId(), 1, 0);
+        assertEquals("commit 2", page.next().getShortMessage());
+        assertEquals("first commit", page.next().getShortMessage());
+        assertFalse(page.hasNext());
+    }
+
+    @Test
+    public void getCommitPageWithMerges() throws Exception
+    {
+        // Interleave the commits of the two branches, after the first commit, so that pages stop in the middle of the
+        // merged branch.
+        long base = System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(1);
+        try (Git git = Git.open(this.testRepository)) {
+            git.checkout().setCreateBranch(true).setName("side").call();
+            addCommit("side 1", base + 1000);
+            addCommit("side 2", base + 3000);
+            git.checkout().setName("master").call();
+            addCommit("master 1", base + 2000);
+            addCommit("master 2", base + 4000);
+            git.merge().include(git.getRepository().resolve("side")).setMessage("merge").call();
+        }
+
+        GitScriptService service = this.componentManager.getInstance(ScriptService.class, "git");
+        Repository repository = service.getRepository(this.testRepository.getAbsolutePath(), TEST_REPO_CLONED);
+
+        List<String> messages = new ArrayList<>();
+        CommitPage page = service.getCommitPage(repository, null, 2);
+        for (int i = 0; i < 3; i++) {
+            assertEquals(2, page.getCommits().size());
+            page.getCommits().forEach(commit -> messages.add(commit.getShortMessage()));
+            if (i < 2) {
+                assertNotNull(page.getNextCursor());
+                page = service.getCommitPage(repository, page.getNextCursor(), 2);
+            }
+        }
+        assertNull(page.getNextCursor());
+        assertEquals(Arrays.asList("merge", "master 2", "side 2", "master 1", "side 1", "first commit"), messages);
+    }
+
+    private void addCommit(String message, long time) throws Exception
+    {
+        PersonIdent author =
+            new PersonIdent(new PersonIdent("test author", "author@doe.com"), new Date(time), TimeZone.getDefault());
+        this.gitHelper.add(this.testRepository, message.replace(' ', '-') + ".txt", message, author, author, message);
+    }
+
+    @Test
+    public void countAuthorCommitsRoundsSinceToTheQueryCacheGranularity() throws Exception
+    {
+        this.configuration.setProperty("git.queryCache.sinceGranularity", 3600);
+        long hour = TimeUnit.HOURS.toMillis(1);
+        long start = (System.currentTimeMillis() - TimeUnit.DAYS.toMillis(1)) / hour * hour;
+        PersonIdent author =
+            new PersonIdent(new PersonIdent("early author", "early@doe.com"), new Date(start + 600000),
+                TimeZone.getDefault());
+        this.gitHelper.add(this.testRepository, "early.txt", "content", author, author, "early commit");
+
+        GitManager gitManager = this.componentManager.getInstance(GitManager.class);
+        GitScriptService service = this.componentManager.getInstance(ScriptService.class, "git");
+        List<Repository> repositories = Arrays.asList(
+            service.getRepository(this.testRepository.getAbsolutePath(), TEST_REPO_CLONED));
+
+        // Rounded down to the start of the hour, which includes the early commit.
+        AuthorCommitCount[] counts = gitManager.getAuthorCommitCounts(new Date(start + 1800000), repositories);
+        assertEquals(2, counts.length);
+        assertTrue(Arrays.stream(counts).anyMatch(count -> count.getEmail().equals("early@doe.com")));
+        counts = gitManager.getAuthorCommitCounts(new Date(start + hour), repositories);
+        assertEquals(1, counts.length);
+        assertEquals("author@doe.com", counts[0].getEmail());
+    }
+
+    @Test
+    public void getActivitySeries() throws Exception
+    {
+        long now = System.currentTimeMillis();
+        PersonIdent author = new PersonIdent(new PersonIdent("other author", "other@doe.com"),
+            new Date(now - TimeUnit.DAYS.toMillis(3)), TimeZone.getDefault());
+        this.gitHelper.add(this.testRepository, "test2.txt", "content", author, author, "older commit");
+
+        GitScriptService service = this.componentManager.getInstance(ScriptService.class, "git");
+        Repository repository = service.getRepository(this.testRepository.getAbsolutePath(), TEST_REPO_CLONED);
+
+        ActivitySeries series = service.getActivitySeries(10, "day", repository);
+        assertEquals(11, series.getBucketCount());
+        // Authors are listed in walk order, most recent commit first.
+        assertEquals(Arrays.asList("other@doe.com", "author@doe.com"), series.getAuthors());
+        assertEquals(1, series.getAuthorCounts("author@doe.com")[10]);
+        assertEquals(1, series.getAuthorCounts("other@doe.com")[7]);
+        assertEquals(2, series.getRepositoryCounts(0)[7] + series.getRepositoryCounts(0)[10]);
+        assertEquals(2, Arrays.stream(series.getTotalCounts()).sum());
+    }
+
+    @Test
+    public void getStatistics() throws Exception
+    {
+        GitScriptService service = this.componentManager.getInstance(ScriptService.class, "git");
+        Repository repository = service.getRepository(this.testRepository.getAbsolutePath(), TEST_REPO_CLONED);
+        service.getAuthorCommitCounts(0, repository);
+        service.update(repository);
+
+        GitStatistics statistics = service.getStatistics();
+        assertEquals(1, statistics.getCloneCount());
+        assertTrue(statistics.getCloneBytes() > 0);
+        assertEquals(1, statistics.getFetchCount());
+        assertEquals(1, statistics.getQueryCount());
+        assertEquals(1, statistics.getWalkCount());
+        assertEquals(1, statistics.getVisitedCommitCount());
+        assertEquals(1, statistics.getRepositoryCacheSize());
+        assertEquals(0, statistics.getInFlightCloneCount());
+        assertEquals(0, statistics.getInFlightQueryCount());
+        // The history has been read from the pack received by the clone.
+        assertTrue(statistics.getPackCacheOpenFiles() > 0);
+        assertTrue(statistics.getPackCacheOpenBytes() > 0);
+
+        // The same values are available through JMX, under a name that doesn't clash with other instances.
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        Set<ObjectName> names = server.queryNames(new ObjectName("org.xwiki.git:type=GitManager,*"), null);
+        assertEquals(1, names.size());
+        assertEquals(1L, server.getAttribute(names.iterator().next(), "CloneCount"));
+    }
+
+    @Test
+    public void getRepositoryAndCountAuthorCommitsAsynchronously() throws Exception
+    {
+        GitScriptService service = this.componentManager.getInstance(ScriptService.class, "git");
+        GitTask<Repository> cloneTask =
+            service.getRepositoryAsync(this.testRepository.getAbsolutePath(), TEST_REPO_CLONED);
+        assertSame(cloneTask, service.getTask(cloneTask.getId()));
+
+        Repository repository = cloneTask.getFuture().get(30, TimeUnit.SECONDS);
+        assertEquals(GitTask.State.DONE, cloneTask.getState());
+        assertSame(repository, cloneTask.getResult());
+        assertTrue(this.gitHelper.exists(TEST_REPO_CLONED));
+
+        GitTask<UserCommitActivity[]> countTask =
+            service.countAuthorCommitsAsync(0, Arrays.asList(repository, repository));
+        UserCommitActivity[] activity = countTask.getFuture().get(30, TimeUnit.SECONDS);
+        assertEquals(1, activity.length);
+        assertEquals(2, activity[0].getCount());
+        assertEquals("Walking history", countTask.getStep());
+        assertEquals(2, countTask.getStepCompleted());
+        assertEquals(2, countTask.getStepTotal());
+        assertFalse(countTask.cancel());
+
+        GitTask<Repository> failingTask = service.getRepositoryAsync("/does/not/exist", "missing");
+        assertTrue(failingTask.getFuture().handle((result, error) -> error != null).get(30, TimeUnit.SECONDS));
+        assertEquals(GitTask.State.FAILED, failingTask.getState());
+        assertNotNull(failingTask.getError());
+    }
+
+    @Test
+    public void getDirectoryContributions() throws Exception
+    {
+        PersonIdent other = new PersonIdent("other author", "other@doe.com");
+        PersonIdent committer = new PersonIdent("test committer", "committer@doe.com");
+        this.gitHelper.add(this.testRepository, "core/api/A.java", "a", other, committer, "api");
+        this.gitHelper.add(this.testRepository, "core/impl/B.java", "b", other, committer, "impl");
+        this.gitHelper.add(this.testRepository, "core/pom.xml", "pom", other, committer, "pom");
+        this.gitHelper.add(this.testRepository, "docs/README.md", "docs", other, committer, "docs");
+        GitScriptService service = this.componentManager.getInstance(ScriptService.class, "git");
+        Repository repository = service.getRepository(this.testRepository.getAbsolutePath(), TEST_REPO_CLONED);
+
+        DirectoryContributions root = service.getDirectoryContributions(0, null, repository);
+        assertEquals(Arrays.asList("", "core", "docs"), root.getDirectories());
+        assertEquals(3, root.getCommitCount("other@doe.com", "core"));
+        assertEquals(1, root.getCommitCount("author@doe.com", ""));
+        assertEquals(0, root.getCommitCount("author@doe.com", "core"));
+
+        DirectoryContributions core = service.getDirectoryContributions(0, "core/", repository);
+        assertEquals("core", core.getPathPrefix());
+        assertEquals(Arrays.asList("", "api", "impl"), core.getDirectories());
+        assertEquals(1, core.getAuthors().size());
+        assertEquals(3, core.getAuthors().get(0).getCount());
+        assertEquals(1, core.getCommitCount("api"));
+        assertEquals(core.getCommitCounts("other@doe.com"),
+            service.getDirectoryContributions(0, "core", true, Arrays.asList(repository))
+                .getCommitCounts("other@doe.com"));
+    }
+
+    @Test
+    public void getAuthorChurn() throws Exception
+    {
+        PersonIdent other = new PersonIdent("other author", "other@doe.com");
+        this.gitHelper.add(this.testRepository, "other.txt", "one\ntwo\nthree\n", other, other, "other");
+        this.gitHelper.add(this.testRepository, "test.txt", "changed content\n", other, other, "change");
+        GitScriptService service = this.componentManager.getInstance(ScriptService.class, "git");
+        Repository repository = service.getRepository(this.testRepository.getAbsolutePath(), TEST_REPO_CLONED);
+
+        AuthorChurn[] churns = service.getAuthorChurn(0, repository);
+        assertEquals(2, churns.length);
+        assertEquals("other@doe.com", churns[0].getEmail());
+        assertEquals(2, churns[0].getCommitCount());
+        assertEquals(4, churns[0].getAddedLines());
+        assertEquals(1, churns[0].getRemovedLines());
+        assertEquals(1, churns[1].getAddedLines());
+        assertTrue(new File(repository.getDirectory(), "xwiki-churn.idx").exists());
+    }
+
+    @Test
+    public void blame() throws Exception
+    {
+        PersonIdent other = new PersonIdent("other author", "other@doe.com");
+        this.gitHelper.add(this.testRepository, "test.txt", "test content\nmore content\n", other, other, "more");
+        GitScriptService service = this.componentManager.getInstance(ScriptService.class, "git");
+        Repository repository = service.getRepository(this.testRepository.getAbsolutePath(), TEST_REPO_CLONED);
+
+        FileBlame blame = service.blame(repository, "test.txt");
+        assertEquals(2, blame.getLineCount());
+        // The first line has been modified too, since it didn't end with a new line.
+        assertEquals(1, blame.getCommits().size());
+        assertEquals("other@doe.com", blame.getCommit(1).getAuthorEmail());
+        assertEquals("more", blame.getCommit(1).getShortMessage());
+        FileBlame previousBlame = service.blame(repository, "HEAD~1", "test.txt");
+        assertEquals(1, previousBlame.getLineCount());
+        assertEquals("author@doe.com", previousBlame.getCommit(0).getAuthorEmail());
+        assertEquals(null, service.blame(repository, "missing.txt"));
+    }
 }